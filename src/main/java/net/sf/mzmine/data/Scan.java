@@ -126,6 +126,19 @@ public interface Scan {
 	@Nonnull
 	public DataPoint[] getDataPoints();
 
+	/**
+	 * Copies the m/z and intensity values of this scan, sorted in m/z order,
+	 * into the given arrays. No DataPoint instances are created, so this
+	 * method is preferable to getDataPoints() for modules which process every
+	 * scan of a file and can reuse the arrays from scan to scan.
+	 * 
+	 * Both arrays must have at least getNumberOfDataPoints() elements.
+	 * 
+	 * @return Number of data points copied into the arrays
+	 */
+	public int getDataPoints(@Nonnull double mzValues[],
+			@Nonnull double intensityValues[]);
+
 	/**
 	 * Returns data points in given m/z range, sorted in m/z order.
 	 * 
@@ -138,6 +151,17 @@ public interface Scan {
 	@Nonnull
 	public DataPoint[] getDataPointsByMass(@Nonnull Range mzRange);
 
+	/**
+	 * Copies the m/z and intensity values of data points in given m/z range,
+	 * sorted in m/z order, into the given arrays. No DataPoint instances are
+	 * created. Both arrays must have at least getNumberOfDataPoints()
+	 * elements.
+	 * 
+	 * @return Number of data points copied into the arrays
+	 */
+	public int getDataPointsByMass(@Nonnull Range mzRange,
+			@Nonnull double mzValues[], @Nonnull double intensityValues[]);
+
 	/**
 	 * Returns data points over given intensity, sorted in m/z order.
 	 * 
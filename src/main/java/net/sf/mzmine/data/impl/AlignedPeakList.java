@@ -0,0 +1,74 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.data.impl;
+
+import java.util.Hashtable;
+import java.util.Map;
+
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.RawDataFile;
+
+/**
+ * Peak list resulting from alignment or gap filling, where most rows have a
+ * peak in many raw data files. Each raw data file is assigned a column index,
+ * and AlignedPeakListRow stores the peaks of a row by column.
+ */
+public class AlignedPeakList extends SimplePeakList {
+
+	private final Hashtable<RawDataFile, Integer> columns;
+
+	public AlignedPeakList(String name, RawDataFile[] dataFiles) {
+		super(name, dataFiles);
+		columns = new Hashtable<RawDataFile, Integer>();
+		for (int i = 0; i < getNumberOfRawDataFiles(); i++)
+			columns.put(getRawDataFile(i), i);
+	}
+
+	/**
+	 * Returns the column index of given raw data file, or -1 if the file is
+	 * not in this peak list
+	 */
+	public int getColumn(RawDataFile dataFile) {
+		Integer column = columns.get(dataFile);
+		return (column == null) ? -1 : column;
+	}
+
+	Map<RawDataFile, Integer> getColumns() {
+		return columns;
+	}
+
+	@Override
+	public boolean hasRawDataFile(RawDataFile hasFile) {
+		return columns.containsKey(hasFile);
+	}
+
+	/**
+	 * Rows created for this peak list can only hold peaks of its data files,
+	 * so they are not checked again
+	 */
+	@Override
+	void checkRowFiles(PeakListRow row) {
+		if ((row instanceof AlignedPeakListRow)
+				&& ((AlignedPeakListRow) row).hasColumns(getRawDataFiles()))
+			return;
+		super.checkRowFiles(row);
+	}
+
+}
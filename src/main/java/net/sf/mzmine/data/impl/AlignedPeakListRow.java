@@ -0,0 +1,376 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.data.impl;
+
+import java.util.BitSet;
+import java.util.Map;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.IsotopePattern;
+import net.sf.mzmine.data.RawDataFile;
+
+/**
+ * Row of an AlignedPeakList. The m/z, RT, height and area of the peaks are
+ * kept in primitive arrays indexed by the column of their raw data file, and a
+ * bitmap marks the columns which have a peak. The average values are updated
+ * when a peak is added, without going through the other peaks of the row.
+ * 
+ * Peaks changing their values in place notify the row, which updates its
+ * arrays. The methods taking a column index read them without creating any
+ * arrays.
+ */
+public class AlignedPeakListRow extends SimplePeakListRow {
+
+	// Column layout shared with the peak list
+	private final RawDataFile dataFiles[];
+	private final Map<RawDataFile, Integer> columns;
+
+	private final ChromatographicPeak peaks[];
+	private final double mz[], rt[], height[], area[];
+	private final BitSet present;
+	private int numberOfPeaks = 0;
+
+	// Sums of the values of all peaks, and the average values. The averages
+	// are volatile, because they are read without locking the row: the peak
+	// list reads them while holding its own lock.
+	private double mzSum, rtSum, heightSum, areaSum;
+	private volatile double averageMZ, averageRT, averageHeight, averageArea;
+	private volatile double maxDataPointIntensity = 0;
+
+	/**
+	 * @param myID
+	 *            ID of the row
+	 * @param peakList
+	 *            peak list providing the columns of the row
+	 */
+	public AlignedPeakListRow(int myID, AlignedPeakList peakList) {
+		super(myID);
+		dataFiles = peakList.getRawDataFiles();
+		columns = peakList.getColumns();
+		peaks = new ChromatographicPeak[dataFiles.length];
+		mz = new double[dataFiles.length];
+		rt = new double[dataFiles.length];
+		height = new double[dataFiles.length];
+		area = new double[dataFiles.length];
+		present = new BitSet(dataFiles.length);
+	}
+
+	/**
+	 * Returns true if the row uses the columns of given data files
+	 */
+	boolean hasColumns(RawDataFile dataFiles[]) {
+		return this.dataFiles == dataFiles;
+	}
+
+	private int getColumn(RawDataFile rawData) {
+		Integer column = columns.get(rawData);
+		return (column == null) ? -1 : column;
+	}
+
+	public int getNumberOfColumns() {
+		return dataFiles.length;
+	}
+
+	public boolean hasPeak(int column) {
+		return present.get(column);
+	}
+
+	/**
+	 * Returns the peak in given column, or null
+	 */
+	public ChromatographicPeak getPeak(int column) {
+		return peaks[column];
+	}
+
+	/**
+	 * Returns the m/z of the peak in given column, or 0 if there is no peak
+	 */
+	public double getMZ(int column) {
+		return mz[column];
+	}
+
+	/**
+	 * Returns the RT of the peak in given column, or 0 if there is no peak
+	 */
+	public double getRT(int column) {
+		return rt[column];
+	}
+
+	/**
+	 * Returns the height of the peak in given column, or 0 if there is no peak
+	 */
+	public double getHeight(int column) {
+		return height[column];
+	}
+
+	/**
+	 * Returns the area of the peak in given column, or 0 if there is no peak
+	 */
+	public double getArea(int column) {
+		return area[column];
+	}
+
+	/**
+	 * Return peaks assigned to this row, in column order
+	 */
+	@Override
+	public synchronized ChromatographicPeak[] getPeaks() {
+		ChromatographicPeak rowPeaks[] = new ChromatographicPeak[numberOfPeaks];
+		int i = 0;
+		for (int column = present.nextSetBit(0); column >= 0; column = present
+				.nextSetBit(column + 1))
+			rowPeaks[i++] = peaks[column];
+		return rowPeaks;
+	}
+
+	/**
+	 * Returns raw data files with a peak on this row, in column order
+	 */
+	@Override
+	public synchronized RawDataFile[] getRawDataFiles() {
+		RawDataFile rowFiles[] = new RawDataFile[numberOfPeaks];
+		int i = 0;
+		for (int column = present.nextSetBit(0); column >= 0; column = present
+				.nextSetBit(column + 1))
+			rowFiles[i++] = dataFiles[column];
+		return rowFiles;
+	}
+
+	@Override
+	public ChromatographicPeak getPeak(RawDataFile rawData) {
+		int column = getColumn(rawData);
+		if (column < 0)
+			return null;
+		return peaks[column];
+	}
+
+	@Override
+	public synchronized void addPeak(RawDataFile rawData,
+			ChromatographicPeak peak) {
+
+		if (peak == null)
+			throw new IllegalArgumentException(
+					"Cannot add null peak to a peak list row");
+
+		int column = getColumn(rawData);
+		if (column < 0)
+			throw new IllegalArgumentException("Data file " + rawData
+					+ " is not in this peak list");
+
+		final boolean replaced = present.get(column);
+		if (replaced) {
+			mzSum -= mz[column];
+			rtSum -= rt[column];
+			heightSum -= height[column];
+			areaSum -= area[column];
+		} else {
+			present.set(column);
+			numberOfPeaks++;
+		}
+
+		if (peaks[column] != peak) {
+			peakRemoved(peaks[column]);
+			peakAdded(peak);
+		}
+		peaks[column] = peak;
+		mz[column] = peak.getMZ();
+		rt[column] = peak.getRT();
+		height[column] = peak.getHeight();
+		area[column] = peak.getArea();
+
+		mzSum += mz[column];
+		rtSum += rt[column];
+		heightSum += height[column];
+		areaSum += area[column];
+
+		// The replaced peak may have had the highest data point
+		if (replaced)
+			updateMaxDataPointIntensity();
+		else if (peak.getRawDataPointsIntensityRange().getMax() > maxDataPointIntensity)
+			maxDataPointIntensity = peak.getRawDataPointsIntensityRange()
+					.getMax();
+
+		updateAverageValues();
+		peaksChanged();
+
+	}
+
+	@Override
+	public synchronized void removePeak(RawDataFile file) {
+
+		int column = getColumn(file);
+		if ((column < 0) || !present.get(column))
+			return;
+
+		present.clear(column);
+		numberOfPeaks--;
+		peakRemoved(peaks[column]);
+		peaks[column] = null;
+		mz[column] = 0;
+		rt[column] = 0;
+		height[column] = 0;
+		area[column] = 0;
+
+		// Sum the remaining values again, so the rounding errors of repeated
+		// subtractions do not accumulate
+		mzSum = rtSum = heightSum = areaSum = 0;
+		for (int i = present.nextSetBit(0); i >= 0; i = present
+				.nextSetBit(i + 1)) {
+			mzSum += mz[i];
+			rtSum += rt[i];
+			heightSum += height[i];
+			areaSum += area[i];
+		}
+
+		// The removed peak may have had the highest data point
+		updateMaxDataPointIntensity();
+
+		updateAverageValues();
+		peaksChanged();
+
+	}
+
+	@Override
+	synchronized void peakChanged(ChromatographicPeak peak) {
+
+		for (int column = present.nextSetBit(0); column >= 0; column = present
+				.nextSetBit(column + 1)) {
+			if (peaks[column] != peak)
+				continue;
+
+			mzSum -= mz[column];
+			rtSum -= rt[column];
+			heightSum -= height[column];
+			areaSum -= area[column];
+
+			mz[column] = peak.getMZ();
+			rt[column] = peak.getRT();
+			height[column] = peak.getHeight();
+			area[column] = peak.getArea();
+
+			mzSum += mz[column];
+			rtSum += rt[column];
+			heightSum += height[column];
+			areaSum += area[column];
+		}
+
+		updateAverageValues();
+		peaksChanged();
+
+	}
+
+	private void updateMaxDataPointIntensity() {
+		double maxIntensity = 0;
+		for (int column = present.nextSetBit(0); column >= 0; column = present
+				.nextSetBit(column + 1))
+			maxIntensity = Math.max(maxIntensity, peaks[column]
+					.getRawDataPointsIntensityRange().getMax());
+		maxDataPointIntensity = maxIntensity;
+	}
+
+	private void updateAverageValues() {
+		averageMZ = mzSum / numberOfPeaks;
+		averageRT = rtSum / numberOfPeaks;
+		averageHeight = heightSum / numberOfPeaks;
+		averageArea = areaSum / numberOfPeaks;
+	}
+
+	@Override
+	public double getAverageMZ() {
+		return averageMZ;
+	}
+
+	@Override
+	public double getAverageRT() {
+		return averageRT;
+	}
+
+	@Override
+	public double getAverageHeight() {
+		return averageHeight;
+	}
+
+	@Override
+	public double getAverageArea() {
+		return averageArea;
+	}
+
+	@Override
+	public int getNumberOfPeaks() {
+		return numberOfPeaks;
+	}
+
+	@Override
+	public double getDataPointMaxIntensity() {
+		return maxDataPointIntensity;
+	}
+
+	@Override
+	public synchronized boolean hasPeak(ChromatographicPeak peak) {
+		for (int column = present.nextSetBit(0); column >= 0; column = present
+				.nextSetBit(column + 1)) {
+			if (peaks[column].equals(peak))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasPeak(RawDataFile file) {
+		int column = getColumn(file);
+		return (column >= 0) && present.get(column);
+	}
+
+	/**
+	 * Returns the highest isotope pattern of a peak in this row
+	 */
+	@Override
+	public synchronized IsotopePattern getBestIsotopePattern() {
+		IsotopePattern bestPattern = null;
+		double bestHeight = 0;
+		for (int column = present.nextSetBit(0); column >= 0; column = present
+				.nextSetBit(column + 1)) {
+			IsotopePattern ip = peaks[column].getIsotopePattern();
+			if ((ip != null)
+					&& ((bestPattern == null) || (height[column] > bestHeight))) {
+				bestPattern = ip;
+				bestHeight = height[column];
+			}
+		}
+		return bestPattern;
+	}
+
+	/**
+	 * Returns the highest peak in this row, or null if the row has no peaks
+	 */
+	@Override
+	public synchronized ChromatographicPeak getBestPeak() {
+		int bestColumn = -1;
+		for (int column = present.nextSetBit(0); column >= 0; column = present
+				.nextSetBit(column + 1)) {
+			if ((bestColumn < 0) || (height[column] > height[bestColumn]))
+				bestColumn = column;
+		}
+		if (bestColumn < 0)
+			return null;
+		return peaks[bestColumn];
+	}
+
+}
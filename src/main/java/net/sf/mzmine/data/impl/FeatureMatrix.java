@@ -0,0 +1,289 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.data.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.PeakList;
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.util.PeakMeasurementType;
+
+/**
+ * Peak heights and areas of a peak list, stored in one column per raw data
+ * file. Missing peaks have a value of 0 and are marked in a mask.
+ * 
+ * The matrix is a snapshot of the peak list. SimplePeakList caches its matrix
+ * and discards it whenever a row is added, removed or changes its peaks, so
+ * getFeatureMatrix() always returns an up-to-date matrix.
+ */
+public class FeatureMatrix {
+
+	// Number of rows read by one job when building the matrix in parallel
+	private static final int ROWS_PER_JOB = 1000;
+
+	private final PeakListRow rows[];
+	private final RawDataFile dataFiles[];
+
+	private final Map<PeakListRow, Integer> rowIndexes;
+	private final Map<RawDataFile, Integer> fileIndexes;
+
+	// Values are indexed [file][row]
+	private final double heights[][], areas[][];
+	private final boolean present[][];
+
+	/**
+	 * Returns the feature matrix of the given peak list. The matrix of a
+	 * SimplePeakList is cached until its rows change.
+	 */
+	public static FeatureMatrix getFeatureMatrix(PeakList peakList) {
+		if (peakList instanceof SimplePeakList)
+			return ((SimplePeakList) peakList).getFeatureMatrix();
+		return new FeatureMatrix(peakList.getRows(),
+				peakList.getRawDataFiles());
+	}
+
+	FeatureMatrix(PeakListRow rows[], RawDataFile dataFiles[]) {
+
+		this.rows = rows;
+		this.dataFiles = dataFiles;
+
+		rowIndexes = new HashMap<PeakListRow, Integer>();
+		for (int i = 0; i < rows.length; i++)
+			rowIndexes.put(rows[i], i);
+		fileIndexes = new HashMap<RawDataFile, Integer>();
+		for (int i = 0; i < dataFiles.length; i++)
+			fileIndexes.put(dataFiles[i], i);
+
+		heights = new double[dataFiles.length][rows.length];
+		areas = new double[dataFiles.length][rows.length];
+		present = new boolean[dataFiles.length][rows.length];
+
+		int numOfThreads = 1;
+		if (MZmineCore.getConfiguration() != null)
+			numOfThreads = MZmineCore.getConfiguration().getPreferences()
+					.getParameter(MZminePreferences.numOfThreads)
+					.getNumOfThreads();
+
+		if ((numOfThreads <= 1) || (rows.length <= ROWS_PER_JOB)) {
+			readRows(0, rows.length);
+			return;
+		}
+
+		// Each job fills its own range of rows in all columns
+		ExecutorService executor = MZmineCore.getParallelExecutor();
+		List<Future<?>> jobs = new ArrayList<Future<?>>();
+		try {
+			for (int first = 0; first < rows.length; first += ROWS_PER_JOB) {
+				final int start = first;
+				final int end = Math.min(first + ROWS_PER_JOB, rows.length);
+				jobs.add(executor.submit(new Runnable() {
+					public void run() {
+						readRows(start, end);
+					}
+				}));
+			}
+			for (Future<?> job : jobs)
+				job.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while building the feature matrix", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		} finally {
+			for (Future<?> job : jobs)
+				job.cancel(false);
+		}
+
+	}
+
+	private void readRows(int start, int end) {
+		for (int row = start; row < end; row++) {
+
+			// Rows of an aligned peak list have their values in columns
+			if ((rows[row] instanceof AlignedPeakListRow)
+					&& ((AlignedPeakListRow) rows[row]).hasColumns(dataFiles)) {
+				readColumns((AlignedPeakListRow) rows[row], row);
+				continue;
+			}
+
+			for (int file = 0; file < dataFiles.length; file++) {
+				ChromatographicPeak peak = rows[row].getPeak(dataFiles[file]);
+				if (peak == null)
+					continue;
+				heights[file][row] = peak.getHeight();
+				areas[file][row] = peak.getArea();
+				present[file][row] = true;
+			}
+		}
+	}
+
+	private void readColumns(AlignedPeakListRow alignedRow, int row) {
+		for (int file = 0; file < dataFiles.length; file++) {
+			if (!alignedRow.hasPeak(file))
+				continue;
+			heights[file][row] = alignedRow.getHeight(file);
+			areas[file][row] = alignedRow.getArea(file);
+			present[file][row] = true;
+		}
+	}
+
+	/**
+	 * Returns the rows of the matrix, in peak list order
+	 */
+	public PeakListRow[] getRows() {
+		return rows.clone();
+	}
+
+	/**
+	 * Returns the raw data files of the matrix, in peak list order
+	 */
+	public RawDataFile[] getRawDataFiles() {
+		return dataFiles.clone();
+	}
+
+	public int getNumberOfRows() {
+		return rows.length;
+	}
+
+	public int getNumberOfRawDataFiles() {
+		return dataFiles.length;
+	}
+
+	/**
+	 * Returns the index of the given row, or -1 if the row is not in the matrix
+	 */
+	public int getRowIndex(PeakListRow row) {
+		Integer index = rowIndexes.get(row);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * Returns the index of the given file, or -1 if the file is not in the
+	 * matrix
+	 */
+	public int getFileIndex(RawDataFile dataFile) {
+		Integer index = fileIndexes.get(dataFile);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * Returns true if the row has a peak in the given file
+	 */
+	public boolean isPresent(int file, int row) {
+		return present[file][row];
+	}
+
+	/**
+	 * Returns the height or area of the peak, or 0 if the row has no peak in
+	 * the given file
+	 */
+	public double getValue(PeakMeasurementType type, int file, int row) {
+		return getColumns(type)[file][row];
+	}
+
+	/**
+	 * Returns a new matrix of heights or areas of the given rows, indexed
+	 * [file][row]. Missing peaks have a value of 0.
+	 */
+	public double[][] getValues(PeakMeasurementType type,
+			RawDataFile selectedFiles[],
+			PeakListRow selectedRows[]) {
+		double columns[][] = getColumns(type);
+		int rowIndexes[] = getRowIndexes(selectedRows);
+		double result[][] = new double[selectedFiles.length][selectedRows.length];
+		for (int i = 0; i < selectedFiles.length; i++) {
+			int file = getFileIndex(selectedFiles[i]);
+			if (file < 0)
+				continue;
+			for (int j = 0; j < rowIndexes.length; j++) {
+				if (rowIndexes[j] >= 0)
+					result[i][j] = columns[file][rowIndexes[j]];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new matrix of heights or areas of the given rows, indexed
+	 * [row][file]. Missing peaks have a value of 0.
+	 */
+	public double[][] getTransposedValues(PeakMeasurementType type,
+			RawDataFile selectedFiles[],
+			PeakListRow selectedRows[]) {
+		double columns[][] = getColumns(type);
+		int rowIndexes[] = getRowIndexes(selectedRows);
+		double result[][] = new double[selectedRows.length][selectedFiles.length];
+		for (int i = 0; i < selectedFiles.length; i++) {
+			int file = getFileIndex(selectedFiles[i]);
+			if (file < 0)
+				continue;
+			for (int j = 0; j < rowIndexes.length; j++) {
+				if (rowIndexes[j] >= 0)
+					result[j][i] = columns[file][rowIndexes[j]];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the present values of one row in the given files, in the order
+	 * of the files
+	 */
+	public double[] getPresentValues(PeakMeasurementType type, int row,
+			RawDataFile selectedFiles[]) {
+		double columns[][] = getColumns(type);
+		double values[] = new double[selectedFiles.length];
+		int count = 0;
+		for (RawDataFile dataFile : selectedFiles) {
+			int file = getFileIndex(dataFile);
+			if ((file >= 0) && present[file][row])
+				values[count++] = columns[file][row];
+		}
+		double result[] = new double[count];
+		System.arraycopy(values, 0, result, 0, count);
+		return result;
+	}
+
+	private double[][] getColumns(PeakMeasurementType type) {
+		return (type == PeakMeasurementType.AREA) ? areas : heights;
+	}
+
+	private int[] getRowIndexes(PeakListRow selectedRows[]) {
+		int indexes[] = new int[selectedRows.length];
+		for (int i = 0; i < selectedRows.length; i++)
+			indexes[i] = getRowIndex(selectedRows[i]);
+		return indexes;
+	}
+
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.data.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Index of peak list rows for RT and m/z range queries. The rows are kept in
+ * two arrays, sorted by average m/z and by average RT. A query searches both
+ * arrays for its bounds and then scans the one with fewer candidates. Results
+ * keep the order of the rows in the peak list.
+ * 
+ * Rows added to or removed from the peak list are applied to the index
+ * without sorting it again: removed rows are skipped, and added rows, which
+ * are at the end of the peak list, are searched linearly after the sorted
+ * rows. Once there are too many of them, addRow() and removeRow() return
+ * false and SimplePeakList builds a new index. SimplePeakList also discards
+ * the index when a row changes its average values.
+ * 
+ * Queries only take a read lock, so several threads may search the index at
+ * the same time.
+ */
+class PeakListRowIndex {
+
+	// Minimum number of added and removed rows allowed before the index is
+	// built again. Above it, the limit is the square root of the number of
+	// sorted rows, which balances the linear search of the added rows
+	// against sorting all rows again.
+	private static final int MIN_CHANGED_ROWS = 64;
+
+	// Sorted rows, in their peak list order
+	private final PeakListRow sortedRows[];
+	private final SortedEntries rows;
+
+	// Changes since the rows were sorted
+	private final boolean removed[];
+	private final List<PeakListRow> addedRows = new ArrayList<PeakListRow>();
+	private int numOfRemoved = 0;
+	private final int maxChangedRows;
+
+	// Peaks of each raw data file, indexed on first use
+	private final ConcurrentHashMap<RawDataFile, FilePeaks> peaks = new ConcurrentHashMap<RawDataFile, FilePeaks>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	PeakListRowIndex(List<PeakListRow> peakListRows) {
+		sortedRows = peakListRows.toArray(new PeakListRow[0]);
+		int numOfRows = sortedRows.length;
+		double mzValues[] = new double[numOfRows];
+		double rtValues[] = new double[numOfRows];
+		for (int i = 0; i < numOfRows; i++) {
+			mzValues[i] = sortedRows[i].getAverageMZ();
+			rtValues[i] = sortedRows[i].getAverageRT();
+		}
+		rows = new SortedEntries(mzValues, rtValues);
+		removed = new boolean[numOfRows];
+		maxChangedRows = Math.max(MIN_CHANGED_ROWS,
+				(int) Math.sqrt(numOfRows));
+	}
+
+	/**
+	 * Adds a row appended to the peak list. Returns false if the index should
+	 * be built again.
+	 */
+	boolean addRow(PeakListRow row) {
+		lock.writeLock().lock();
+		try {
+			addedRows.add(row);
+			return addedRows.size() + numOfRemoved <= maxChangedRows;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a row removed from the peak list. Returns false if the index
+	 * should be built again.
+	 */
+	boolean removeRow(PeakListRow row) {
+		lock.writeLock().lock();
+		try {
+			if (!addedRows.remove(row)) {
+				int position = indexOf(sortedRows, row);
+				if ((position < 0) || removed[position])
+					return false;
+				removed[position] = true;
+				numOfRemoved++;
+			}
+			return addedRows.size() + numOfRemoved <= maxChangedRows;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	PeakListRow[] getRowsInsideScanAndMZRange(Range rtRange, Range mzRange) {
+		lock.readLock().lock();
+		try {
+			int positions[] = rows.query(rtRange, mzRange);
+			List<PeakListRow> result = new ArrayList<PeakListRow>(
+					positions.length);
+			for (int position : positions) {
+				if (!removed[position])
+					result.add(sortedRows[position]);
+			}
+			for (PeakListRow row : addedRows) {
+				if (rtRange.contains(row.getAverageRT())
+						&& mzRange.contains(row.getAverageMZ()))
+					result.add(row);
+			}
+			return result.toArray(new PeakListRow[0]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	ChromatographicPeak[] getPeaksInsideScanAndMZRange(RawDataFile file,
+			Range rtRange, Range mzRange) {
+		lock.readLock().lock();
+		try {
+			// Threads may build the same peaks concurrently, the first one is
+			// kept
+			FilePeaks filePeaks = peaks.get(file);
+			if (filePeaks == null) {
+				peaks.putIfAbsent(file, new FilePeaks(sortedRows, file));
+				filePeaks = peaks.get(file);
+			}
+
+			int positions[] = filePeaks.entries.query(rtRange, mzRange);
+			List<ChromatographicPeak> result = new ArrayList<ChromatographicPeak>(
+					positions.length);
+			for (int position : positions) {
+				if (!removed[filePeaks.rowPositions[position]])
+					result.add(filePeaks.peaks[position]);
+			}
+			for (PeakListRow row : addedRows) {
+				ChromatographicPeak peak = row.getPeak(file);
+				if ((peak != null) && rtRange.contains(peak.getRT())
+						&& mzRange.contains(peak.getMZ()))
+					result.add(peak);
+			}
+			return result.toArray(new ChromatographicPeak[0]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static int indexOf(PeakListRow rows[], PeakListRow row) {
+		for (int i = 0; i < rows.length; i++) {
+			if (rows[i] == row)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Peaks of one raw data file in the sorted rows, with the positions of
+	 * their rows
+	 */
+	private static class FilePeaks {
+
+		private final ChromatographicPeak peaks[];
+		private final int rowPositions[];
+		private final SortedEntries entries;
+
+		FilePeaks(PeakListRow rows[], RawDataFile file) {
+			List<ChromatographicPeak> peakList = new ArrayList<ChromatographicPeak>();
+			int positions[] = new int[rows.length];
+			for (int i = 0; i < rows.length; i++) {
+				ChromatographicPeak peak = rows[i].getPeak(file);
+				if (peak != null) {
+					positions[peakList.size()] = i;
+					peakList.add(peak);
+				}
+			}
+			int numOfPeaks = peakList.size();
+			peaks = peakList.toArray(new ChromatographicPeak[0]);
+			rowPositions = Arrays.copyOf(positions, numOfPeaks);
+			double mzValues[] = new double[numOfPeaks];
+			double rtValues[] = new double[numOfPeaks];
+			for (int i = 0; i < numOfPeaks; i++) {
+				mzValues[i] = peaks[i].getMZ();
+				rtValues[i] = peaks[i].getRT();
+			}
+			entries = new SortedEntries(mzValues, rtValues);
+		}
+	}
+
+	/**
+	 * m/z and RT values of items (in peak list order), sorted by each of them
+	 */
+	private static class SortedEntries {
+
+		private final double mzValues[], rtValues[];
+
+		// Item positions sorted by m/z and RT, and the sorted values
+		private final int byMZ[], byRT[];
+		private final double sortedMZ[], sortedRT[];
+
+		SortedEntries(double mzValues[], double rtValues[]) {
+			this.mzValues = mzValues;
+			this.rtValues = rtValues;
+			byMZ = sort(mzValues);
+			byRT = sort(rtValues);
+			sortedMZ = new double[mzValues.length];
+			sortedRT = new double[rtValues.length];
+			for (int i = 0; i < mzValues.length; i++) {
+				sortedMZ[i] = mzValues[byMZ[i]];
+				sortedRT[i] = rtValues[byRT[i]];
+			}
+		}
+
+		/**
+		 * Returns the positions of the items inside both ranges, in peak list
+		 * order
+		 */
+		int[] query(Range rtRange, Range mzRange) {
+
+			int mzStart = lowerBound(sortedMZ, mzRange.getMin());
+			int mzEnd = upperBound(sortedMZ, mzRange.getMax());
+			int rtStart = lowerBound(sortedRT, rtRange.getMin());
+			int rtEnd = upperBound(sortedRT, rtRange.getMax());
+
+			// Scan the dimension with fewer candidates
+			int candidates[];
+			int start, end;
+			if (mzEnd - mzStart <= rtEnd - rtStart) {
+				candidates = byMZ;
+				start = mzStart;
+				end = mzEnd;
+			} else {
+				candidates = byRT;
+				start = rtStart;
+				end = rtEnd;
+			}
+
+			int found[] = new int[Math.max(0, end - start)];
+			int numFound = 0;
+			for (int i = start; i < end; i++) {
+				int position = candidates[i];
+				if (rtRange.contains(rtValues[position])
+						&& mzRange.contains(mzValues[position]))
+					found[numFound++] = position;
+			}
+
+			found = Arrays.copyOf(found, numFound);
+			Arrays.sort(found);
+			return found;
+		}
+
+		/**
+		 * Returns the item positions sorted by their values. Equal values
+		 * keep the order of the items.
+		 */
+		private static int[] sort(double values[]) {
+			int positions[] = new int[values.length];
+			for (int i = 0; i < values.length; i++)
+				positions[i] = i;
+			mergeSort(positions, new int[values.length], values, 0,
+					values.length);
+			return positions;
+		}
+
+		/**
+		 * Sorts positions[from..to) by their values, on primitive arrays so
+		 * that the positions are not boxed
+		 */
+		private static void mergeSort(int positions[], int buffer[],
+				double values[], int from, int to) {
+
+			if (to - from < 2)
+				return;
+
+			int middle = (from + to) >>> 1;
+			mergeSort(positions, buffer, values, from, middle);
+			mergeSort(positions, buffer, values, middle, to);
+			if (Double.compare(values[positions[middle - 1]],
+					values[positions[middle]]) <= 0)
+				return;
+
+			System.arraycopy(positions, from, buffer, from, to - from);
+			int left = from, right = middle;
+			for (int i = from; i < to; i++) {
+				if ((right >= to)
+						|| ((left < middle) && (Double.compare(
+								values[buffer[left]], values[buffer[right]]) <= 0)))
+					positions[i] = buffer[left++];
+				else
+					positions[i] = buffer[right++];
+			}
+
+		}
+
+		/**
+		 * Index of the first value not less than the given value
+		 */
+		private static int lowerBound(double sortedValues[], double value) {
+			int low = 0, high = sortedValues.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (sortedValues[middle] < value)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+
+		/**
+		 * Index of the first value greater than the given value
+		 */
+		private static int upperBound(double sortedValues[], double value) {
+			int low = 0, high = sortedValues.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (sortedValues[middle] <= value)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+	}
+
+}
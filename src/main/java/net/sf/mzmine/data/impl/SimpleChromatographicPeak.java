@@ -20,6 +20,9 @@
 package net.sf.mzmine.data.impl;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import javax.annotation.Nonnull;
 
@@ -61,6 +64,10 @@ public class SimpleChromatographicPeak implements ChromatographicPeak {
 	private IsotopePattern isotopePattern;
 	private int charge = 0;
 
+	// Rows containing this peak, which are notified when its values are
+	// changed in place. Created when the peak is first added to a row.
+	private Set<SimplePeakListRow> rows;
+
 	/**
 	 * Initializes a new peak using given values
 	 * 
@@ -141,10 +148,12 @@ public class SimpleChromatographicPeak implements ChromatographicPeak {
 
 	public void setMZ(double mz) {
 		this.mz = mz;
+		valuesChanged();
 	}
 
 	public void setRT(double rt) {
 		this.rt = rt;
+		valuesChanged();
 	}
 
 	/**
@@ -167,6 +176,7 @@ public class SimpleChromatographicPeak implements ChromatographicPeak {
 	 */
 	public void setHeight(double height) {
 		this.height = height;
+		valuesChanged();
 	}
 
 	/**
@@ -182,6 +192,7 @@ public class SimpleChromatographicPeak implements ChromatographicPeak {
 	 */
 	public void setArea(double area) {
 		this.area = area;
+		valuesChanged();
 	}
 
 	/**
@@ -216,6 +227,7 @@ public class SimpleChromatographicPeak implements ChromatographicPeak {
 	 */
 	public void setDataFile(RawDataFile dataFile) {
 		this.dataFile = dataFile;
+		valuesChanged();
 	}
 
 	/**
@@ -267,6 +279,7 @@ public class SimpleChromatographicPeak implements ChromatographicPeak {
 
 	public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
 		this.isotopePattern = isotopePattern;
+		valuesChanged();
 	}
 
 	public int getCharge() {
@@ -275,6 +288,35 @@ public class SimpleChromatographicPeak implements ChromatographicPeak {
 
 	public void setCharge(int charge) {
 		this.charge = charge;
+		valuesChanged();
+	}
+
+	synchronized void addRow(SimplePeakListRow row) {
+		if (rows == null)
+			rows = Collections
+					.newSetFromMap(new WeakHashMap<SimplePeakListRow, Boolean>());
+		rows.add(row);
+	}
+
+	synchronized void removeRow(SimplePeakListRow row) {
+		if (rows != null)
+			rows.remove(row);
+	}
+
+	/**
+	 * Notifies the rows containing this peak that its values changed. The rows
+	 * are notified without holding the lock of this peak, because the rows
+	 * lock themselves before adding or removing a peak.
+	 */
+	private void valuesChanged() {
+		SimplePeakListRow rowsToNotify[];
+		synchronized (this) {
+			if (rows == null)
+				return;
+			rowsToNotify = rows.toArray(new SimplePeakListRow[0]);
+		}
+		for (SimplePeakListRow row : rowsToNotify)
+			row.peakChanged(this);
 	}
 
 }
@@ -19,9 +19,12 @@
 
 package net.sf.mzmine.data.impl;
 
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import javax.annotation.Nonnull;
 
@@ -34,6 +37,10 @@ public class SimplePeakIdentity implements PeakIdentity {
 
 	private Hashtable<String, String> properties;
 
+	// Rows containing this identity, which are notified when its properties
+	// are changed in place
+	private Set<SimplePeakListRow> rows;
+
 	/**
 	 * This constructor is protected so only derived classes can use it. Other
 	 * modules using this class should always set the name by default.
@@ -150,6 +157,34 @@ public class SimplePeakIdentity implements PeakIdentity {
 		}
 
 		properties.put(property, value);
+		propertiesChanged();
+	}
+
+	synchronized void addRow(SimplePeakListRow row) {
+		if (rows == null)
+			rows = Collections
+					.newSetFromMap(new WeakHashMap<SimplePeakListRow, Boolean>());
+		rows.add(row);
+	}
+
+	synchronized void removeRow(SimplePeakListRow row) {
+		if (rows != null)
+			rows.remove(row);
+	}
+
+	/**
+	 * Notifies the rows containing this identity that its properties changed,
+	 * without holding the lock of this identity
+	 */
+	private void propertiesChanged() {
+		SimplePeakListRow rowsToNotify[];
+		synchronized (this) {
+			if (rows == null)
+				return;
+			rowsToNotify = rows.toArray(new SimplePeakListRow[0]);
+		}
+		for (SimplePeakListRow row : rowsToNotify)
+			row.identityChanged(this);
 	}
 
 	/**
@@ -50,9 +50,27 @@ public class SimplePeakList implements PeakList {
 	private String dateCreated;
 	private Range mzRange, rtRange;
 
+	// Index for range queries, built on demand, updated when rows are added
+	// or removed and discarded when the peaks of a row change
+	private PeakListRowIndex rowIndex;
+
+	// Feature matrix, built on demand and discarded when the rows change. The
+	// version counts the row changes, so that a matrix built concurrently
+	// with a change is not cached.
+	private FeatureMatrix featureMatrix;
+	private int rowsVersion;
+
 	public static DateFormat dateFormat = new SimpleDateFormat(
 			"yyyy/MM/dd HH:mm:ss");
 
+	// Entry of this peak list in the project file it was last saved to or
+	// loaded from, and whether the peak list changed since then. Unchanged
+	// peak lists are copied from the previous project file when the project
+	// is saved. Peaks and identities changed in place notify their rows,
+	// which notify the peak list.
+	private String projectEntryName;
+	private volatile boolean modified = true;
+
 	public SimplePeakList(String name, RawDataFile dataFile) {
 		this(name, new RawDataFile[]{dataFile});
 	}
@@ -73,7 +91,10 @@ public class SimplePeakList implements PeakList {
 		peakListRows = new ArrayList<PeakListRow>();
 		descriptionOfAppliedTasks = new Vector<PeakListAppliedMethod>();
 
-		dateCreated = dateFormat.format(new Date());
+		// Peak lists may be created in parallel, e.g. when loading a project
+		synchronized (dateFormat) {
+			dateCreated = dateFormat.format(new Date());
+		}
 
 	}
 
@@ -161,25 +182,15 @@ public class SimplePeakList implements PeakList {
 
 	public PeakListRow[] getRowsInsideScanAndMZRange(Range rtRange,
 			Range mzRange) {
-		Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
-
-		for (PeakListRow row : peakListRows) {
-			if (rtRange.contains(row.getAverageRT())
-					&& mzRange.contains(row.getAverageMZ()))
-				rowsInside.add(row);
-		}
-
-		return rowsInside.toArray(new PeakListRow[0]);
+		return getRowIndex().getRowsInsideScanAndMZRange(rtRange, mzRange);
 	}
 
 	public void addRow(PeakListRow row) {
-		List<RawDataFile> myFiles = Arrays.asList(this.getRawDataFiles());
-		for (RawDataFile testFile : row.getRawDataFiles()) {
-			if (!myFiles.contains(testFile))
-				throw (new IllegalArgumentException("Data file " + testFile
-						+ " is not in this peak list"));
-		}
+		checkRowFiles(row);
 		peakListRows.add(row);
+		if (row instanceof SimplePeakListRow)
+			((SimplePeakListRow) row).addPeakList(this);
+		rowAdded(row);
 		if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
 			maxDataPointIntensity = row.getDataPointMaxIntensity();
 		}
@@ -193,6 +204,19 @@ public class SimplePeakList implements PeakList {
 		}
 	}
 
+	/**
+	 * Verifies that all peaks of a row belong to the data files of this peak
+	 * list
+	 */
+	void checkRowFiles(PeakListRow row) {
+		List<RawDataFile> myFiles = Arrays.asList(this.getRawDataFiles());
+		for (RawDataFile testFile : row.getRawDataFiles()) {
+			if (!myFiles.contains(testFile))
+				throw (new IllegalArgumentException("Data file " + testFile
+						+ " is not in this peak list"));
+		}
+	}
+
 	/**
 	 * Returns all peaks overlapping with a retention time range
 	 * 
@@ -223,15 +247,75 @@ public class SimplePeakList implements PeakList {
 	 */
 	public ChromatographicPeak[] getPeaksInsideScanAndMZRange(RawDataFile file,
 			Range rtRange, Range mzRange) {
-		Vector<ChromatographicPeak> peaksInside = new Vector<ChromatographicPeak>();
+		return getRowIndex().getPeaksInsideScanAndMZRange(file, rtRange,
+				mzRange);
+	}
+
+	/**
+	 * Returns the range query index, building it if the rows have changed
+	 */
+	private synchronized PeakListRowIndex getRowIndex() {
+		if (rowIndex == null)
+			rowIndex = new PeakListRowIndex(peakListRows);
+		return rowIndex;
+	}
+
+	/**
+	 * Discards the range query index and the feature matrix, called when the
+	 * peaks of a row change
+	 */
+	synchronized void rowChanged() {
+		rowIndex = null;
+		featureMatrix = null;
+		rowsVersion++;
+		modified = true;
+	}
+
+	/**
+	 * Adds the row to the range query index and discards the feature matrix
+	 */
+	private synchronized void rowAdded(PeakListRow row) {
+		if ((rowIndex != null) && !rowIndex.addRow(row))
+			rowIndex = null;
+		featureMatrix = null;
+		rowsVersion++;
+		modified = true;
+	}
 
-		ChromatographicPeak[] peaks = getPeaks(file);
-		for (ChromatographicPeak p : peaks) {
-			if (rtRange.contains(p.getRT()) && mzRange.contains(p.getMZ()))
-				peaksInside.add(p);
+	/**
+	 * Removes the row from the range query index and discards the feature
+	 * matrix
+	 */
+	private synchronized void rowRemoved(PeakListRow row) {
+		if ((rowIndex != null) && !rowIndex.removeRow(row))
+			rowIndex = null;
+		featureMatrix = null;
+		rowsVersion++;
+		modified = true;
+	}
+
+	/**
+	 * Returns the heights and areas of all rows, building the matrix if the
+	 * rows have changed since it was last built
+	 */
+	public FeatureMatrix getFeatureMatrix() {
+		PeakListRow rows[];
+		int version;
+		synchronized (this) {
+			if (featureMatrix != null)
+				return featureMatrix;
+			rows = peakListRows.toArray(new PeakListRow[0]);
+			version = rowsVersion;
 		}
 
-		return peaksInside.toArray(new ChromatographicPeak[0]);
+		// Build outside of the lock, the rows may be read by several threads
+		FeatureMatrix matrix = new FeatureMatrix(rows, dataFiles);
+
+		synchronized (this) {
+			if (version == rowsVersion)
+				featureMatrix = matrix;
+		}
+		return matrix;
 	}
 
 	/**
@@ -239,6 +323,9 @@ public class SimplePeakList implements PeakList {
 	 */
 	public void removeRow(PeakListRow row) {
 		peakListRows.remove(row);
+		if (row instanceof SimplePeakListRow)
+			((SimplePeakListRow) row).removePeakList(this);
+		rowRemoved(row);
 
 		// We have to update the project tree model
 		MZmineProjectImpl project = (MZmineProjectImpl) MZmineCore
@@ -313,10 +400,12 @@ public class SimplePeakList implements PeakList {
 
 	public void setName(String name) {
 		this.name = name;
+		modified = true;
 	}
 
 	public void addDescriptionOfAppliedTask(PeakListAppliedMethod appliedMethod) {
 		descriptionOfAppliedTasks.add(appliedMethod);
+		modified = true;
 	}
 
 	public PeakListAppliedMethod[] getAppliedMethods() {
@@ -329,6 +418,27 @@ public class SimplePeakList implements PeakList {
 
 	public void setDateCreated(String date) {
 		this.dateCreated = date;
+		modified = true;
+	}
+
+	public String getProjectEntryName() {
+		return projectEntryName;
+	}
+
+	public void setProjectEntryName(String projectEntryName) {
+		this.projectEntryName = projectEntryName;
+	}
+
+	/**
+	 * Returns true if the peak list or its rows changed since it was last
+	 * saved to or loaded from a project
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	public void setModified(boolean modified) {
+		this.modified = modified;
 	}
 
 	public Range getRowsMZRange() {
@@ -21,9 +21,12 @@ package net.sf.mzmine.data.impl;
 
 import java.text.Format;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Set;
 import java.util.Vector;
+import java.util.WeakHashMap;
 
 import net.sf.mzmine.data.ChromatographicPeak;
 import net.sf.mzmine.data.IsotopePattern;
@@ -53,6 +56,13 @@ public class SimplePeakListRow implements PeakListRow {
 	 */
 	private double averageRT, averageMZ, averageHeight, averageArea;
 
+	/**
+	 * Peak lists containing this row, which are notified when the average
+	 * values change
+	 */
+	private final Set<SimplePeakList> peakLists = Collections
+			.newSetFromMap(new WeakHashMap<SimplePeakList, Boolean>());
+
 	public SimplePeakListRow(int myID) {
 		this.myID = myID;
 		peaks = new Hashtable<RawDataFile, ChromatographicPeak>();
@@ -74,7 +84,7 @@ public class SimplePeakListRow implements PeakListRow {
 	}
 
 	public void removePeak(RawDataFile file) {
-		this.peaks.remove(file);
+		peakRemoved(this.peaks.remove(file));
 		calculateAverageValues();
 	}
 
@@ -99,7 +109,11 @@ public class SimplePeakListRow implements PeakListRow {
 			throw new IllegalArgumentException(
 					"Cannot add null peak to a peak list row");
 
-		peaks.put(rawData, peak);
+		ChromatographicPeak oldPeak = peaks.put(rawData, peak);
+		if (oldPeak != peak) {
+			peakRemoved(oldPeak);
+			peakAdded(peak);
+		}
 		if (peak.getRawDataPointsIntensityRange().getMax() > maxDataPointIntensity)
 			maxDataPointIntensity = peak.getRawDataPointsIntensityRange()
 					.getMax();
@@ -137,6 +151,72 @@ public class SimplePeakListRow implements PeakListRow {
 		averageMZ = mzSum / peaks.size();
 		averageHeight = heightSum / peaks.size();
 		averageArea = areaSum / peaks.size();
+
+		peaksChanged();
+	}
+
+	/**
+	 * Notifies the peak lists containing this row that its peaks changed
+	 */
+	synchronized void peaksChanged() {
+		for (SimplePeakList peakList : peakLists)
+			peakList.rowChanged();
+	}
+
+	/**
+	 * Called by a peak of this row when its values were changed in place
+	 */
+	synchronized void peakChanged(ChromatographicPeak peak) {
+		calculateAverageValues();
+	}
+
+	/**
+	 * Called by an identity of this row when its properties were changed in
+	 * place
+	 */
+	void identityChanged(PeakIdentity identity) {
+		setPeakListsModified();
+	}
+
+	/**
+	 * Registers this row with a peak added to it, so the peak notifies the row
+	 * when its values are changed in place
+	 */
+	void peakAdded(ChromatographicPeak peak) {
+		if (peak instanceof SimpleChromatographicPeak)
+			((SimpleChromatographicPeak) peak).addRow(this);
+	}
+
+	void peakRemoved(ChromatographicPeak peak) {
+		if (peak instanceof SimpleChromatographicPeak)
+			((SimpleChromatographicPeak) peak).removeRow(this);
+	}
+
+	private void identityAdded(PeakIdentity identity) {
+		if (identity instanceof SimplePeakIdentity)
+			((SimplePeakIdentity) identity).addRow(this);
+	}
+
+	private void identityRemoved(PeakIdentity identity) {
+		if (identity instanceof SimplePeakIdentity)
+			((SimplePeakIdentity) identity).removeRow(this);
+	}
+
+	synchronized void addPeakList(SimplePeakList peakList) {
+		peakLists.add(peakList);
+	}
+
+	synchronized void removePeakList(SimplePeakList peakList) {
+		peakLists.remove(peakList);
+	}
+
+	/**
+	 * Marks the peak lists containing this row as modified, when the
+	 * comment or the identities change
+	 */
+	private synchronized void setPeakListsModified() {
+		for (SimplePeakList peakList : peakLists)
+			peakList.setModified(true);
 	}
 
 	/**
@@ -173,6 +253,7 @@ public class SimplePeakListRow implements PeakListRow {
 	 */
 	public void setComment(String comment) {
 		this.comment = comment;
+		setPeakListsModified();
 	}
 
 	/**
@@ -189,16 +270,19 @@ public class SimplePeakListRow implements PeakListRow {
 		}
 
 		identities.add(identity);
+		identityAdded(identity);
 		if ((preferredIdentity == null) || (preferred)) {
 			setPreferredPeakIdentity(identity);
 		}
+		setPeakListsModified();
 	}
 
 	/**
 	 * @see net.sf.mzmine.data.PeakListRow#addCompoundIdentity(net.sf.mzmine.data.PeakIdentity)
 	 */
 	public synchronized void removePeakIdentity(PeakIdentity identity) {
-		identities.remove(identity);
+		if (identities.remove(identity))
+			identityRemoved(identity);
 		if (preferredIdentity == identity) {
 			if (identities.size() > 0) {
 				PeakIdentity[] identitiesArray = identities
@@ -207,6 +291,7 @@ public class SimplePeakListRow implements PeakListRow {
 			} else
 				preferredIdentity = null;
 		}
+		setPeakListsModified();
 	}
 
 	/**
@@ -235,7 +320,9 @@ public class SimplePeakListRow implements PeakListRow {
 
 		if (!identities.contains(identity)) {
 			identities.add(identity);
+			identityAdded(identity);
 		}
+		setPeakListsModified();
 
 	}
 
@@ -93,6 +93,14 @@ public class SimpleScan implements Scan {
 		return dataPoints;
 	}
 
+	/**
+	 * @see net.sf.mzmine.data.Scan#getDataPoints(double[], double[])
+	 */
+	public int getDataPoints(@Nonnull double mzValues[],
+			@Nonnull double intensityValues[]) {
+		return ScanUtils.copyDataPoints(dataPoints, mzValues, intensityValues);
+	}
+
 	/**
 	 * @return Returns scan datapoints within a given range
 	 */
@@ -119,6 +127,16 @@ public class SimpleScan implements Scan {
 		return pointsWithinRange;
 	}
 
+	/**
+	 * @see net.sf.mzmine.data.Scan#getDataPointsByMass(Range, double[],
+	 *      double[])
+	 */
+	public int getDataPointsByMass(@Nonnull Range mzRange,
+			@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+		return ScanUtils.copyDataPointsByMass(dataPoints, mzRange, mzValues,
+				intensityValues);
+	}
+
 	/**
 	 * @return Returns scan datapoints over certain intensity
 	 */
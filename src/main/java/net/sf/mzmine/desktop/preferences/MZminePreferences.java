@@ -27,7 +27,10 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.ComboParameter;
 import net.sf.mzmine.parameters.parametertypes.OptionalModuleParameter;
+import net.sf.mzmine.project.impl.ScanDataStorageType;
 import net.sf.mzmine.util.ExitCode;
 
 public class MZminePreferences extends SimpleParameterSet {
@@ -46,6 +49,16 @@ public class MZminePreferences extends SimpleParameterSet {
 
 	public static final NumOfThreadsParameter numOfThreads = new NumOfThreadsParameter();
 
+	public static final ComboParameter<ScanDataStorageType> scanDataStorage = new ComboParameter<ScanDataStorageType>(
+			"Scan data storage",
+			"Method of accessing the temporary files which hold the scan data. Memory-mapped files allow parallel reading of scans.",
+			ScanDataStorageType.values(), ScanDataStorageType.MEMORY_MAPPED);
+
+	public static final BooleanParameter uncompressedProjectScans = new BooleanParameter(
+			"Uncompressed scans in projects",
+			"Save the scan data of projects uncompressed. Such projects are larger, but they open much faster, because the scan data are read directly from the project file.",
+			false);
+
 	public static final OptionalModuleParameter proxySettings = new OptionalModuleParameter(
 			"Use proxy", "Use proxy for internet connection?",
 			new ProxySettings());
@@ -54,7 +67,8 @@ public class MZminePreferences extends SimpleParameterSet {
 
 	public MZminePreferences() {
 		super(new Parameter[]{mzFormat, rtFormat, intensityFormat,
-				numOfThreads, proxySettings, windowState});
+				numOfThreads, scanDataStorage, uncompressedProjectScans,
+				proxySettings, windowState});
 	}
 
 	public ExitCode showSetupDialog() {
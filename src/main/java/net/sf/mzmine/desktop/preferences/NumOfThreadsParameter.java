@@ -77,6 +77,16 @@ public class NumOfThreadsParameter
 		return automatic;
 	}
 
+	/**
+	 * Returns the number of threads to use, which is the number of available
+	 * processors if the parameter is set to automatic
+	 */
+	public int getNumOfThreads() {
+		if (automatic || (value == null))
+			return Runtime.getRuntime().availableProcessors();
+		return value;
+	}
+
 	@Override
 	public void setValue(Integer value) {
 		assert value != null;
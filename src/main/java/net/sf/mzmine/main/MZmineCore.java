@@ -21,6 +21,7 @@ package net.sf.mzmine.main;
 
 import net.sf.mzmine.data.RawDataFileWriter;
 import net.sf.mzmine.desktop.Desktop;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.desktop.impl.HeadLessDesktop;
 import net.sf.mzmine.desktop.impl.MainWindow;
 import net.sf.mzmine.main.impl.MZmineConfigurationImpl;
@@ -43,6 +44,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -58,6 +65,10 @@ public final class MZmineCore {
 	private static MZmineConfiguration configuration;
 	private static Desktop desktop;
 	private static ProjectManagerImpl projectManager;
+	private static ThreadPoolExecutor parallelExecutor;
+
+	// Idle threads of the parallel executor are discarded after this time
+	private static final long PARALLEL_THREAD_KEEP_ALIVE = 60;
 
 	private static Map<Class<?>, MZmineModule> initializedModules = new Hashtable<Class<?>, MZmineModule>();
 
@@ -310,6 +321,54 @@ public final class MZmineCore {
 		return new RawDataFileImpl(name);
 	}
 
+	/**
+	 * Returns the executor shared by the tasks which split their work into
+	 * parallel jobs. It runs as many jobs at once as the number of threads set
+	 * in the preferences, no matter how many tasks submit them, so parallel
+	 * tasks do not multiply the number of busy threads. Callers cancel their
+	 * own jobs instead of shutting the executor down, and jobs running in it
+	 * must not wait for other jobs of the executor.
+	 */
+	@Nonnull
+	public static synchronized ExecutorService getParallelExecutor() {
+
+		int numOfThreads = Runtime.getRuntime().availableProcessors();
+		if (configuration != null)
+			numOfThreads = configuration.getPreferences()
+					.getParameter(MZminePreferences.numOfThreads)
+					.getNumOfThreads();
+		numOfThreads = Math.max(1, numOfThreads);
+
+		if (parallelExecutor == null) {
+			parallelExecutor = new ThreadPoolExecutor(numOfThreads,
+					numOfThreads, PARALLEL_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger threadNumber = new AtomicInteger(
+								1);
+
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "Parallel job thread "
+									+ threadNumber.getAndIncrement());
+							thread.setDaemon(true);
+							thread.setPriority(Thread.MIN_PRIORITY);
+							return thread;
+						}
+					});
+			parallelExecutor.allowCoreThreadTimeOut(true);
+		}
+
+		// Follow the changes of the preferences
+		if (numOfThreads > parallelExecutor.getMaximumPoolSize()) {
+			parallelExecutor.setMaximumPoolSize(numOfThreads);
+			parallelExecutor.setCorePoolSize(numOfThreads);
+		} else if (numOfThreads < parallelExecutor.getMaximumPoolSize()) {
+			parallelExecutor.setCorePoolSize(numOfThreads);
+			parallelExecutor.setMaximumPoolSize(numOfThreads);
+		}
+
+		return parallelExecutor;
+	}
+
 	@Nonnull
 	public static String getMZmineVersion() {
 		try {
@@ -37,11 +37,12 @@ class TmpFileCleanup {
 		logger.fine("Checking for old temporary files...");
 		try {
 
-			// Find all temporary files with the mask mzmine*.scans
+			// Find all temporary files with the mask mzmine*.scans, including the
+			// intensity pyramids mzmine*.scans.ms1.pyramid etc.
 			File tempDir = new File(System.getProperty("java.io.tmpdir"));
 			File remainingTmpFiles[] = tempDir.listFiles(new FilenameFilter() {
 				public boolean accept(File dir, String name) {
-					return name.matches("mzmine.*\\.scans");
+					return name.matches("mzmine.*\\.(scans|pyramid)");
 				}
 			});
 
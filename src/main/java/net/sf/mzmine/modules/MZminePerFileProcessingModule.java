@@ -0,0 +1,37 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules;
+
+/**
+ * Interface representing a data processing method which processes each raw
+ * data file or peak list independently, creating one task per input object.
+ * Batch mode can run consecutive steps of such methods for each raw data file
+ * separately, without waiting for the other files.
+ */
+public interface MZminePerFileProcessingModule extends MZmineProcessingModule {
+
+	/**
+	 * Returns true if this module creates a new peak list from each raw data
+	 * file (peak detection), false if the results are of the same kind as the
+	 * input.
+	 */
+	public boolean createsPeakListsFromRawData();
+
+}
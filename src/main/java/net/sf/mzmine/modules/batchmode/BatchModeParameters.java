@@ -21,6 +21,7 @@ package net.sf.mzmine.modules.batchmode;
 
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.RawDataFilesParameter;
 
@@ -33,8 +34,14 @@ public class BatchModeParameters extends SimpleParameterSet {
 
 	public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
 
+	public static final BooleanParameter processFilesInParallel = new BooleanParameter(
+			"Process files in parallel",
+			"If checked, consecutive steps which process each file independently (e.g. mass detection, chromatogram builder, smoothing, deconvolution) are run for each raw data file separately, without waiting for the other files",
+			false);
+
 	public BatchModeParameters() {
-		super(new Parameter[]{dataFiles, peakLists, batchQueue});
+		super(new Parameter[]{dataFiles, peakLists, batchQueue,
+				processFilesInParallel});
 	}
 
 }
@@ -21,12 +21,15 @@ package net.sf.mzmine.modules.batchmode;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Vector;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.Parameter;
@@ -35,6 +38,8 @@ import net.sf.mzmine.parameters.parametertypes.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.RawDataFilesParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskEvent;
+import net.sf.mzmine.taskcontrol.TaskListener;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExitCode;
 
@@ -52,6 +57,8 @@ public class BatchTask extends AbstractTask {
 	private RawDataFile dataFiles[];
 	private PeakList peakLists[];
 
+	private boolean processFilesInParallel;
+
 	BatchTask(ParameterSet parameters) {
 		this.queue = parameters.getParameter(BatchModeParameters.batchQueue)
 				.getValue();
@@ -59,6 +66,9 @@ public class BatchTask extends AbstractTask {
 				.getValue();
 		this.peakLists = parameters.getParameter(BatchModeParameters.peakLists)
 				.getValue();
+		Boolean parallel = parameters.getParameter(
+				BatchModeParameters.processFilesInParallel).getValue();
+		this.processFilesInParallel = (parallel != null) && parallel;
 		totalSteps = queue.size();
 	}
 
@@ -67,16 +77,27 @@ public class BatchTask extends AbstractTask {
 		setStatus(TaskStatus.PROCESSING);
 		logger.info("Starting a batch of " + totalSteps + " steps");
 
-		for (int i = 0; i < totalSteps; i++) {
+		for (int i = 0; i < totalSteps;) {
+
+			// Steps which process each file independently can be run for each
+			// file separately. Steps in between are barriers.
+			int lastStep = i;
+			if (processFilesInParallel)
+				lastStep = findLastPerFileStep(i);
 
-			processQueueStep(i);
-			processedSteps++;
+			if (lastStep > i)
+				processPerFileSteps(i, lastStep);
+			else
+				processQueueStep(i);
 
 			// If we are canceled or ran into error, stop here
 			if (isCanceled() || (getStatus() == TaskStatus.ERROR)) {
 				return;
 			}
 
+			processedSteps += lastStep - i + 1;
+			i = lastStep + 1;
+
 		}
 
 		logger.info("Finished a batch of " + totalSteps + " steps");
@@ -86,126 +107,324 @@ public class BatchTask extends AbstractTask {
 
 	private void processQueueStep(int stepNumber) {
 
-		// Run next step of the batch
-		MZmineProcessingStep currentStep = queue.get(stepNumber);
+		BatchQueue stepQueue = new BatchQueue();
+		stepQueue.add(queue.get(stepNumber));
+
+		StepSequence sequence = new StepSequence(stepQueue, dataFiles,
+				peakLists);
+		if (!runSequences(Collections.singletonList(sequence)))
+			return;
+
+		// Now all tasks are finished. If any raw data files or peak lists
+		// were added, we continue batch processing on those.
+		dataFiles = sequence.dataFiles;
+		peakLists = sequence.peakLists;
 
-		logger.fine("running step: " + currentStep);
-		MZmineProcessingModule method = (MZmineProcessingModule) currentStep
-				.getModule();
-		ParameterSet batchStepParameters = currentStep.getParameterSet();
+	}
 
-		// Update dataFiles and peakLists in the batchStepParameters
-		for (Parameter p : batchStepParameters.getParameters()) {
-			if (p instanceof RawDataFilesParameter) {
-				RawDataFilesParameter rdp = (RawDataFilesParameter) p;
-				rdp.setValue(dataFiles);
+	/**
+	 * Starts the next step of the sequence which produces any tasks. The tasks
+	 * are submitted to the task controller without waiting for them.
+	 * 
+	 * @return false if the step could not be started
+	 */
+	private boolean startNextStep(StepSequence sequence,
+			TaskListener stepTaskListener) {
+
+		while (true) {
+
+			sequence.finishStep(stepTaskListener);
+			if (sequence.isFinished())
+				return true;
+
+			// Run next step of the sequence
+			MZmineProcessingStep currentStep = sequence.steps
+					.get(sequence.currentStep);
+
+			logger.fine("running step: " + currentStep);
+			MZmineProcessingModule method = (MZmineProcessingModule) currentStep
+					.getModule();
+			ParameterSet batchStepParameters = currentStep.getParameterSet();
+
+			// Update dataFiles and peakLists in the batchStepParameters
+			for (Parameter p : batchStepParameters.getParameters()) {
+				if (p instanceof RawDataFilesParameter) {
+					RawDataFilesParameter rdp = (RawDataFilesParameter) p;
+					rdp.setValue(sequence.dataFiles);
+				}
+				if (p instanceof PeakListsParameter) {
+					PeakListsParameter plp = (PeakListsParameter) p;
+					plp.setValue(sequence.peakLists);
+				}
 			}
-			if (p instanceof PeakListsParameter) {
-				PeakListsParameter plp = (PeakListsParameter) p;
-				plp.setValue(peakLists);
+
+			// Check if the parameter settings are valid
+			ArrayList<String> messages = new ArrayList<String>();
+			boolean paramsCheck = batchStepParameters
+					.checkAllParameterValues(messages);
+			if (!paramsCheck) {
+				setStatus(TaskStatus.ERROR);
+				errorMessage = "Invalid parameter settings for module "
+						+ method + ": " + Arrays.toString(messages.toArray());
+				return false;
 			}
-		}
 
-		// Check if the parameter settings are valid
-		ArrayList<String> messages = new ArrayList<String>();
-		boolean paramsCheck = batchStepParameters
-				.checkAllParameterValues(messages);
-		if (!paramsCheck) {
-			setStatus(TaskStatus.ERROR);
-			errorMessage = "Invalid parameter settings for module " + method
-					+ ": " + Arrays.toString(messages.toArray());
-		}
+			ArrayList<Task> currentStepTasks = new ArrayList<Task>();
+			ExitCode exitCode = method.runModule(batchStepParameters,
+					currentStepTasks);
 
-		ArrayList<Task> currentStepTasks = new ArrayList<Task>();
-		ExitCode exitCode = method.runModule(batchStepParameters,
-				currentStepTasks);
+			if (exitCode != ExitCode.OK) {
+				setStatus(TaskStatus.ERROR);
+				errorMessage = "Could not start batch step "
+						+ method.getName();
+				return false;
+			}
 
-		if (exitCode != ExitCode.OK) {
-			setStatus(TaskStatus.ERROR);
-			errorMessage = "Could not start batch step " + method.getName();
-			return;
-		}
+			// If current step didn't produce any tasks, continue with next step
+			if (currentStepTasks.isEmpty()) {
+				logger.fine("didn't produce any tasks => going to next step");
+				continue;
+			}
+
+			// Listen to the status of the tasks, so we are woken up as soon as
+			// any of them finishes
+			for (Task stepTask : currentStepTasks)
+				stepTask.addTaskListener(stepTaskListener);
+			sequence.currentTasks = currentStepTasks;
+
+			// Submit the tasks to the task controller for processing
+			MZmineCore.getTaskController().addTasks(
+					currentStepTasks.toArray(new Task[0]));
+
+			return true;
 
-		// If current step didn't produce any tasks, continue with next step
-		if (currentStepTasks.isEmpty()) {
-			logger.fine("didn't produce any tasks => going to next step");
-			return;
 		}
 
-		boolean allTasksFinished = false;
+	}
 
-		// Submit the tasks to the task controller for processing
-		MZmineCore.getTaskController().addTasks(
-				currentStepTasks.toArray(new Task[0]));
+	/**
+	 * Processes the step sequences until all of them are finished. Whenever
+	 * all tasks of a step are finished, the next step of its sequence is
+	 * started from this thread, so the sequences do not occupy any threads of
+	 * the task controller while they wait for their tasks. If any of the
+	 * tasks fails or is canceled, or the batch itself is canceled, the status
+	 * of the batch is updated and the remaining tasks are canceled.
+	 * 
+	 * @return true if all sequences finished successfully
+	 */
+	private boolean runSequences(List<StepSequence> sequences) {
+
+		TaskListener stepTaskListener = new TaskListener() {
+			public void statusChanged(TaskEvent e) {
+				synchronized (BatchTask.this) {
+					BatchTask.this.notifyAll();
+				}
+			}
+		};
 
-		while (!allTasksFinished) {
+		try {
 
-			// If we canceled the batch, cancel all running tasks
-			if (isCanceled()) {
-				for (Task stepTask : currentStepTasks)
-					stepTask.cancel();
-				return;
+			for (StepSequence sequence : sequences) {
+				if (!startNextStep(sequence, stepTaskListener)) {
+					cancelSequences(sequences);
+					return false;
+				}
 			}
 
-			// First set to true, then check all tasks
-			allTasksFinished = true;
+			while (true) {
+
+				synchronized (this) {
+
+					while (true) {
+
+						// If we canceled the batch, cancel all running tasks
+						if (isCanceled()) {
+							cancelSequences(sequences);
+							return false;
+						}
+
+						boolean allSequencesFinished = true;
+						boolean anyStepFinished = false;
+
+						for (StepSequence sequence : sequences) {
+
+							if (sequence.isFinished())
+								continue;
+							allSequencesFinished = false;
+
+							for (Task stepTask : sequence.currentTasks) {
+
+								TaskStatus stepStatus = stepTask.getStatus();
 
-			for (Task stepTask : currentStepTasks) {
+								// If there was an error, we have to stop the
+								// whole batch
+								if (stepStatus == TaskStatus.ERROR) {
+									setStatus(TaskStatus.ERROR);
+									errorMessage = stepTask.getErrorMessage();
+									cancelSequences(sequences);
+									return false;
+								}
 
-				TaskStatus stepStatus = stepTask.getStatus();
+								// If user canceled any of the tasks, we have to
+								// cancel the whole batch
+								if (stepStatus == TaskStatus.CANCELED) {
+									setStatus(TaskStatus.CANCELED);
+									cancelSequences(sequences);
+									return false;
+								}
 
-				// If any of them is not finished, keep checking
-				if (stepStatus != TaskStatus.FINISHED)
-					allTasksFinished = false;
+							}
+
+							if (sequence.isStepFinished())
+								anyStepFinished = true;
+
+						}
+
+						if (allSequencesFinished)
+							return true;
+
+						if (anyStepFinished)
+							break;
+
+						// Wait until the status of any task or of this batch
+						// changes
+						try {
+							this.wait();
+						} catch (InterruptedException e) {
+							// ignore
+						}
+
+					}
 
-				// If there was an error, we have to stop the whole batch
-				if (stepStatus == TaskStatus.ERROR) {
-					setStatus(TaskStatus.ERROR);
-					errorMessage = stepTask.getErrorMessage();
-					return;
 				}
 
-				// If user canceled any of the tasks, we have to cancel the
-				// whole batch
-				if (stepStatus == TaskStatus.CANCELED) {
-					setStatus(TaskStatus.CANCELED);
-					for (Task t : currentStepTasks)
-						t.cancel();
-					return;
+				// Continue with the next step of the sequences whose current
+				// step is finished. The modules are started outside of the
+				// lock, so the tasks can notify us meanwhile.
+				for (StepSequence sequence : sequences) {
+					if (sequence.isFinished() || !sequence.isStepFinished())
+						continue;
+					if (!startNextStep(sequence, stepTaskListener)) {
+						cancelSequences(sequences);
+						return false;
+					}
 				}
 
 			}
 
-			// Wait 1s before checking the tasks again
-			if (!allTasksFinished) {
-				synchronized (this) {
-					try {
-						this.wait(1000);
-					} catch (InterruptedException e) {
-						// ignore
-					}
-				}
+		} finally {
+			// Stop listening to the tasks so they do not keep a reference to
+			// this batch
+			for (StepSequence sequence : sequences) {
+				for (Task stepTask : sequence.currentTasks)
+					stepTask.removeTaskListener(stepTaskListener);
 			}
+		}
+
+	}
+
+	private void cancelSequences(List<StepSequence> sequences) {
+		for (StepSequence sequence : sequences) {
+			for (Task stepTask : sequence.currentTasks)
+				stepTask.cancel();
+		}
+	}
+
+	/**
+	 * Returns the last step of the longest run of steps starting at firstStep,
+	 * which can be run for each file separately. Each of these steps must
+	 * process raw data files or peak lists independently, and its input must
+	 * be available for each file separately, i.e. split at firstStep or
+	 * created from the raw data file by a preceding step of the run.
+	 */
+	private int findLastPerFileStep(int firstStep) {
+
+		boolean rawDataAvailable = false, peakListsAvailable = false;
+		int lastStep = firstStep - 1;
+
+		for (int i = firstStep; i < totalSteps; i++) {
+
+			MZmineProcessingStep<MZmineProcessingModule> step = queue.get(i);
+			if (!(step.getModule() instanceof MZminePerFileProcessingModule))
+				break;
+			MZminePerFileProcessingModule module = (MZminePerFileProcessingModule) step
+					.getModule();
+
+			boolean rawDataInput = false, peakListInput = false;
+			for (Parameter p : step.getParameterSet().getParameters()) {
+				if (p instanceof RawDataFilesParameter)
+					rawDataInput = true;
+				if (p instanceof PeakListsParameter)
+					peakListInput = true;
+			}
+			if (rawDataInput == peakListInput)
+				break;
+
+			// The first step determines how the input is split
+			if (i == firstStep) {
+				rawDataAvailable = rawDataInput;
+				peakListsAvailable = peakListInput;
+			}
+
+			if ((rawDataInput && !rawDataAvailable)
+					|| (peakListInput && !peakListsAvailable))
+				break;
+
+			if (module.createsPeakListsFromRawData())
+				peakListsAvailable = true;
 
+			lastStep = i;
 		}
 
-		// Now all tasks are finished. We have to check if project was modified.
-		// If any raw data files or peak lists were added, we continue batch
-		// processing on those.
+		return lastStep;
+
+	}
+
+	/**
+	 * Runs the given steps for each raw data file (or peak list) separately,
+	 * as a step sequence of its own. The results are merged in the order of
+	 * the input files, so they are the same as if the steps were run one by
+	 * one.
+	 */
+	private void processPerFileSteps(int firstStep, int lastStep) {
+
+		BatchQueue stepsQueue = new BatchQueue();
+		for (int i = firstStep; i <= lastStep; i++)
+			stepsQueue.add(queue.get(i));
+
+		logger.fine("running steps " + stepsQueue + " for each file");
+
+		// Split the input according to the first step
+		boolean splitRawData = false;
+		for (Parameter p : stepsQueue.get(0).getParameterSet().getParameters()) {
+			if (p instanceof RawDataFilesParameter)
+				splitRawData = true;
+		}
+
+		// Each sequence gets its own copy of the parameters, because the
+		// tasks of different files run at the same time
+		ArrayList<StepSequence> fileSequences = new ArrayList<StepSequence>();
+		if (splitRawData) {
+			for (RawDataFile dataFile : dataFiles) {
+				fileSequences.add(new StepSequence(stepsQueue.clone(),
+						new RawDataFile[]{dataFile}, new PeakList[0]));
+			}
+		} else {
+			for (PeakList peakList : peakLists) {
+				fileSequences.add(new StepSequence(stepsQueue.clone(),
+						new RawDataFile[0], new PeakList[]{peakList}));
+			}
+		}
+
+		if (!runSequences(fileSequences))
+			return;
 
 		Vector<RawDataFile> newDataFiles = new Vector<RawDataFile>();
 		Vector<PeakList> newPeakLists = new Vector<PeakList>();
 
-		for (Task stepTask : currentStepTasks) {
-			Object createdObjects[] = stepTask.getCreatedObjects();
-			if (createdObjects == null)
-				continue;
-			for (Object createdObject : createdObjects) {
-				if (createdObject instanceof RawDataFile)
-					newDataFiles.add((RawDataFile) createdObject);
-				if (createdObject instanceof PeakList)
-					newPeakLists.add((PeakList) createdObject);
-			}
+		for (StepSequence sequence : fileSequences) {
+			newDataFiles.addAll(Arrays.asList(sequence.dataFiles));
+			newPeakLists.addAll(Arrays.asList(sequence.peakLists));
 		}
 
 		if (newDataFiles.size() > 0)
@@ -215,6 +434,17 @@ public class BatchTask extends AbstractTask {
 
 	}
 
+	/**
+	 * Cancels the batch and wakes up the batch thread, which cancels the tasks
+	 * of the current step
+	 */
+	public void cancel() {
+		super.cancel();
+		synchronized (this) {
+			this.notifyAll();
+		}
+	}
+
 	public double getFinishedPercentage() {
 		if (totalSteps == 0)
 			return 0;
@@ -229,4 +459,71 @@ public class BatchTask extends AbstractTask {
 		return null;
 	}
 
+	/**
+	 * Batch steps processed one after another on their own raw data files and
+	 * peak lists. Only accessed by the batch thread.
+	 */
+	private static class StepSequence {
+
+		private final BatchQueue steps;
+		private RawDataFile dataFiles[];
+		private PeakList peakLists[];
+
+		private int currentStep = -1;
+		private ArrayList<Task> currentTasks = new ArrayList<Task>();
+
+		StepSequence(BatchQueue steps, RawDataFile dataFiles[],
+				PeakList peakLists[]) {
+			this.steps = steps;
+			this.dataFiles = dataFiles;
+			this.peakLists = peakLists;
+		}
+
+		boolean isFinished() {
+			return currentStep >= steps.size();
+		}
+
+		boolean isStepFinished() {
+			for (Task stepTask : currentTasks) {
+				if (stepTask.getStatus() != TaskStatus.FINISHED)
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Moves to the next step. If any raw data files or peak lists were
+		 * created by the tasks of the current step, the next step processes
+		 * those.
+		 */
+		void finishStep(TaskListener stepTaskListener) {
+
+			Vector<RawDataFile> newDataFiles = new Vector<RawDataFile>();
+			Vector<PeakList> newPeakLists = new Vector<PeakList>();
+
+			for (Task stepTask : currentTasks) {
+				stepTask.removeTaskListener(stepTaskListener);
+				Object createdObjects[] = stepTask.getCreatedObjects();
+				if (createdObjects == null)
+					continue;
+				for (Object createdObject : createdObjects) {
+					if (createdObject instanceof RawDataFile)
+						newDataFiles.add((RawDataFile) createdObject);
+					if (createdObject instanceof PeakList)
+						newPeakLists.add((PeakList) createdObject);
+				}
+			}
+
+			if (newDataFiles.size() > 0)
+				dataFiles = newDataFiles.toArray(new RawDataFile[0]);
+			if (newPeakLists.size() > 0)
+				peakLists = newPeakLists.toArray(new PeakList[0]);
+
+			currentTasks = new ArrayList<Task>();
+			currentStep++;
+
+		}
+
+	}
+
 }
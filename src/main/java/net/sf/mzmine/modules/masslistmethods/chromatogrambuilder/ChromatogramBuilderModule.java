@@ -25,12 +25,12 @@ import javax.annotation.Nonnull;
 
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.modules.MZmineModuleCategory;
-import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.util.ExitCode;
 
-public class ChromatogramBuilderModule implements MZmineProcessingModule {
+public class ChromatogramBuilderModule implements MZminePerFileProcessingModule {
 
 	private static final String MODULE_NAME = "Chromatogram builder";
 	private static final String MODULE_DESCRIPTION = "This module connects data points from mass lists and builds chromatograms.";
@@ -76,4 +76,9 @@ public class ChromatogramBuilderModule implements MZmineProcessingModule {
 		return ChromatogramBuilderParameters.class;
 	}
 
+	@Override
+	public boolean createsPeakListsFromRawData() {
+		return true;
+	}
+
 }
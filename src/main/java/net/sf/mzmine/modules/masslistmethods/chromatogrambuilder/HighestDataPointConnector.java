@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import net.sf.mzmine.data.DataPoint;
 import net.sf.mzmine.data.RawDataFile;
@@ -66,27 +67,62 @@ public class HighestDataPointConnector {
 		// Set of already connected chromatograms in each iteration
 		Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
 
-		// TODO: these two nested cycles should be optimized for speed
-		for (DataPoint mzPeak : mzValues) {
-
-			// Search for best chromatogram, which has highest last data point
-			Chromatogram bestChromatogram = null;
+		// Index the building chromatograms by the m/z of their last data
+		// point. The order number keeps the iteration order of
+		// buildingChromatograms, which is used to resolve ties.
+		TreeSet<ChromatogramEntry> chromatogramIndex = new TreeSet<ChromatogramEntry>();
+		int order = 0;
+		for (Chromatogram chrom : buildingChromatograms) {
+			ChromatogramEntry entry = new ChromatogramEntry(chrom, chrom
+					.getLastMzPeak().getMZ(), order++);
+			chromatogramIndex.add(entry);
+		}
 
-			for (Chromatogram testChrom : buildingChromatograms) {
+		for (DataPoint mzPeak : mzValues) {
 
-				DataPoint lastMzPeak = testChrom.getLastMzPeak();
+			// Search for best chromatogram, which has highest last data point.
+			// The tolerance grows with m/z, so the tolerance at twice the m/z
+			// of this peak (doubled again to absorb rounding) bounds the
+			// distance of any chromatogram that can possibly match. The exact
+			// tolerance check is then applied to the candidates.
+			final double mz = mzPeak.getMZ();
+			final double searchWidth = mzTolerance.getToleranceRange(2 * mz)
+					.getSize();
+			ChromatogramEntry fromEntry = new ChromatogramEntry(null, mz
+					- searchWidth, Integer.MIN_VALUE);
+			ChromatogramEntry toEntry = new ChromatogramEntry(null, mz
+					+ searchWidth, Integer.MAX_VALUE);
+
+			ChromatogramEntry bestEntry = null;
+
+			for (ChromatogramEntry testEntry : chromatogramIndex.subSet(
+					fromEntry, true, toEntry, true)) {
+
+				DataPoint lastMzPeak = testEntry.chromatogram.getLastMzPeak();
 				Range toleranceRange = mzTolerance.getToleranceRange(lastMzPeak
 						.getMZ());
-				if (toleranceRange.contains(mzPeak.getMZ())) {
-					if ((bestChromatogram == null)
-							|| (testChrom.getLastMzPeak().getIntensity() > bestChromatogram
-									.getLastMzPeak().getIntensity())) {
-						bestChromatogram = testChrom;
-					}
+				if (!toleranceRange.contains(mz))
+					continue;
+
+				if (bestEntry == null) {
+					bestEntry = testEntry;
+					continue;
+				}
+
+				double testIntensity = lastMzPeak.getIntensity();
+				double bestIntensity = bestEntry.chromatogram.getLastMzPeak()
+						.getIntensity();
+				if ((testIntensity > bestIntensity)
+						|| ((testIntensity == bestIntensity) && (testEntry.order < bestEntry.order))) {
+					bestEntry = testEntry;
 				}
 
 			}
 
+			Chromatogram bestChromatogram = null;
+			if (bestEntry != null)
+				bestChromatogram = bestEntry.chromatogram;
+
 			// If we found best chromatogram, check if it is already connected.
 			// In such case, we may discard this mass and continue. If we
 			// haven't found a chromatogram, we may create a new one.
@@ -98,8 +134,16 @@ public class HighestDataPointConnector {
 				bestChromatogram = new Chromatogram(dataFile);
 			}
 
-			// Add this mzPeak to the chromatogram
-			bestChromatogram.addMzPeak(scanNumber, mzPeak);
+			// Add this mzPeak to the chromatogram. If the chromatogram is
+			// indexed, its position in the index must follow the new last m/z.
+			if (bestEntry != null) {
+				chromatogramIndex.remove(bestEntry);
+				bestChromatogram.addMzPeak(scanNumber, mzPeak);
+				bestEntry.lastMz = mz;
+				chromatogramIndex.add(bestEntry);
+			} else {
+				bestChromatogram.addMzPeak(scanNumber, mzPeak);
+			}
 
 			// Move the chromatogram to the set of connected chromatograms
 			connectedChromatograms.add(bestChromatogram);
@@ -192,4 +236,35 @@ public class HighestDataPointConnector {
 
 	}
 
+	/**
+	 * Entry of the m/z index of building chromatograms, ordered by the m/z of
+	 * the last data point and then by the original iteration order
+	 */
+	private static class ChromatogramEntry implements
+			Comparable<ChromatogramEntry> {
+
+		private final Chromatogram chromatogram;
+		private final int order;
+		private double lastMz;
+
+		ChromatogramEntry(Chromatogram chromatogram, double lastMz, int order) {
+			this.chromatogram = chromatogram;
+			this.lastMz = lastMz;
+			this.order = order;
+		}
+
+		public int compareTo(ChromatogramEntry other) {
+			if (lastMz < other.lastMz)
+				return -1;
+			if (lastMz > other.lastMz)
+				return 1;
+			if (order < other.order)
+				return -1;
+			if (order > other.order)
+				return 1;
+			return 0;
+		}
+
+	}
+
 }
@@ -29,9 +29,9 @@ import net.sf.mzmine.data.IsotopePattern;
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.RawDataFile;
-import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.AlignedPeakList;
+import net.sf.mzmine.data.impl.AlignedPeakListRow;
 import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.data.impl.SimplePeakListRow;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopepatternscore.IsotopePatternScoreCalculator;
 import net.sf.mzmine.parameters.ParameterSet;
@@ -47,7 +47,8 @@ class JoinAlignerTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private PeakList peakLists[], alignedPeakList;
+	private PeakList peakLists[];
+	private AlignedPeakList alignedPeakList;
 
 	// Processed rows counter
 	private int processedRows, totalRows;
@@ -148,7 +149,7 @@ class JoinAlignerTask extends AbstractTask {
 		}
 
 		// Create a new aligned peak list
-		alignedPeakList = new SimplePeakList(peakListName,
+		alignedPeakList = new AlignedPeakList(peakListName,
 				allDataFiles.toArray(new RawDataFile[0]));
 
 		// Iterate source peak lists
@@ -246,7 +247,8 @@ class JoinAlignerTask extends AbstractTask {
 
 				// If we have no mapping for this row, add a new one
 				if (targetRow == null) {
-					targetRow = new SimplePeakListRow(newRowID);
+					targetRow = new AlignedPeakListRow(newRowID,
+							alignedPeakList);
 					newRowID++;
 					alignedPeakList.addRow(targetRow);
 				}
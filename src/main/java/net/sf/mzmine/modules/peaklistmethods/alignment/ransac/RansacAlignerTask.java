@@ -29,9 +29,9 @@ import java.util.logging.Logger;
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.RawDataFile;
-import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.AlignedPeakList;
+import net.sf.mzmine.data.impl.AlignedPeakListRow;
 import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.data.impl.SimplePeakListRow;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
@@ -50,7 +50,8 @@ import org.apache.commons.math.stat.regression.SimpleRegression;
 class RansacAlignerTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
-	private PeakList peakLists[], alignedPeakList;
+	private PeakList peakLists[];
+	private AlignedPeakList alignedPeakList;
 	// Processed rows counter
 	private int processedRows, totalRows;
 	// Parameters
@@ -134,7 +135,7 @@ class RansacAlignerTask extends AbstractTask {
 		}
 
 		// Create a new aligned peak list
-		alignedPeakList = new SimplePeakList(peakListName,
+		alignedPeakList = new AlignedPeakList(peakListName,
 				allDataFiles.toArray(new RawDataFile[0]));
 
 		// Iterate source peak lists
@@ -151,7 +152,8 @@ class RansacAlignerTask extends AbstractTask {
 
 				// If we have no mapping for this row, add a new one
 				if (targetRow == null) {
-					targetRow = new SimplePeakListRow(newRowID);
+					targetRow = new AlignedPeakListRow(newRowID,
+							alignedPeakList);
 					newRowID++;
 					alignedPeakList.addRow(targetRow);
 				}
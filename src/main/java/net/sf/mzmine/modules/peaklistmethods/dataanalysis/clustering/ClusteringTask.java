@@ -30,9 +30,10 @@ import jmprojection.PCA;
 import jmprojection.Preprocess;
 import jmprojection.ProjectionStatus;
 import jmprojection.Sammons;
-import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.FeatureMatrix;
 import net.sf.mzmine.desktop.Desktop;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingStep;
@@ -58,6 +59,7 @@ public class ClusteringTask extends AbstractXYDataset
 	private double[] component1Coords;
 	private double[] component2Coords;
 	private ParameterSet parameters;
+	private PeakList peakList;
 	private RawDataFile[] selectedRawDataFiles;
 	private PeakListRow[] selectedRows;
 	private int[] groupsForSelectedRawDataFiles, groupsForSelectedVariables;
@@ -79,6 +81,8 @@ public class ClusteringTask extends AbstractXYDataset
 
 		this.parameters = parameters;
 
+		this.peakList = parameters.getParameter(
+				ClusteringParameters.peakLists).getValue()[0];
 		this.selectedRawDataFiles = parameters.getParameter(
 				ProjectionPlotParameters.dataFiles).getValue();
 		this.selectedRows = parameters.getParameter(
@@ -355,52 +359,17 @@ public class ClusteringTask extends AbstractXYDataset
 	 * @return
 	 */
 	private double[][] createMatrix(boolean isForSamples) {
-		// Generate matrix of raw data (input to CDA)
-		boolean useArea = true;
-		if (parameters.getParameter(
-				ProjectionPlotParameters.peakMeasurementType).getValue() == PeakMeasurementType.AREA) {
-			useArea = true;
-		}
-		if (parameters.getParameter(
-				ProjectionPlotParameters.peakMeasurementType).getValue() == PeakMeasurementType.HEIGHT) {
-			useArea = false;
-		}
-		double[][] rawData;
+		// Generate matrix of raw data from the feature matrix of the peak list
+		PeakMeasurementType measurementType = parameters.getParameter(
+				ProjectionPlotParameters.peakMeasurementType).getValue();
+		FeatureMatrix featureMatrix = FeatureMatrix.getFeatureMatrix(peakList);
 		if (isForSamples) {
-			rawData = new double[selectedRawDataFiles.length][selectedRows.length];
-			for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-				PeakListRow peakListRow = selectedRows[rowIndex];
-				for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-					RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-					ChromatographicPeak p = peakListRow.getPeak(rawDataFile);
-					if (p != null) {
-						if (useArea) {
-							rawData[fileIndex][rowIndex] = p.getArea();
-						} else {
-							rawData[fileIndex][rowIndex] = p.getHeight();
-						}
-					}
-				}
-			}
+			return featureMatrix.getValues(measurementType,
+					selectedRawDataFiles, selectedRows);
 		} else {
-			rawData = new double[selectedRows.length][selectedRawDataFiles.length];
-			for (int rowIndex = 0; rowIndex < selectedRows.length; rowIndex++) {
-				PeakListRow peakListRow = selectedRows[rowIndex];
-				for (int fileIndex = 0; fileIndex < selectedRawDataFiles.length; fileIndex++) {
-					RawDataFile rawDataFile = selectedRawDataFiles[fileIndex];
-					ChromatographicPeak p = peakListRow.getPeak(rawDataFile);
-					if (p != null) {
-						if (useArea) {
-							rawData[rowIndex][fileIndex] = p.getArea();
-						} else {
-							rawData[rowIndex][fileIndex] = p.getHeight();
-						}
-					}
-				}
-			}
+			return featureMatrix.getTransposedValues(measurementType,
+					selectedRawDataFiles, selectedRows);
 		}
-
-		return rawData;
 	}
 
 	/**
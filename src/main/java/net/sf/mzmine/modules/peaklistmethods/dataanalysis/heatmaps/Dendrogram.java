@@ -0,0 +1,407 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Complete linkage hierarchical clustering of the rows or columns of the heat
+ * map. This gives the same tree as hclust(dist(x)) in R, reordered by the
+ * given weights like reorder.dendrogram() does in heatmap.2.
+ * 
+ * Distances are kept in a condensed array holding the upper triangle of the
+ * distance matrix, see getIndex().
+ */
+class Dendrogram {
+
+	private static final int VECTORS_PER_JOB = 64;
+
+	private final int numOfLeaves;
+
+	// Children of each merge, leaves are 0..n-1 and merge k is node n+k
+	private final int left[], right[];
+	private final double heights[];
+
+	private final int order[];
+	private final double positions[];
+
+	private Dendrogram(int numOfLeaves, int left[], int right[],
+			double heights[], double weights[]) {
+		this.numOfLeaves = numOfLeaves;
+		this.left = left;
+		this.right = right;
+		this.heights = heights;
+
+		// Put the branch with the lower weight first in each merge
+		int numOfMerges = numOfLeaves - 1;
+		double nodeWeights[] = new double[numOfLeaves + numOfMerges];
+		System.arraycopy(weights, 0, nodeWeights, 0, numOfLeaves);
+		for (int k = 0; k < numOfMerges; k++) {
+			double leftWeight = nodeWeights[left[k]];
+			double rightWeight = nodeWeights[right[k]];
+			if ((leftWeight > rightWeight)
+					|| (Double.isNaN(leftWeight) && !Double.isNaN(rightWeight))) {
+				int swap = left[k];
+				left[k] = right[k];
+				right[k] = swap;
+			}
+			nodeWeights[numOfLeaves + k] = leftWeight + rightWeight;
+		}
+
+		// Leaf order, walking the tree from the root
+		order = new int[numOfLeaves];
+		int stack[] = new int[numOfLeaves + numOfMerges];
+		int stackSize = 0, orderSize = 0;
+		stack[stackSize++] = numOfLeaves + numOfMerges - 1;
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (node < numOfLeaves) {
+				order[orderSize++] = node;
+				continue;
+			}
+			stack[stackSize++] = right[node - numOfLeaves];
+			stack[stackSize++] = left[node - numOfLeaves];
+		}
+
+		// Each leaf is placed at its index in the order, each merge in the
+		// middle of its children
+		positions = new double[numOfLeaves + numOfMerges];
+		for (int i = 0; i < numOfLeaves; i++)
+			positions[order[i]] = i;
+		for (int k = 0; k < numOfMerges; k++)
+			positions[numOfLeaves + k] = (positions[left[k]] + positions[right[k]]) / 2;
+	}
+
+	int getNumberOfLeaves() {
+		return numOfLeaves;
+	}
+
+	int getNumberOfMerges() {
+		return numOfLeaves - 1;
+	}
+
+	/**
+	 * Returns the leaves in the order they are drawn
+	 */
+	int[] getLeafOrder() {
+		return order;
+	}
+
+	int getLeftChild(int merge) {
+		return left[merge];
+	}
+
+	int getRightChild(int merge) {
+		return right[merge];
+	}
+
+	/**
+	 * Returns the height of the given node, which is 0 for the leaves
+	 */
+	double getHeight(int node) {
+		if (node < numOfLeaves)
+			return 0;
+		return heights[node - numOfLeaves];
+	}
+
+	double getMaxHeight() {
+		if (numOfLeaves < 2)
+			return 0;
+		return heights[numOfLeaves - 2];
+	}
+
+	/**
+	 * Returns the position of the given node along the leaves, the leaves
+	 * being at positions 0..n-1
+	 */
+	double getPosition(int node) {
+		return positions[node];
+	}
+
+	/**
+	 * Returns the index of the distance between the vectors i and j in a
+	 * condensed distance array of n vectors
+	 */
+	static int getIndex(int n, int i, int j) {
+		if (i > j) {
+			int swap = i;
+			i = j;
+			j = swap;
+		}
+		return (int) ((long) i * (2 * n - i - 1) / 2 + (j - i - 1));
+	}
+
+	/**
+	 * Calculates the Euclidean distances between all the given vectors. NaN
+	 * values are left out, like R's dist() does, and the distance between two
+	 * vectors without values in common is NaN.
+	 */
+	static double[] getDistances(final double vectors[][]) {
+
+		final int n = vectors.length;
+		long size = (long) n * (n - 1) / 2;
+		if (size > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many vectors to cluster ("
+					+ n + ")");
+		final double distances[] = new double[(int) size];
+
+		int numOfThreads = 1;
+		if (MZmineCore.getConfiguration() != null)
+			numOfThreads = MZmineCore.getConfiguration().getPreferences()
+					.getParameter(MZminePreferences.numOfThreads)
+					.getNumOfThreads();
+
+		if ((numOfThreads <= 1) || (n <= VECTORS_PER_JOB)) {
+			calculateDistances(vectors, distances, 0, n);
+			return distances;
+		}
+
+		// Each job fills the distances from a range of vectors to all the
+		// following ones
+		ExecutorService executor = MZmineCore.getParallelExecutor();
+		List<Future<?>> jobs = new ArrayList<Future<?>>();
+		try {
+			for (int first = 0; first < n; first += VECTORS_PER_JOB) {
+				final int start = first;
+				final int end = Math.min(first + VECTORS_PER_JOB, n);
+				jobs.add(executor.submit(new Runnable() {
+					public void run() {
+						calculateDistances(vectors, distances, start, end);
+					}
+				}));
+			}
+			for (Future<?> job : jobs)
+				job.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while calculating the distances", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		} finally {
+			for (Future<?> job : jobs)
+				job.cancel(false);
+		}
+
+		return distances;
+	}
+
+	private static void calculateDistances(double vectors[][],
+			double distances[], int start, int end) {
+		int n = vectors.length;
+		for (int i = start; i < end; i++) {
+			double vector[] = vectors[i];
+			if (i + 1 >= n)
+				break;
+			int index = getIndex(n, i, i + 1);
+			for (int j = i + 1; j < n; j++)
+				distances[index++] = getDistance(vector, vectors[j]);
+		}
+	}
+
+	/**
+	 * Euclidean distance over the values present in both vectors, scaled up to
+	 * the full vector length
+	 */
+	private static double getDistance(double a[], double b[]) {
+		double sum = 0;
+		int count = 0;
+		for (int i = 0; i < a.length; i++) {
+			double difference = a[i] - b[i];
+			if (!Double.isNaN(difference)) {
+				sum += difference * difference;
+				count++;
+			}
+		}
+		if (count == 0)
+			return Double.NaN;
+		if (count < a.length)
+			sum *= (double) a.length / count;
+		return Math.sqrt(sum);
+	}
+
+	/**
+	 * Removes the distances of the given vectors from a condensed distance
+	 * array of n vectors. The remaining distances are moved to the beginning
+	 * of the same array.
+	 */
+	static void removeVectors(double distances[], int n, boolean removed[]) {
+		int index = 0;
+		for (int i = 0; i < n; i++) {
+			if (removed[i])
+				continue;
+			for (int j = i + 1; j < n; j++) {
+				if (!removed[j])
+					distances[index++] = distances[getIndex(n, i, j)];
+			}
+		}
+	}
+
+	/**
+	 * Clusters n vectors using complete linkage, with the nearest neighbor
+	 * chain algorithm in O(n^2) time. The distance array is overwritten.
+	 * 
+	 * @param distances
+	 *            condensed distance array of the vectors
+	 * @param weights
+	 *            weight of each vector, used to order the branches
+	 */
+	static Dendrogram cluster(double distances[], int n, double weights[]) {
+
+		if (n < 1)
+			throw new IllegalArgumentException("Nothing to cluster");
+
+		// Vectors without values in common are merged last
+		int size = (int) ((long) n * (n - 1) / 2);
+		for (int i = 0; i < size; i++) {
+			if (Double.isNaN(distances[i]))
+				distances[i] = Double.POSITIVE_INFINITY;
+		}
+
+		// Each cluster is kept in the slot of one of its vectors
+		boolean active[] = new boolean[n];
+		Arrays.fill(active, true);
+		int chain[] = new int[n];
+		int chainLength = 0;
+
+		final int mergeA[] = new int[n - 1], mergeB[] = new int[n - 1];
+		final double mergeHeights[] = new double[n - 1];
+
+		for (int k = 0; k < n - 1; k++) {
+
+			if (chainLength == 0) {
+				int first = 0;
+				while (!active[first])
+					first++;
+				chain[chainLength++] = first;
+			}
+
+			// Follow the nearest neighbors until two clusters are nearest to
+			// each other
+			int a, b;
+			double minDistance;
+			while (true) {
+				a = chain[chainLength - 1];
+				int previous = (chainLength > 1) ? chain[chainLength - 2] : -1;
+				b = previous;
+				minDistance = (previous >= 0) ? distances[getIndex(n, a,
+						previous)] : Double.POSITIVE_INFINITY;
+				for (int i = 0; i < n; i++) {
+					if ((!active[i]) || (i == a))
+						continue;
+					double distance = distances[getIndex(n, a, i)];
+					if ((distance < minDistance) || (b < 0)) {
+						minDistance = distance;
+						b = i;
+					}
+				}
+				if (b == previous)
+					break;
+				chain[chainLength++] = b;
+			}
+			chainLength -= 2;
+
+			mergeA[k] = a;
+			mergeB[k] = b;
+			mergeHeights[k] = minDistance;
+
+			// Complete linkage: the distance to the merged cluster is the
+			// larger of the two distances
+			int kept = Math.min(a, b), dropped = Math.max(a, b);
+			active[dropped] = false;
+			for (int i = 0; i < n; i++) {
+				if ((!active[i]) || (i == kept))
+					continue;
+				int keptIndex = getIndex(n, kept, i);
+				double droppedDistance = distances[getIndex(n, dropped, i)];
+				if (droppedDistance > distances[keptIndex])
+					distances[keptIndex] = droppedDistance;
+			}
+		}
+
+		// The chain finds the merges out of order, so sort them by height.
+		// The sort is stable, so the children still come before the parents
+		Integer sorted[] = new Integer[n - 1];
+		for (int k = 0; k < n - 1; k++)
+			sorted[k] = k;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer m1, Integer m2) {
+				return Double.compare(mergeHeights[m1], mergeHeights[m2]);
+			}
+		});
+
+		// Height of the merges of clusters without values in common
+		double maxHeight = 0;
+		for (int k = 0; k < n - 1; k++) {
+			if (!Double.isInfinite(mergeHeights[k]))
+				maxHeight = Math.max(maxHeight, mergeHeights[k]);
+		}
+		double infiniteHeight = (maxHeight > 0) ? maxHeight * 1.1 : 1;
+
+		// Number the merged clusters in the sorted order, finding the current
+		// cluster of each slot with a union-find structure
+		int left[] = new int[n - 1], right[] = new int[n - 1];
+		double heights[] = new double[n - 1];
+		int parents[] = new int[2 * n - 1];
+		for (int i = 0; i < parents.length; i++)
+			parents[i] = i;
+		for (int k = 0; k < n - 1; k++) {
+			int merge = sorted[k];
+			int nodeA = findRoot(parents, mergeA[merge]);
+			int nodeB = findRoot(parents, mergeB[merge]);
+
+			// Like hclust, put single vectors and older clusters first
+			left[k] = Math.min(nodeA, nodeB);
+			right[k] = Math.max(nodeA, nodeB);
+			parents[nodeA] = n + k;
+			parents[nodeB] = n + k;
+
+			heights[k] = Double.isInfinite(mergeHeights[merge]) ? infiniteHeight
+					: mergeHeights[merge];
+		}
+
+		return new Dendrogram(n, left, right, heights, weights);
+	}
+
+	private static int findRoot(int parents[], int node) {
+		int root = node;
+		while (parents[root] != root)
+			root = parents[root];
+		while (parents[node] != root) {
+			int next = parents[node];
+			parents[node] = root;
+			node = next;
+		}
+		return root;
+	}
+
+}
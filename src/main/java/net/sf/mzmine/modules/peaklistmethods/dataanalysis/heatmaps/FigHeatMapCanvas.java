@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the heat map in the XFig 3.2 format. XFig needs the user colors
+ * defined before the objects, so the objects go to a temporary file until the
+ * drawing is finished.
+ */
+class FigHeatMapCanvas extends HeatMapCanvas {
+
+	// XFig units per point
+	private static final double SCALE = 1200.0 / 72;
+
+	// XFig has 8 fixed colors and 512 user colors starting at 32
+	private static final Color standardColors[] = { Color.black, Color.blue,
+			Color.green, Color.cyan, Color.red, Color.magenta, Color.yellow,
+			Color.white };
+	private static final int FIRST_USER_COLOR = 32, MAX_USER_COLORS = 512;
+
+	private final File file, objectFile;
+	private final Writer objects;
+	private final Map<Color, Integer> userColors = new LinkedHashMap<Color, Integer>();
+
+	FigHeatMapCanvas(File file, double width, double height)
+			throws IOException {
+		super(width, height);
+		this.file = file;
+		objectFile = File.createTempFile("heatmap", ".fig");
+		objects = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(objectFile), "ISO-8859-1"));
+	}
+
+	void fillRect(double x, double y, double width, double height,
+			Color color) throws IOException {
+		int x1 = scale(x), y1 = scale(y);
+		int x2 = scale(x + width), y2 = scale(y + height);
+		objects.write("2 2 0 0 0 " + getColorNumber(color)
+				+ " 50 -1 20 0.000 0 0 -1 0 0 5\n\t" + x1 + " " + y1 + " " + x2
+				+ " " + y1 + " " + x2 + " " + y2 + " " + x1 + " " + y2 + " "
+				+ x1 + " " + y1 + "\n");
+	}
+
+	void drawLine(double x1, double y1, double x2, double y2, Color color)
+			throws IOException {
+		objects.write("2 1 0 1 " + getColorNumber(color)
+				+ " 7 40 -1 -1 0.000 0 0 -1 0 0 2\n\t" + scale(x1) + " "
+				+ scale(y1) + " " + scale(x2) + " " + scale(y2) + "\n");
+	}
+
+	void drawString(String text, double x, double y, double fontSize,
+			boolean vertical, int alignment) throws IOException {
+		// Font 16 is Helvetica when the PostScript font flag (4) is set
+		double angle = vertical ? Math.PI / 2 : 0;
+		objects.write("4 " + alignment + " 0 30 -1 16 " + format(fontSize)
+				+ " " + (float) angle + " 4 " + scale(fontSize) + " "
+				+ scale(fontSize * text.length() / 2) + " " + scale(x) + " "
+				+ scale(y) + " " + escape(text) + "\\001\n");
+	}
+
+	void close() throws IOException {
+		objects.close();
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "ISO-8859-1"));
+		BufferedReader reader = null;
+		try {
+			writer.write("#FIG 3.2\nPortrait\nCenter\nInches\nLetter\n100.00\nSingle\n-2\n1200 2\n");
+			for (Map.Entry<Color, Integer> userColor : userColors.entrySet())
+				writer.write("0 " + userColor.getValue() + " "
+						+ toHex(userColor.getKey()) + "\n");
+
+			reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(objectFile), "ISO-8859-1"));
+			char buffer[] = new char[65536];
+			int length;
+			while ((length = reader.read(buffer)) > 0)
+				writer.write(buffer, 0, length);
+		} finally {
+			if (reader != null)
+				reader.close();
+			writer.close();
+			objectFile.delete();
+		}
+	}
+
+	private static int scale(double value) {
+		return (int) Math.round(value * SCALE);
+	}
+
+	private int getColorNumber(Color color) {
+		for (int i = 0; i < standardColors.length; i++) {
+			if (standardColors[i].equals(color))
+				return i;
+		}
+		Integer number = userColors.get(color);
+		if (number != null)
+			return number;
+		if (userColors.size() < MAX_USER_COLORS) {
+			number = FIRST_USER_COLOR + userColors.size();
+			userColors.put(color, number);
+			return number;
+		}
+
+		// Out of colors, use the closest one already defined
+		int closestNumber = 0, closestDistance = Integer.MAX_VALUE;
+		for (Map.Entry<Color, Integer> userColor : userColors.entrySet()) {
+			Color c = userColor.getKey();
+			int distance = Math.abs(c.getRed() - color.getRed())
+					+ Math.abs(c.getGreen() - color.getGreen())
+					+ Math.abs(c.getBlue() - color.getBlue());
+			if (distance < closestDistance) {
+				closestDistance = distance;
+				closestNumber = userColor.getValue();
+			}
+		}
+		return closestNumber;
+	}
+
+	/**
+	 * Escapes a text for XFig, which only reads ASCII characters
+	 */
+	private static String escape(String text) {
+		StringBuilder escaped = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\')
+				escaped.append("\\\\");
+			else if ((c < 32) || (c > 126)) {
+				String octal = Integer.toOctalString(Math.min(c, 255));
+				escaped.append('\\');
+				for (int j = octal.length(); j < 3; j++)
+					escaped.append('0');
+				escaped.append(octal);
+			}
+			else
+				escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.awt.Color;
+import java.io.IOException;
+
+/**
+ * Output of the heat map drawing. Coordinates start in the top left corner and
+ * are in points (1/72 inch) for the vector formats and in pixels for images.
+ * Text is always drawn in black.
+ */
+abstract class HeatMapCanvas {
+
+	static final int LEFT = 0, CENTER = 1, RIGHT = 2;
+
+	private final double width, height;
+
+	HeatMapCanvas(double width, double height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	double getWidth() {
+		return width;
+	}
+
+	double getHeight() {
+		return height;
+	}
+
+	abstract void fillRect(double x, double y, double width, double height,
+			Color color) throws IOException;
+
+	abstract void drawLine(double x1, double y1, double x2, double y2,
+			Color color) throws IOException;
+
+	/**
+	 * Draws a text with its baseline at y. Vertical text is rotated counter
+	 * clockwise around (x, y), so it reads upwards.
+	 * 
+	 * @param alignment
+	 *            LEFT, CENTER or RIGHT, which part of the text is at (x, y)
+	 */
+	abstract void drawString(String text, double x, double y,
+			double fontSize, boolean vertical, int alignment)
+			throws IOException;
+
+	/**
+	 * Finishes the drawing and writes the output file
+	 */
+	abstract void close() throws IOException;
+
+	/**
+	 * Formats a coordinate with at most two decimals. This is called for
+	 * every cell of the heat map, so it avoids String.format().
+	 */
+	static String format(double value) {
+		long hundredths = Math.round(value * 100);
+		StringBuilder text = new StringBuilder();
+		if (hundredths < 0) {
+			text.append('-');
+			hundredths = -hundredths;
+		}
+		text.append(hundredths / 100);
+		int decimals = (int) (hundredths % 100);
+		if (decimals != 0) {
+			text.append('.');
+			text.append(decimals / 10);
+			if (decimals % 10 != 0)
+				text.append(decimals % 10);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Returns the color in the #rrggbb notation
+	 */
+	static String toHex(Color color) {
+		String hex = Integer.toHexString(color.getRGB() & 0xffffff);
+		while (hex.length() < 6)
+			hex = "0" + hex;
+		return "#" + hex;
+	}
+
+}
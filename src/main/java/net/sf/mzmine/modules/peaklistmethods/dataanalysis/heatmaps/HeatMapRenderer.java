@@ -0,0 +1,389 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws the heat map with the layout of heatmap.2 from the gplots R package:
+ * the color key in the top left corner, the column dendrogram on top, the row
+ * dendrogram on the left, row names on the right and column names below the
+ * heat map.
+ */
+class HeatMapRenderer {
+
+	// R's default point size and the height of one line of margin
+	private static final double POINT_SIZE = 12;
+	private static final double LINE = 14.4;
+
+	// Same relative sizes as heatmap.2: lwid = lhei = c(1.5, 4)
+	private static final double DENDROGRAM_SIZE = 1.5 / 5.5;
+
+	// Text is centered vertically by moving its baseline down
+	private static final double BASELINE_SHIFT = 0.35;
+
+	// Colors of bluered(511), the first half from blue to white, the second
+	// half from white to red
+	private static final int HALF_COLORS = 256;
+	private static final Color colors[] = new Color[2 * HALF_COLORS - 1];
+	static {
+		for (int i = 0; i < HALF_COLORS; i++) {
+			float t = (float) i / (HALF_COLORS - 1);
+			colors[i] = new Color(t, t, 1f);
+			colors[colors.length - 1 - i] = new Color(1f, t, t);
+		}
+	}
+
+	// R's "grey" for missing values
+	private static final Color NA_COLOR = new Color(190, 190, 190);
+	private static final Color HISTOGRAM_COLOR = Color.cyan;
+
+	private final double data[][];
+	private final String rowNames[], columnNames[];
+	private final String stars[][];
+	private final Dendrogram rowDendrogram, columnDendrogram;
+
+	// Range of the color breaks, always including 0
+	private final double minValue, maxValue;
+
+	/**
+	 * @param data
+	 *            values of each column and row, NaN for missing values
+	 * @param stars
+	 *            p-value notes of each column and row, or null
+	 */
+	HeatMapRenderer(double data[][], String rowNames[], String columnNames[],
+			String stars[][], Dendrogram rowDendrogram,
+			Dendrogram columnDendrogram) {
+		this.data = data;
+		this.rowNames = rowNames;
+		this.columnNames = columnNames;
+		this.stars = stars;
+		this.rowDendrogram = rowDendrogram;
+		this.columnDendrogram = columnDendrogram;
+
+		double min = 0, max = 0;
+		for (double column[] : data) {
+			for (double value : column) {
+				if (value < min)
+					min = value;
+				if (value > max)
+					max = value;
+			}
+		}
+		minValue = min;
+		maxValue = max;
+	}
+
+	void draw(HeatMapCanvas canvas, int columnMargin, int rowMargin,
+			int starSize) throws IOException {
+
+		double width = canvas.getWidth(), height = canvas.getHeight();
+		double dendrogramWidth = width * DENDROGRAM_SIZE;
+		double dendrogramHeight = height * DENDROGRAM_SIZE;
+
+		// Heat map area
+		double left = dendrogramWidth;
+		double right = width - rowMargin * LINE;
+		double top = dendrogramHeight;
+		double bottom = height - columnMargin * LINE;
+		if ((right <= left) || (bottom <= top))
+			throw new IllegalArgumentException(
+					"The margins are too large for the size of the heat map");
+
+		int rowOrder[] = rowDendrogram.getLeafOrder();
+		int columnOrder[] = columnDendrogram.getLeafOrder();
+		double cellWidth = (right - left) / columnOrder.length;
+		double cellHeight = (bottom - top) / rowOrder.length;
+
+		// Cells, the first row in the order is at the bottom
+		for (int i = 0; i < columnOrder.length; i++) {
+			double column[] = data[columnOrder[i]];
+			double x = left + i * cellWidth;
+			for (int j = 0; j < rowOrder.length; j++) {
+				double value = column[rowOrder[j]];
+				Color color = Double.isNaN(value) ? NA_COLOR
+						: colors[getColorIndex(value)];
+				canvas.fillRect(x, bottom - (j + 1) * cellHeight, cellWidth,
+						cellHeight, color);
+			}
+		}
+
+		// P-value notes in the middle of the cells
+		if ((stars != null) && (starSize > 0)) {
+			double fontSize = POINT_SIZE * starSize;
+			for (int i = 0; i < columnOrder.length; i++) {
+				String columnStars[] = stars[columnOrder[i]];
+				double x = left + (i + 0.5) * cellWidth;
+				for (int j = 0; j < rowOrder.length; j++) {
+					String note = columnStars[rowOrder[j]];
+					if ((note == null) || (note.length() == 0))
+						continue;
+					double y = bottom - (j + 0.5) * cellHeight;
+					canvas.drawString(note, x, y + BASELINE_SHIFT * fontSize,
+							fontSize, false, HeatMapCanvas.CENTER);
+				}
+			}
+		}
+
+		// Row names on the right and column names below, with the same size
+		// as cexRow and cexCol of heatmap.2
+		double rowFontSize = POINT_SIZE * getLabelSize(rowOrder.length);
+		for (int j = 0; j < rowOrder.length; j++) {
+			double y = bottom - (j + 0.5) * cellHeight;
+			canvas.drawString(rowNames[rowOrder[j]], right + 0.5 * LINE, y
+					+ BASELINE_SHIFT * rowFontSize, rowFontSize, false,
+					HeatMapCanvas.LEFT);
+		}
+		double columnFontSize = POINT_SIZE * getLabelSize(columnOrder.length);
+		for (int i = 0; i < columnOrder.length; i++) {
+			double x = left + (i + 0.5) * cellWidth;
+			canvas.drawString(columnNames[columnOrder[i]], x + BASELINE_SHIFT
+					* columnFontSize, bottom + 0.5 * LINE, columnFontSize,
+					true, HeatMapCanvas.RIGHT);
+		}
+
+		drawRowDendrogram(canvas, 0, dendrogramWidth, bottom, cellHeight);
+		drawColumnDendrogram(canvas, left, cellWidth, 0, dendrogramHeight);
+		drawColorKey(canvas, 0, 0, dendrogramWidth, dendrogramHeight);
+	}
+
+	/**
+	 * Row dendrogram with the root on the left and the leaves touching the
+	 * heat map
+	 */
+	private void drawRowDendrogram(HeatMapCanvas canvas, double left,
+			double right, double bottom, double cellHeight) throws IOException {
+		double maxHeight = rowDendrogram.getMaxHeight();
+		if (maxHeight <= 0)
+			return;
+
+		// Like R, leave 4% of the space free around the root
+		double scale = (right - left) / (maxHeight * 1.04);
+		int numOfLeaves = rowDendrogram.getNumberOfLeaves();
+		for (int k = 0; k < rowDendrogram.getNumberOfMerges(); k++) {
+			int node = numOfLeaves + k;
+			int children[] = { rowDendrogram.getLeftChild(k),
+					rowDendrogram.getRightChild(k) };
+			double x = right - rowDendrogram.getHeight(node) * scale;
+			for (int child : children) {
+				double y = bottom - (rowDendrogram.getPosition(child) + 0.5)
+						* cellHeight;
+				double childX = right - rowDendrogram.getHeight(child) * scale;
+				canvas.drawLine(x, y, childX, y, Color.black);
+			}
+			double y1 = bottom - (rowDendrogram.getPosition(children[0]) + 0.5)
+					* cellHeight;
+			double y2 = bottom - (rowDendrogram.getPosition(children[1]) + 0.5)
+					* cellHeight;
+			canvas.drawLine(x, y1, x, y2, Color.black);
+		}
+	}
+
+	/**
+	 * Column dendrogram with the root on top and the leaves touching the heat
+	 * map
+	 */
+	private void drawColumnDendrogram(HeatMapCanvas canvas, double left,
+			double cellWidth, double top, double bottom) throws IOException {
+		double maxHeight = columnDendrogram.getMaxHeight();
+		if (maxHeight <= 0)
+			return;
+
+		double scale = (bottom - top) / (maxHeight * 1.04);
+		int numOfLeaves = columnDendrogram.getNumberOfLeaves();
+		for (int k = 0; k < columnDendrogram.getNumberOfMerges(); k++) {
+			int node = numOfLeaves + k;
+			int children[] = { columnDendrogram.getLeftChild(k),
+					columnDendrogram.getRightChild(k) };
+			double y = bottom - columnDendrogram.getHeight(node) * scale;
+			for (int child : children) {
+				double x = left + (columnDendrogram.getPosition(child) + 0.5)
+						* cellWidth;
+				double childY = bottom - columnDendrogram.getHeight(child)
+						* scale;
+				canvas.drawLine(x, y, x, childY, Color.black);
+			}
+			double x1 = left
+					+ (columnDendrogram.getPosition(children[0]) + 0.5)
+					* cellWidth;
+			double x2 = left
+					+ (columnDendrogram.getPosition(children[1]) + 0.5)
+					* cellWidth;
+			canvas.drawLine(x1, y, x2, y, Color.black);
+		}
+	}
+
+	/**
+	 * Color key with the histogram of the values, drawn with the margins and
+	 * the text size (cex = 0.75) of heatmap.2
+	 */
+	private void drawColorKey(HeatMapCanvas canvas, double x, double y,
+			double width, double height) throws IOException {
+		double line = 0.75 * LINE;
+		double fontSize = 0.75 * POINT_SIZE;
+		double left = x + 4 * line, right = x + width - line;
+		double top = y + 2 * line, bottom = y + height - 5 * line;
+		if ((right <= left) || (bottom <= top) || (maxValue <= minValue))
+			return;
+
+		// Color bar, linear in the values
+		double scale = (right - left) / (maxValue - minValue);
+		for (int i = 0; i < colors.length; i++) {
+			double x1 = left + (getBreak(i) - minValue) * scale;
+			double x2 = left + (getBreak(i + 1) - minValue) * scale;
+			if (x2 > x1)
+				canvas.fillRect(x1, top, x2 - x1, bottom - top, colors[i]);
+		}
+
+		// Histogram of the values in each color
+		int counts[] = new int[colors.length];
+		int maxCount = 0;
+		for (double column[] : data) {
+			for (double value : column) {
+				if (Double.isNaN(value))
+					continue;
+				int count = ++counts[getColorIndex(value)];
+				maxCount = Math.max(maxCount, count);
+			}
+		}
+		if (maxCount > 0) {
+			double countScale = 0.95 * (bottom - top) / maxCount;
+			double previousY = bottom;
+			for (int i = 0; i < colors.length; i++) {
+				double x1 = left + (getBreak(i) - minValue) * scale;
+				double x2 = left + (getBreak(i + 1) - minValue) * scale;
+				double countY = bottom - counts[i] * countScale;
+				if (countY != previousY)
+					canvas.drawLine(x1, previousY, x1, countY, HISTOGRAM_COLOR);
+				if (x2 > x1)
+					canvas.drawLine(x1, countY, x2, countY, HISTOGRAM_COLOR);
+				previousY = countY;
+			}
+
+			// Count axis
+			for (double tick : getTicks(0, maxCount)) {
+				double tickY = bottom - tick * countScale;
+				canvas.drawLine(left, tickY, left - 0.5 * line, tickY,
+						Color.black);
+				canvas.drawString(formatTick(tick), left - line, tickY,
+						fontSize, true, HeatMapCanvas.CENTER);
+			}
+		}
+
+		// Value axis
+		for (double tick : getTicks(minValue, maxValue)) {
+			double tickX = left + (tick - minValue) * scale;
+			canvas.drawLine(tickX, bottom, tickX, bottom + 0.5 * line,
+					Color.black);
+			canvas.drawString(formatTick(tick), tickX, bottom + 2 * line,
+					fontSize, false, HeatMapCanvas.CENTER);
+		}
+
+		// Frame and titles
+		canvas.drawLine(left, top, right, top, Color.black);
+		canvas.drawLine(right, top, right, bottom, Color.black);
+		canvas.drawLine(right, bottom, left, bottom, Color.black);
+		canvas.drawLine(left, bottom, left, top, Color.black);
+		double center = (left + right) / 2;
+		canvas.drawString("Value", center, bottom + 3.5 * line, fontSize,
+				false, HeatMapCanvas.CENTER);
+		canvas.drawString("Count", left - 2.5 * line, (top + bottom) / 2,
+				fontSize, true, HeatMapCanvas.CENTER);
+		double titleSize = 1.2 * fontSize;
+		canvas.drawString("Color Key", center, top - 1.2 * titleSize,
+				titleSize, false, HeatMapCanvas.CENTER);
+		canvas.drawString("and Histogram", center, top - 0.2 * titleSize,
+				titleSize, false, HeatMapCanvas.CENTER);
+	}
+
+	/**
+	 * Returns the color break i, the same as the breaks of the R code used
+	 * before: 256 breaks from the minimum to 0 followed by 256 breaks from 0
+	 * to the maximum
+	 */
+	private double getBreak(int i) {
+		if (i < HALF_COLORS)
+			return minValue - minValue * i / (HALF_COLORS - 1);
+		return maxValue * (i - HALF_COLORS) / (HALF_COLORS - 1);
+	}
+
+	/**
+	 * Returns the color of a value, which is colors[i] for values in (break i,
+	 * break i + 1]
+	 */
+	private int getColorIndex(double value) {
+		int index;
+		if (value <= 0) {
+			if (minValue == 0)
+				return HALF_COLORS - 2;
+			index = (int) Math.ceil((value - minValue) / -minValue
+					* (HALF_COLORS - 1)) - 1;
+			return Math.max(0, Math.min(HALF_COLORS - 2, index));
+		}
+		index = HALF_COLORS
+				+ (int) Math.ceil(value / maxValue * (HALF_COLORS - 1)) - 1;
+		return Math.max(HALF_COLORS, Math.min(colors.length - 1, index));
+	}
+
+	/**
+	 * Label size of heatmap.2, 0.2 + 1 / log10(n)
+	 */
+	private static double getLabelSize(int numOfLabels) {
+		return 0.2 + 1 / Math.log10(Math.max(numOfLabels, 2));
+	}
+
+	/**
+	 * Returns round tick values between min and max, roughly like R's
+	 * pretty()
+	 */
+	private static List<Double> getTicks(double min, double max) {
+		List<Double> ticks = new ArrayList<Double>();
+		if (max <= min) {
+			ticks.add(min);
+			return ticks;
+		}
+		double step = Math.pow(10, Math.floor(Math.log10((max - min) / 5)));
+		double steps = (max - min) / 5 / step;
+		if (steps > 5)
+			step *= 10;
+		else if (steps > 2)
+			step *= 5;
+		else if (steps > 1)
+			step *= 2;
+		for (double tick = Math.ceil(min / step) * step; tick <= max + step
+				* 1e-9; tick += step) {
+			// Avoid -0 and rounding errors in the labels
+			ticks.add(Math.round(tick / step) * step);
+		}
+		return ticks;
+	}
+
+	private static String formatTick(double tick) {
+		NumberFormat format = new DecimalFormat("0.###");
+		return format.format(tick + 0.0);
+	}
+
+}
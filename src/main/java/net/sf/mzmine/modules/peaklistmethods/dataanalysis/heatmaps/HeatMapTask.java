@@ -20,28 +20,28 @@
 package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.data.ChromatographicPeak;
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.FeatureMatrix;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.project.MZmineProject;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.RUtilities;
+import net.sf.mzmine.util.PeakMeasurementType;
 
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math.stat.inference.TTestImpl;
-import org.rosuda.JRI.Rengine;
 
 public class HeatMapTask extends AbstractTask {
 
@@ -123,159 +123,149 @@ public class HeatMapTask extends AbstractTask {
 			return;
 		}
 
-		Rengine rEngine = null;
-		try {
-			rEngine = RUtilities.getREngine();
-		} catch (Throwable t) {
-			setStatus(TaskStatus.ERROR);
-			errorMessage = "Heat map requires R but it could not be loaded ("
-					+ t.getMessage() + ')';
-			return;
-		}
-
-		finishedPercentage = 0.3f;
+		if (outputType.contains("png")) {
+			if (height < 500 || width < 500) {
 
-		synchronized (RUtilities.R_SEMAPHORE) {
-
-			// Load gplots library
-			if (rEngine.eval("require(gplots)").asBool().isFALSE()) {
 				setStatus(TaskStatus.ERROR);
-				errorMessage = "Heap maps plot requires the \"gplots\" R package, which could not be loaded. Please add it to your R installation.";
+				errorMessage = "Figure height or width is too small. Minimun height and width is 500.";
+				return;
 			}
+		}
 
-			try {
-
-				if (outputType.contains("png")) {
-					if (height < 500 || width < 500) {
+		finishedPercentage = 0.3f;
 
-						setStatus(TaskStatus.ERROR);
-						errorMessage = "Figure height or width is too small. Minimun height and width is 500.";
-						return;
-					}
+		// Infinite values are missing values in the heat map
+		int numOfColumns = newPeakList.length;
+		int numOfRows = newPeakList[0].length;
+		double rowVectors[][] = new double[numOfRows][numOfColumns];
+		for (int column = 0; column < numOfColumns; column++) {
+			for (int row = 0; row < numOfRows; row++) {
+				double value = newPeakList[column][row];
+				if (Double.isInfinite(value)) {
+					value = Double.NaN;
 				}
+				rowVectors[row][column] = value;
+			}
+		}
 
-				rEngine.eval("dataset<- matrix(\"\",nrow ="
-						+ newPeakList[0].length + ",ncol=" + newPeakList.length
-						+ ")");
-
-				if (plegend) {
-					rEngine.eval("stars<- matrix(\"\",nrow ="
-							+ newPeakList[0].length + ",ncol="
-							+ newPeakList.length + ")");
+		// Remove the rows with too many NA's. The distances between
+		// rows can't be calculated if the rows don't have
+		// at least one sample in common.
+		double rowDistances[] = Dendrogram.getDistances(rowVectors);
+		boolean removed[] = new boolean[numOfRows];
+		int numOfKeptRows = 0;
+		for (int row = 0; row < numOfRows; row++) {
+			for (int previous = 0; previous < row; previous++) {
+				if (Double.isNaN(rowDistances[Dendrogram.getIndex(numOfRows,
+						previous, row)])) {
+					removed[row] = true;
+					break;
 				}
-
-				// assing the values to the matrix
-				for (int row = 0; row < newPeakList[0].length; row++) {
-
-					for (int column = 0; column < newPeakList.length; column++) {
-
-						int r = row + 1;
-						int c = column + 1;
-
-						double value = newPeakList[column][row];
-
-						if (plegend) {
-							String pValue = pValueMatrix[column][row];
-							rEngine.eval("stars[" + r + "," + c + "] = \""
-									+ pValue + "\"");
-						}
-
-						if (!Double.isInfinite(value) && !Double.isNaN(value)) {
-
-							rEngine.eval("dataset[" + r + "," + c + "] = "
-									+ value);
-						} else {
-
-							rEngine.eval("dataset[" + r + "," + c + "] = NA");
-						}
-					}
+			}
+			if (!removed[row]) {
+				numOfKeptRows++;
+			}
+		}
+		Dendrogram.removeVectors(rowDistances, numOfRows, removed);
+
+		finishedPercentage = 0.5f;
+
+		double data[][] = new double[numOfColumns][numOfKeptRows];
+		String stars[][] = plegend ? new String[numOfColumns][numOfKeptRows]
+				: null;
+		String keptRowNames[] = new String[numOfKeptRows];
+		double rowMeans[] = new double[numOfKeptRows];
+		for (int row = 0, keptRow = 0; row < numOfRows; row++) {
+			if (removed[row]) {
+				continue;
+			}
+			keptRowNames[keptRow] = rowNames[row];
+			for (int column = 0; column < numOfColumns; column++) {
+				data[column][keptRow] = rowVectors[row][column];
+				if (plegend) {
+					stars[column][keptRow] = pValueMatrix[column][row];
 				}
-				finishedPercentage = 0.4f;
-
-				rEngine.eval("dataset <- apply(dataset, 2, as.numeric)");
-
-				// Assign row names to the data set
-				long rows = rEngine.rniPutStringArray(rowNames);
-				rEngine.rniAssign("rowNames", rows, 0);
-				rEngine.eval("rownames(dataset)<-rowNames");
-
-				// Assign column names to the data set
-				long columns = rEngine.rniPutStringArray(colNames);
-				rEngine.rniAssign("colNames", columns, 0);
-				rEngine.eval("colnames(dataset)<-colNames");
-
-				finishedPercentage = 0.5f;
-
-				// Remove the rows with too many NA's. The distances between
-				// rows can't be calculated if the rows don't have
-				// at least one sample in common.
-				rEngine.eval(" d <- as.matrix(dist(dataset))");
-				rEngine.eval("d[upper.tri(d)] <- 0");
-				rEngine.eval("dataset <- dataset[-na.action(na.omit(d)),]");
-
-				finishedPercentage = 0.8f;
-
-				String marginParameter = "margins = c(" + columnMargin + ","
-						+ rowMargin + ")";
-				rEngine.eval(
-						"br<-c(seq(from=min(dataset,na.rm=T),to=0,length.out=256),seq(from=0,to=max(dataset,na.rm=T),length.out=256))",
-						false);
-
-				// Possible output file types
-				if (outputType.contains("pdf")) {
+			}
+			rowMeans[keptRow] = getMean(rowVectors[row]);
+			keptRow++;
+		}
+		double columnMeans[] = new double[numOfColumns];
+		for (int column = 0; column < numOfColumns; column++) {
+			columnMeans[column] = getMean(data[column]);
+		}
 
-					rEngine.eval("pdf(\"" + outputFile + "\", height=" + height
-							+ ", width=" + width + ")");
-				} else if (outputType.contains("fig")) {
+		if (isCanceled()) {
+			return;
+		}
 
-					rEngine.eval("xfig(\"" + outputFile + "\", height="
-							+ height + ", width=" + width
-							+ ", horizontal = FALSE, pointsize = 12)");
-				} else if (outputType.contains("svg")) {
+		// Cluster the rows and the columns
+		Dendrogram rowDendrogram = Dendrogram.cluster(rowDistances,
+				numOfKeptRows, rowMeans);
+		Dendrogram columnDendrogram = Dendrogram.cluster(
+				Dendrogram.getDistances(data), numOfColumns, columnMeans);
 
-					// Load RSvgDevice library
-					if (rEngine.eval("require(RSvgDevice)").asBool().isFALSE()) {
+		finishedPercentage = 0.8f;
 
-						throw new IllegalStateException(
-								"The \"RSvgDevice\" R package couldn't be loaded - is it installed in R?");
-					}
+		if (isCanceled()) {
+			return;
+		}
 
-					rEngine.eval("devSVG(\"" + outputFile + "\", height="
-							+ height + ", width=" + width + ")");
-				} else if (outputType.contains("png")) {
+		HeatMapRenderer renderer = new HeatMapRenderer(data, keptRowNames,
+				colNames, stars, rowDendrogram, columnDendrogram);
 
-					rEngine.eval("png(\"" + outputFile + "\", height=" + height
-							+ ", width=" + width + ")");
-				}
+		try {
 
-				if (plegend) {
+			// The size is in inches for the vector formats, like in R
+			HeatMapCanvas canvas;
+			if (outputType.contains("pdf")) {
+				canvas = new PDFHeatMapCanvas(outputFile, width * 72,
+						height * 72);
+			} else if (outputType.contains("fig")) {
+				canvas = new FigHeatMapCanvas(outputFile, width * 72,
+						height * 72);
+			} else if (outputType.contains("svg")) {
+				canvas = new SVGHeatMapCanvas(outputFile, width * 72,
+						height * 72);
+			} else {
+				canvas = new ImageHeatMapCanvas(outputFile, width, height);
+			}
 
-					rEngine.eval(
-							"heatmap.2(dataset,"
-									+ marginParameter
-									+ ", trace=\"none\", col=bluered(length(br)-1), breaks=br, cellnote=stars, notecol=\"black\", notecex="
-									+ starSize + ", na.color=\"grey\")", false);
-				} else {
+			try {
+				renderer.draw(canvas, columnMargin, rowMargin, starSize);
+			} finally {
+				canvas.close();
+			}
 
-					rEngine.eval(
-							"heatmap.2(dataset,"
-									+ marginParameter
-									+ ", trace=\"none\", col=bluered(length(br)-1), breaks=br, na.color=\"grey\")",
-							false);
-				}
+		} catch (IOException e) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = "Could not write the heat map to " + outputFile
+					+ " (" + e.getMessage() + ")";
+			return;
+		} catch (IllegalArgumentException e) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = e.getMessage();
+			return;
+		}
 
-				rEngine.eval("dev.off()", false);
-				finishedPercentage = 1.0f;
+		finishedPercentage = 1.0f;
+		setStatus(TaskStatus.FINISHED);
 
-			} catch (Throwable t) {
+	}
 
-				throw new IllegalStateException(
-						"R error during the heat map creation", t);
+	/**
+	 * Returns the mean of the values which are not NaN, or NaN if there are
+	 * none
+	 */
+	private static double getMean(double values[]) {
+		double sum = 0;
+		int count = 0;
+		for (double value : values) {
+			if (!Double.isNaN(value)) {
+				sum += value;
+				count++;
 			}
 		}
-
-		setStatus(TaskStatus.FINISHED);
-
+		return (count > 0) ? sum / count : Double.NaN;
 	}
 
 	private double[][] modifySimpleDataset(UserParameter selectedParameter,
@@ -333,27 +323,28 @@ public class HeatMapTask extends AbstractTask {
 			shownDataFiles = nonReferenceDataFiles;
 		}
 
-		for (int row = 0, rowIndex = 0; row < peakList.getNumberOfRows(); row++) {
-			PeakListRow rowPeak = peakList.getRow(row);
+		FeatureMatrix featureMatrix = FeatureMatrix.getFeatureMatrix(peakList);
+		PeakMeasurementType measurementType = area
+				? PeakMeasurementType.AREA
+				: PeakMeasurementType.HEIGHT;
+		int referenceFiles[] = getFileIndexes(featureMatrix, referenceDataFiles);
+		int shownFiles[] = getFileIndexes(featureMatrix, shownDataFiles);
+		PeakListRow rows[] = featureMatrix.getRows();
+
+		for (int row = 0, rowIndex = 0; row < rows.length; row++) {
+			PeakListRow rowPeak = rows[row];
 			if (!onlyIdentified
 					|| (onlyIdentified && rowPeak.getPeakIdentities().length > 0)) {
 
 				// Average area or height of the reference group
 				double referenceAverage = 0;
 				int referencePeakCount = 0;
-				for (int column = 0; column < referenceDataFiles.size(); column++) {
-
-					if (rowPeak.getPeak(referenceDataFiles.get(column)) != null) {
-
-						if (area) {
+				for (int column = 0; column < referenceFiles.length; column++) {
 
-							referenceAverage += rowPeak.getPeak(
-									referenceDataFiles.get(column)).getArea();
-						} else {
+					if (featureMatrix.isPresent(referenceFiles[column], row)) {
 
-							referenceAverage += rowPeak.getPeak(
-									referenceDataFiles.get(column)).getHeight();
-						}
+						referenceAverage += featureMatrix.getValue(
+								measurementType, referenceFiles[column], row);
 						referencePeakCount++;
 					}
 				}
@@ -364,19 +355,13 @@ public class HeatMapTask extends AbstractTask {
 
 				// Divide the area or height of each peak by the average of the
 				// area or height of the reference peaks in each row
-				for (int column = 0; column < shownDataFiles.size(); column++) {
+				for (int column = 0; column < shownFiles.length; column++) {
 					double value = Double.NaN;
-					if (rowPeak.getPeak(shownDataFiles.get(column)) != null) {
-
-						ChromatographicPeak peak = rowPeak
-								.getPeak(shownDataFiles.get(column));
-						if (area) {
+					if (featureMatrix.isPresent(shownFiles[column], row)) {
 
-							value = peak.getArea() / referenceAverage;
-						} else {
-
-							value = peak.getHeight() / referenceAverage;
-						}
+						value = featureMatrix.getValue(measurementType,
+								shownFiles[column], row)
+								/ referenceAverage;
 						if (log) {
 
 							value = Math.log(value);
@@ -495,28 +480,34 @@ public class HeatMapTask extends AbstractTask {
 		// data files that should be in the heat map
 		List<RawDataFile> shownDataFiles = nonReferenceDataFiles;
 
-		for (int row = 0, rowIndex = 0; row < peakList.getNumberOfRows(); row++) {
-			PeakListRow rowPeak = peakList.getRow(row);
+		FeatureMatrix featureMatrix = FeatureMatrix.getFeatureMatrix(peakList);
+		PeakMeasurementType measurementType = area
+				? PeakMeasurementType.AREA
+				: PeakMeasurementType.HEIGHT;
+		int referenceFiles[] = getFileIndexes(featureMatrix, referenceDataFiles);
+		int shownFiles[] = getFileIndexes(featureMatrix, shownDataFiles);
+		PeakListRow rows[] = featureMatrix.getRows();
+
+		// Group of each shown data file
+		String shownFileGroups[] = new String[shownDataFiles.size()];
+		for (int dataColumn = 0; dataColumn < shownFileGroups.length; dataColumn++) {
+			shownFileGroups[dataColumn] = String.valueOf(project
+					.getParameterValue(selectedParameter,
+							shownDataFiles.get(dataColumn)));
+		}
+
+		for (int row = 0, rowIndex = 0; row < rows.length; row++) {
+			PeakListRow rowPeak = rows[row];
 			if (!onlyIdentified
 					|| (onlyIdentified && rowPeak.getPeakIdentities().length > 0)) {
 				// Average area or height of the reference group
 				meanControlStats.clear();
-				for (int column = 0; column < referenceDataFiles.size(); column++) {
-
-					if (rowPeak.getPeak(referenceDataFiles.get(column)) != null) {
-
-						if (area) {
+				for (int column = 0; column < referenceFiles.length; column++) {
 
-							meanControlStats.addValue(rowPeak.getPeak(
-									referenceDataFiles.get(column)).getArea());
-						} else {
-
-							meanControlStats
-									.addValue(rowPeak.getPeak(
-											referenceDataFiles.get(column))
-											.getHeight());
-						}
+					if (featureMatrix.isPresent(referenceFiles[column], row)) {
 
+						meanControlStats.addValue(featureMatrix.getValue(
+								measurementType, referenceFiles[column], row));
 					}
 				}
 
@@ -528,29 +519,20 @@ public class HeatMapTask extends AbstractTask {
 					meanGroupStats.clear();
 					if (!group.equals(referenceGroup)) {
 
-						for (int dataColumn = 0; dataColumn < shownDataFiles
-								.size(); dataColumn++) {
+						for (int dataColumn = 0; dataColumn < shownFiles.length; dataColumn++) {
 
-							Object paramValue = project.getParameterValue(
-									selectedParameter,
-									shownDataFiles.get(dataColumn));
-							if (rowPeak.getPeak(shownDataFiles.get(dataColumn)) != null
-									&& String.valueOf(paramValue).equals(group)) {
+							int file = shownFiles[dataColumn];
+							if (featureMatrix.isPresent(file, row)
+									&& shownFileGroups[dataColumn].equals(group)) {
 
-								ChromatographicPeak peak = rowPeak
-										.getPeak(shownDataFiles.get(dataColumn));
+								double peakArea = featureMatrix.getValue(
+										PeakMeasurementType.AREA, file, row);
+								if (!Double.isInfinite(peakArea)
+										&& !Double.isNaN(peakArea)) {
 
-								if (!Double.isInfinite(peak.getArea())
-										&& !Double.isNaN(peak.getArea())) {
-
-									if (area) {
-
-										meanGroupStats.addValue(peak.getArea());
-									} else {
-
-										meanGroupStats.addValue(peak
-												.getHeight());
-									}
+									meanGroupStats.addValue(featureMatrix
+											.getValue(measurementType, file,
+													row));
 								}
 
 							}
@@ -614,6 +596,17 @@ public class HeatMapTask extends AbstractTask {
 		return dataMatrix;
 	}
 
+	/**
+	 * Returns the feature matrix columns of the given data files
+	 */
+	private static int[] getFileIndexes(FeatureMatrix featureMatrix,
+			List<RawDataFile> dataFiles) {
+		int fileIndexes[] = new int[dataFiles.size()];
+		for (int i = 0; i < fileIndexes.length; i++)
+			fileIndexes[i] = featureMatrix.getFileIndex(dataFiles.get(i));
+		return fileIndexes;
+	}
+
 	private String getPvalue(DescriptiveStatistics group1,
 			DescriptiveStatistics group2) {
 		TTestImpl ttest = new TTestImpl();
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Draws the heat map into an image and saves it as PNG
+ */
+class ImageHeatMapCanvas extends HeatMapCanvas {
+
+	private static final Font font = new Font("SansSerif", Font.PLAIN, 12);
+
+	private final File file;
+	private final BufferedImage image;
+	private final Graphics2D graphics;
+
+	ImageHeatMapCanvas(File file, int width, int height) {
+		super(width, height);
+		this.file = file;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+		graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+				RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		graphics.setColor(Color.white);
+		graphics.fillRect(0, 0, width, height);
+	}
+
+	void fillRect(double x, double y, double width, double height,
+			Color color) {
+		graphics.setColor(color);
+		graphics.fill(new Rectangle2D.Double(x, y, width, height));
+	}
+
+	void drawLine(double x1, double y1, double x2, double y2, Color color) {
+		graphics.setColor(color);
+		graphics.draw(new Line2D.Double(x1, y1, x2, y2));
+	}
+
+	void drawString(String text, double x, double y, double fontSize,
+			boolean vertical, int alignment) {
+		graphics.setColor(Color.black);
+		graphics.setFont(font.deriveFont((float) fontSize));
+		double shift = graphics.getFontMetrics().stringWidth(text)
+				* alignment / 2.0;
+		AffineTransform transform = graphics.getTransform();
+		graphics.translate(x, y);
+		if (vertical)
+			graphics.rotate(-Math.PI / 2);
+		graphics.drawString(text, (float) -shift, 0f);
+		graphics.setTransform(transform);
+	}
+
+	void close() throws IOException {
+		graphics.dispose();
+		ImageIO.write(image, "png", file);
+	}
+
+}
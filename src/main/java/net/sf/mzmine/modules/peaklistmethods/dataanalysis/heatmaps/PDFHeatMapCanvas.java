@@ -0,0 +1,196 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes the heat map as a single page PDF using the standard Helvetica font
+ */
+class PDFHeatMapCanvas extends HeatMapCanvas {
+
+	// Helvetica character widths in 1/1000 em, for the characters 32..126
+	private static final int helveticaWidths[] = { 278, 278, 355, 556, 556,
+			889, 667, 191, 333, 333, 389, 584, 278, 333, 278, 278, 556, 556,
+			556, 556, 556, 556, 556, 556, 556, 556, 278, 278, 584, 584, 584,
+			556, 1015, 667, 667, 722, 722, 667, 611, 778, 722, 278, 500, 667,
+			556, 833, 722, 778, 667, 778, 722, 667, 611, 722, 667, 944, 667,
+			667, 611, 278, 278, 278, 469, 556, 333, 556, 556, 500, 556, 556,
+			278, 556, 556, 222, 222, 500, 222, 833, 556, 556, 556, 556, 333,
+			500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584 };
+
+	private final File file;
+	private final ByteArrayOutputStream compressedContent;
+	private final Writer content;
+	private Color fillColor, strokeColor;
+
+	PDFHeatMapCanvas(File file, double width, double height)
+			throws IOException {
+		super(width, height);
+		this.file = file;
+		compressedContent = new ByteArrayOutputStream();
+		content = new BufferedWriter(new OutputStreamWriter(
+				new DeflaterOutputStream(compressedContent), "ISO-8859-1"));
+		content.write("0.75 w\n");
+	}
+
+	void fillRect(double x, double y, double width, double height,
+			Color color) throws IOException {
+		if (!color.equals(fillColor)) {
+			content.write(getComponents(color) + " rg\n");
+			fillColor = color;
+		}
+		content.write(format(x) + " " + format(getHeight() - y - height)
+				+ " " + format(width) + " " + format(height) + " re f\n");
+	}
+
+	void drawLine(double x1, double y1, double x2, double y2, Color color)
+			throws IOException {
+		if (!color.equals(strokeColor)) {
+			content.write(getComponents(color) + " RG\n");
+			strokeColor = color;
+		}
+		content.write(format(x1) + " " + format(getHeight() - y1) + " m "
+				+ format(x2) + " " + format(getHeight() - y2) + " l S\n");
+	}
+
+	void drawString(String text, double x, double y, double fontSize,
+			boolean vertical, int alignment) throws IOException {
+		if (!Color.black.equals(fillColor)) {
+			content.write("0 0 0 rg\n");
+			fillColor = Color.black;
+		}
+
+		// Move the start of the text along its direction
+		double shift = getTextWidth(text, fontSize) * alignment / 2;
+		double pdfY = getHeight() - y;
+		String matrix;
+		if (vertical)
+			matrix = "0 1 -1 0 " + format(x) + " " + format(pdfY - shift);
+		else
+			matrix = "1 0 0 1 " + format(x - shift) + " " + format(pdfY);
+
+		content.write("BT /F1 " + format(fontSize) + " Tf " + matrix + " Tm ("
+				+ escape(text) + ") Tj ET\n");
+	}
+
+	void close() throws IOException {
+		content.close();
+		byte stream[] = compressedContent.toByteArray();
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			long offsets[] = new long[6];
+			long position = 0;
+			position += write(out, "%PDF-1.4\n");
+			offsets[1] = position;
+			position += write(out,
+					"1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+			offsets[2] = position;
+			position += write(out,
+					"2 0 obj\n<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+			offsets[3] = position;
+			position += write(out, "3 0 obj\n<< /Type /Page /Parent 2 0 R "
+					+ "/MediaBox [0 0 " + format(getWidth()) + " "
+					+ format(getHeight()) + "] "
+					+ "/Resources << /Font << /F1 5 0 R >> >> "
+					+ "/Contents 4 0 R >>\nendobj\n");
+			offsets[4] = position;
+			position += write(out, "4 0 obj\n<< /Length " + stream.length
+					+ " /Filter /FlateDecode >>\nstream\n");
+			out.write(stream);
+			position += stream.length;
+			position += write(out, "\nendstream\nendobj\n");
+			offsets[5] = position;
+			position += write(out, "5 0 obj\n<< /Type /Font /Subtype /Type1 "
+					+ "/BaseFont /Helvetica /Encoding /WinAnsiEncoding >>\nendobj\n");
+
+			StringBuilder xref = new StringBuilder();
+			xref.append("xref\n0 6\n0000000000 65535 f \n");
+			for (int i = 1; i < offsets.length; i++) {
+				String offset = String.valueOf(offsets[i]);
+				for (int j = offset.length(); j < 10; j++)
+					xref.append('0');
+				xref.append(offset);
+				xref.append(" 00000 n \n");
+			}
+			xref.append("trailer\n<< /Size 6 /Root 1 0 R >>\nstartxref\n");
+			xref.append(position);
+			xref.append("\n%%EOF\n");
+			write(out, xref.toString());
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int write(OutputStream out, String text) throws IOException {
+		byte bytes[] = text.getBytes("ISO-8859-1");
+		out.write(bytes);
+		return bytes.length;
+	}
+
+	private static String getComponents(Color color) {
+		return getComponent(color.getRed()) + " "
+				+ getComponent(color.getGreen()) + " "
+				+ getComponent(color.getBlue());
+	}
+
+	private static String getComponent(int value) {
+		return String.valueOf(Math.round(value / 0.255) / 1000.0);
+	}
+
+	private static double getTextWidth(String text, double fontSize) {
+		double width = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if ((c >= 32) && (c <= 126))
+				width += helveticaWidths[c - 32];
+			else
+				width += 556;
+		}
+		return width * fontSize / 1000;
+	}
+
+	/**
+	 * Escapes a text for a PDF string. Characters outside of Latin-1 can't be
+	 * shown with the standard font, so they are replaced by '?'.
+	 */
+	private static String escape(String text) {
+		StringBuilder escaped = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if ((c == '(') || (c == ')') || (c == '\\'))
+				escaped.append('\\');
+			escaped.append((c > 255) ? '?' : c);
+		}
+		return escaped.toString();
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the heat map as SVG
+ */
+class SVGHeatMapCanvas extends HeatMapCanvas {
+
+	private static final String anchors[] = { "start", "middle", "end" };
+
+	private final Writer writer;
+
+	SVGHeatMapCanvas(File file, double width, double height)
+			throws IOException {
+		super(width, height);
+		writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\""
+				+ format(width) + "pt\" height=\"" + format(height)
+				+ "pt\" viewBox=\"0 0 " + format(width) + " "
+				+ format(height) + "\">\n");
+		writer.write("<rect x=\"0\" y=\"0\" width=\"" + format(width)
+				+ "\" height=\"" + format(height) + "\" fill=\"#ffffff\"/>\n");
+	}
+
+	void fillRect(double x, double y, double width, double height,
+			Color color) throws IOException {
+		writer.write("<rect x=\"" + format(x) + "\" y=\"" + format(y)
+				+ "\" width=\"" + format(width) + "\" height=\""
+				+ format(height) + "\" fill=\"" + toHex(color) + "\"/>\n");
+	}
+
+	void drawLine(double x1, double y1, double x2, double y2, Color color)
+			throws IOException {
+		writer.write("<line x1=\"" + format(x1) + "\" y1=\"" + format(y1)
+				+ "\" x2=\"" + format(x2) + "\" y2=\"" + format(y2)
+				+ "\" stroke=\"" + toHex(color)
+				+ "\" stroke-width=\"0.75\"/>\n");
+	}
+
+	void drawString(String text, double x, double y, double fontSize,
+			boolean vertical, int alignment) throws IOException {
+		writer.write("<text x=\"" + format(x) + "\" y=\"" + format(y)
+				+ "\" font-family=\"Helvetica, Arial, sans-serif\" font-size=\""
+				+ format(fontSize) + "\" text-anchor=\"" + anchors[alignment]
+				+ "\"");
+		if (vertical)
+			writer.write(" transform=\"rotate(-90 " + format(x) + " "
+					+ format(y) + ")\"");
+		writer.write(">" + escape(text) + "</text>\n");
+	}
+
+	void close() throws IOException {
+		writer.write("</svg>\n");
+		writer.close();
+	}
+
+	private static String escape(String text) {
+		StringBuilder escaped = new StringBuilder();
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				escaped.append("&amp;");
+				break;
+			case '<':
+				escaped.append("&lt;");
+				break;
+			case '>':
+				escaped.append("&gt;");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+}
@@ -22,10 +22,10 @@ package net.sf.mzmine.modules.peaklistmethods.dataanalysis.rtmzplots.cvplot;
 import java.util.Vector;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.data.ChromatographicPeak;
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.FeatureMatrix;
 import net.sf.mzmine.modules.peaklistmethods.dataanalysis.rtmzplots.RTMZDataset;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.util.CollectionUtils;
@@ -47,8 +47,6 @@ public class CVDataset extends AbstractXYZDataset implements RTMZDataset {
 
 	public CVDataset(PeakList alignedPeakList, ParameterSet parameters) {
 
-		int numOfRows = alignedPeakList.getNumberOfRows();
-
 		RawDataFile selectedFiles[] = parameters.getParameter(
 				CVParameters.dataFiles).getValue();
 		PeakMeasurementType measurementType = parameters.getParameter(
@@ -73,26 +71,21 @@ public class CVDataset extends AbstractXYZDataset implements RTMZDataset {
 		Vector<Double> colorCoordsV = new Vector<Double>();
 		Vector<PeakListRow> peakListRowsV = new Vector<PeakListRow>();
 
-		for (int rowIndex = 0; rowIndex < numOfRows; rowIndex++) {
+		FeatureMatrix featureMatrix = FeatureMatrix
+				.getFeatureMatrix(alignedPeakList);
+		PeakListRow rows[] = featureMatrix.getRows();
+
+		for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
 
-			PeakListRow row = alignedPeakList.getRow(rowIndex);
+			PeakListRow row = rows[rowIndex];
 
 			// Collect available peak intensities for selected files
-			Vector<Double> peakIntensities = new Vector<Double>();
-			for (int fileIndex = 0; fileIndex < selectedFiles.length; fileIndex++) {
-				ChromatographicPeak p = row.getPeak(selectedFiles[fileIndex]);
-				if (p != null) {
-					if (measurementType == PeakMeasurementType.AREA)
-						peakIntensities.add(p.getArea());
-					else
-						peakIntensities.add(p.getHeight());
-				}
-			}
+			double[] ints = featureMatrix.getPresentValues(measurementType,
+					rowIndex, selectedFiles);
 
 			// If there are at least two measurements available for this peak
 			// then calc CV and include this peak in the plot
-			if (peakIntensities.size() > 1) {
-				double[] ints = CollectionUtils.toDoubleArray(peakIntensities);
+			if (ints.length > 1) {
 				Double cv = MathUtils.calcCV(ints);
 
 				Double rt = row.getAverageRT();
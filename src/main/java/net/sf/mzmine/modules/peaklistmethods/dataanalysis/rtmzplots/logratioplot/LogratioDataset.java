@@ -22,10 +22,10 @@ package net.sf.mzmine.modules.peaklistmethods.dataanalysis.rtmzplots.logratioplo
 import java.util.Vector;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.data.ChromatographicPeak;
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.FeatureMatrix;
 import net.sf.mzmine.modules.peaklistmethods.dataanalysis.rtmzplots.RTMZDataset;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.util.CollectionUtils;
@@ -46,8 +46,6 @@ public class LogratioDataset extends AbstractXYZDataset implements RTMZDataset {
 	private String datasetTitle;
 
 	public LogratioDataset(PeakList alignedPeakList, ParameterSet parameters) {
-		int numOfRows = alignedPeakList.getNumberOfRows();
-
 		RawDataFile groupOneFiles[] = parameters.getParameter(
 				LogratioParameters.groupOneFiles).getValue();
 		RawDataFile groupTwoFiles[] = parameters.getParameter(
@@ -74,42 +72,25 @@ public class LogratioDataset extends AbstractXYZDataset implements RTMZDataset {
 		Vector<Double> colorCoordsV = new Vector<Double>();
 		Vector<PeakListRow> peakListRowsV = new Vector<PeakListRow>();
 
-		for (int rowIndex = 0; rowIndex < numOfRows; rowIndex++) {
+		FeatureMatrix featureMatrix = FeatureMatrix
+				.getFeatureMatrix(alignedPeakList);
+		PeakListRow rows[] = featureMatrix.getRows();
+
+		for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
 
-			PeakListRow row = alignedPeakList.getRow(rowIndex);
+			PeakListRow row = rows[rowIndex];
 
 			// Collect available peak intensities for selected files
-			Vector<Double> groupOnePeakIntensities = new Vector<Double>();
-			for (int fileIndex = 0; fileIndex < groupOneFiles.length; fileIndex++) {
-				ChromatographicPeak p = row.getPeak(groupOneFiles[fileIndex]);
-				if (p != null) {
-					if (measurementType == PeakMeasurementType.AREA)
-						groupOnePeakIntensities.add(p.getArea());
-					else
-						groupOnePeakIntensities.add(p.getHeight());
-				}
-			}
-			Vector<Double> groupTwoPeakIntensities = new Vector<Double>();
-			for (int fileIndex = 0; fileIndex < groupTwoFiles.length; fileIndex++) {
-				ChromatographicPeak p = row.getPeak(groupTwoFiles[fileIndex]);
-				if (p != null) {
-					if (measurementType == PeakMeasurementType.AREA)
-						groupTwoPeakIntensities.add(p.getArea());
-					else
-						groupTwoPeakIntensities.add(p.getHeight());
-				}
-			}
+			double[] groupOneInts = featureMatrix.getPresentValues(
+					measurementType, rowIndex, groupOneFiles);
+			double[] groupTwoInts = featureMatrix.getPresentValues(
+					measurementType, rowIndex, groupTwoFiles);
 
 			// If there are at least one measurement from each group for this
 			// peak then calc logratio and include this peak in the plot
-			if ((groupOnePeakIntensities.size() > 0)
-					&& (groupTwoPeakIntensities.size() > 0)) {
+			if ((groupOneInts.length > 0) && (groupTwoInts.length > 0)) {
 
-				double[] groupOneInts = CollectionUtils
-						.toDoubleArray(groupOnePeakIntensities);
 				double groupOneAvg = MathUtils.calcAvg(groupOneInts);
-				double[] groupTwoInts = CollectionUtils
-						.toDoubleArray(groupTwoPeakIntensities);
 				double groupTwoAvg = MathUtils.calcAvg(groupTwoInts);
 				double logratio = Double.NaN;
 				if (groupTwoAvg != 0.0)
@@ -64,7 +64,22 @@ class Gap {
 
 	}
 
-	void offerNextScan(Scan scan) {
+	Range getMZRange() {
+		return mzRange;
+	}
+
+	/**
+	 * Offers the next scan to this gap. The data points of the scan are passed
+	 * as primitive arrays sorted by m/z, so the same arrays can be shared by
+	 * all gaps of one raw data file. The base peak within the m/z range of
+	 * this gap is found by the caller for all gaps at once.
+	 * 
+	 * @param basePeakIndex
+	 *            index of the base peak in the arrays, or -1 if there is no
+	 *            data point in the m/z range of this gap
+	 */
+	void offerNextScan(Scan scan, double mzValues[], double intensityValues[],
+			int basePeakIndex) {
 
 		double scanRT = scan.getRetentionTime();
 
@@ -76,13 +91,11 @@ class Gap {
 		if ((scanRT > rtRange.getMax()) && (currentPeakDataPoints == null))
 			return;
 
-		// Find top m/z peak in our range
-		DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
-
 		GapDataPoint currentDataPoint;
-		if (basePeak != null) {
+		if (basePeakIndex >= 0) {
 			currentDataPoint = new GapDataPoint(scan.getScanNumber(),
-					basePeak.getMZ(), scanRT, basePeak.getIntensity());
+					mzValues[basePeakIndex], scanRT,
+					intensityValues[basePeakIndex]);
 		} else {
 			currentDataPoint = new GapDataPoint(scan.getScanNumber(),
 					mzRange.getAverage(), scanRT, 0);
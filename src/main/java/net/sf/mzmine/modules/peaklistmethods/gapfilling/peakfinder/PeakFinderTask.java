@@ -19,6 +19,8 @@
 
 package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Vector;
 import java.util.logging.Logger;
 
@@ -28,9 +30,9 @@ import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.data.Scan;
-import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.AlignedPeakList;
+import net.sf.mzmine.data.impl.AlignedPeakListRow;
 import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.data.impl.SimplePeakListRow;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
@@ -39,11 +41,13 @@ import net.sf.mzmine.project.MZmineProject;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.ScanUtils;
 
 class PeakFinderTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
-	private PeakList peakList, processedPeakList;
+	private PeakList peakList;
+	private AlignedPeakList processedPeakList;
 	private String suffix;
 	private double intTolerance;
 	private MZTolerance mzTolerance;
@@ -54,6 +58,10 @@ class PeakFinderTask extends AbstractTask {
 	private boolean MASTERLIST = true, removeOriginal;
 	private int masterSample = 0;
 
+	// Reusable arrays for reading the scans
+	private double mzBuffer[] = new double[0], intensityBuffer[] = new double[0];
+	private int basePeakIndexes[] = new int[0];
+
 	PeakFinderTask(PeakList peakList, ParameterSet parameters) {
 
 		this.peakList = peakList;
@@ -84,13 +92,14 @@ class PeakFinderTask extends AbstractTask {
 		}
 
 		// Create new peak list
-		processedPeakList = new SimplePeakList(peakList + " " + suffix,
+		processedPeakList = new AlignedPeakList(peakList + " " + suffix,
 				peakList.getRawDataFiles());
 
 		// Fill new peak list with empty rows
 		for (int row = 0; row < peakList.getNumberOfRows(); row++) {
 			PeakListRow sourceRow = peakList.getRow(row);
-			PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
+			PeakListRow newRow = new AlignedPeakListRow(sourceRow.getID(),
+					processedPeakList);
 			newRow.setComment(sourceRow.getComment());
 			for (PeakIdentity ident : sourceRow.getPeakIdentities()) {
 				newRow.addPeakIdentity(ident, false);
@@ -162,6 +171,10 @@ class PeakFinderTask extends AbstractTask {
 					continue;
 				}
 
+				// Sort the gaps by m/z, so all of them can be filled in one
+				// pass over each scan
+				Range gapMZRanges[] = sortGapsByMZ(gaps);
+
 				// Get all scans of this data file
 				int scanNumbers[] = dataFile.getScanNumbers(1);
 
@@ -177,9 +190,7 @@ class PeakFinderTask extends AbstractTask {
 					Scan scan = dataFile.getScan(scanNumber);
 
 					// Feed this scan to all gaps
-					for (Gap gap : gaps) {
-						gap.offerNextScan(scan);
-					}
+					offerScanToGaps(scan, gaps, gapMZRanges);
 
 					processedScans++;
 				}
@@ -302,6 +313,10 @@ class PeakFinderTask extends AbstractTask {
 					continue;
 				}
 
+				// Sort the gaps by m/z, so all of them can be filled in one
+				// pass over each scan
+				Range gapMZRanges[] = sortGapsByMZ(gaps);
+
 				// Get all scans of this data file
 				int scanNumbers[] = datafile1.getScanNumbers(1);
 
@@ -317,9 +332,7 @@ class PeakFinderTask extends AbstractTask {
 					Scan scan = datafile1.getScan(scanNumber);
 
 					// Feed this scan to all gaps
-					for (Gap gap : gaps) {
-						gap.offerNextScan(scan);
-					}
+					offerScanToGaps(scan, gaps, gapMZRanges);
 					processedScans++;
 				}
 
@@ -331,6 +344,57 @@ class PeakFinderTask extends AbstractTask {
 		}
 	}
 
+	/**
+	 * Sorts the gaps by the minimum of their m/z range
+	 * 
+	 * @return m/z ranges of the sorted gaps
+	 */
+	private Range[] sortGapsByMZ(Vector<Gap> gaps) {
+
+		Collections.sort(gaps, new Comparator<Gap>() {
+			public int compare(Gap gap1, Gap gap2) {
+				return Double.compare(gap1.getMZRange().getMin(), gap2
+						.getMZRange().getMin());
+			}
+		});
+
+		Range gapMZRanges[] = new Range[gaps.size()];
+		for (int i = 0; i < gapMZRanges.length; i++)
+			gapMZRanges[i] = gaps.get(i).getMZRange();
+
+		if (basePeakIndexes.length < gapMZRanges.length)
+			basePeakIndexes = new int[gapMZRanges.length];
+
+		return gapMZRanges;
+	}
+
+	/**
+	 * Reads the data points of given scan into the reusable arrays and offers
+	 * them to all gaps, so the scan is read only once. The base peaks of all
+	 * gaps are found in a single pass over the scan.
+	 */
+	private void offerScanToGaps(Scan scan, Vector<Gap> gaps,
+			Range gapMZRanges[]) {
+
+		final int numOfDataPoints = scan.getNumberOfDataPoints();
+		if (mzBuffer.length < numOfDataPoints) {
+			mzBuffer = new double[numOfDataPoints];
+			intensityBuffer = new double[numOfDataPoints];
+		}
+
+		final int readDataPoints = scan
+				.getDataPoints(mzBuffer, intensityBuffer);
+
+		ScanUtils.findBasePeakIndexes(mzBuffer, intensityBuffer,
+				readDataPoints, gapMZRanges, basePeakIndexes);
+
+		for (int i = 0; i < gapMZRanges.length; i++) {
+			gaps.get(i).offerNextScan(scan, mzBuffer, intensityBuffer,
+					basePeakIndexes[i]);
+		}
+
+	}
+
 	public double getFinishedPercentage() {
 		if (totalScans == 0) {
 			return 0;
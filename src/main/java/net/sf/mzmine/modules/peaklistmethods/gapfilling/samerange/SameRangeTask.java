@@ -29,9 +29,9 @@ import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.data.Scan;
 import net.sf.mzmine.data.impl.SimpleDataPoint;
-import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.AlignedPeakList;
+import net.sf.mzmine.data.impl.AlignedPeakListRow;
 import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
-import net.sf.mzmine.data.impl.SimplePeakListRow;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
@@ -45,7 +45,8 @@ class SameRangeTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private PeakList peakList, processedPeakList;
+	private PeakList peakList;
+	private AlignedPeakList processedPeakList;
 
 	private String suffix;
 	private MZTolerance mzTolerance;
@@ -82,7 +83,8 @@ class SameRangeTask extends AbstractTask {
 		RawDataFile columns[] = peakList.getRawDataFiles();
 
 		// Create new peak list
-		processedPeakList = new SimplePeakList(peakList + " " + suffix, columns);
+		processedPeakList = new AlignedPeakList(peakList + " " + suffix,
+				columns);
 
 		// Fill gaps in given column
 		for (int row = 0; row < totalRows; row++) {
@@ -92,7 +94,8 @@ class SameRangeTask extends AbstractTask {
 				return;
 
 			PeakListRow sourceRow = peakList.getRow(row);
-			PeakListRow newRow = new SimplePeakListRow(sourceRow.getID());
+			PeakListRow newRow = new AlignedPeakListRow(sourceRow.getID(),
+					processedPeakList);
 
 			// Copy comment
 			newRow.setComment(sourceRow.getComment());
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+
+/**
+ * Searches items (peak list rows or database entries) for matches in
+ * parallel. The items are searched by a fixed thread pool without changing
+ * the peak list. The matches of all items are then sorted and added by the
+ * calling thread, so the identities are added in the same order regardless of
+ * the number of threads.
+ * 
+ * @param <MatchType>
+ *            match found by the search, ordered as it should be added
+ */
+public abstract class ParallelRowSearch<MatchType extends Comparable<MatchType>> {
+
+	// Number of items searched by one job
+	private static final int ITEMS_PER_JOB = 16;
+
+	private final AtomicInteger searchedItems = new AtomicInteger();
+
+	/**
+	 * Finds the matches of one item and adds them to the given list. Called
+	 * concurrently from the worker threads, so it must not modify any shared
+	 * state.
+	 */
+	protected abstract void searchItem(int item, List<MatchType> matches)
+			throws Exception;
+
+	/**
+	 * Adds one match to the peak list. Called from the thread which runs
+	 * search(), in the order of the matches.
+	 */
+	protected abstract void addMatch(MatchType match);
+
+	/**
+	 * Returns the number of items searched so far
+	 */
+	public int getSearchedItems() {
+		return searchedItems.get();
+	}
+
+	/**
+	 * Searches items 0 to numOfItems - 1 using the number of threads set in
+	 * the preferences, then adds the matches. Nothing is added if the task is
+	 * canceled during the search.
+	 */
+	public void search(final int numOfItems, final AbstractTask task)
+			throws Exception {
+
+		int numOfThreads = 1;
+		if (MZmineCore.getConfiguration() != null)
+			numOfThreads = MZmineCore.getConfiguration().getPreferences()
+					.getParameter(MZminePreferences.numOfThreads)
+					.getNumOfThreads();
+
+		List<MatchType> matches = new ArrayList<MatchType>();
+
+		if ((numOfThreads <= 1) || (numOfItems <= ITEMS_PER_JOB)) {
+			for (int item = 0; item < numOfItems; item++) {
+				if (task.isCanceled())
+					return;
+				searchItem(item, matches);
+				searchedItems.incrementAndGet();
+			}
+		} else {
+			ExecutorService executor = MZmineCore.getParallelExecutor();
+			List<Future<List<MatchType>>> jobs = new ArrayList<Future<List<MatchType>>>();
+			try {
+				for (int first = 0; first < numOfItems; first += ITEMS_PER_JOB) {
+					final int start = first;
+					final int end = Math.min(first + ITEMS_PER_JOB, numOfItems);
+					jobs.add(executor.submit(new Callable<List<MatchType>>() {
+						public List<MatchType> call() throws Exception {
+							List<MatchType> jobMatches = new ArrayList<MatchType>();
+							for (int item = start; item < end; item++) {
+								if (task.isCanceled())
+									break;
+								searchItem(item, jobMatches);
+								searchedItems.incrementAndGet();
+							}
+							return jobMatches;
+						}
+					}));
+				}
+				for (Future<List<MatchType>> job : jobs) {
+					try {
+						matches.addAll(job.get());
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof Exception)
+							throw (Exception) cause;
+						throw e;
+					}
+				}
+			} finally {
+				for (Future<List<MatchType>> job : jobs)
+					job.cancel(false);
+			}
+		}
+
+		if (task.isCanceled())
+			return;
+
+		Collections.sort(matches);
+		for (MatchType match : matches) {
+			if (task.isCanceled())
+				return;
+			addMatch(match);
+		}
+
+	}
+
+}
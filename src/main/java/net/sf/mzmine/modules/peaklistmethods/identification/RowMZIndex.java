@@ -0,0 +1,137 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Peak list rows sorted by their average m/z, so the rows inside an m/z range
+ * can be found by binary search. Rows are referred to by their positions in
+ * the array the index was built from.
+ */
+public class RowMZIndex {
+
+	// Row positions sorted by m/z, and the sorted m/z values
+	private final int byMZ[];
+	private final double sortedMZ[];
+
+	public RowMZIndex(PeakListRow rows[]) {
+
+		final double mzValues[] = new double[rows.length];
+		Integer positions[] = new Integer[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			mzValues[i] = rows[i].getAverageMZ();
+			positions[i] = i;
+		}
+		Arrays.sort(positions, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(mzValues[a], mzValues[b]);
+			}
+		});
+
+		byMZ = new int[rows.length];
+		sortedMZ = new double[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			byMZ[i] = positions[i];
+			sortedMZ[i] = mzValues[byMZ[i]];
+		}
+
+	}
+
+	/**
+	 * Returns the positions of the rows whose average m/z is inside the given
+	 * range, in m/z order
+	 */
+	public int[] getRowsInsideMZRange(Range mzRange) {
+		int start = lowerBound(mzRange.getMin());
+		int end = upperBound(mzRange.getMax());
+		if (end <= start)
+			return new int[0];
+		return Arrays.copyOfRange(byMZ, start, end);
+	}
+
+	/**
+	 * Returns the positions of the rows whose average m/z is inside any of the
+	 * given ranges. Each position is returned only once.
+	 */
+	public int[] getRowsInsideMZRanges(Range mzRanges[]) {
+
+		Range sortedRanges[] = mzRanges.clone();
+		Arrays.sort(sortedRanges, new Comparator<Range>() {
+			public int compare(Range a, Range b) {
+				return Double.compare(a.getMin(), b.getMin());
+			}
+		});
+
+		// Ranges are processed by their minimum, so all rows below the end
+		// of the previous ranges have been already found
+		int found[] = new int[0];
+		int numFound = 0, covered = 0;
+		for (Range mzRange : sortedRanges) {
+			int start = Math.max(lowerBound(mzRange.getMin()), covered);
+			int end = upperBound(mzRange.getMax());
+			if (end <= start)
+				continue;
+			if (numFound + end - start > found.length)
+				found = Arrays.copyOf(found,
+						Math.max(found.length * 2, numFound + end - start));
+			System.arraycopy(byMZ, start, found, numFound, end - start);
+			numFound += end - start;
+			covered = end;
+		}
+
+		return Arrays.copyOf(found, numFound);
+	}
+
+	/**
+	 * Index of the first m/z value not less than the given value
+	 */
+	private int lowerBound(double mzValue) {
+		int low = 0, high = sortedMZ.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sortedMZ[middle] < mzValue)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Index of the first m/z value greater than the given value
+	 */
+	private int upperBound(double mzValue) {
+		int low = 0, high = sortedMZ.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sortedMZ[middle] <= mzValue)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+}
@@ -19,6 +19,7 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.adductsearch;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,12 +27,15 @@ import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.peaklistmethods.identification.ParallelRowSearch;
+import net.sf.mzmine.modules.peaklistmethods.identification.RowMZIndex;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.PeakListRowSorter;
+import net.sf.mzmine.util.Range;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
 
@@ -43,8 +47,8 @@ public class AdductSearchTask extends AbstractTask {
 	private static final Logger LOG = Logger.getLogger(AdductSearchTask.class
 			.getName());
 
-	private int finishedRows;
 	private int totalRows;
+	private ParallelRowSearch<AdductMatch> search;
 	private final PeakList peakList;
 
 	private final RTTolerance rtTolerance;
@@ -67,7 +71,6 @@ public class AdductSearchTask extends AbstractTask {
 		peakList = list;
 		parameters = parameterSet;
 
-		finishedRows = 0;
 		totalRows = 0;
 
 		rtTolerance = parameterSet.getParameter(RT_TOLERANCE).getValue();
@@ -80,8 +83,8 @@ public class AdductSearchTask extends AbstractTask {
 	@Override
 	public double getFinishedPercentage() {
 
-		return totalRows == 0 ? 0.0 : (double) finishedRows
-				/ (double) totalRows;
+		return totalRows == 0 || search == null ? 0.0 : (double) search
+				.getSearchedItems() / (double) totalRows;
 	}
 
 	@Override
@@ -125,7 +128,7 @@ public class AdductSearchTask extends AbstractTask {
 	/**
 	 * Search peak-list for adducts.
 	 */
-	private void searchAdducts() {
+	private void searchAdducts() throws Exception {
 
 		// Get rows.
 		final PeakListRow[] rows = peakList.getRows();
@@ -135,49 +138,55 @@ public class AdductSearchTask extends AbstractTask {
 		Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height,
 				SortingDirection.Descending));
 
-		// Compare each pair of rows against each other.
-		for (int i = 0; !isCanceled() && i < totalRows; i++) {
+		// Each row is searched for the adducts it may be the main peak of, by
+		// looking up the expected adduct m/z values in the index.
+		final RowMZIndex index = new RowMZIndex(rows);
+		search = new ParallelRowSearch<AdductMatch>() {
 
-			for (int j = i + 1; !isCanceled() && j < totalRows; j++) {
+			protected void searchItem(final int main,
+					final List<AdductMatch> matches) {
 
-				// Treat the smaller m/z peak as main peak and check if the
-				// bigger one may be an adduct.
-				if (rows[i].getAverageMZ() > rows[j].getAverageMZ()) {
+				final PeakListRow mainRow = rows[main];
+				final double mainMZ = mainRow.getAverageMZ();
 
-					findAdducts(rows[j], rows[i]);
+				for (int adduct = 0; adduct < selectedAdducts.length; adduct++) {
 
-				} else {
+					final Range mzRange = mzTolerance.getToleranceRange(mainMZ
+							+ selectedAdducts[adduct].getMassDifference());
 
-					findAdducts(rows[i], rows[j]);
-				}
-			}
+					for (final int candidate : index
+							.getRowsInsideMZRange(mzRange)) {
 
-			finishedRows++;
-		}
-	}
+						// The smaller m/z peak is the main peak, or the higher
+						// one if both have the same m/z.
+						final double candidateMZ = rows[candidate]
+								.getAverageMZ();
+						final boolean isMain = mainMZ < candidateMZ
+								|| (mainMZ == candidateMZ && main < candidate);
 
-	/**
-	 * Check if candidate peak may be a possible adduct of a given main peak.
-	 * 
-	 * @param mainRow
-	 *            main peak.
-	 * @param possibleAdduct
-	 *            candidate adduct peak.
-	 */
-	private void findAdducts(final PeakListRow mainRow,
-			final PeakListRow possibleAdduct) {
+						if (isMain
+								&& checkAdduct(mainRow, rows[candidate],
+										selectedAdducts[adduct])) {
+							matches.add(new AdductMatch(main, candidate,
+									adduct));
+						}
+					}
+				}
+			}
 
-		for (final AdductType adduct : selectedAdducts) {
+			protected void addMatch(final AdductMatch match) {
 
-			if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+				final PeakListRow mainRow = rows[match.mainRow];
+				final PeakListRow possibleAdduct = rows[match.adductRow];
 
 				// Add adduct identity and notify GUI.
 				possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow,
-						adduct), false);
+						selectedAdducts[match.adduct]), false);
 				MZmineCore.getCurrentProject().notifyObjectChanged(
 						possibleAdduct, false);
 			}
-		}
+		};
+		search.search(totalRows, this);
 	}
 
 	/**
@@ -209,4 +218,36 @@ public class AdductSearchTask extends AbstractTask {
 				&& possibleAdduct.getAverageHeight() <= mainPeak
 						.getAverageHeight() * maxAdductHeight;
 	}
+
+	/**
+	 * Adduct found for a pair of rows. Matches are ordered like the pairs of
+	 * rows in height order, followed by the order of the selected adducts.
+	 */
+	private static class AdductMatch implements Comparable<AdductMatch> {
+
+		private final int mainRow, adductRow, adduct;
+
+		private AdductMatch(final int mainRow, final int adductRow,
+				final int adduct) {
+			this.mainRow = mainRow;
+			this.adductRow = adductRow;
+			this.adduct = adduct;
+		}
+
+		public int compareTo(final AdductMatch match) {
+
+			int result = compare(Math.min(mainRow, adductRow),
+					Math.min(match.mainRow, match.adductRow));
+			if (result == 0)
+				result = compare(Math.max(mainRow, adductRow),
+						Math.max(match.mainRow, match.adductRow));
+			if (result == 0)
+				result = compare(adduct, match.adduct);
+			return result;
+		}
+
+		private static int compare(final int a, final int b) {
+			return a < b ? -1 : (a == b ? 0 : 1);
+		}
+	}
 }
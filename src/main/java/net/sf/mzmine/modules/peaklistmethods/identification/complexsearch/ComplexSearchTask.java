@@ -20,6 +20,10 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.complexsearch;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.data.IonizationType;
@@ -28,6 +32,7 @@ import net.sf.mzmine.data.PeakListRow;
 import net.sf.mzmine.data.impl.SimplePeakList;
 import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.peaklistmethods.identification.ParallelRowSearch;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.RTTolerance;
@@ -42,7 +47,12 @@ public class ComplexSearchTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private int finishedRows, totalRows;
+	// Margin for rounding errors when looking up the m/z of the second row,
+	// the candidates are verified by checkComplex()
+	private static final double MZ_MARGIN = 0.000001;
+
+	private int totalRows;
+	private ParallelRowSearch<ComplexMatch> search;
 	private PeakList peakList;
 
 	private RTTolerance rtTolerance;
@@ -75,9 +85,9 @@ public class ComplexSearchTask extends AbstractTask {
 	 * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
 	 */
 	public double getFinishedPercentage() {
-		if (totalRows == 0)
+		if ((totalRows == 0) || (search == null))
 			return 0;
-		return ((double) finishedRows) / totalRows;
+		return ((double) search.getSearchedItems()) / totalRows;
 	}
 
 	/**
@@ -96,7 +106,7 @@ public class ComplexSearchTask extends AbstractTask {
 
 		logger.info("Starting complex search in " + peakList);
 
-		PeakListRow rows[] = peakList.getRows();
+		final PeakListRow rows[] = peakList.getRows();
 		totalRows = rows.length;
 
 		// Sort the array by m/z so we start with biggest peak (possible
@@ -104,38 +114,77 @@ public class ComplexSearchTask extends AbstractTask {
 		Arrays.sort(rows, new PeakListRowSorter(SortingProperty.MZ,
 				SortingDirection.Descending));
 
-		// Compare each three rows against each other
-		for (int i = 0; i < totalRows; i++) {
+		// Positions of the rows in the peak list, which is also the order of
+		// the rows returned by its range queries
+		final Map<PeakListRow, Integer> rowPositions = new HashMap<PeakListRow, Integer>();
+		PeakListRow peakListRows[] = peakList.getRows();
+		for (int i = 0; i < peakListRows.length; i++)
+			rowPositions.put(peakListRows[i], i);
+
+		// Each row is searched for the pairs of rows it may be a complex of.
+		// The m/z of the second row follows from the m/z of the complex and
+		// the first row, so it is looked up in the RT and m/z index of the
+		// peak list.
+		search = new ParallelRowSearch<ComplexMatch>() {
 
-			Range testRTRange = rtTolerance.getToleranceRange(rows[i]
-					.getAverageRT());
-			PeakListRow testRows[] = peakList
-					.getRowsInsideScanRange(testRTRange);
+			protected void searchItem(int i, List<ComplexMatch> matches) {
 
-			for (int j = 0; j < testRows.length; j++) {
+				Range testRTRange = rtTolerance.getToleranceRange(rows[i]
+						.getAverageRT());
+				PeakListRow testRows[] = peakList
+						.getRowsInsideScanRange(testRTRange);
 
-				for (int k = j; k < testRows.length; k++) {
+				double addedMass = 2 * ionType.getAddedMass();
+				Range complexMZRange = mzTolerance.getToleranceRange(rows[i]
+						.getAverageMZ() - ionType.getAddedMass());
 
-					// Task canceled?
-					if (isCanceled())
-						return;
+				for (PeakListRow row1 : testRows) {
 
-					// To avoid finding a complex of the peak itself and another
-					// very small m/z peak
-					if ((rows[i] == testRows[j]) || (rows[i] == testRows[k]))
+					// To avoid finding a complex of the peak itself and
+					// another very small m/z peak
+					if (rows[i] == row1)
 						continue;
 
-					if (checkComplex(rows[i], testRows[j], testRows[k]))
-						addComplexInfo(rows[i], testRows[j], testRows[k]);
+					int position1 = rowPositions.get(row1);
+					double row1MZ = row1.getAverageMZ();
+					Range row2MZRange = new Range(complexMZRange.getMin()
+							+ addedMass - row1MZ - MZ_MARGIN,
+							complexMZRange.getMax() + addedMass - row1MZ
+									+ MZ_MARGIN);
+
+					for (PeakListRow row2 : peakList
+							.getRowsInsideScanAndMZRange(testRTRange,
+									row2MZRange)) {
+						int position2 = rowPositions.get(row2);
+						if ((position2 < position1) || (rows[i] == row2))
+							continue;
+						if (checkComplex(rows[i], row1, row2))
+							matches.add(new ComplexMatch(i, position1,
+									position2, row1, row2));
+					}
 
 				}
 
 			}
 
-			finishedRows++;
-
+			protected void addMatch(ComplexMatch match) {
+				addComplexInfo(rows[match.complexRow], match.row1, match.row2);
+			}
+		};
+
+		try {
+			search.search(totalRows, this);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Complex search error", e);
+			setStatus(TaskStatus.ERROR);
+			errorMessage = e.toString();
+			return;
 		}
 
+		// Task canceled?
+		if (isCanceled())
+			return;
+
 		// Add task description to peakList
 		((SimplePeakList) peakList)
 				.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
@@ -204,4 +253,37 @@ public class ComplexSearchTask extends AbstractTask {
 		return null;
 	}
 
+	/**
+	 * Complex found for a pair of rows. Matches are ordered by the complex row
+	 * in m/z order, followed by the positions of the two rows in the peak
+	 * list.
+	 */
+	private static class ComplexMatch implements Comparable<ComplexMatch> {
+
+		private final int complexRow, position1, position2;
+		private final PeakListRow row1, row2;
+
+		private ComplexMatch(int complexRow, int position1, int position2,
+				PeakListRow row1, PeakListRow row2) {
+			this.complexRow = complexRow;
+			this.position1 = position1;
+			this.position2 = position2;
+			this.row1 = row1;
+			this.row2 = row2;
+		}
+
+		public int compareTo(ComplexMatch match) {
+			int result = compare(complexRow, match.complexRow);
+			if (result == 0)
+				result = compare(position1, match.position1);
+			if (result == 0)
+				result = compare(position2, match.position2);
+			return result;
+		}
+
+		private static int compare(int a, int b) {
+			return a < b ? -1 : (a == b ? 0 : 1);
+		}
+	}
+
 }
@@ -26,6 +26,8 @@ import net.sf.mzmine.data.impl.SimplePeakIdentity;
 import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.desktop.impl.HeadLessDesktop;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.peaklistmethods.identification.ParallelRowSearch;
+import net.sf.mzmine.modules.peaklistmethods.identification.RowMZIndex;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.RTTolerance;
@@ -35,6 +37,9 @@ import net.sf.mzmine.util.Range;
 
 import java.io.File;
 import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,7 +50,7 @@ class CustomDBSearchTask extends AbstractTask {
 	private PeakList peakList;
 
 	private String[][] databaseValues;
-	private int finishedLines = 0;
+	private ParallelRowSearch<DatabaseMatch> search;
 
 	private File dataBaseFile;
 	private String fieldSeparator;
@@ -81,9 +86,9 @@ class CustomDBSearchTask extends AbstractTask {
 	 * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
 	 */
 	public double getFinishedPercentage() {
-		if (databaseValues == null)
+		if ((databaseValues == null) || (search == null))
 			return 0;
-		return ((double) finishedLines) / databaseValues.length;
+		return ((double) search.getSearchedItems()) / databaseValues.length;
 	}
 
 	/**
@@ -106,16 +111,47 @@ class CustomDBSearchTask extends AbstractTask {
 			FileReader dbFileReader = new FileReader(dataBaseFile);
 			databaseValues = CSVParser.parse(dbFileReader,
 					fieldSeparator.charAt(0));
-			if (ignoreFirstLine)
-				finishedLines++;
-			for (; finishedLines < databaseValues.length; finishedLines++) {
+			dbFileReader.close();
+
+			final List<DatabaseEntry> entries = new ArrayList<DatabaseEntry>();
+			for (int i = ignoreFirstLine ? 1 : 0; i < databaseValues.length; i++) {
 				try {
-					processOneLine(databaseValues[finishedLines]);
+					entries.add(parseOneLine(databaseValues[i]));
 				} catch (Exception e) {
 					// ingore incorrect lines
 				}
 			}
-			dbFileReader.close();
+
+			// Rows are looked up in the index by the m/z of each entry
+			final PeakListRow rows[] = peakList.getRows();
+			final RowMZIndex index = new RowMZIndex(rows);
+			search = new ParallelRowSearch<DatabaseMatch>() {
+
+				protected void searchItem(int entry,
+						List<DatabaseMatch> matches) {
+					for (int row : findMatchingRows(entries.get(entry), rows,
+							index))
+						matches.add(new DatabaseMatch(entry, row));
+				}
+
+				protected void addMatch(DatabaseMatch match) {
+
+					DatabaseEntry entry = entries.get(match.entry);
+					PeakListRow peakRow = rows[match.row];
+
+					logger.finest("Found compound " + entry.name + " (m/z "
+							+ entry.mz + ", RT " + entry.rt + ")");
+
+					// add new identity to the row
+					peakRow.addPeakIdentity(entry.identity, false);
+
+					// Notify the GUI about the change in the project
+					MZmineCore.getCurrentProject().notifyObjectChanged(
+							peakRow, false);
+
+				}
+			};
+			search.search(entries.size(), this);
 
 		} catch (Exception e) {
 			logger.log(Level.WARNING, "Could not read file " + dataBaseFile, e);
@@ -124,6 +160,9 @@ class CustomDBSearchTask extends AbstractTask {
 			return;
 		}
 
+		if (isCanceled())
+			return;
+
 		// Add task description to peakList
 		peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
 				"Peak identification using database " + dataBaseFile,
@@ -138,7 +177,7 @@ class CustomDBSearchTask extends AbstractTask {
 
 	}
 
-	private void processOneLine(String values[]) {
+	private DatabaseEntry parseOneLine(String values[]) {
 
 		int numOfColumns = Math.min(fieldOrder.length, values.length);
 
@@ -161,35 +200,91 @@ class CustomDBSearchTask extends AbstractTask {
 		SimplePeakIdentity newIdentity = new SimplePeakIdentity(lineName,
 				lineFormula, dataBaseFile.getName(), lineID, null);
 
-		for (PeakListRow peakRow : peakList.getRows()) {
-
-			Range mzRange = mzTolerance.getToleranceRange(peakRow
-					.getAverageMZ());
-			Range rtRange = rtTolerance.getToleranceRange(peakRow
-					.getAverageRT());
+		return new DatabaseEntry(lineName, lineMZ, lineRT, newIdentity);
 
-			boolean mzMatches = (lineMZ == 0d) || mzRange.contains(lineMZ);
-			boolean rtMatches = (lineRT == 0d) || rtRange.contains(lineRT);
+	}
 
-			if (mzMatches && rtMatches) {
+	/**
+	 * Returns the positions of the rows matching given database entry, in
+	 * peak list order
+	 */
+	private int[] findMatchingRows(DatabaseEntry entry, PeakListRow rows[],
+			RowMZIndex index) {
+
+		int candidates[];
+		if (entry.mz == 0d) {
+			candidates = new int[rows.length];
+			for (int i = 0; i < rows.length; i++)
+				candidates[i] = i;
+		} else {
+			candidates = index.getRowsInsideMZRange(mzTolerance
+					.getInverseToleranceRange(entry.mz));
+		}
 
-				logger.finest("Found compound " + lineName + " (m/z " + lineMZ
-						+ ", RT " + lineRT + ")");
+		int found[] = new int[candidates.length];
+		int numFound = 0;
+		for (int i : candidates) {
 
-				// add new identity to the row
-				peakRow.addPeakIdentity(newIdentity, false);
+			Range mzRange = mzTolerance.getToleranceRange(rows[i]
+					.getAverageMZ());
+			Range rtRange = rtTolerance.getToleranceRange(rows[i]
+					.getAverageRT());
 
-				// Notify the GUI about the change in the project
-				MZmineCore.getCurrentProject().notifyObjectChanged(peakRow,
-						false);
+			boolean mzMatches = (entry.mz == 0d) || mzRange.contains(entry.mz);
+			boolean rtMatches = (entry.rt == 0d) || rtRange.contains(entry.rt);
 
-			}
+			if (mzMatches && rtMatches)
+				found[numFound++] = i;
 		}
 
+		found = Arrays.copyOf(found, numFound);
+		Arrays.sort(found);
+		return found;
+
 	}
 
 	public Object[] getCreatedObjects() {
 		return null;
 	}
 
+	/**
+	 * One line of the database file
+	 */
+	private static class DatabaseEntry {
+
+		private final String name;
+		private final double mz, rt;
+		private final SimplePeakIdentity identity;
+
+		private DatabaseEntry(String name, double mz, double rt,
+				SimplePeakIdentity identity) {
+			this.name = name;
+			this.mz = mz;
+			this.rt = rt;
+			this.identity = identity;
+		}
+	}
+
+	/**
+	 * Row matching a database entry. Matches are ordered by the database
+	 * lines, followed by the peak list order of the rows.
+	 */
+	private static class DatabaseMatch implements Comparable<DatabaseMatch> {
+
+		private final int entry, row;
+
+		private DatabaseMatch(int entry, int row) {
+			this.entry = entry;
+			this.row = row;
+		}
+
+		public int compareTo(DatabaseMatch match) {
+			if (entry != match.entry)
+				return entry < match.entry ? -1 : 1;
+			if (row != match.row)
+				return row < match.row ? -1 : 1;
+			return 0;
+		}
+	}
+
 }
@@ -19,7 +19,10 @@
 
 package net.sf.mzmine.modules.peaklistmethods.identification.fragmentsearch;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.data.DataPoint;
@@ -30,6 +33,8 @@ import net.sf.mzmine.data.Scan;
 import net.sf.mzmine.data.impl.SimplePeakList;
 import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.peaklistmethods.identification.ParallelRowSearch;
+import net.sf.mzmine.modules.peaklistmethods.identification.RowMZIndex;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.RTTolerance;
@@ -44,7 +49,8 @@ public class FragmentSearchTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private int finishedRows, totalRows;
+	private int totalRows;
+	private ParallelRowSearch<FragmentMatch> search;
 	private PeakList peakList;
 
 	private RTTolerance rtTolerance;
@@ -77,9 +83,9 @@ public class FragmentSearchTask extends AbstractTask {
 	 * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
 	 */
 	public double getFinishedPercentage() {
-		if (totalRows == 0)
+		if ((totalRows == 0) || (search == null))
 			return 0;
-		return ((double) finishedRows) / totalRows;
+		return ((double) search.getSearchedItems()) / totalRows;
 	}
 
 	/**
@@ -98,38 +104,74 @@ public class FragmentSearchTask extends AbstractTask {
 
 		logger.info("Starting fragments search in " + peakList);
 
-		PeakListRow rows[] = peakList.getRows();
+		final PeakListRow rows[] = peakList.getRows();
 		totalRows = rows.length;
 
 		// Start with the highest peaks
 		Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height,
 				SortingDirection.Descending));
 
-		// Compare each two rows against each other
-		for (int i = 0; i < totalRows; i++) {
+		// Each row with a MS/MS scan is searched for its fragments, by looking
+		// up the m/z values of the MS/MS peaks in the index
+		final RowMZIndex index = new RowMZIndex(rows);
+		search = new ParallelRowSearch<FragmentMatch>() {
 
-			for (int j = i + 1; j < rows.length; j++) {
+			protected void searchItem(int main, List<FragmentMatch> matches) {
 
-				// Task canceled?
-				if (isCanceled())
+				PeakListRow mainRow = rows[main];
+				double mainMZ = mainRow.getAverageMZ();
+
+				int fragmentScanNumber = mainRow.getBestPeak()
+						.getMostIntenseFragmentScanNumber();
+				if (fragmentScanNumber <= 0)
+					return;
+				RawDataFile dataFile = mainRow.getBestPeak().getDataFile();
+				Scan fragmentScan = dataFile.getScan(fragmentScanNumber);
+				if (fragmentScan == null)
 					return;
 
-				// Treat the higher m/z peak as main peak and check if the
-				// smaller one may be a fragment
-				if (rows[i].getAverageMZ() > rows[j].getAverageMZ()) {
-					if (checkFragment(rows[i], rows[j]))
-						addFragmentInfo(rows[i], rows[j]);
-				} else {
-					if (checkFragment(rows[j], rows[i]))
-						addFragmentInfo(rows[j], rows[i]);
+				List<Range> mzRanges = new ArrayList<Range>();
+				for (DataPoint dp : fragmentScan.getDataPoints()) {
+					if (dp.getIntensity() > minMS2peakHeight)
+						mzRanges.add(ms2mzTolerance.getInverseToleranceRange(dp
+								.getMZ()));
 				}
+				if (mzRanges.isEmpty())
+					return;
 
-			}
+				for (int candidate : index.getRowsInsideMZRanges(mzRanges
+						.toArray(new Range[0]))) {
+
+					// The higher m/z peak is the main peak, or the lower peak
+					// if both have the same m/z
+					double candidateMZ = rows[candidate].getAverageMZ();
+					boolean isMain = (mainMZ > candidateMZ)
+							|| ((mainMZ == candidateMZ) && (main > candidate));
 
-			finishedRows++;
+					if (isMain && checkFragment(mainRow, rows[candidate]))
+						matches.add(new FragmentMatch(main, candidate));
+				}
 
+			}
+
+			protected void addMatch(FragmentMatch match) {
+				addFragmentInfo(rows[match.mainRow],
+						rows[match.fragmentRow]);
+			}
+		};
+
+		try {
+			search.search(totalRows, this);
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, "Fragment search error", e);
+			setStatus(TaskStatus.ERROR);
+			errorMessage = e.toString();
+			return;
 		}
 
+		if (isCanceled())
+			return;
+
 		// Add task description to peakList
 		((SimplePeakList) peakList)
 				.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
@@ -211,4 +253,31 @@ public class FragmentSearchTask extends AbstractTask {
 		return null;
 	}
 
+	/**
+	 * Fragment found for a pair of rows. Matches are ordered like the pairs of
+	 * rows in height order.
+	 */
+	private static class FragmentMatch implements Comparable<FragmentMatch> {
+
+		private final int mainRow, fragmentRow;
+
+		private FragmentMatch(int mainRow, int fragmentRow) {
+			this.mainRow = mainRow;
+			this.fragmentRow = fragmentRow;
+		}
+
+		public int compareTo(FragmentMatch match) {
+			int result = compare(Math.min(mainRow, fragmentRow),
+					Math.min(match.mainRow, match.fragmentRow));
+			if (result == 0)
+				result = compare(Math.max(mainRow, fragmentRow),
+						Math.max(match.mainRow, match.fragmentRow));
+			return result;
+		}
+
+		private static int compare(int a, int b) {
+			return a < b ? -1 : (a == b ? 0 : 1);
+		}
+	}
+
 }
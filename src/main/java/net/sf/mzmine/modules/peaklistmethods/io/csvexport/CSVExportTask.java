@@ -20,17 +20,42 @@
 package net.sf.mzmine.modules.peaklistmethods.io.csvexport;
 
 import net.sf.mzmine.data.*;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 class CSVExportTask extends AbstractTask {
 
+	private static final String GZIP_EXTENSION = ".gz";
+
+	// Size of the output buffer
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// Approximate number of fields formatted by one job, so a job formats
+	// many rows of a small peak list but only a few rows of a peak list
+	// with many data files
+	private static final int FIELDS_PER_JOB = 65536;
+
+	// Number of jobs per thread which may be formatted ahead of writing
+	private static final int JOBS_AHEAD_PER_THREAD = 4;
+
 	private Logger logger = Logger.getLogger(getClass().getName());
 
 	private PeakList peakList;
@@ -42,6 +67,14 @@ class CSVExportTask extends AbstractTask {
 	private ExportRowCommonElement[] commonElements;
 	private String[] identityElements;
 	private ExportRowDataFileElement[] dataFileElements;
+	private boolean compression;
+
+	// Builder reused by each formatting thread
+	private final ThreadLocal<StringBuilder> blockBuilder = new ThreadLocal<StringBuilder>() {
+		protected StringBuilder initialValue() {
+			return new StringBuilder();
+		}
+	};
 
 	CSVExportTask(ParameterSet parameters) {
 
@@ -61,6 +94,13 @@ class CSVExportTask extends AbstractTask {
 		dataFileElements = parameters.getParameter(
 				CSVExportParameters.exportDataFileItems).getValue();
 
+		compression = parameters.getParameter(CSVExportParameters.compression)
+				.getValue();
+
+		// Compressed files get the extension of gzip
+		if (compression && !fileName.getName().endsWith(GZIP_EXTENSION))
+			fileName = new File(fileName.getPath() + GZIP_EXTENSION);
+
 	}
 
 	public double getFinishedPercentage() {
@@ -79,9 +119,13 @@ class CSVExportTask extends AbstractTask {
 		setStatus(TaskStatus.PROCESSING);
 
 		// Open file
-		FileWriter writer;
+		Writer writer;
 		try {
-			writer = new FileWriter(fileName);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					fileName), BUFFER_SIZE);
+			if (compression)
+				out = new GZIPOutputStream(out, BUFFER_SIZE);
+			writer = new OutputStreamWriter(out);
 		} catch (Exception e) {
 			setStatus(TaskStatus.ERROR);
 			errorMessage = "Could not open file " + fileName + " for writing.";
@@ -91,7 +135,13 @@ class CSVExportTask extends AbstractTask {
 		// Get number of rows
 		totalRows = peakList.getNumberOfRows();
 
-		exportPeakList(peakList, writer);
+		int numOfThreads = 1;
+		if (MZmineCore.getConfiguration() != null)
+			numOfThreads = MZmineCore.getConfiguration().getPreferences()
+					.getParameter(MZminePreferences.numOfThreads)
+					.getNumOfThreads();
+
+		exportPeakList(peakList, writer, numOfThreads);
 
 		// Close file
 		try {
@@ -107,12 +157,16 @@ class CSVExportTask extends AbstractTask {
 
 	}
 
-	private void exportPeakList(PeakList peakList, FileWriter writer) {
+	/**
+	 * Writes the peak list, formatting blocks of rows in parallel with up to
+	 * JOBS_AHEAD_PER_THREAD jobs per thread ahead of writing
+	 */
+	void exportPeakList(PeakList peakList, Writer writer, int numOfThreads) {
 
-		RawDataFile rawDataFiles[] = peakList.getRawDataFiles();
+		final RawDataFile rawDataFiles[] = peakList.getRawDataFiles();
 
 		// Buffer for writing
-		StringBuffer line = new StringBuffer();
+		StringBuilder line = new StringBuilder();
 
 		// Write column headers
 		// Common elements
@@ -121,7 +175,7 @@ class CSVExportTask extends AbstractTask {
 		for (int i = 0; i < length; i++) {
 			name = commonElements[i].toString();
 			name = name.replace("Export ", "");
-			line.append(name + fieldSeparator);
+			line.append(name).append(fieldSeparator);
 		}
 
 		// Peak identity elements
@@ -143,7 +197,7 @@ class CSVExportTask extends AbstractTask {
 
 		for (int i = 0; i < identityElements.length; i++) {
 			name = identityElements[i];
-			line.append(name + fieldSeparator);
+			line.append(name).append(fieldSeparator);
 		}
 
 		// [ Data file elements
@@ -152,7 +206,7 @@ class CSVExportTask extends AbstractTask {
 			for (int i = 0; i < length; i++) {
 				name = dataFileElements[i].toString();
 				name = name.replace("Export", rawDataFiles[df].getName());
-				line.append(name + fieldSeparator);
+				line.append(name).append(fieldSeparator);
 			}
 		}
 
@@ -167,131 +221,184 @@ class CSVExportTask extends AbstractTask {
 			return;
 		}
 
-		// Write data rows
-		for (PeakListRow peakListRow : peakList.getRows()) {
+		// Write data rows. Blocks of rows are formatted by a thread pool and
+		// written in order, with a limited number of blocks formatted ahead.
+		final PeakListRow rows[] = peakList.getRows();
+		final String rowIdentityElements[] = identityElements;
+		int fieldsPerRow = commonElements.length + identityElements.length
+				+ rawDataFiles.length * dataFileElements.length;
+		int rowsPerJob = Math.max(1,
+				FIELDS_PER_JOB / Math.max(1, fieldsPerRow));
 
-			// Cancel?
-			if (isCanceled()) {
-				return;
-			}
+		long startTime = System.currentTimeMillis();
+		ExecutorService executor = MZmineCore.getParallelExecutor();
+		LinkedList<Future<String>> jobs = new LinkedList<Future<String>>();
 
-			// Reset the buffer
-			line.setLength(0);
+		try {
 
-			// Common elements
-			length = commonElements.length;
-			for (int i = 0; i < length; i++) {
-				switch (commonElements[i]) {
-					case ROW_ID :
-						line.append(peakListRow.getID() + fieldSeparator);
-						break;
-					case ROW_MZ :
-						line.append(peakListRow.getAverageMZ() + fieldSeparator);
-						break;
-					case ROW_RT :
-						line.append(peakListRow.getAverageRT() + fieldSeparator);
-						break;
-					case ROW_COMMENT :
-						String comment = peakListRow.getComment();
-						if (comment == null) {
-							line.append(fieldSeparator);
-							break;
-						}
-						// If the text contains fieldSeparator, we will add
-						// parenthesis
-						if (comment.contains(fieldSeparator)) {
-							comment = "\"" + comment.replaceAll("\"", "'")
-									+ "\"";
-						}
-						line.append(comment + fieldSeparator);
-						break;
-					case ROW_PEAK_NUMBER :
-						int numDetected = 0;
-						for (ChromatographicPeak p : peakListRow.getPeaks()) {
-							if (p.getPeakStatus() == PeakStatus.DETECTED) {
-								numDetected++;
+			int maxJobs = numOfThreads * JOBS_AHEAD_PER_THREAD;
+			int nextRow = 0;
+
+			while ((nextRow < rows.length) || (!jobs.isEmpty())) {
+
+				// Cancel?
+				if (isCanceled()) {
+					return;
+				}
+
+				while ((nextRow < rows.length) && (jobs.size() < maxJobs)) {
+					final int first = nextRow;
+					final int last = Math.min(first + rowsPerJob, rows.length);
+					jobs.add(executor.submit(new Callable<String>() {
+						public String call() {
+							StringBuilder block = blockBuilder.get();
+							block.setLength(0);
+							for (int i = first; i < last; i++) {
+								formatRow(rows[i], rawDataFiles,
+										rowIdentityElements, block);
 							}
+							return block.toString();
 						}
-						line.append(numDetected + fieldSeparator);
-						break;
+					}));
+					nextRow = last;
 				}
+
+				String block;
+				try {
+					block = jobs.removeFirst().get();
+				} catch (ExecutionException e) {
+					setStatus(TaskStatus.ERROR);
+					errorMessage = "Could not export peak list: "
+							+ e.getCause();
+					return;
+				}
+
+				try {
+					writer.write(block);
+				} catch (IOException e) {
+					setStatus(TaskStatus.ERROR);
+					errorMessage = "Could not write to file " + fileName;
+					return;
+				}
+
+				processedRows = Math.min(processedRows + rowsPerJob,
+						rows.length);
 			}
 
-			// Identity elements
-			length = identityElements.length;
-			PeakIdentity peakIdentity = peakListRow.getPreferredPeakIdentity();
-			if (peakIdentity != null) {
-				for (int i = 0; i < length; i++) {
-					String propertyValue = peakIdentity
-							.getPropertyValue(identityElements[i]);
+		} catch (InterruptedException e) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = "Export of peak list " + peakList
+					+ " was interrupted";
+			return;
+		} finally {
+			for (Future<String> job : jobs)
+				job.cancel(false);
+		}
 
-					if (propertyValue == null) {
-						propertyValue = "";
-					}
+		double seconds = Math.max(1, System.currentTimeMillis() - startTime)
+				/ 1000.0;
+		logger.info("Exported " + rows.length + " rows of " + peakList
+				+ " in " + seconds + " s (" + Math.round(rows.length / seconds)
+				+ " rows/s)");
+	}
+
+	/**
+	 * Appends one line of the exported file to the given builder
+	 */
+	private void formatRow(PeakListRow peakListRow, RawDataFile rawDataFiles[],
+			String identityElements[], StringBuilder line) {
 
-					// If the text contains fieldSeparator, we will add
-					// parenthesis
-					if (propertyValue.contains(fieldSeparator)) {
-						propertyValue = "\""
-								+ propertyValue.replaceAll("\"", "'") + "\"";
+		// Common elements
+		for (ExportRowCommonElement element : commonElements) {
+			switch (element) {
+				case ROW_ID :
+					line.append(peakListRow.getID());
+					break;
+				case ROW_MZ :
+					line.append(peakListRow.getAverageMZ());
+					break;
+				case ROW_RT :
+					line.append(peakListRow.getAverageRT());
+					break;
+				case ROW_COMMENT :
+					String comment = peakListRow.getComment();
+					if (comment != null)
+						appendText(comment, line);
+					break;
+				case ROW_PEAK_NUMBER :
+					int numDetected = 0;
+					for (ChromatographicPeak p : peakListRow.getPeaks()) {
+						if (p.getPeakStatus() == PeakStatus.DETECTED) {
+							numDetected++;
+						}
 					}
+					line.append(numDetected);
+					break;
+			}
+			line.append(fieldSeparator);
+		}
 
-					line.append(propertyValue + fieldSeparator);
-				}
-			} else {
-				for (int i = 0; i < length; i++) {
-					line.append(fieldSeparator);
-				}
+		// Identity elements
+		PeakIdentity peakIdentity = peakListRow.getPreferredPeakIdentity();
+		for (String identityElement : identityElements) {
+			if (peakIdentity != null) {
+				String propertyValue = peakIdentity
+						.getPropertyValue(identityElement);
+				if (propertyValue != null)
+					appendText(propertyValue, line);
 			}
+			line.append(fieldSeparator);
+		}
 
-			// Data file elements
-			length = dataFileElements.length;
-			for (RawDataFile dataFile : rawDataFiles) {
-				for (int i = 0; i < length; i++) {
-					ChromatographicPeak peak = peakListRow.getPeak(dataFile);
-					if (peak != null) {
-						switch (dataFileElements[i]) {
-							case PEAK_STATUS :
-								line.append(peak.getPeakStatus()
-										+ fieldSeparator);
-								break;
-							case PEAK_MZ :
-								line.append(peak.getMZ() + fieldSeparator);
-								break;
-							case PEAK_RT :
-								line.append(peak.getRT() + fieldSeparator);
-								break;
-							case PEAK_HEIGHT :
-								line.append(peak.getHeight() + fieldSeparator);
-								break;
-							case PEAK_AREA :
-								line.append(peak.getArea() + fieldSeparator);
-								break;
-						}
-					} else {
-						switch (dataFileElements[i]) {
-							case PEAK_STATUS :
-								line.append(PeakStatus.UNKNOWN + fieldSeparator);
-								break;
-							default :
-								line.append("0" + fieldSeparator);
-								break;
-						}
+		// Data file elements
+		for (RawDataFile dataFile : rawDataFiles) {
+			ChromatographicPeak peak = peakListRow.getPeak(dataFile);
+			for (ExportRowDataFileElement element : dataFileElements) {
+				if (peak != null) {
+					switch (element) {
+						case PEAK_STATUS :
+							line.append(peak.getPeakStatus());
+							break;
+						case PEAK_MZ :
+							line.append(peak.getMZ());
+							break;
+						case PEAK_RT :
+							line.append(peak.getRT());
+							break;
+						case PEAK_HEIGHT :
+							line.append(peak.getHeight());
+							break;
+						case PEAK_AREA :
+							line.append(peak.getArea());
+							break;
+					}
+				} else {
+					switch (element) {
+						case PEAK_STATUS :
+							line.append(PeakStatus.UNKNOWN);
+							break;
+						default :
+							line.append('0');
+							break;
 					}
 				}
+				line.append(fieldSeparator);
 			}
+		}
 
-			line.append("\n");
+		line.append('\n');
 
-			try {
-				writer.write(line.toString());
-			} catch (Exception e) {
-				setStatus(TaskStatus.ERROR);
-				errorMessage = "Could not write to file " + fileName;
-				return;
-			}
+	}
 
-			processedRows++;
+	/**
+	 * Appends a text value. If the text contains fieldSeparator, we will add
+	 * parenthesis.
+	 */
+	private void appendText(String text, StringBuilder line) {
+		if (text.contains(fieldSeparator)) {
+			line.append('"').append(text.replace('"', '\'')).append('"');
+		} else {
+			line.append(text);
 		}
 	}
 
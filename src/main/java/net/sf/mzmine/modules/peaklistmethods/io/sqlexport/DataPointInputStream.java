@@ -0,0 +1,87 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
+
+import java.io.InputStream;
+
+import net.sf.mzmine.data.DataPoint;
+
+/**
+ * Reads data points in the format of ScanUtils.encodeDataPointsToBytes(): the
+ * m/z and intensity of each data point as big-endian doubles. The bytes are
+ * encoded while the stream is read, so no byte array is built.
+ */
+class DataPointInputStream extends InputStream {
+
+	private static final int BYTES_PER_DATA_POINT = 16;
+
+	private final DataPoint dataPoints[];
+	private final int length;
+	private int position = 0;
+
+	DataPointInputStream(DataPoint dataPoints[]) {
+		this.dataPoints = dataPoints;
+		this.length = dataPoints.length * BYTES_PER_DATA_POINT;
+	}
+
+	/**
+	 * Returns the total number of bytes of the stream
+	 */
+	int getLength() {
+		return length;
+	}
+
+	public int read() {
+		if (position >= length)
+			return -1;
+		return getByte(position++);
+	}
+
+	public int read(byte buffer[], int offset, int count) {
+		if (count == 0)
+			return 0;
+		if (position >= length)
+			return -1;
+		count = Math.min(count, length - position);
+		for (int i = 0; i < count; i++)
+			buffer[offset + i] = (byte) getByte(position++);
+		return count;
+	}
+
+	public long skip(long count) {
+		int skipped = (int) Math.max(0, Math.min(count, length - position));
+		position += skipped;
+		return skipped;
+	}
+
+	public int available() {
+		return length - position;
+	}
+
+	private int getByte(int index) {
+		DataPoint dataPoint = dataPoints[index / BYTES_PER_DATA_POINT];
+		int offset = index % BYTES_PER_DATA_POINT;
+		double value = (offset < 8) ? dataPoint.getMZ() : dataPoint
+				.getIntensity();
+		long bits = Double.doubleToLongBits(value);
+		return (int) (bits >>> (56 - 8 * (offset % 8))) & 0xff;
+	}
+
+}
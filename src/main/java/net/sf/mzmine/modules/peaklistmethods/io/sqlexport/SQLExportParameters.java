@@ -21,6 +21,7 @@ package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.StringParameter;
 
@@ -39,9 +40,14 @@ public class SQLExportParameters extends SimpleParameterSet {
 
 	public static final SQLColumnSettingsParameter exportColumns = new SQLColumnSettingsParameter();
 
+	public static final IntegerParameter batchSize = new IntegerParameter(
+			"Batch size",
+			"Number of rows sent to the database at once and committed together",
+			1000, 1, null);
+
 	public SQLExportParameters() {
 		super(new Parameter[]{peakList, connectionString, tableName,
-				exportColumns});
+				exportColumns, batchSize});
 	}
 
 }
@@ -19,14 +19,16 @@
 
 package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 
-import java.io.ByteArrayInputStream;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.ChromatographicPeak;
 import net.sf.mzmine.data.IsotopePattern;
 import net.sf.mzmine.data.MassList;
 import net.sf.mzmine.data.PeakIdentity;
@@ -37,31 +39,39 @@ import net.sf.mzmine.data.Scan;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.ScanUtils;
 
 class SQLExportTask extends AbstractTask {
 
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
 	private final PeakList peakList;
 	private final String connectionString;
 	private final String tableName;
 	private final SQLColumnSettings exportColumns;
+	private final int batchSize;
 
 	private int processedRows = 0, totalRows = 0;
 
-	private Connection dbConnection;
-
 	SQLExportTask(ParameterSet parameters) {
+		this(parameters.getParameter(SQLExportParameters.peakList).getValue()[0],
+				parameters.getParameter(SQLExportParameters.connectionString)
+						.getValue(), parameters.getParameter(
+						SQLExportParameters.tableName).getValue(), parameters
+						.getParameter(SQLExportParameters.exportColumns)
+						.getValue(), parameters.getParameter(
+						SQLExportParameters.batchSize).getValue());
+	}
 
-		this.peakList = parameters.getParameter(SQLExportParameters.peakList)
-				.getValue()[0];
-		this.connectionString = parameters.getParameter(
-				SQLExportParameters.connectionString).getValue();
-
-		this.tableName = parameters.getParameter(SQLExportParameters.tableName)
-				.getValue();
-		this.exportColumns = parameters.getParameter(
-				SQLExportParameters.exportColumns).getValue();
-
+	SQLExportTask(PeakList peakList, String connectionString,
+			String tableName, SQLColumnSettings exportColumns,
+			Integer batchSize) {
+		this.peakList = peakList;
+		this.connectionString = connectionString;
+		this.tableName = tableName;
+		this.exportColumns = exportColumns;
+		this.batchSize = ((batchSize == null) || (batchSize < 1))
+				? 1
+				: batchSize;
 	}
 
 	public double getFinishedPercentage() {
@@ -82,8 +92,9 @@ class SQLExportTask extends AbstractTask {
 		// Get number of rows
 		totalRows = peakList.getNumberOfRows();
 
+		Connection dbConnection;
 		try {
-			this.dbConnection = DriverManager.getConnection(connectionString);
+			dbConnection = DriverManager.getConnection(connectionString);
 		} catch (SQLException e) {
 			setStatus(TaskStatus.ERROR);
 			errorMessage = "Error connecting to the SQL database: "
@@ -91,19 +102,19 @@ class SQLExportTask extends AbstractTask {
 			return;
 		}
 
-		PeakListRow rows[] = peakList.getRows();
-
 		try {
-			for (PeakListRow row : rows) {
-				if (getStatus() != TaskStatus.PROCESSING)
-					break;
-				exportPeakListRow(row);
-				processedRows++;
-			}
+			exportPeakList(dbConnection);
 		} catch (SQLException e) {
 			setStatus(TaskStatus.ERROR);
 			errorMessage = "Error running SQL query: " + e.toString();
 			return;
+		} finally {
+			try {
+				dbConnection.close();
+			} catch (SQLException e) {
+				logger.log(Level.WARNING,
+						"Could not close the database connection", e);
+			}
 		}
 
 		if (getStatus() == TaskStatus.PROCESSING)
@@ -111,37 +122,109 @@ class SQLExportTask extends AbstractTask {
 
 	}
 
-	private void exportPeakListRow(PeakListRow row) throws SQLException {
+	/**
+	 * Inserts the rows of the peak list with a single prepared statement. If
+	 * the database supports it, the rows are sent in batches and each batch
+	 * is committed as one transaction. The batch which is not committed yet is
+	 * rolled back if the export fails or is canceled.
+	 */
+	private void exportPeakList(Connection dbConnection) throws SQLException {
 
-		// Cancel?
-		if (isCanceled()) {
-			return;
-		}
+		// Read the column settings once, they are synchronized
+		int numOfColumns = exportColumns.getRowCount();
+		SQLExportDataType dataTypes[] = new SQLExportDataType[numOfColumns];
+		String dataValues[] = new String[numOfColumns];
 
 		StringBuilder sql = new StringBuilder();
 		sql.append("INSERT INTO ");
 		sql.append(tableName);
 		sql.append(" (");
-		for (int i = 0; i < exportColumns.getRowCount(); i++) {
+		for (int i = 0; i < numOfColumns; i++) {
 			sql.append(exportColumns.getValueAt(i, 0));
-			if (i < exportColumns.getRowCount() - 1)
+			if (i < numOfColumns - 1)
 				sql.append(",");
+			dataTypes[i] = (SQLExportDataType) exportColumns.getValueAt(i, 1);
+			dataValues[i] = (String) exportColumns.getValueAt(i, 2);
 		}
 		sql.append(" ) VALUES (");
-		for (int i = 0; i < exportColumns.getRowCount(); i++) {
+		for (int i = 0; i < numOfColumns; i++) {
 			sql.append("?");
-			if (i < exportColumns.getRowCount() - 1)
+			if (i < numOfColumns - 1)
 				sql.append(",");
 		}
 		sql.append(")");
 
+		DatabaseMetaData metaData = dbConnection.getMetaData();
+		boolean useBatches = (batchSize > 1)
+				&& metaData.supportsBatchUpdates();
+		boolean useTransactions = metaData.supportsTransactions();
+		boolean autoCommit = dbConnection.getAutoCommit();
+		if (useTransactions)
+			dbConnection.setAutoCommit(false);
+
 		PreparedStatement statement = dbConnection.prepareStatement(sql
 				.toString());
-		for (int i = 0; i < exportColumns.getRowCount(); i++) {
-			SQLExportDataType dataType = (SQLExportDataType) exportColumns
-					.getValueAt(i, 1);
-			String dataValue = (String) exportColumns.getValueAt(i, 2);
-			switch (dataType) {
+		int pendingRows = 0;
+		try {
+			for (PeakListRow row : peakList.getRows()) {
+				if (isCanceled())
+					break;
+
+				setRowValues(statement, row, dataTypes, dataValues);
+				if (useBatches)
+					statement.addBatch();
+				else
+					statement.executeUpdate();
+				pendingRows++;
+
+				if (pendingRows == batchSize) {
+					commitRows(dbConnection, statement, useBatches,
+							useTransactions);
+					processedRows += pendingRows;
+					pendingRows = 0;
+				}
+			}
+
+			if ((pendingRows > 0) && !isCanceled()) {
+				commitRows(dbConnection, statement, useBatches,
+						useTransactions);
+				processedRows += pendingRows;
+				pendingRows = 0;
+			}
+
+		} finally {
+			statement.close();
+			if (useTransactions) {
+				if (pendingRows > 0) {
+					try {
+						dbConnection.rollback();
+					} catch (SQLException e) {
+						logger.log(Level.WARNING,
+								"Could not roll back the exported rows", e);
+					}
+				}
+				dbConnection.setAutoCommit(autoCommit);
+			}
+		}
+
+	}
+
+	private static void commitRows(Connection dbConnection,
+			PreparedStatement statement, boolean useBatches,
+			boolean useTransactions) throws SQLException {
+		if (useBatches)
+			statement.executeBatch();
+		if (useTransactions)
+			dbConnection.commit();
+	}
+
+	private static void setRowValues(PreparedStatement statement,
+			PeakListRow row, SQLExportDataType dataTypes[],
+			String dataValues[]) throws SQLException {
+
+		for (int i = 0; i < dataTypes.length; i++) {
+			String dataValue = dataValues[i];
+			switch (dataTypes[i]) {
 				case CONSTANT :
 					statement.setString(i + 1, dataValue);
 					break;
@@ -174,21 +257,19 @@ class SQLExportTask extends AbstractTask {
 						statement.setNull(i + 1, Types.BLOB);
 						break;
 					}
-					DataPoint dataPoints[] = isotopes.getDataPoints();
-					byte bytes[] = ScanUtils
-							.encodeDataPointsToBytes(dataPoints);
-					ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-					statement.setBlob(i + 1, is);
+					setDataPoints(statement, i + 1, new DataPointInputStream(
+							isotopes.getDataPoints()));
 					break;
 				case MSMS :
-					int msmsScanNum = row.getBestPeak()
+					ChromatographicPeak bestPeak = row.getBestPeak();
+					int msmsScanNum = bestPeak
 							.getMostIntenseFragmentScanNumber();
 					// Check if there is any MS/MS scan
 					if (msmsScanNum <= 0) {
 						statement.setNull(i + 1, Types.BLOB);
 						break;
 					}
-					RawDataFile dataFile = row.getBestPeak().getDataFile();
+					RawDataFile dataFile = bestPeak.getDataFile();
 					Scan msmsScan = dataFile.getScan(msmsScanNum);
 					MassList msmsMassList = msmsScan.getMassList(dataValue);
 					// Check if there is a masslist for the scan
@@ -196,17 +277,22 @@ class SQLExportTask extends AbstractTask {
 						statement.setNull(i + 1, Types.BLOB);
 						break;
 					}
-					dataPoints = msmsMassList.getDataPoints();
-					bytes = ScanUtils.encodeDataPointsToBytes(dataPoints);
-					is = new ByteArrayInputStream(bytes);
-					statement.setBlob(i + 1, is);
-
+					setDataPoints(statement, i + 1, new DataPointInputStream(
+							msmsMassList.getDataPoints()));
 					break;
 			}
 		}
 
-		statement.execute();
+	}
 
+	/**
+	 * Streams the encoded data points into a BLOB parameter. The length is
+	 * given, so the driver does not need to buffer the stream.
+	 */
+	private static void setDataPoints(PreparedStatement statement,
+			int parameterIndex, DataPointInputStream stream)
+			throws SQLException {
+		statement.setBinaryStream(parameterIndex, stream, stream.getLength());
 	}
 
 	public Object[] getCreatedObjects() {
@@ -25,12 +25,12 @@ import javax.annotation.Nonnull;
 
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.modules.MZmineModuleCategory;
-import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.util.ExitCode;
 
-public class DeconvolutionModule implements MZmineProcessingModule {
+public class DeconvolutionModule implements MZminePerFileProcessingModule {
 
 	private static final String MODULE_NAME = "Chromatogram deconvolution";
 	private static final String MODULE_DESCRIPTION = "This module separates each detected chromatogram into individual peaks.";
@@ -76,4 +76,10 @@ public class DeconvolutionModule implements MZmineProcessingModule {
 
 		return ExitCode.OK;
 	}
+
+	@Override
+	public boolean createsPeakListsFromRawData() {
+		return false;
+	}
+
 }
@@ -0,0 +1,1002 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Java implementation of XCMS findPeaks.centWave for a single chromatogram
+ * whose regions of interest are the sections of non-zero intensity. The
+ * wavelet transform, local maxima and ridge detection follow the MSW.*
+ * functions of XCMS (derived from the MassSpecWavelet package). Unlike the R
+ * version of the Wavelets (XCMS) resolver, whose xcmsRaw scan index starts at
+ * 1 and so reads each scan's intensity from the next scan, the intensities
+ * are read at their own scans; the R peaks may therefore be one scan earlier.
+ * The calculation has no shared state, so it may run in any number of
+ * threads.
+ */
+final class CentWave {
+
+	// Columns of the peak matrix, as returned by findPeaks.centWave.
+	static final int MZ = 0, MZ_MIN = 1, MZ_MAX = 2, RT = 3, RT_MIN = 4,
+			RT_MAX = 5, INTO = 6, INTB = 7, MAXO = 8, SN = 9;
+	private static final int NUM_COLUMNS = 10;
+
+	// Integration methods (the "integrate" argument of findPeaks.centWave).
+	static final int INTEGRATE_SMOOTHED = 1;
+
+	// Mexican hat wavelet, sampled as in XCMS MSW.cwt.
+	private static final int PSI_LENGTH = 256;
+	private static final double PSI_X_MIN = -6.0, PSI_X_MAX = 6.0;
+	private static final double[] PSI = new double[PSI_LENGTH];
+	private static final double PSI_DX, PSI_WIDTH;
+	static {
+		final double by = (PSI_X_MAX - PSI_X_MIN) / (PSI_LENGTH - 1);
+		final double[] x = new double[PSI_LENGTH];
+		for (int i = 0; i < PSI_LENGTH; i++) {
+			x[i] = i == PSI_LENGTH - 1 ? PSI_X_MAX : PSI_X_MIN + i * by;
+			PSI[i] = 2.0 / Math.sqrt(3.0) * Math.pow(Math.PI, -0.25)
+					* (1.0 - x[i] * x[i]) * Math.exp(-x[i] * x[i] / 2.0);
+		}
+		PSI_DX = x[1] - x[0];
+		PSI_WIDTH = x[PSI_LENGTH - 1] - x[0];
+	}
+
+	// Local maxima and ridge detection settings (XCMS defaults).
+	private static final int MIN_LOCAL_MAX_WINDOW = 5;
+	private static final int MIN_RIDGE_WINDOW = 3;
+	private static final int RIDGE_GAP_THRESHOLD = 3;
+
+	// Noise estimation.
+	private static final double NOISE_TRIM = 0.05;
+
+	// Minimum RT difference of peaks which are not considered overlapping
+	// (negative, so that adjacent peaks are allowed).
+	private static final double RT_DIFF = -0.00001;
+
+	/**
+	 * Utility class - no public access.
+	 */
+	private CentWave() {
+		// no public access.
+	}
+
+	/**
+	 * Detect peaks in a chromatogram.
+	 * 
+	 * @param scanTime
+	 *            retention times (for each scan) in seconds.
+	 * @param intensity
+	 *            intensity values (for each scan).
+	 * @param mz
+	 *            fixed m/z value of the chromatogram.
+	 * @param snrThreshold
+	 *            signal:noise ratio threshold.
+	 * @param minPeakWidth
+	 *            minimum peak width in seconds.
+	 * @param maxPeakWidth
+	 *            maximum peak width in seconds.
+	 * @param integrate
+	 *            integration method index.
+	 * @return a matrix with a row for each detected peak, or null if there
+	 *         are no regions of interest. The matrix is empty if no wavelet
+	 *         scale matches the peak width range.
+	 */
+	static double[][] findPeaks(final double[] scanTime,
+			final double[] intensity, final double mz,
+			final double snrThreshold, final double minPeakWidth,
+			final double maxPeakWidth, final int integrate) {
+
+		final int numScans = intensity.length;
+		if (numScans < 2) {
+			return null;
+		}
+
+		// Wavelet scales.
+		final double meanScanInterval = (scanTime[numScans - 1] - scanTime[0])
+				/ (numScans - 1);
+		final int scaleMin = (int) Math.rint(minPeakWidth / meanScanInterval
+				/ 2.0);
+		final int scaleMax = (int) Math.rint(maxPeakWidth / meanScanInterval
+				/ 2.0);
+		final int[] scales;
+		if (scaleMin > 0 && scaleMax > 0) {
+			scales = new int[(scaleMax - scaleMin) / 2 + 1];
+			for (int i = 0; i < scales.length; i++) {
+				scales[i] = scaleMin + 2 * i;
+			}
+		} else if (scaleMin > 0 || scaleMax > 0) {
+			scales = new int[]{Math.max(scaleMin, scaleMax)};
+		} else {
+			// No scales can be matched with the given peak width range.
+			return new double[0][];
+		}
+
+		final int minWidth = scales[0];
+		final int noiseRangeMin = 3 * minWidth;
+		final int noiseRangeMax = 3 * scales[scales.length - 1];
+		final int minPtsAboveBaseline = Math.max(4, minWidth - 2);
+		final int scanRangeTolerance = minWidth / 2;
+		final int maxDescOutlier = scanRangeTolerance;
+
+		final List<double[]> peaks = new ArrayList<double[]>();
+
+		// Regions of interest are the sections of non-zero intensity.
+		for (int start = 0; start < numScans; start++) {
+
+			if (intensity[start] <= 0.0) {
+				continue;
+			}
+			int end = start;
+			while (end + 1 < numScans && intensity[end + 1] > 0.0) {
+				end++;
+			}
+			final int roiStart = start;
+			final int roiEnd = end;
+			start = end;
+
+			// ROI + noise range, used for baseline detection and wavelet
+			// analysis.
+			final int dStart = Math.max(0, roiStart - noiseRangeMax);
+			final int dEnd = Math.min(numScans - 1, roiEnd + noiseRangeMax);
+			final double[] d = Arrays.copyOfRange(intensity, dStart, dEnd + 1);
+
+			// ROI + scan range tolerance, relative to d.
+			final int fStart = Math.max(dStart, roiStart - scanRangeTolerance)
+					- dStart;
+			final int fEnd = Math.min(dEnd, roiEnd + scanRangeTolerance)
+					- dStart;
+
+			// 1st baseline estimate: trimmed mean.
+			final int roiLength = roiEnd - roiStart + 1;
+			final double noise = estimateChromNoise(
+					roiLength >= 10 * minWidth ? intensity : d, NOISE_TRIM,
+					3 * minWidth);
+
+			// Any continuous data above 1st baseline?
+			if (!continuousPtsAboveThreshold(d, fStart, fEnd, noise,
+					minPtsAboveBaseline)) {
+				continue;
+			}
+
+			// 2nd baseline estimate using not-peak-range.
+			final double[] localNoise = getLocalNoiseEstimate(d, fStart,
+					fEnd, noiseRangeMin, numScans, noise, minPtsAboveBaseline);
+
+			// Final baseline and noise estimate.
+			final double baseline = Math.max(1.0,
+					Math.min(localNoise[0], noise));
+			final double sdNoise = Math.max(1.0, localNoise[1]);
+			final double sdThreshold = sdNoise * snrThreshold;
+
+			// Is there any data above S/N threshold?
+			boolean aboveThreshold = false;
+			for (int i = fStart; i <= fEnd; i++) {
+				aboveThreshold |= d[i] - baseline >= sdThreshold;
+			}
+			if (!aboveThreshold) {
+				continue;
+			}
+
+			// Wavelet transform.
+			final double[][] wCoefs = cwt(d, scales);
+			if (wCoefs == null || !anyAbove(wCoefs, baseline + sdThreshold)) {
+				continue;
+			}
+			if (dEnd == numScans - 1 && d.length > 1) {
+				for (final double[] column : wCoefs) {
+					column[d.length - 1] = column[d.length - 2] * 0.99;
+				}
+			}
+
+			// Ridges of local maxima.
+			final List<int[]> ridges = getRidges(getLocalMaximumCWT(wCoefs,
+					scales), scales);
+
+			final List<double[]> roiPeaks = new ArrayList<double[]>();
+			final List<int[]> roiPeakInfo = new ArrayList<int[]>();
+			final int integrationRange = (scales[0] + 1) / 2;
+
+			for (final int[] ridge : ridges) {
+
+				// Check the ridge at the smallest scale.
+				boolean ridgeAboveThreshold = false;
+				for (final int position : ridge) {
+					ridgeAboveThreshold |= wCoefs[0][position] - baseline >= sdThreshold;
+				}
+				if (!ridgeAboveThreshold) {
+					continue;
+				}
+
+				// Peaks in original data range, final S/N check.
+				boolean peakAboveThreshold = false;
+				for (final int position : ridge) {
+					if (position >= fStart && position <= fEnd) {
+						peakAboveThreshold |= d[position] - baseline >= sdThreshold;
+					}
+				}
+				if (!peakAboveThreshold) {
+					continue;
+				}
+
+				// Decide which scale describes the peak best.
+				int bestScaleNr = 0;
+				double bestIntensity = Double.NEGATIVE_INFINITY;
+				for (int k = 0; k < ridge.length; k++) {
+					final int r1 = Math.max(0, ridge[k] - integrationRange);
+					final int r2 = Math.min(d.length - 1, ridge[k]
+							+ integrationRange);
+					double sum = 0.0;
+					for (int i = r1; i <= r2; i++) {
+						sum += d[i];
+					}
+					if (sum > bestIntensity) {
+						bestIntensity = sum;
+						bestScaleNr = k;
+					}
+				}
+				bestScaleNr = Math.min(bestScaleNr, wCoefs.length - 1);
+				final int bestScale = scales[bestScaleNr];
+				final int bestScalePos = ridge[bestScaleNr];
+				final int lwpos = Math.max(0, bestScalePos - bestScale);
+				final int rwpos = Math.min(bestScalePos + bestScale,
+						d.length - 1);
+
+				// Maximum intensity within the ROI.
+				final int p1 = Math.max(lwpos + dStart, roiStart);
+				final int p2 = Math.min(rwpos + dStart, roiEnd);
+				double maxIntensity = 0.0;
+				for (int i = p1; i <= p2; i++) {
+					maxIntensity = Math.max(maxIntensity, intensity[i]);
+				}
+
+				final double[] peak = new double[NUM_COLUMNS];
+				peak[MZ] = peak[MZ_MIN] = peak[MZ_MAX] = mz;
+				peak[MAXO] = maxIntensity;
+				peak[SN] = Math.rint((maxIntensity - baseline) / sdNoise);
+				roiPeaks.add(peak);
+				roiPeakInfo.add(new int[]{bestScaleNr, bestScalePos, lwpos,
+						rwpos});
+			}
+
+			// Find peak boundaries, assign RT and intensity values.
+			for (int p = 0; p < roiPeaks.size(); p++) {
+
+				final double[] peak = roiPeaks.get(p);
+				final int[] info = roiPeakInfo.get(p);
+
+				int[] lm = null;
+				if (integrate == INTEGRATE_SMOOTHED) {
+					lm = descendMin(wCoefs[info[0]], info[1]);
+					boolean gap = true;
+					for (int i = lm[0]; i <= lm[1]; i++) {
+						gap &= d[i] == 0.0;
+					}
+					if (lm[0] == lm[1] || gap) {
+						lm = null;
+					}
+				}
+				if (lm == null) {
+					lm = descendMinTol(d, info[2], info[3], maxDescOutlier);
+				}
+
+				// Narrow down peak boundaries by skipping zeros.
+				int leading = 0;
+				while (lm[0] + leading <= lm[1] && d[lm[0] + leading] < 1.0) {
+					leading++;
+				}
+				int trailing = 0;
+				while (lm[1] - trailing >= lm[0] && d[lm[1] - trailing] < 1.0) {
+					trailing++;
+				}
+				final int left = lm[0] + Math.max(0, leading - 1);
+				final int right = lm[1] - Math.max(0, trailing - 1);
+				final int lo = Math.min(left, right);
+				final int hi = Math.max(left, right);
+
+				peak[RT_MIN] = scanTime[left + dStart];
+				peak[RT_MAX] = scanTime[right + dStart];
+
+				double sum = 0.0, sumAboveBaseline = 0.0, maxo = 0.0;
+				int maxIndex = lo;
+				for (int i = lo; i <= hi; i++) {
+					sum += d[i];
+					if (d[i] > baseline) {
+						sumAboveBaseline += d[i] - baseline;
+					}
+					if (d[i] > maxo) {
+						maxo = d[i];
+						maxIndex = i;
+					}
+				}
+
+				double peakWidth = (peak[RT_MAX] - peak[RT_MIN])
+						/ (right - left);
+				if (Double.isNaN(peakWidth)) {
+					peakWidth = 1.0;
+				}
+
+				peak[MAXO] = maxo;
+				peak[INTO] = peakWidth * sum;
+				peak[INTB] = peakWidth * sumAboveBaseline;
+				peak[RT] = scanTime[maxIndex + dStart];
+			}
+
+			peaks.addAll(roiPeaks);
+		}
+
+		return rectUnique(peaks);
+	}
+
+	/**
+	 * Removes peaks which overlap a more intense peak.
+	 * 
+	 * @param peaks
+	 *            the peaks.
+	 * @return the remaining peaks, in their original order.
+	 */
+	private static double[][] rectUnique(final List<double[]> peaks) {
+
+		final Integer[] order = new Integer[peaks.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return Double.compare(peaks.get(b)[INTO], peaks.get(a)[INTO]);
+			}
+		});
+
+		final boolean[] keep = new boolean[order.length];
+		for (int i = 0; i < order.length; i++) {
+			final double[] peak = peaks.get(order[i]);
+			keep[order[i]] = true;
+			for (int j = 0; j < i; j++) {
+				final double[] other = peaks.get(order[j]);
+				if (keep[order[j]]
+						&& !(peak[MZ_MIN] - other[MZ_MAX] > 0.0
+								|| other[MZ_MIN] - peak[MZ_MAX] > 0.0
+								|| peak[RT_MIN] - other[RT_MAX] > RT_DIFF || other[RT_MIN]
+								- peak[RT_MAX] > RT_DIFF)) {
+					keep[order[i]] = false;
+					break;
+				}
+			}
+		}
+
+		final List<double[]> uniquePeaks = new ArrayList<double[]>();
+		for (int i = 0; i < keep.length; i++) {
+			if (keep[i]) {
+				uniquePeaks.add(peaks.get(i));
+			}
+		}
+		return uniquePeaks.toArray(new double[uniquePeaks.size()][]);
+	}
+
+	/**
+	 * Continuous wavelet transform with the Mexican hat wavelet (MSW.cwt).
+	 * 
+	 * @param data
+	 *            the data.
+	 * @param scales
+	 *            the wavelet scales.
+	 * @return the coefficients as double[number of scales][data length], with
+	 *         the scales which are too large for the data omitted, or null if
+	 *         all scales are too large.
+	 */
+	static double[][] cwt(final double[] data, final int[] scales) {
+
+		// Extend the data to a power of two by reflection.
+		final int oldLength = data.length;
+		int length = 1;
+		while (length < oldLength) {
+			length <<= 1;
+		}
+		final double[] x = Arrays.copyOf(data, length);
+		for (int i = oldLength; i < length; i++) {
+			x[i] = data[2 * oldLength - 1 - i];
+		}
+
+		final List<double[]> coefs = new ArrayList<double[]>();
+		for (final int scale : scales) {
+
+			// Sample the wavelet at this scale.
+			final int last = (int) Math.floor(scale * PSI_WIDTH);
+			int waveLength = last + 1;
+			final int[] j = new int[Math.max(waveLength, 2)];
+			for (int k = 0; k <= last; k++) {
+				j[k] = (int) Math.floor(k / (scale * PSI_DX));
+			}
+			waveLength = j.length;
+			if (waveLength > length) {
+				break;
+			}
+			double mean = 0.0;
+			for (final int index : j) {
+				mean += PSI[index];
+			}
+			mean /= waveLength;
+			final double[] wave = new double[waveLength];
+			for (int k = 0; k < waveLength; k++) {
+				wave[k] = PSI[j[waveLength - 1 - k]] - mean;
+			}
+
+			// Circular correlation, shifted by half the wavelet width.
+			final double factor = 1.0 / Math.sqrt(scale);
+			final int shift = waveLength / 2;
+			final double[] column = new double[oldLength];
+			for (int t = 0; t < oldLength; t++) {
+				double sum = 0.0;
+				int position = ((t - shift) % length + length) % length;
+				for (int k = 0; k < waveLength; k++) {
+					sum += x[position] * wave[k];
+					if (++position == length) {
+						position = 0;
+					}
+				}
+				column[t] = factor * sum;
+			}
+			coefs.add(column);
+		}
+
+		return coefs.isEmpty() ? null : coefs.toArray(new double[coefs
+				.size()][]);
+	}
+
+	/**
+	 * Finds the local maxima of the coefficients for each scale
+	 * (MSW.getLocalMaximumCWT).
+	 */
+	private static boolean[][] getLocalMaximumCWT(final double[][] wCoefs,
+			final int[] scales) {
+
+		final boolean[][] localMax = new boolean[wCoefs.length][];
+		for (int i = 0; i < wCoefs.length; i++) {
+			localMax[i] = localMaximum(wCoefs[i],
+					Math.max(scales[i] * 2 + 1, MIN_LOCAL_MAX_WINDOW));
+			for (int t = 0; t < wCoefs[i].length; t++) {
+				if (wCoefs[i][t] < 0.0) {
+					localMax[i][t] = false;
+				}
+			}
+		}
+		return localMax;
+	}
+
+	/**
+	 * Finds the local maxima in windows of the given size (MSW.localMaximum).
+	 */
+	private static boolean[] localMaximum(final double[] x, final int winSize) {
+
+		final int len = x.length;
+		final boolean[] localMax = new boolean[len];
+
+		// Maxima of consecutive windows, and of windows shifted by half the
+		// window size.
+		markWindowMaxima(x, winSize, 0, localMax);
+		markWindowMaxima(x, winSize, winSize / 2, localMax);
+
+		// Of the local maxima closer than the window size, keep the higher.
+		final List<Integer> maxima = new ArrayList<Integer>();
+		for (int i = 0; i < len; i++) {
+			if (localMax[i]) {
+				maxima.add(i);
+			}
+		}
+		for (int i = 0; i + 1 < maxima.size(); i++) {
+			final int a = maxima.get(i);
+			final int b = maxima.get(i + 1);
+			if (b - a < winSize) {
+				if (x[a] - x[b] <= 0.0) {
+					localMax[a] = false;
+				} else {
+					localMax[b] = false;
+				}
+			}
+		}
+		return localMax;
+	}
+
+	/**
+	 * Marks the maximum of each window which is higher than both window
+	 * boundaries. The data are padded with the first value at the start and
+	 * with the last value at the end.
+	 */
+	private static void markWindowMaxima(final double[] x, final int winSize,
+			final int shift, final boolean[] localMax) {
+
+		final int len = x.length;
+		final int numWindows = (len + shift + winSize - 1) / winSize;
+		for (int w = 0; w < numWindows; w++) {
+			final int first = w * winSize - shift;
+			int maxIndex = 0;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < winSize; k++) {
+				final double value = x[Math.min(len - 1,
+						Math.max(0, first + k))];
+				if (value > max) {
+					max = value;
+					maxIndex = k;
+				}
+			}
+			if (max > x[Math.max(0, first)]
+					&& max > x[Math.min(len - 1, first + winSize - 1)]) {
+				localMax[first + maxIndex] = true;
+			}
+		}
+	}
+
+	/**
+	 * Ridge of local maxima, identified by its position at the current
+	 * scale.
+	 */
+	private static class Ridge {
+		final List<Integer> path;
+		final String name;
+		int position;
+		int gap;
+
+		Ridge(final List<Integer> path, final int position, final String name) {
+			this.path = path;
+			this.position = position;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Connects the local maxima from the largest scale to the smallest one
+	 * (MSW.getRidge).
+	 * 
+	 * @return the ridges, each as positions from the smallest scale upwards.
+	 */
+	private static List<int[]> getRidges(final boolean[][] localMax,
+			final int[] scales) {
+
+		final int numScales = localMax.length;
+		final int len = localMax[0].length;
+
+		List<Ridge> ridges = new ArrayList<Ridge>();
+		final List<Ridge> orphans = new ArrayList<Ridge>();
+		List<Integer> currentMax = new ArrayList<Integer>();
+		for (int t = 0; t < len; t++) {
+			if (localMax[numScales - 1][t]) {
+				currentMax.add(t);
+				ridges.add(newRidge(t));
+			}
+		}
+
+		final int firstColumn = numScales > 1 ? numScales - 2 : 0;
+		for (int col = firstColumn; col >= 0; col--) {
+
+			final int scale = scales[col];
+
+			if (currentMax.isEmpty()) {
+				for (int t = 0; t < len; t++) {
+					if (localMax[col][t]) {
+						currentMax.add(t);
+					}
+				}
+				continue;
+			}
+
+			// The sliding window size is proportional to the scale.
+			final int winSize = Math.max(scale / 2, MIN_RIDGE_WINDOW);
+
+			final List<Integer> selected = new ArrayList<Integer>();
+			final Set<Integer> removed = new HashSet<Integer>();
+			for (final int position : currentMax) {
+
+				final int start = Math.max(0, position - winSize);
+				final int end = Math.min(len - 1, position + winSize);
+				int next = -1;
+				for (int t = start; t <= end; t++) {
+					if (localMax[col][t]
+							&& (next < 0 || Math.abs(t - position) < Math
+									.abs(next - position))) {
+						next = t;
+					}
+				}
+
+				Ridge ridge = findRidge(ridges, position);
+				int gap = 0;
+				if (next < 0) {
+					gap = ridge == null
+							? RIDGE_GAP_THRESHOLD + 1
+							: ridge.gap;
+					if (gap > RIDGE_GAP_THRESHOLD && scale >= 2) {
+						// The ridge is disconnected.
+						final List<Integer> path = ridge == null
+								? new ArrayList<Integer>()
+								: new ArrayList<Integer>(ridge.path.subList(0,
+										Math.max(0, ridge.path.size() - gap)));
+						orphans.add(new Ridge(path, position, (col + 1 + gap + 1)
+								+ "_" + position));
+						removed.add(position);
+						continue;
+					}
+					next = position;
+					gap++;
+				}
+				if (ridge == null) {
+					ridge = newRidge(position);
+					ridge.path.clear();
+					ridges.add(ridge);
+				}
+				ridge.path.add(next);
+				ridge.gap = gap;
+				selected.add(next);
+			}
+
+			// Remove the disconnected ridges.
+			if (!removed.isEmpty()) {
+				final List<Ridge> remaining = new ArrayList<Ridge>();
+				for (final Ridge ridge : ridges) {
+					if (!removed.contains(ridge.position)) {
+						remaining.add(ridge);
+					}
+				}
+				ridges = remaining;
+			}
+
+			// Of the ridges arriving at the same position, keep the longest.
+			final Set<Integer> seen = new HashSet<Integer>();
+			final List<Integer> duplicates = new ArrayList<Integer>();
+			for (final int position : selected) {
+				if (!seen.add(position) && !duplicates.contains(position)) {
+					duplicates.add(position);
+				}
+			}
+			if (!duplicates.isEmpty()) {
+				final Set<Integer> removeIndexes = new HashSet<Integer>();
+				for (final int duplicate : duplicates) {
+					int longest = -1;
+					int longestIndex = -1;
+					final List<Integer> indexes = new ArrayList<Integer>();
+					for (int i = 0; i < selected.size(); i++) {
+						if (selected.get(i) == duplicate) {
+							indexes.add(i);
+							if (ridges.get(i).path.size() > longest) {
+								longest = ridges.get(i).path.size();
+								longestIndex = indexes.size() - 1;
+							}
+						}
+					}
+					for (int k = 0; k < indexes.size(); k++) {
+						if (k != longestIndex) {
+							removeIndexes.add(indexes.get(k));
+						}
+					}
+					// As in MSW.getRidge, the orphan is taken from the
+					// position of the longest ridge within the group.
+					orphans.add(new Ridge(new ArrayList<Integer>(ridges
+							.get(longestIndex).path), duplicate, (col + 1)
+							+ "_" + selected.get(longestIndex)));
+				}
+				final List<Ridge> remaining = new ArrayList<Ridge>();
+				final List<Integer> remainingSelected = new ArrayList<Integer>();
+				for (int i = 0; i < ridges.size(); i++) {
+					if (!removeIndexes.contains(i)) {
+						remaining.add(ridges.get(i));
+						remainingSelected.add(selected.get(i));
+					}
+				}
+				ridges = remaining;
+				selected.clear();
+				selected.addAll(remainingSelected);
+			}
+
+			// Ridges are now identified by their position at this scale.
+			for (int i = 0; i < ridges.size() && i < selected.size(); i++) {
+				ridges.get(i).position = selected.get(i);
+			}
+
+			// Start new ridges at the unselected maxima.
+			if (scale >= 2) {
+				final Set<Integer> selectedSet = new HashSet<Integer>(selected);
+				currentMax = new ArrayList<Integer>(selected);
+				for (int t = 0; t < len; t++) {
+					if (localMax[col][t] && !selectedSet.contains(t)) {
+						currentMax.add(t);
+						ridges.add(newRidge(t));
+					}
+				}
+			} else {
+				currentMax = selected;
+			}
+		}
+
+		// Combine ridges and orphans, removing duplicate names.
+		final List<int[]> result = new ArrayList<int[]>();
+		final Set<String> names = new HashSet<String>();
+		final List<Ridge> all = new ArrayList<Ridge>();
+		for (final Ridge ridge : ridges) {
+			all.add(new Ridge(ridge.path, ridge.position, "1_"
+					+ ridge.position));
+		}
+		all.addAll(orphans);
+		for (final Ridge ridge : all) {
+			if (names.add(ridge.name) && !ridge.path.isEmpty()) {
+				final int size = ridge.path.size();
+				final int[] path = new int[size];
+				for (int i = 0; i < size; i++) {
+					path[i] = ridge.path.get(size - 1 - i);
+				}
+				result.add(path);
+			}
+		}
+		return result;
+	}
+
+	private static Ridge newRidge(final int position) {
+		final List<Integer> path = new ArrayList<Integer>();
+		path.add(position);
+		return new Ridge(path, position, null);
+	}
+
+	private static Ridge findRidge(final List<Ridge> ridges, final int position) {
+		for (final Ridge ridge : ridges) {
+			if (ridge.position == position) {
+				return ridge;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Descends from the start position to the nearest local minima on both
+	 * sides.
+	 */
+	private static int[] descendMin(final double[] y, final int start) {
+
+		int lower = start;
+		while (lower > 0 && y[lower - 1] < y[lower]) {
+			lower--;
+		}
+		int upper = start;
+		while (upper < y.length - 1 && y[upper + 1] < y[upper]) {
+			upper++;
+		}
+		return new int[]{lower, upper};
+	}
+
+	/**
+	 * Descends from the start positions to the nearest minima on both sides,
+	 * tolerating up to maxDescOutlier points which are higher than the last
+	 * minimum.
+	 */
+	private static int[] descendMinTol(final double[] y, final int leftStart,
+			final int rightStart, final int maxDescOutlier) {
+
+		int lower = leftStart;
+		int outliers = 0;
+		for (int i = leftStart - 1; i >= 0 && y[lower] > 0.0; i--) {
+			if (y[i] <= y[lower]) {
+				lower = i;
+				outliers = 0;
+			} else if (++outliers > maxDescOutlier) {
+				break;
+			}
+		}
+
+		int upper = rightStart;
+		outliers = 0;
+		for (int i = rightStart + 1; i < y.length && y[upper] > 0.0; i++) {
+			if (y[i] <= y[upper]) {
+				upper = i;
+				outliers = 0;
+			} else if (++outliers > maxDescOutlier) {
+				break;
+			}
+		}
+
+		return new int[]{lower, upper};
+	}
+
+	/**
+	 * Estimates the chromatographic noise as the trimmed mean of non-zero
+	 * intensities.
+	 */
+	private static double estimateChromNoise(final double[] x,
+			final double trim, final int minPts) {
+
+		int numNonZero = 0;
+		for (final double value : x) {
+			if (value > 0.0) {
+				numNonZero++;
+			}
+		}
+		if (numNonZero < minPts) {
+			return mean(x, 0, x.length);
+		}
+
+		final double[] nonZero = new double[numNonZero];
+		int i = 0;
+		for (final double value : x) {
+			if (value > 0.0) {
+				nonZero[i++] = value;
+			}
+		}
+		Arrays.sort(nonZero);
+		final int lo = (int) Math.floor(numNonZero * trim);
+		return mean(nonZero, lo, numNonZero - lo);
+	}
+
+	/**
+	 * Checks whether there are at least num consecutive points above the
+	 * threshold between first and last (inclusive).
+	 */
+	private static boolean continuousPtsAboveThreshold(final double[] y,
+			final int first, final int last, final double threshold,
+			final int num) {
+
+		int count = 0;
+		for (int i = first; i <= last; i++) {
+			count = y[i] > threshold ? count + 1 : 0;
+			if (count >= num) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the values which are not part of at least num consecutive
+	 * points above the threshold.
+	 */
+	private static double[] removeContinuousPtsAboveThreshold(
+			final double[] y, final double threshold, final int num) {
+
+		final boolean[] remove = new boolean[y.length];
+		int count = 0;
+		for (int i = 0; i <= y.length; i++) {
+			if (i < y.length && y[i] > threshold) {
+				count++;
+			} else {
+				if (count >= num) {
+					Arrays.fill(remove, i - count, i, true);
+				}
+				count = 0;
+			}
+		}
+
+		final double[] result = new double[y.length];
+		int size = 0;
+		for (int i = 0; i < y.length; i++) {
+			if (!remove[i]) {
+				result[size++] = y[i];
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * Estimates the local baseline and noise from the data outside the peak
+	 * range.
+	 * 
+	 * @return the baseline and the noise standard deviation.
+	 */
+	private static double[] getLocalNoiseEstimate(final double[] d,
+			final int fStart, final int fEnd, final int noiseRange,
+			final int numScans, final double threshold, final int num) {
+
+		final double baseline1, sdNoise1, baseline2, sdNoise2;
+
+		if (d.length < numScans) {
+
+			// Region outside the ROI (wide).
+			final double[] outside = new double[d.length - (fEnd - fStart + 1)];
+			System.arraycopy(d, 0, outside, 0, fStart);
+			System.arraycopy(d, fEnd + 1, outside, fStart, d.length - fEnd
+					- 1);
+			final double[] n1 = removeContinuousPtsAboveThreshold(outside,
+					threshold, num);
+			if (n1.length > 1) {
+				baseline1 = mean(n1, 0, n1.length);
+				sdNoise1 = sd(n1);
+			} else {
+				baseline1 = sdNoise1 = 1.0;
+			}
+
+			// Region next to the ROI (narrow).
+			final int leftStart = Math.max(0, fStart - noiseRange);
+			final int rightEnd = Math.min(d.length - 1, fEnd + noiseRange);
+			final double[] narrow = new double[fStart - leftStart + 1
+					+ rightEnd - fEnd + 1];
+			System.arraycopy(d, leftStart, narrow, 0, fStart - leftStart + 1);
+			System.arraycopy(d, fEnd, narrow, fStart - leftStart + 1, rightEnd
+					- fEnd + 1);
+			final double[] n2 = removeContinuousPtsAboveThreshold(narrow,
+					threshold, num);
+			if (n2.length > 1) {
+				baseline2 = mean(n2, 0, n2.length);
+				sdNoise2 = sd(n2);
+			} else {
+				baseline2 = sdNoise2 = 1.0;
+			}
+
+		} else {
+
+			// The whole chromatogram: 5-95% quantiles of non-zero values.
+			int numNonZero = 0;
+			for (final double value : d) {
+				if (value > 0.0) {
+					numNonZero++;
+				}
+			}
+			final double[] sorted = new double[numNonZero];
+			int i = 0;
+			for (final double value : d) {
+				if (value > 0.0) {
+					sorted[i++] = value;
+				}
+			}
+			Arrays.sort(sorted);
+			final int from = Math.max(1, (int) Math.rint(numNonZero * 0.05
+					+ 1));
+			final int to = Math.min(numNonZero,
+					(int) Math.rint(numNonZero * 0.95));
+			if (to >= from) {
+				final double[] trimmed = Arrays.copyOfRange(sorted, from - 1,
+						to);
+				baseline1 = baseline2 = mean(trimmed, 0, trimmed.length);
+				sdNoise1 = sdNoise2 = trimmed.length > 1 ? sd(trimmed) : 1.0;
+			} else {
+				baseline1 = baseline2 = sdNoise1 = sdNoise2 = 1.0;
+			}
+		}
+
+		return new double[]{Math.min(baseline1, baseline2),
+				Math.min(sdNoise1, sdNoise2)};
+	}
+
+	private static boolean anyAbove(final double[][] values,
+			final double threshold) {
+		for (final double[] column : values) {
+			for (final double value : column) {
+				if (value >= threshold) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static double mean(final double[] x, final int from, final int to) {
+		double sum = 0.0;
+		for (int i = from; i < to; i++) {
+			sum += x[i];
+		}
+		return sum / (to - from);
+	}
+
+	private static double sd(final double[] x) {
+		final double mean = mean(x, 0, x.length);
+		double sum = 0.0;
+		for (final double value : x) {
+			sum += (value - mean) * (value - mean);
+		}
+		return Math.sqrt(sum / (x.length - 1));
+	}
+}
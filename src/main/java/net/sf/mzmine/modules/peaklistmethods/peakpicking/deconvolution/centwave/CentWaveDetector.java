@@ -41,7 +41,8 @@ import java.util.logging.Logger;
 import static net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwave.CentWaveDetectorParameters.*;
 
 /**
- * Use XCMS findPeaks.centWave to identify peaks.
+ * Use XCMS findPeaks.centWave to identify peaks, either with the Java
+ * implementation in {@link CentWave} or by calling XCMS in R.
  * 
  * @author $Author: plusik $
  * @version $Revision: 3211 $
@@ -80,12 +81,32 @@ public class CentWaveDetector implements PeakResolver {
 			final ChromatographicPeak chromatogram, final int[] scanNumbers,
 			final double[] retentionTimes, final double[] intensities,
 			final ParameterSet parameters) {
+		final double mz = chromatogram.getMZ();
+		final double snrThreshold = parameters.getParameter(SN_THRESHOLD)
+				.getValue();
+		final Range peakScales = parameters.getParameter(PEAK_SCALES)
+				.getValue();
+		final PeakIntegrationMethod integrationMethod = parameters
+				.getParameter(INTEGRATION_METHOD).getValue();
+
 		// Call findPeaks.centWave.
-		final double[][] peakMatrix = centWave(retentionTimes, intensities,
-				chromatogram.getMZ(), parameters.getParameter(SN_THRESHOLD)
-						.getValue(), parameters.getParameter(PEAK_SCALES)
-						.getValue(), parameters
-						.getParameter(INTEGRATION_METHOD).getValue());
+		final double[][] peakMatrix;
+		if (parameters.getParameter(USE_R).getValue()) {
+
+			peakMatrix = rCentWave(retentionTimes, intensities, mz,
+					snrThreshold, peakScales, integrationMethod);
+
+		} else {
+
+			final double[] scanTime = new double[retentionTimes.length];
+			for (int i = 0; i < scanTime.length; i++) {
+				scanTime[i] = retentionTimes[i] * SECONDS_PER_MINUTE;
+			}
+			peakMatrix = CentWave.findPeaks(scanTime, intensities, mz,
+					snrThreshold, peakScales.getMin() * SECONDS_PER_MINUTE,
+					peakScales.getMax() * SECONDS_PER_MINUTE,
+					integrationMethod.getIndex());
+		}
 
 		final List<ResolvedPeak> resolvedPeaks;
 		if (peakMatrix == null) {
@@ -105,8 +126,10 @@ public class CentWaveDetector implements PeakResolver {
 			for (final double[] peakRow : peakMatrix) {
 
 				// Get peak start and end.
-				final int peakLeft = findRTIndex(retentionTimes, peakRow[4]);
-				final int peakRight = findRTIndex(retentionTimes, peakRow[5]);
+				final int peakLeft = findRTIndex(retentionTimes,
+						peakRow[CentWave.RT_MIN]);
+				final int peakRight = findRTIndex(retentionTimes,
+						peakRow[CentWave.RT_MAX]);
 
 				// Partition into sections bounded by null data points, creating
 				// a peak for each.
@@ -146,7 +169,7 @@ public class CentWaveDetector implements PeakResolver {
 	}
 
 	/**
-	 * Do peak picking using xcms::findPeaks.centWave.
+	 * Do peak picking using xcms::findPeaks.centWave in R.
 	 * 
 	 * @param scanTime
 	 *            retention times (for each scan).
@@ -162,7 +185,7 @@ public class CentWaveDetector implements PeakResolver {
 	 *            integration method.
 	 * @return a matrix with a row for each detected peak.
 	 */
-	private static double[][] centWave(final double[] scanTime,
+	private static double[][] rCentWave(final double[] scanTime,
 			final double[] intensity, final double mz,
 			final double snrThreshold, final Range peakWidth,
 			final PeakIntegrationMethod integrationMethod) {
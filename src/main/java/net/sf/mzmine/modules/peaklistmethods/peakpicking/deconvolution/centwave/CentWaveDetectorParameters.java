@@ -27,6 +27,7 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.PeakResolverSetupDialog;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.ComboParameter;
 import net.sf.mzmine.parameters.parametertypes.DoubleParameter;
 import net.sf.mzmine.parameters.parametertypes.RangeParameter;
@@ -98,10 +99,15 @@ public class CentWaveDetectorParameters extends SimpleParameterSet {
 			PeakIntegrationMethod.values(),
 			PeakIntegrationMethod.UseSmoothedData);
 
+	public static final BooleanParameter USE_R = new BooleanParameter(
+			"Use R (XCMS)",
+			"If checked, peaks are detected by findPeaks.centWave of the R package XCMS instead of the built-in implementation of the same algorithm.",
+			false);
+
 	public CentWaveDetectorParameters() {
 
 		super(new Parameter[]{SN_THRESHOLD, PEAK_SCALES, PEAK_DURATION,
-				INTEGRATION_METHOD});
+				INTEGRATION_METHOD, USE_R});
 	}
 
 	@Override
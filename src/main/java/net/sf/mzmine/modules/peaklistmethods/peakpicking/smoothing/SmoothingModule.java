@@ -29,7 +29,7 @@ import javax.annotation.Nonnull;
 
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.modules.MZmineModuleCategory;
-import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.util.ExitCode;
@@ -39,7 +39,7 @@ import net.sf.mzmine.util.ExitCode;
  * 
  * @version $Revision: 3218 $
  */
-public class SmoothingModule implements MZmineProcessingModule {
+public class SmoothingModule implements MZminePerFileProcessingModule {
 
 	private static final String MODULE_NAME = "Smoothing";
 	private static final String MODULE_DESCRIPTION = "This module performs smoothing of chromatograms prior to deconvolution.";
@@ -83,4 +83,9 @@ public class SmoothingModule implements MZmineProcessingModule {
 		return SmoothingParameters.class;
 	}
 
+	@Override
+	public boolean createsPeakListsFromRawData() {
+		return false;
+	}
+
 }
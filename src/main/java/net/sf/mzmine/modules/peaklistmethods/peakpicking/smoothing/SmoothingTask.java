@@ -138,17 +138,24 @@ public class SmoothingTask extends AbstractTask {
 
 						if (!isCanceled()) {
 
-							// Copy original peak intensities.
+							// Copy original peak data points, intensities and
+							// retention times.
+							final RawDataFile dataFile = peak.getDataFile();
 							final int[] scanNumbers = peak.getScanNumbers();
 							final int numScans = scanNumbers.length;
+							final DataPoint[] dataPoints = new DataPoint[numScans];
 							final double[] intensities = new double[numScans];
+							final double[] retentionTimes = new double[numScans];
 							for (int i = 0; i < numScans; i++) {
 
 								final DataPoint dataPoint = peak
 										.getDataPoint(scanNumbers[i]);
+								dataPoints[i] = dataPoint;
 								intensities[i] = dataPoint == null
 										? 0.0
 										: dataPoint.getIntensity();
+								retentionTimes[i] = dataFile.getScan(
+										scanNumbers[i]).getRetentionTime();
 							}
 
 							// Smooth peak.
@@ -156,7 +163,6 @@ public class SmoothingTask extends AbstractTask {
 									filterWeights);
 
 							// Measure peak (max, ranges, area etc.)
-							final RawDataFile dataFile = peak.getDataFile();
 							final DataPoint[] newDataPoints = new DataPoint[numScans];
 							double maxIntensity = 0.0;
 							int maxScanNumber = -1;
@@ -166,15 +172,13 @@ public class SmoothingTask extends AbstractTask {
 							for (int i = 0; i < numScans; i++) {
 
 								final int scanNumber = scanNumbers[i];
-								final DataPoint dataPoint = peak
-										.getDataPoint(scanNumber);
+								final DataPoint dataPoint = dataPoints[i];
 								final double intensity = smoothed[i];
 								if (dataPoint != null && intensity > 0.0) {
 
 									// Create a new data point.
 									final double mz = dataPoint.getMZ();
-									final double rt = dataFile.getScan(
-											scanNumber).getRetentionTime();
+									final double rt = retentionTimes[i];
 									final DataPoint newDataPoint = new SimpleDataPoint(
 											mz, intensity);
 									newDataPoints[i] = newDataPoint;
@@ -201,9 +205,7 @@ public class SmoothingTask extends AbstractTask {
 										final double lastIntensity = lastDP == null
 												? 0.0
 												: lastDP.getIntensity();
-										final double lastRT = dataFile.getScan(
-												scanNumbers[i - 1])
-												.getRetentionTime();
+										final double lastRT = retentionTimes[i - 1];
 										area += (rt - lastRT)
 												* (intensity + lastIntensity)
 												/ 2.0;
@@ -299,16 +301,27 @@ public class SmoothingTask extends AbstractTask {
 		final int halfWidth = (fullWidth - 1) / 2;
 		final int numPoints = intensities.length;
 
-		// Convolve.
+		// Convolve. Only the points closer than halfWidth to either end
+		// need the window to be clipped.
 		final double[] convolved = new double[numPoints];
+		final int interiorEnd = numPoints - halfWidth;
 		for (int i = 0; i < numPoints; i++) {
 
 			double sum = 0.0;
 			final int k = i - halfWidth;
-			for (int j = Math.max(0, -k); j < Math
-					.min(fullWidth, numPoints - k); j++) {
+			if (k >= 0 && i < interiorEnd) {
+
+				for (int j = 0; j < fullWidth; j++) {
 
-				sum += intensities[k + j] * weights[j];
+					sum += intensities[k + j] * weights[j];
+				}
+			} else {
+
+				for (int j = Math.max(0, -k); j < Math.min(fullWidth,
+						numPoints - k); j++) {
+
+					sum += intensities[k + j] * weights[j];
+				}
 			}
 
 			// Set the result.
@@ -28,6 +28,11 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,9 +42,12 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.desktop.impl.MainWindow;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_0.PeakListOpenHandler_2_0;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_0.RawDataFileOpenHandler_2_0;
+import net.sf.mzmine.modules.projectmethods.projectload.version_2_10.PeakListOpenHandler_2_10;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_3.PeakListOpenHandler_2_3;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_3.RawDataFileOpenHandler_2_3;
 import net.sf.mzmine.modules.projectmethods.projectload.version_2_3.UserParameterOpenHandler_2_3;
@@ -50,6 +58,7 @@ import net.sf.mzmine.modules.projectmethods.projectsave.ProjectSavingTask;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.project.ProjectManager;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
@@ -60,6 +69,12 @@ import org.xml.sax.SAXException;
 import de.schlichtherle.truezip.zip.ZipEntry;
 import de.schlichtherle.truezip.zip.ZipFile;
 
+/**
+ * Raw data files and peak lists are read in parallel, using the number of
+ * threads set in the preferences. Each thread reads the project through its
+ * own ZipFile. The loaded objects are added to the project in the order of
+ * their entries, as if they were read one after another.
+ */
 public class ProjectOpeningTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
@@ -67,10 +82,21 @@ public class ProjectOpeningTask extends AbstractTask {
 	private File openFile;
 	private MZmineProjectImpl newProject;
 
-	private RawDataFileOpenHandler rawDataFileOpenHandler;
-	private PeakListOpenHandler peakListOpenHandler;
+	private int projectMajorVersion, projectMinorVersion;
+
+	private RawDataFileOpenHandler rawDataFileOpenHandlers[];
+	private PeakListOpenHandler peakListOpenHandlers[];
 	private UserParameterOpenHandler userParameterOpenHandler;
 
+	// Marks the raw data files and peak lists which were completely read
+	private boolean rawDataFilesFinished[], peakListsFinished[];
+
+	// Raw data files read by the jobs, closed if opening does not finish
+	private RawDataFile openedDataFiles[];
+
+	private ExecutorService executor;
+	private volatile boolean jobsStopped = false;
+
 	private int currentStage;
 	private String currentLoadedObjectName;
 
@@ -99,13 +125,10 @@ public class ProjectOpeningTask extends AbstractTask {
 	public double getFinishedPercentage() {
 		switch (currentStage) {
 			case 2 :
-				if (rawDataFileOpenHandler == null)
-					return 0;
-				return rawDataFileOpenHandler.getProgress();
+				return getProgress(rawDataFileOpenHandlers,
+						rawDataFilesFinished);
 			case 3 :
-				if (peakListOpenHandler == null)
-					return 0;
-				return peakListOpenHandler.getProgress();
+				return getProgress(peakListOpenHandlers, peakListsFinished);
 			case 4 :
 				if (userParameterOpenHandler == null)
 					return 0;
@@ -117,11 +140,32 @@ public class ProjectOpeningTask extends AbstractTask {
 		}
 	}
 
+	/**
+	 * Returns the average progress of the raw data file or peak list handlers
+	 */
+	private double getProgress(Object handlers[], boolean finished[]) {
+		if ((handlers == null) || (finished == null) || (handlers.length == 0))
+			return 0;
+		double progress = 0;
+		for (int i = 0; i < handlers.length; i++) {
+			if (finished[i])
+				progress += 1;
+			else if (handlers[i] instanceof RawDataFileOpenHandler)
+				progress += ((RawDataFileOpenHandler) handlers[i])
+						.getProgress();
+			else if (handlers[i] instanceof PeakListOpenHandler)
+				progress += ((PeakListOpenHandler) handlers[i]).getProgress();
+		}
+		return progress / handlers.length;
+	}
+
 	/**
 	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
 
+		boolean projectReplaced = false;
+
 		try {
 
 			logger.info("Started opening project " + openFile);
@@ -131,6 +175,8 @@ public class ProjectOpeningTask extends AbstractTask {
 			newProject = new MZmineProjectImpl();
 			newProject.setProjectFile(openFile);
 
+			executor = MZmineCore.getParallelExecutor();
+
 			// Get project ZIP stream
 			ZipFile zipFile = new ZipFile(openFile);
 
@@ -171,22 +217,28 @@ public class ProjectOpeningTask extends AbstractTask {
 			currentStage++;
 			zipFile.close();
 
+			// Unchanged user parameters are copied when the project is saved
+			newProject.setUserParametersModified(!isCurrentFormat());
+
 			// Final check for cancel
 			if (isCanceled())
 				return;
 
 			// Close all open frames related to previous project
-			JInternalFrame frames[] = MZmineCore.getDesktop()
-					.getInternalFrames();
-			for (JInternalFrame frame : frames) {
-				// Use doDefailtCloseAction() instead of dispose() to protect
-				// the TaskProgressWindow from disposing
-				frame.doDefaultCloseAction();
+			if (MZmineCore.getDesktop() instanceof MainWindow) {
+				JInternalFrame frames[] = MZmineCore.getDesktop()
+						.getInternalFrames();
+				for (JInternalFrame frame : frames) {
+					// Use doDefailtCloseAction() instead of dispose() to
+					// protect the TaskProgressWindow from disposing
+					frame.doDefaultCloseAction();
+				}
 			}
 
 			// Replace the current project with the new one
 			ProjectManager projectManager = MZmineCore.getProjectManager();
 			projectManager.setCurrentProject(newProject);
+			projectReplaced = true;
 
 			logger.info("Finished opening project " + openFile);
 
@@ -203,6 +255,14 @@ public class ProjectOpeningTask extends AbstractTask {
 			e.printStackTrace();
 			errorMessage = "Failed opening project: "
 					+ ExceptionUtils.exceptionToString(e);
+		} finally {
+			// Remove the temporary files of the raw data files read so far
+			if ((!projectReplaced) && (openedDataFiles != null)) {
+				for (RawDataFile dataFile : openedDataFiles) {
+					if (dataFile != null)
+						dataFile.close();
+				}
+			}
 		}
 	}
 
@@ -215,11 +275,27 @@ public class ProjectOpeningTask extends AbstractTask {
 
 		setStatus(TaskStatus.CANCELED);
 
-		if (rawDataFileOpenHandler != null)
-			rawDataFileOpenHandler.cancel();
+		cancelHandlers();
+
+	}
+
+	private void cancelHandlers() {
+
+		RawDataFileOpenHandler rawHandlers[] = rawDataFileOpenHandlers;
+		if (rawHandlers != null) {
+			for (RawDataFileOpenHandler handler : rawHandlers) {
+				if (handler != null)
+					handler.cancel();
+			}
+		}
 
-		if (peakListOpenHandler != null)
-			peakListOpenHandler.cancel();
+		PeakListOpenHandler peakListHandlers[] = peakListOpenHandlers;
+		if (peakListHandlers != null) {
+			for (PeakListOpenHandler handler : peakListHandlers) {
+				if (handler != null)
+					handler.cancel();
+			}
+		}
 
 	}
 
@@ -262,8 +338,8 @@ public class ProjectOpeningTask extends AbstractTask {
 			throw new IOException("Invalid project version "
 					+ projectVersionString);
 		}
-		int projectMajorVersion = Integer.valueOf(m.group(1));
-		int projectMinorVersion = Integer.valueOf(m.group(2));
+		projectMajorVersion = Integer.valueOf(m.group(1));
+		projectMinorVersion = Integer.valueOf(m.group(2));
 
 		// Check if project was saved with an old version
 		if (projectMajorVersion == 1) {
@@ -275,16 +351,11 @@ public class ProjectOpeningTask extends AbstractTask {
 		}
 
 		// Check if the project version is 2.0 to 2.2
-		if ((projectMajorVersion == 2) && (projectMinorVersion <= 2)) {
-			rawDataFileOpenHandler = new RawDataFileOpenHandler_2_0();
-			peakListOpenHandler = new PeakListOpenHandler_2_0(dataFilesIDMap);
+		if ((projectMajorVersion == 2) && (projectMinorVersion <= 2))
 			return;
-		}
 
 		// Check if the project version is 2.3 to 2.4
 		if ((projectMajorVersion == 2) && (projectMinorVersion <= 4)) {
-			rawDataFileOpenHandler = new RawDataFileOpenHandler_2_3();
-			peakListOpenHandler = new PeakListOpenHandler_2_3(dataFilesIDMap);
 			userParameterOpenHandler = new UserParameterOpenHandler_2_3(
 					newProject, dataFilesIDMap);
 			return;
@@ -302,13 +373,44 @@ public class ProjectOpeningTask extends AbstractTask {
 		}
 
 		// Default opening handler for MZmine 2.5 and higher
-		rawDataFileOpenHandler = new RawDataFileOpenHandler_2_5();
-		peakListOpenHandler = new PeakListOpenHandler_2_5(dataFilesIDMap);
 		userParameterOpenHandler = new UserParameterOpenHandler_2_5(newProject,
 				dataFilesIDMap);
 
 	}
 
+	/**
+	 * Returns true if the raw data files and user parameters of the project
+	 * are stored in the format used by this version of MZmine, so they can be
+	 * copied into a new project file as they are
+	 */
+	private boolean isCurrentFormat() {
+		return (projectMajorVersion > 2) || (projectMinorVersion >= 5);
+	}
+
+	/**
+	 * Creates a raw data file opening handler for the version of the project.
+	 * Each raw data file is read by its own handler.
+	 */
+	private RawDataFileOpenHandler createRawDataFileOpenHandler() {
+		if ((projectMajorVersion == 2) && (projectMinorVersion <= 2))
+			return new RawDataFileOpenHandler_2_0();
+		if ((projectMajorVersion == 2) && (projectMinorVersion <= 4))
+			return new RawDataFileOpenHandler_2_3();
+		return new RawDataFileOpenHandler_2_5(openFile);
+	}
+
+	/**
+	 * Creates a peak list opening handler for the version of the project.
+	 * Each peak list is read by its own handler.
+	 */
+	private PeakListOpenHandler createPeakListOpenHandler() {
+		if ((projectMajorVersion == 2) && (projectMinorVersion <= 2))
+			return new PeakListOpenHandler_2_0(dataFilesIDMap);
+		if ((projectMajorVersion == 2) && (projectMinorVersion <= 4))
+			return new PeakListOpenHandler_2_3(dataFilesIDMap);
+		return new PeakListOpenHandler_2_5(dataFilesIDMap);
+	}
+
 	/**
 	 * Load the configuration file from the project zip file
 	 */
@@ -341,78 +443,203 @@ public class ProjectOpeningTask extends AbstractTask {
 		tempConfigFile.delete();
 	}
 
-	private void loadRawDataFiles(ZipFile zipFile) throws IOException,
-			ParserConfigurationException, SAXException, InstantiationException,
-			IllegalAccessException {
+	private void loadRawDataFiles(ZipFile zipFile) throws Exception {
 
 		logger.info("Loading raw data files");
 
 		Pattern filePattern = Pattern
 				.compile("Raw data file #([\\d]+) (.*)\\.xml$");
 
-		Enumeration zipEntries = zipFile.entries();
-		while (zipEntries.hasMoreElements()) {
-
-			// Canceled
-			if (isCanceled())
-				return;
-
-			ZipEntry entry = (ZipEntry) zipEntries.nextElement();
-			String entryName = entry.getName();
-			Matcher fileMatcher = filePattern.matcher(entryName);
+		final List<String> entryNames = getMatchingEntries(zipFile,
+				filePattern);
+		final int numOfFiles = entryNames.size();
+		rawDataFileOpenHandlers = new RawDataFileOpenHandler[numOfFiles];
+		rawDataFilesFinished = new boolean[numOfFiles];
+		openedDataFiles = new RawDataFile[numOfFiles];
+		for (int i = 0; i < numOfFiles; i++)
+			rawDataFileOpenHandlers[i] = createRawDataFileOpenHandler();
+
+		List<Future<RawDataFile>> jobs = new ArrayList<Future<RawDataFile>>();
+		for (int i = 0; i < numOfFiles; i++) {
+			final int index = i;
+			jobs.add(executor.submit(new Callable<RawDataFile>() {
+				public RawDataFile call() throws Exception {
+
+					if (isCanceled() || jobsStopped)
+						return null;
+
+					String entryName = entryNames.get(index);
+					String scansFileName = entryName.replaceFirst("\\.xml$",
+							".scans");
+
+					// Each job reads through its own ZipFile
+					ZipFile jobZipFile = new ZipFile(openFile);
+					try {
+						RawDataFile newFile = rawDataFileOpenHandlers[index]
+								.readRawDataFile(jobZipFile,
+										jobZipFile.getEntry(scansFileName),
+										jobZipFile.getEntry(entryName));
+						openedDataFiles[index] = newFile;
+						rawDataFilesFinished[index] = true;
+						return newFile;
+					} finally {
+						jobZipFile.close();
+					}
+				}
+			}));
+		}
 
-			if (fileMatcher.matches()) {
+		boolean finished = false;
+		try {
+			for (int i = 0; i < numOfFiles; i++) {
+				Matcher fileMatcher = filePattern.matcher(entryNames.get(i));
+				fileMatcher.matches();
 				String fileID = fileMatcher.group(1);
 				currentLoadedObjectName = fileMatcher.group(2);
 
-				String scansFileName = entryName.replaceFirst("\\.xml$",
-						".scans");
-				ZipEntry scansEntry = zipFile.getEntry(scansFileName);
-				RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(
-						zipFile, scansEntry, entry);
+				RawDataFile newFile = getJobResult(jobs.get(i));
+				if (isCanceled())
+					return;
 				newProject.addFile(newFile);
 				dataFilesIDMap.put(fileID, newFile);
-			}
 
+				// Unchanged files are copied when the project is saved
+				if (isCurrentFormat() && (newFile instanceof RawDataFileImpl)) {
+					((RawDataFileImpl) newFile).setProjectID(fileID);
+					((RawDataFileImpl) newFile).setModified(false);
+				}
+			}
+			finished = true;
+		} finally {
+			if (!finished)
+				stopJobs(jobs);
 		}
 
 	}
 
-	private void loadPeakLists(ZipFile zipFile) throws IOException,
-			ParserConfigurationException, SAXException, InstantiationException,
-			IllegalAccessException {
+	private void loadPeakLists(ZipFile zipFile) throws Exception {
 
 		logger.info("Loading peak lists");
 
+		// Since MZmine 2.10, peak lists are saved in the binary format
 		Pattern filePattern = Pattern
-				.compile("Peak list #([\\d]+) (.*)\\.xml$");
-
-		Enumeration zipEntries = zipFile.entries();
-		while (zipEntries.hasMoreElements()) {
+				.compile("Peak list #([\\d]+) (.*)\\.(xml|peaks)$");
+
+		final List<String> entryNames = getMatchingEntries(zipFile,
+				filePattern);
+		final int numOfPeakLists = entryNames.size();
+		peakListOpenHandlers = new PeakListOpenHandler[numOfPeakLists];
+		peakListsFinished = new boolean[numOfPeakLists];
+		for (int i = 0; i < numOfPeakLists; i++) {
+			if (entryNames.get(i).endsWith(".peaks"))
+				peakListOpenHandlers[i] = new PeakListOpenHandler_2_10(
+						dataFilesIDMap);
+			else
+				peakListOpenHandlers[i] = createPeakListOpenHandler();
+		}
 
-			// Canceled
-			if (isCanceled())
-				return;
+		List<Future<PeakList>> jobs = new ArrayList<Future<PeakList>>();
+		for (int i = 0; i < numOfPeakLists; i++) {
+			final int index = i;
+			jobs.add(executor.submit(new Callable<PeakList>() {
+				public PeakList call() throws Exception {
+
+					if (isCanceled() || jobsStopped)
+						return null;
+
+					// Each job reads through its own ZipFile
+					ZipFile jobZipFile = new ZipFile(openFile);
+					try {
+						InputStream peakListStream = jobZipFile
+								.getInputStream(jobZipFile.getEntry(entryNames
+										.get(index)));
+						PeakList newPeakList = peakListOpenHandlers[index]
+								.readPeakList(peakListStream);
+						peakListsFinished[index] = true;
+						return newPeakList;
+					} finally {
+						jobZipFile.close();
+					}
+				}
+			}));
+		}
 
-			ZipEntry entry = (ZipEntry) zipEntries.nextElement();
-			String entryName = entry.getName();
+		boolean finished = false;
+		try {
+			for (int i = 0; i < numOfPeakLists; i++) {
+				Matcher fileMatcher = filePattern.matcher(entryNames.get(i));
+				fileMatcher.matches();
+				currentLoadedObjectName = fileMatcher.group(2);
 
-			Matcher fileMatcher = filePattern.matcher(entryName);
+				PeakList newPeakList = getJobResult(jobs.get(i));
+				if (isCanceled())
+					return;
+				newProject.addPeakList(newPeakList);
 
-			if (fileMatcher.matches()) {
+				// Unchanged peak lists are copied when the project is saved
+				if (newPeakList instanceof SimplePeakList) {
+					((SimplePeakList) newPeakList)
+							.setProjectEntryName(entryNames.get(i));
+					((SimplePeakList) newPeakList).setModified(false);
+				}
+			}
+			finished = true;
+		} finally {
+			if (!finished)
+				stopJobs(jobs);
+		}
 
-				currentLoadedObjectName = fileMatcher.group(2);
+	}
 
-				InputStream peakListStream = zipFile.getInputStream(entry);
+	/**
+	 * Returns the names of the ZIP entries matching the given pattern, in the
+	 * order in which they are stored
+	 */
+	private List<String> getMatchingEntries(ZipFile zipFile, Pattern pattern) {
+		List<String> entryNames = new ArrayList<String>();
+		Enumeration zipEntries = zipFile.entries();
+		while (zipEntries.hasMoreElements()) {
+			ZipEntry entry = (ZipEntry) zipEntries.nextElement();
+			if (pattern.matcher(entry.getName()).matches())
+				entryNames.add(entry.getName());
+		}
+		return entryNames;
+	}
 
-				PeakList newPeakList = peakListOpenHandler
-						.readPeakList(peakListStream);
+	/**
+	 * Waits for a job to finish and returns its result, or rethrows the
+	 * exception which stopped the job
+	 */
+	private <T> T getJobResult(Future<T> job) throws Exception {
+		try {
+			return job.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}
+	}
 
-				newProject.addPeakList(newPeakList);
+	/**
+	 * Stops the remaining jobs after opening was canceled or failed, and
+	 * waits until all of them finish. The jobs run in the shared parallel
+	 * executor, so the ones which have not started yet are not skipped, but
+	 * they return as soon as they start.
+	 */
+	private void stopJobs(List<? extends Future<?>> jobs)
+			throws InterruptedException {
+		jobsStopped = true;
+		cancelHandlers();
+		for (Future<?> job : jobs) {
+			if (job == null)
+				continue;
+			try {
+				job.get();
+			} catch (ExecutionException e) {
+				// The job was stopped, its error is not reported
 			}
-
 		}
-
 	}
 
 	private void loadUserParameters(ZipFile zipFile) throws IOException,
@@ -425,7 +652,8 @@ public class ProjectOpeningTask extends AbstractTask {
 
 		logger.info("Loading user parameters");
 
-		ZipEntry entry = zipFile.getEntry("User parameters.xml");
+		ZipEntry entry = zipFile
+				.getEntry(ProjectSavingTask.USER_PARAMETERS_FILENAME);
 
 		// If there are no parameters, just ignore
 		if (entry == null)
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload.version_2_10;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.IsotopePatternStatus;
+import net.sf.mzmine.data.PeakList;
+import net.sf.mzmine.data.PeakStatus;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.data.impl.SimpleIsotopePattern;
+import net.sf.mzmine.data.impl.SimplePeakIdentity;
+import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
+import net.sf.mzmine.data.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.projectload.PeakListOpenHandler;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Reads a peak list saved in the binary format. Row, identity and peak
+ * columns are decoded immediately, the data point columns are kept in memory
+ * and each peak decodes its data points when they are accessed.
+ */
+public class PeakListOpenHandler_2_10 implements PeakListOpenHandler {
+
+	// "MZPL" in ASCII
+	private static final int MAGIC_NUMBER = 0x4D5A504C;
+	private static final int FORMAT_VERSION = 1;
+
+	// Number of value blocks in the format, for the progress
+	private static final int NUMBER_OF_BLOCKS = 31;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private Hashtable<String, RawDataFile> dataFilesIDMap;
+
+	private DataInputStream dataStream;
+	private int readBlocks, parsedRows, totalRows;
+
+	private boolean canceled = false;
+
+	public PeakListOpenHandler_2_10(
+			Hashtable<String, RawDataFile> dataFilesIDMap) {
+		this.dataFilesIDMap = dataFilesIDMap;
+	}
+
+	/**
+	 * Load the peak list from the binary peak list stream
+	 */
+	public PeakList readPeakList(InputStream peakListStream)
+			throws IOException {
+
+		readBlocks = 0;
+		parsedRows = 0;
+		totalRows = 0;
+
+		dataStream = new DataInputStream(new BufferedInputStream(
+				peakListStream, BUFFER_SIZE));
+
+		// Header
+		if (dataStream.readInt() != MAGIC_NUMBER)
+			throw new IOException("Invalid binary peak list");
+		int formatVersion = dataStream.readInt();
+		if (formatVersion > FORMAT_VERSION)
+			throw new IOException("Binary peak list format version "
+					+ formatVersion
+					+ " is not supported by this version of MZmine");
+
+		String peakListName = readString();
+		logger.info("Loading peak list: " + peakListName);
+		String dateCreated = readString();
+
+		int numOfMethods = dataStream.readInt();
+		String methodNames[] = new String[numOfMethods];
+		String methodParameters[] = new String[numOfMethods];
+		for (int i = 0; i < numOfMethods; i++) {
+			methodNames[i] = readString();
+			methodParameters[i] = readString();
+		}
+
+		int numOfFiles = dataStream.readInt();
+		RawDataFile dataFiles[] = new RawDataFile[numOfFiles];
+		for (int i = 0; i < numOfFiles; i++) {
+			String fileID = readString();
+			dataFiles[i] = dataFilesIDMap.get(fileID);
+			if (dataFiles[i] == null)
+				throw new IOException(
+						"Cannot open peak list, because raw data file "
+								+ fileID + " is missing.");
+		}
+		RawDataFile peakListFiles[] = new RawDataFile[dataStream.readInt()];
+		System.arraycopy(dataFiles, 0, peakListFiles, 0, peakListFiles.length);
+
+		PeakStatus peakStatuses[] = new PeakStatus[dataStream.readInt()];
+		for (int i = 0; i < peakStatuses.length; i++)
+			peakStatuses[i] = PeakStatus.valueOf(readString());
+		IsotopePatternStatus isotopeStatuses[] = new IsotopePatternStatus[dataStream
+				.readInt()];
+		for (int i = 0; i < isotopeStatuses.length; i++)
+			isotopeStatuses[i] = IsotopePatternStatus.valueOf(readString());
+
+		// Row columns
+		int rowIDs[] = readIntBlock(-1);
+		totalRows = rowIDs.length;
+		String rowComments[] = readStringBlock(totalRows);
+		int rowPeakCounts[] = readIntBlock(totalRows);
+		int rowIdentityCounts[] = readIntBlock(totalRows);
+		int rowPreferredIdentities[] = readIntBlock(totalRows);
+
+		// Identity columns
+		int identityPropertyCounts[] = readIntBlock(-1);
+		String properties[] = readStringBlock(-1);
+
+		// Peak columns
+		int peakFiles[] = readIntBlock(-1);
+		int numOfPeaks = peakFiles.length;
+		double peakMZ[] = readDoubleBlock(numOfPeaks);
+		double peakRT[] = readDoubleBlock(numOfPeaks);
+		double peakHeight[] = readDoubleBlock(numOfPeaks);
+		double peakArea[] = readDoubleBlock(numOfPeaks);
+		byte peakStatus[] = readByteBlock(numOfPeaks);
+		int peakCharge[] = readIntBlock(numOfPeaks);
+		int representativeScans[] = readIntBlock(numOfPeaks);
+		int fragmentScans[] = readIntBlock(numOfPeaks);
+		Range rtRanges[] = readRanges(numOfPeaks);
+		Range mzRanges[] = readRanges(numOfPeaks);
+		Range intensityRanges[] = readRanges(numOfPeaks);
+		int dataPointCounts[] = readIntBlock(numOfPeaks);
+		int isotopeCounts[] = readIntBlock(numOfPeaks);
+		byte isotopeStatus[] = readByteBlock(numOfPeaks);
+		String isotopeDescriptions[] = readStringBlock(numOfPeaks);
+		double isotopeMZValues[] = readDoubleBlock(-1);
+		double isotopeIntensities[] = readDoubleBlock(isotopeMZValues.length);
+
+		// Data point columns are kept for the peaks to decode them later
+		ByteBuffer scanColumn = readRawBlock(4);
+		int numOfDataPoints = scanColumn.capacity() / 4;
+		ByteBuffer mzColumn = readRawBlock(4);
+		ByteBuffer intensityColumn = readRawBlock(4);
+		if ((mzColumn.capacity() != scanColumn.capacity())
+				|| (intensityColumn.capacity() != scanColumn.capacity()))
+			throw new IOException("Invalid binary peak list");
+
+		// Build the peak list
+		SimplePeakList peakList = new SimplePeakList(peakListName,
+				peakListFiles);
+		for (int i = 0; i < numOfMethods; i++) {
+			peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
+					methodNames[i], methodParameters[i]));
+		}
+		peakList.setDateCreated(dateCreated);
+
+		int peakIndex = 0, identityIndex = 0, propertyIndex = 0;
+		int isotopeIndex = 0, dataPointIndex = 0;
+		for (int row = 0; row < totalRows; row++) {
+
+			if (canceled)
+				throw new IOException("Parsing canceled");
+
+			SimplePeakListRow newRow = new SimplePeakListRow(rowIDs[row]);
+			newRow.setComment(rowComments[row]);
+
+			for (int i = 0; i < rowIdentityCounts[row]; i++) {
+				Hashtable<String, String> identityProperties = new Hashtable<String, String>();
+				for (int j = 0; j < identityPropertyCounts[identityIndex]; j++) {
+					identityProperties.put(properties[propertyIndex],
+							properties[propertyIndex + 1]);
+					propertyIndex += 2;
+				}
+				newRow.addPeakIdentity(new SimplePeakIdentity(
+						identityProperties), i == rowPreferredIdentities[row]);
+				identityIndex++;
+			}
+
+			for (int i = 0; i < rowPeakCounts[row]; i++) {
+
+				if (dataPointIndex + dataPointCounts[peakIndex] > numOfDataPoints)
+					throw new IOException("Invalid binary peak list");
+
+				RawDataFile dataFile = dataFiles[peakFiles[peakIndex]];
+				StoredChromatographicPeak peak = new StoredChromatographicPeak(
+						dataFile, peakMZ[peakIndex], peakRT[peakIndex],
+						peakHeight[peakIndex], peakArea[peakIndex],
+						peakStatuses[peakStatus[peakIndex]],
+						representativeScans[peakIndex],
+						fragmentScans[peakIndex], rtRanges[peakIndex],
+						mzRanges[peakIndex], intensityRanges[peakIndex],
+						scanColumn, mzColumn, intensityColumn, dataPointIndex,
+						dataPointCounts[peakIndex]);
+				peak.setCharge(peakCharge[peakIndex]);
+				dataPointIndex += dataPointCounts[peakIndex];
+
+				if (isotopeCounts[peakIndex] >= 0) {
+					DataPoint isotopes[] = new DataPoint[isotopeCounts[peakIndex]];
+					for (int j = 0; j < isotopes.length; j++) {
+						isotopes[j] = new SimpleDataPoint(
+								isotopeMZValues[isotopeIndex],
+								isotopeIntensities[isotopeIndex]);
+						isotopeIndex++;
+					}
+					peak.setIsotopePattern(new SimpleIsotopePattern(isotopes,
+							isotopeStatuses[isotopeStatus[peakIndex]],
+							isotopeDescriptions[peakIndex]));
+				}
+
+				newRow.addPeak(dataFile, peak);
+				peakIndex++;
+			}
+
+			peakList.addRow(newRow);
+			parsedRows++;
+		}
+
+		return peakList;
+
+	}
+
+	private String readString() throws IOException {
+		int length = dataStream.readInt();
+		if (length < 0)
+			return null;
+		byte bytes[] = new byte[length];
+		dataStream.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Reads the number of values of a block and checks it, unless the
+	 * expected number is -1
+	 */
+	private int readBlockLength(int expectedLength) throws IOException {
+		if (canceled)
+			throw new IOException("Parsing canceled");
+		int length = dataStream.readInt();
+		if ((length < 0) || ((expectedLength >= 0) && (length != expectedLength)))
+			throw new IOException("Invalid binary peak list");
+		readBlocks++;
+		return length;
+	}
+
+	/**
+	 * Reads the values of a block of fixed size values into a buffer
+	 */
+	private ByteBuffer readRawBlock(int valueSize) throws IOException {
+		int length = readBlockLength(-1);
+		if (length > Integer.MAX_VALUE / valueSize)
+			throw new IOException("Binary peak list block is too large");
+		byte bytes[] = new byte[length * valueSize];
+		dataStream.readFully(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	private int[] readIntBlock(int expectedLength) throws IOException {
+		int values[] = new int[readBlockLength(expectedLength)];
+		for (int i = 0; i < values.length; i++)
+			values[i] = dataStream.readInt();
+		return values;
+	}
+
+	private double[] readDoubleBlock(int expectedLength) throws IOException {
+		double values[] = new double[readBlockLength(expectedLength)];
+		for (int i = 0; i < values.length; i++)
+			values[i] = dataStream.readDouble();
+		return values;
+	}
+
+	private byte[] readByteBlock(int expectedLength) throws IOException {
+		byte values[] = new byte[readBlockLength(expectedLength)];
+		dataStream.readFully(values);
+		return values;
+	}
+
+	private String[] readStringBlock(int expectedLength) throws IOException {
+		String values[] = new String[readBlockLength(expectedLength)];
+		for (int i = 0; i < values.length; i++)
+			values[i] = readString();
+		return values;
+	}
+
+	/**
+	 * Reads the blocks of range minimums and maximums, NaN stands for a
+	 * missing range
+	 */
+	private Range[] readRanges(int expectedLength) throws IOException {
+		double minimums[] = readDoubleBlock(expectedLength);
+		double maximums[] = readDoubleBlock(expectedLength);
+		Range ranges[] = new Range[minimums.length];
+		for (int i = 0; i < ranges.length; i++) {
+			if (!Double.isNaN(minimums[i]))
+				ranges[i] = new Range(minimums[i], maximums[i]);
+		}
+		return ranges;
+	}
+
+	/**
+	 * @return the progress of loading the peak list
+	 */
+	public double getProgress() {
+		double progress = 0.8 * readBlocks / NUMBER_OF_BLOCKS;
+		if (totalRows > 0)
+			progress += 0.2 * parsedRows / totalRows;
+		return progress;
+	}
+
+	public void cancel() {
+		canceled = true;
+	}
+
+}
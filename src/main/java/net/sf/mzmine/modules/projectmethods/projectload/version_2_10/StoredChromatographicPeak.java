@@ -0,0 +1,202 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectload.version_2_10;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.IsotopePattern;
+import net.sf.mzmine.data.PeakStatus;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.util.PeakUtils;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Peak loaded from a binary peak list. The data points of the peak stay in
+ * the data point columns of the peak list until they are accessed for the
+ * first time.
+ */
+class StoredChromatographicPeak implements ChromatographicPeak {
+
+	private PeakStatus peakStatus;
+	private RawDataFile dataFile;
+
+	// M/Z, RT, Height and Area
+	private double mz, rt, height, area;
+
+	// Boundaries of the peak raw data points
+	private Range rtRange, mzRange, intensityRange;
+
+	private int representativeScan, fragmentScanNumber;
+
+	private IsotopePattern isotopePattern;
+	private int charge;
+
+	// Data point columns of the peak list and the position of this peak in
+	// them, released after the data points are decoded
+	private ByteBuffer scanColumn, mzColumn, intensityColumn;
+	private int firstDataPoint, numOfDataPoints;
+
+	// Decoded data points
+	private volatile int scanNumbers[];
+	private DataPoint dataPointsPerScan[];
+
+	StoredChromatographicPeak(RawDataFile dataFile, double mz, double rt,
+			double height, double area, PeakStatus peakStatus,
+			int representativeScan, int fragmentScanNumber, Range rtRange,
+			Range mzRange, Range intensityRange, ByteBuffer scanColumn,
+			ByteBuffer mzColumn, ByteBuffer intensityColumn,
+			int firstDataPoint, int numOfDataPoints) {
+		this.dataFile = dataFile;
+		this.mz = mz;
+		this.rt = rt;
+		this.height = height;
+		this.area = area;
+		this.peakStatus = peakStatus;
+		this.representativeScan = representativeScan;
+		this.fragmentScanNumber = fragmentScanNumber;
+		this.rtRange = rtRange;
+		this.mzRange = mzRange;
+		this.intensityRange = intensityRange;
+		this.scanColumn = scanColumn;
+		this.mzColumn = mzColumn;
+		this.intensityColumn = intensityColumn;
+		this.firstDataPoint = firstDataPoint;
+		this.numOfDataPoints = numOfDataPoints;
+	}
+
+	/**
+	 * Decodes the data points of this peak from the data point columns
+	 */
+	private synchronized void decodeDataPoints() {
+
+		if (scanNumbers != null)
+			return;
+
+		int decodedScanNumbers[] = new int[numOfDataPoints];
+		DataPoint decodedDataPoints[] = new DataPoint[numOfDataPoints];
+		for (int i = 0; i < numOfDataPoints; i++) {
+			int position = (firstDataPoint + i) * 4;
+			decodedScanNumbers[i] = scanColumn.getInt(position);
+			float dataPointMZ = mzColumn.getFloat(position);
+			if (dataPointMZ > 0)
+				decodedDataPoints[i] = new SimpleDataPoint(dataPointMZ,
+						intensityColumn.getFloat(position));
+		}
+
+		dataPointsPerScan = decodedDataPoints;
+		scanNumbers = decodedScanNumbers;
+
+		scanColumn = null;
+		mzColumn = null;
+		intensityColumn = null;
+
+	}
+
+	public @Nonnull
+	PeakStatus getPeakStatus() {
+		return peakStatus;
+	}
+
+	public double getMZ() {
+		return mz;
+	}
+
+	public double getRT() {
+		return rt;
+	}
+
+	public double getHeight() {
+		return height;
+	}
+
+	public double getArea() {
+		return area;
+	}
+
+	public @Nonnull
+	RawDataFile getDataFile() {
+		return dataFile;
+	}
+
+	public @Nonnull
+	int[] getScanNumbers() {
+		if (scanNumbers == null)
+			decodeDataPoints();
+		return scanNumbers;
+	}
+
+	public int getRepresentativeScanNumber() {
+		return representativeScan;
+	}
+
+	public DataPoint getDataPoint(int scanNumber) {
+		int index = Arrays.binarySearch(getScanNumbers(), scanNumber);
+		if (index < 0)
+			return null;
+		return dataPointsPerScan[index];
+	}
+
+	public @Nonnull
+	Range getRawDataPointsRTRange() {
+		return rtRange;
+	}
+
+	public @Nonnull
+	Range getRawDataPointsMZRange() {
+		return mzRange;
+	}
+
+	public @Nonnull
+	Range getRawDataPointsIntensityRange() {
+		return intensityRange;
+	}
+
+	public int getMostIntenseFragmentScanNumber() {
+		return fragmentScanNumber;
+	}
+
+	public IsotopePattern getIsotopePattern() {
+		return isotopePattern;
+	}
+
+	public void setIsotopePattern(@Nonnull IsotopePattern isotopePattern) {
+		this.isotopePattern = isotopePattern;
+	}
+
+	public int getCharge() {
+		return charge;
+	}
+
+	public void setCharge(int charge) {
+		this.charge = charge;
+	}
+
+	@Override
+	public String toString() {
+		return PeakUtils.peakToString(this);
+	}
+
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.TreeMap;
 import java.util.logging.Logger;
@@ -50,6 +51,11 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
 		implements
 			RawDataFileOpenHandler {
 
+	// Local header flag of entries followed by their sizes and CRC, and the
+	// size value of entries which have their sizes in the ZIP64 extra field
+	private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+	private static final long ZIP64_SIZE = 0xFFFFFFFFL;
+
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
 	private StringBuffer charBuffer;
@@ -77,10 +83,20 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
 
 	private boolean canceled = false;
 
+	// Project file and the position of the local header of uncompressed scan
+	// data in it, or -1 if the scan data were compressed
+	private final File projectFile;
+	private long scansHeaderOffset;
+
+	public RawDataFileOpenHandler_2_5(File projectFile) {
+		this.projectFile = projectFile;
+	}
+
 	/**
 	 * Extract the scan file and copies it into the temporary folder. Create a
 	 * new raw data file using the information from the XML raw data description
-	 * file
+	 * file. Uncompressed scan data are not copied, but read directly from the
+	 * project file.
 	 * 
 	 * @param Name
 	 *            raw data file name
@@ -97,27 +113,12 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
 
 		charBuffer = new StringBuffer();
 		massLists = new ArrayList<StorableMassList>();
-
-		// Writes the scan file into a temporary file
-		logger.info("Moving scan file : " + scansEntry.getName()
-				+ " to the temporary folder");
+		scansHeaderOffset = -1;
 
 		newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
 		dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
 		dataPointsLengths = newRawDataFile.getDataPointsLengths();
 
-		File tempFile = RawDataFileImpl.createNewDataPointsFile();
-
-		InputStream scanInputStream = zipFile.getInputStream(scansEntry);
-		FileOutputStream fileStream = new FileOutputStream(tempFile);
-
-		// Extracts the scan file from the zip project file to the temporary
-		// folder
-		copyMachine = new StreamCopy();
-		stepNumber++;
-		copyMachine.copy(scanInputStream, fileStream, scansEntry.getSize());
-		fileStream.close();
-
 		stepNumber++;
 
 		// Reads the XML file (raw data description)
@@ -126,13 +127,121 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
 		SAXParser saxParser = factory.newSAXParser();
 		saxParser.parse(xmlInputStream, this);
 
-		// Adds the raw data file to MZmine
-		newRawDataFile.openDataPointsFile(tempFile);
-		RawDataFile rawDataFile = newRawDataFile.finishWriting();
-		return rawDataFile;
+		File tempFile = RawDataFileImpl.createNewDataPointsFile();
+		boolean finished = false;
+
+		try {
+
+			long scansDataOffset = getStoredDataOffset(projectFile,
+					scansHeaderOffset, scansEntry);
+			if (scansDataOffset >= 0) {
+
+				logger.info("Reading scan file " + scansEntry.getName()
+						+ " directly from the project file");
+
+				newRawDataFile.openDataPointsFile(tempFile);
+				newRawDataFile.openProjectDataPoints(projectFile,
+						scansDataOffset, scansEntry.getSize());
+
+			} else {
+
+				// Writes the scan file into a temporary file
+				logger.info("Moving scan file : " + scansEntry.getName()
+						+ " to the temporary folder");
+
+				InputStream scanInputStream = zipFile
+						.getInputStream(scansEntry);
+				FileOutputStream fileStream = new FileOutputStream(tempFile);
+
+				// Extracts the scan file from the zip project file to the
+				// temporary folder
+				copyMachine = new StreamCopy();
+				stepNumber++;
+				try {
+					copyMachine.copy(scanInputStream, fileStream,
+							scansEntry.getSize());
+				} finally {
+					fileStream.close();
+				}
+
+				newRawDataFile.openDataPointsFile(tempFile);
+
+			}
+
+			// Adds the raw data file to MZmine
+			RawDataFile rawDataFile = newRawDataFile.finishWriting();
+			finished = true;
+			return rawDataFile;
+
+		} finally {
+			// Remove the temporary file of a file which was not read
+			if (!finished) {
+				newRawDataFile.close();
+				tempFile.delete();
+			}
+		}
+
+	}
+
+	/**
+	 * Returns the position of the scan data in the project file, if they were
+	 * saved uncompressed and their local header is found at the position
+	 * recorded in the raw data description. The local header must describe the
+	 * same data as the central directory entry, otherwise returns -1.
+	 */
+	static long getStoredDataOffset(File projectFile, long scansHeaderOffset,
+			ZipEntry scansEntry) throws IOException {
+
+		if ((scansHeaderOffset < 0) || (projectFile == null)
+				|| (scansEntry.getMethod() != ZipEntry.STORED)
+				|| (scansEntry.getSize() < 0))
+			return -1;
+
+		// Sizes of 4 GB or more are only stored in the ZIP64 extra field
+		long headerSize = Math.min(scansEntry.getSize(), ZIP64_SIZE);
+
+		byte name[] = scansEntry.getName().getBytes("UTF-8");
+		byte header[] = new byte[30 + name.length];
+		RandomAccessFile file = new RandomAccessFile(projectFile, "r");
+		try {
+			if (scansHeaderOffset + header.length > file.length())
+				return -1;
+			file.seek(scansHeaderOffset);
+			file.readFully(header);
+
+			// Local file header signature, no data descriptor, compression
+			// method, CRC, sizes and name
+			if ((readLittleEndian(header, 0, 4) != 0x04034b50L)
+					|| ((readLittleEndian(header, 6, 2) & DATA_DESCRIPTOR_FLAG) != 0)
+					|| (readLittleEndian(header, 8, 2) != ZipEntry.STORED)
+					|| (readLittleEndian(header, 14, 4) != scansEntry.getCrc())
+					|| (readLittleEndian(header, 18, 4) != headerSize)
+					|| (readLittleEndian(header, 22, 4) != headerSize)
+					|| (readLittleEndian(header, 26, 2) != name.length))
+				return -1;
+			for (int i = 0; i < name.length; i++) {
+				if (header[30 + i] != name[i])
+					return -1;
+			}
+
+			long dataOffset = scansHeaderOffset + header.length
+					+ readLittleEndian(header, 28, 2);
+			if (dataOffset + scansEntry.getSize() > file.length())
+				return -1;
+			return dataOffset;
+		} finally {
+			file.close();
+		}
 
 	}
 
+	private static long readLittleEndian(byte buffer[], int offset, int bytes) {
+		long value = 0;
+		for (int i = bytes - 1; i >= 0; i--)
+			value = (value << 8) | (buffer[offset + i] & 0xff);
+		return value;
+	}
+
 	/**
 	 * @return the progress of these functions loading the raw data from the zip
 	 *         file
@@ -141,13 +250,13 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
 
 		switch (stepNumber) {
 			case 1 :
-				// We can estimate that copying the scan file takes ~75% of the
-				// time
-				return copyMachine.getProgress() * 0.75;
-			case 2 :
 				if (numberOfScans == 0)
 					return 0;
-				return ((double) parsedScans / numberOfScans) * 0.25 + 0.75;
+				return ((double) parsedScans / numberOfScans) * 0.25;
+			case 2 :
+				// We can estimate that copying the scan file takes ~75% of the
+				// time
+				return copyMachine.getProgress() * 0.75 + 0.25;
 			default :
 				return 0.0;
 		}
@@ -186,6 +295,15 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler
 							.getElementName()));
 		}
 
+		if (qName.equals(RawDataElementName_2_5.STORED_DATAPOINTS
+				.getElementName())) {
+			String headerOffset = attrs
+					.getValue(RawDataElementName_2_5.SCANS_HEADER_OFFSET
+							.getElementName());
+			if (headerOffset != null)
+				scansHeaderOffset = Long.parseLong(headerOffset);
+		}
+
 		if (qName.equals(RawDataElementName_2_5.STORED_DATA.getElementName())) {
 			storedDataID = Integer.parseInt(attrs
 					.getValue(RawDataElementName_2_5.STORAGE_ID
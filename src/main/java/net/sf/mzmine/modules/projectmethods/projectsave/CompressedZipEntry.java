@@ -0,0 +1,133 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import de.schlichtherle.truezip.zip.ZipEntry;
+import de.schlichtherle.truezip.zip.ZipOutputStream;
+
+/**
+ * Data of a ZIP entry, compressed in advance into a temporary file. Entries
+ * of a project are compressed in parallel this way, and then copied into the
+ * project file one after another in a fixed order, without compressing them
+ * again.
+ */
+class CompressedZipEntry {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final String name;
+	private final File tempFile;
+	private final CRC32 crc;
+	private final Deflater deflater;
+	private final OutputStream outputStream;
+
+	private long size;
+	private boolean finished = false;
+
+	CompressedZipEntry(String name) throws IOException {
+		this.name = name;
+		tempFile = File.createTempFile("mzmine", ".zipentry");
+		tempFile.deleteOnExit();
+		crc = new CRC32();
+
+		// ZIP entries hold raw deflate data, without the zlib header
+		deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		outputStream = new CheckedOutputStream(new DeflaterOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile),
+						BUFFER_SIZE), deflater, BUFFER_SIZE), crc);
+	}
+
+	/**
+	 * Returns the stream receiving the uncompressed data of the entry
+	 */
+	OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * Completes the compressed data, after all data has been written
+	 */
+	void finish() throws IOException {
+		if (finished)
+			return;
+		finished = true;
+		try {
+			outputStream.close();
+			size = deflater.getBytesRead();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Writes the entry with its compressed data into the ZIP stream, and
+	 * removes the temporary file
+	 */
+	void writeTo(ZipOutputStream zipStream) throws IOException {
+
+		finish();
+
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.DEFLATED);
+		entry.setCrc(crc.getValue());
+		entry.setSize(size);
+		entry.setCompressedSize(tempFile.length());
+
+		// The data are already compressed, so they are written as they are
+		zipStream.putNextEntry(entry, false);
+		FileInputStream compressedData = new FileInputStream(tempFile);
+		try {
+			byte buffer[] = new byte[BUFFER_SIZE];
+			int length;
+			while ((length = compressedData.read(buffer)) > 0)
+				zipStream.write(buffer, 0, length);
+		} finally {
+			compressedData.close();
+		}
+		zipStream.closeEntry();
+
+		tempFile.delete();
+
+	}
+
+	/**
+	 * Removes the temporary file of an entry which will not be written
+	 */
+	void discard() {
+		try {
+			finish();
+		} catch (IOException e) {
+			// Ignore, we are removing the data anyway
+		}
+		tempFile.delete();
+	}
+
+}
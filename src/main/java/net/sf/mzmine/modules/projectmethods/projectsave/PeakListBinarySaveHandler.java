@@ -0,0 +1,400 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Vector;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.IsotopePattern;
+import net.sf.mzmine.data.IsotopePatternStatus;
+import net.sf.mzmine.data.PeakIdentity;
+import net.sf.mzmine.data.PeakList;
+import net.sf.mzmine.data.PeakListAppliedMethod;
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.PeakStatus;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Saves a peak list into the project in a binary, column oriented format.
+ * After a short header, the rows, identities, peaks and data points are
+ * stored as blocks of primitive values, each block starting with the number
+ * of its values. Unlike the XML format, no text conversion is needed and the
+ * data points of each peak can be decoded only when they are needed.
+ * 
+ * The XML format written by PeakListSaveHandler is still used for export.
+ */
+public class PeakListBinarySaveHandler {
+
+	// "MZPL" in ASCII
+	public static final int MAGIC_NUMBER = 0x4D5A504C;
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private Hashtable<RawDataFile, String> dataFilesIDMap;
+
+	private long totalValues, writtenValues;
+	private boolean canceled = false;
+
+	private OutputStream finalStream;
+	private DataOutputStream dataStream;
+
+	public PeakListBinarySaveHandler(OutputStream finalStream,
+			Hashtable<RawDataFile, String> dataFilesIDMap) {
+		this.finalStream = finalStream;
+		this.dataFilesIDMap = dataFilesIDMap;
+	}
+
+	/**
+	 * Writes the peak list into the stream
+	 */
+	public void savePeakList(PeakList peakList) throws IOException {
+
+		dataStream = new DataOutputStream(new BufferedOutputStream(
+				finalStream, BUFFER_SIZE));
+
+		PeakListRow rows[] = peakList.getRows();
+
+		// Collect the peaks and identities of all rows
+		Vector<ChromatographicPeak> peakVector = new Vector<ChromatographicPeak>();
+		Vector<PeakIdentity> identityVector = new Vector<PeakIdentity>();
+		int rowPeakCounts[] = new int[rows.length];
+		int rowIdentityCounts[] = new int[rows.length];
+		int rowPreferredIdentities[] = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			ChromatographicPeak rowPeaks[] = rows[i].getPeaks();
+			rowPeakCounts[i] = rowPeaks.length;
+			for (ChromatographicPeak peak : rowPeaks)
+				peakVector.add(peak);
+			PeakIdentity rowIdentities[] = rows[i].getPeakIdentities();
+			PeakIdentity preferredIdentity = rows[i].getPreferredPeakIdentity();
+			rowIdentityCounts[i] = rowIdentities.length;
+			rowPreferredIdentities[i] = -1;
+			for (int j = 0; j < rowIdentities.length; j++) {
+				if (rowIdentities[j] == preferredIdentity)
+					rowPreferredIdentities[i] = j;
+				identityVector.add(rowIdentities[j]);
+			}
+		}
+		ChromatographicPeak peaks[] = peakVector
+				.toArray(new ChromatographicPeak[0]);
+		PeakIdentity identities[] = identityVector.toArray(new PeakIdentity[0]);
+
+		// Data files are referred to by their position in this table, which
+		// starts with the data files of the peak list
+		Vector<String> fileIDs = new Vector<String>();
+		Hashtable<RawDataFile, Integer> fileIndexes = new Hashtable<RawDataFile, Integer>();
+		for (RawDataFile dataFile : peakList.getRawDataFiles())
+			addFileID(dataFile, fileIDs, fileIndexes);
+		int peakFiles[] = new int[peaks.length];
+		int dataPointCounts[] = new int[peaks.length];
+		int isotopeCounts[] = new int[peaks.length];
+		int numOfDataPoints = 0, numOfIsotopes = 0;
+		for (int i = 0; i < peaks.length; i++) {
+			peakFiles[i] = addFileID(peaks[i].getDataFile(), fileIDs,
+					fileIndexes);
+			dataPointCounts[i] = peaks[i].getScanNumbers().length;
+			numOfDataPoints += dataPointCounts[i];
+			IsotopePattern isotopePattern = peaks[i].getIsotopePattern();
+			if (isotopePattern == null) {
+				isotopeCounts[i] = -1;
+			} else {
+				isotopeCounts[i] = isotopePattern.getDataPoints().length;
+				numOfIsotopes += isotopeCounts[i];
+			}
+		}
+
+		totalValues = rows.length + identities.length + peaks.length
+				+ numOfIsotopes + numOfDataPoints;
+		writtenValues = 0;
+
+		// Header
+		dataStream.writeInt(MAGIC_NUMBER);
+		dataStream.writeInt(FORMAT_VERSION);
+		writeString(peakList.getName());
+		String dateCreated = null;
+		if (peakList instanceof SimplePeakList)
+			dateCreated = ((SimplePeakList) peakList).getDateCreated();
+		if (dateCreated == null) {
+			synchronized (PeakListSaveHandler.dateFormat) {
+				dateCreated = PeakListSaveHandler.dateFormat.format(new Date());
+			}
+		}
+		writeString(dateCreated);
+
+		PeakListAppliedMethod appliedMethods[] = peakList.getAppliedMethods();
+		dataStream.writeInt(appliedMethods.length);
+		for (PeakListAppliedMethod method : appliedMethods) {
+			writeString(method.getDescription());
+			writeString(method.getParameters());
+		}
+
+		dataStream.writeInt(fileIDs.size());
+		for (String fileID : fileIDs)
+			writeString(fileID);
+		dataStream.writeInt(peakList.getNumberOfRawDataFiles());
+
+		// Enum values are stored as positions in these tables
+		PeakStatus peakStatuses[] = PeakStatus.values();
+		dataStream.writeInt(peakStatuses.length);
+		for (PeakStatus status : peakStatuses)
+			writeString(status.name());
+		IsotopePatternStatus isotopeStatuses[] = IsotopePatternStatus.values();
+		dataStream.writeInt(isotopeStatuses.length);
+		for (IsotopePatternStatus status : isotopeStatuses)
+			writeString(status.name());
+
+		// Row columns
+		int intValues[] = new int[rows.length];
+		String stringValues[] = new String[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			intValues[i] = rows[i].getID();
+			stringValues[i] = rows[i].getComment();
+		}
+		writeBlock(intValues);
+		writeBlock(stringValues);
+		writeBlock(rowPeakCounts);
+		writeBlock(rowIdentityCounts);
+		writeBlock(rowPreferredIdentities);
+		writtenValues += rows.length;
+
+		if (canceled)
+			return;
+
+		// Identity columns, properties are stored as name and value pairs
+		intValues = new int[identities.length];
+		Vector<String> properties = new Vector<String>();
+		for (int i = 0; i < identities.length; i++) {
+			Map<String, String> idProperties = identities[i]
+					.getAllProperties();
+			intValues[i] = idProperties.size();
+			for (Entry<String, String> property : idProperties.entrySet()) {
+				properties.add(property.getKey());
+				properties.add(property.getValue());
+			}
+		}
+		writeBlock(intValues);
+		writeBlock(properties.toArray(new String[0]));
+		writtenValues += identities.length;
+
+		if (canceled)
+			return;
+
+		// Peak columns
+		writeBlock(peakFiles);
+		double doubleValues[] = new double[peaks.length];
+		for (int i = 0; i < peaks.length; i++)
+			doubleValues[i] = peaks[i].getMZ();
+		writeBlock(doubleValues);
+		for (int i = 0; i < peaks.length; i++)
+			doubleValues[i] = peaks[i].getRT();
+		writeBlock(doubleValues);
+		for (int i = 0; i < peaks.length; i++)
+			doubleValues[i] = peaks[i].getHeight();
+		writeBlock(doubleValues);
+		for (int i = 0; i < peaks.length; i++)
+			doubleValues[i] = peaks[i].getArea();
+		writeBlock(doubleValues);
+
+		byte byteValues[] = new byte[peaks.length];
+		for (int i = 0; i < peaks.length; i++)
+			byteValues[i] = (byte) peaks[i].getPeakStatus().ordinal();
+		writeBlock(byteValues);
+
+		intValues = new int[peaks.length];
+		for (int i = 0; i < peaks.length; i++)
+			intValues[i] = peaks[i].getCharge();
+		writeBlock(intValues);
+		for (int i = 0; i < peaks.length; i++)
+			intValues[i] = peaks[i].getRepresentativeScanNumber();
+		writeBlock(intValues);
+		for (int i = 0; i < peaks.length; i++)
+			intValues[i] = peaks[i].getMostIntenseFragmentScanNumber();
+		writeBlock(intValues);
+
+		Range ranges[] = new Range[peaks.length];
+		for (int i = 0; i < peaks.length; i++)
+			ranges[i] = peaks[i].getRawDataPointsRTRange();
+		writeRanges(ranges);
+		for (int i = 0; i < peaks.length; i++)
+			ranges[i] = peaks[i].getRawDataPointsMZRange();
+		writeRanges(ranges);
+		for (int i = 0; i < peaks.length; i++)
+			ranges[i] = peaks[i].getRawDataPointsIntensityRange();
+		writeRanges(ranges);
+
+		writeBlock(dataPointCounts);
+
+		// Isotope patterns, peaks without a pattern have -1 isotopes
+		writeBlock(isotopeCounts);
+		stringValues = new String[peaks.length];
+		for (int i = 0; i < peaks.length; i++) {
+			IsotopePattern isotopePattern = peaks[i].getIsotopePattern();
+			byteValues[i] = 0;
+			stringValues[i] = null;
+			if (isotopePattern != null) {
+				byteValues[i] = (byte) isotopePattern.getStatus().ordinal();
+				stringValues[i] = isotopePattern.getDescription();
+			}
+		}
+		writeBlock(byteValues);
+		writeBlock(stringValues);
+		writtenValues += peaks.length;
+
+		if (canceled)
+			return;
+
+		double isotopeMZValues[] = new double[numOfIsotopes];
+		double isotopeIntensities[] = new double[numOfIsotopes];
+		int isotopeIndex = 0;
+		for (int i = 0; i < peaks.length; i++) {
+			if (isotopeCounts[i] <= 0)
+				continue;
+			for (DataPoint isotope : peaks[i].getIsotopePattern()
+					.getDataPoints()) {
+				isotopeMZValues[isotopeIndex] = isotope.getMZ();
+				isotopeIntensities[isotopeIndex] = isotope.getIntensity();
+				isotopeIndex++;
+			}
+		}
+		writeBlock(isotopeMZValues);
+		writeBlock(isotopeIntensities);
+		writtenValues += numOfIsotopes;
+
+		// Data point columns, as in the XML format m/z and intensity are
+		// stored as floats and a missing data point has m/z 0
+		dataStream.writeInt(numOfDataPoints);
+		for (ChromatographicPeak peak : peaks) {
+			for (int scanNumber : peak.getScanNumbers())
+				dataStream.writeInt(scanNumber);
+		}
+		if (canceled)
+			return;
+		dataStream.writeInt(numOfDataPoints);
+		for (ChromatographicPeak peak : peaks) {
+			for (int scanNumber : peak.getScanNumbers()) {
+				DataPoint dataPoint = peak.getDataPoint(scanNumber);
+				dataStream.writeFloat(dataPoint == null ? 0f
+						: (float) dataPoint.getMZ());
+			}
+		}
+		if (canceled)
+			return;
+		dataStream.writeInt(numOfDataPoints);
+		for (ChromatographicPeak peak : peaks) {
+			for (int scanNumber : peak.getScanNumbers()) {
+				DataPoint dataPoint = peak.getDataPoint(scanNumber);
+				dataStream.writeFloat(dataPoint == null ? 0f
+						: (float) dataPoint.getIntensity());
+			}
+		}
+		writtenValues += numOfDataPoints;
+
+		dataStream.flush();
+
+	}
+
+	private int addFileID(RawDataFile dataFile, Vector<String> fileIDs,
+			Hashtable<RawDataFile, Integer> fileIndexes) throws IOException {
+		Integer index = fileIndexes.get(dataFile);
+		if (index != null)
+			return index;
+		String fileID = dataFilesIDMap.get(dataFile);
+		if (fileID == null)
+			throw new IOException("Data file " + dataFile
+					+ " is not saved in the project");
+		index = fileIDs.size();
+		fileIDs.add(fileID);
+		fileIndexes.put(dataFile, index);
+		return index;
+	}
+
+	private void writeString(String value) throws IOException {
+		if (value == null) {
+			dataStream.writeInt(-1);
+			return;
+		}
+		byte bytes[] = value.getBytes("UTF-8");
+		dataStream.writeInt(bytes.length);
+		dataStream.write(bytes);
+	}
+
+	private void writeBlock(int values[]) throws IOException {
+		dataStream.writeInt(values.length);
+		for (int value : values)
+			dataStream.writeInt(value);
+	}
+
+	private void writeBlock(double values[]) throws IOException {
+		dataStream.writeInt(values.length);
+		for (double value : values)
+			dataStream.writeDouble(value);
+	}
+
+	private void writeBlock(byte values[]) throws IOException {
+		dataStream.writeInt(values.length);
+		dataStream.write(values);
+	}
+
+	private void writeBlock(String values[]) throws IOException {
+		dataStream.writeInt(values.length);
+		for (String value : values)
+			writeString(value);
+	}
+
+	/**
+	 * Writes the minimums and maximums of the ranges as two blocks, missing
+	 * ranges are stored as NaN
+	 */
+	private void writeRanges(Range ranges[]) throws IOException {
+		double values[] = new double[ranges.length];
+		for (int i = 0; i < ranges.length; i++)
+			values[i] = (ranges[i] == null) ? Double.NaN : ranges[i].getMin();
+		writeBlock(values);
+		for (int i = 0; i < ranges.length; i++)
+			values[i] = (ranges[i] == null) ? Double.NaN : ranges[i].getMax();
+		writeBlock(values);
+	}
+
+	/**
+	 * @return the progress of saving the peak list
+	 */
+	public double getProgress() {
+		if (totalValues == 0)
+			return 0;
+		return (double) writtenValues / totalValues;
+	}
+
+	public void cancel() {
+		canceled = true;
+	}
+
+}
@@ -117,7 +117,10 @@ public class PeakListSaveHandler {
 			dateText = ((SimplePeakList) peakList).getDateCreated();
 		} else {
 			Date date = new Date();
-			dateText = dateFormat.format(date);
+			// Peak lists are saved in parallel
+			synchronized (dateFormat) {
+				dateText = dateFormat.format(date);
+			}
 		}
 		hd.startElement("", "",
 				PeakListElementName.PEAKLIST_DATE.getElementName(), atts);
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.schlichtherle.truezip.zip.ZipEntry;
+import de.schlichtherle.truezip.zip.ZipFile;
+import de.schlichtherle.truezip.zip.ZipOutputStream;
+
+/**
+ * The project file which is being overwritten or saved as a new file. Entries
+ * of raw data files, peak lists and user parameters which did not change since
+ * they were saved to or loaded from this file are copied into the new project
+ * as they are, without decompressing and compressing them again.
+ */
+class PreviousProjectFile extends ZipFile {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	PreviousProjectFile(File file) throws IOException {
+		super(file);
+	}
+
+	/**
+	 * Returns true if the file contains an entry of given name, stored using
+	 * given method
+	 */
+	boolean hasEntry(String name, int method) {
+		ZipEntry entry = getEntry(name);
+		return (entry != null) && (entry.getMethod() == method);
+	}
+
+	/**
+	 * Copies the compressed data of an entry into the ZIP stream under a new
+	 * name, and returns the number of copied bytes
+	 */
+	long copyEntry(String name, String newName, ZipOutputStream zipStream)
+			throws IOException {
+
+		ZipEntry entry = getEntry(name);
+		if (entry == null)
+			throw new IOException("Entry " + name + " not found in "
+					+ getName());
+
+		ZipEntry newEntry = new ZipEntry(newName);
+		newEntry.setMethod(entry.getMethod());
+		newEntry.setCrc(entry.getCrc());
+		newEntry.setSize(entry.getSize());
+		newEntry.setCompressedSize(entry.getCompressedSize());
+		newEntry.setTime(entry.getTime());
+
+		// Read the data without inflating them (process = false), and write
+		// them without deflating them again
+		zipStream.putNextEntry(newEntry, false);
+		InputStream compressedData = getInputStream(name, false, false);
+		try {
+			byte buffer[] = new byte[BUFFER_SIZE];
+			int length;
+			while ((length = compressedData.read(buffer)) > 0)
+				zipStream.write(buffer, 0, length);
+		} finally {
+			compressedData.close();
+		}
+		zipStream.closeEntry();
+
+		return entry.getCompressedSize();
+
+	}
+
+}
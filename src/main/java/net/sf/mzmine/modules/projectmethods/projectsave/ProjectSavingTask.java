@@ -23,16 +23,24 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import javax.xml.transform.TransformerConfigurationException;
 
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimplePeakList;
 import net.sf.mzmine.desktop.impl.MainWindow;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoaderParameters;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.FilteredRawDataFile;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.project.impl.MZmineProjectImpl;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
@@ -50,21 +58,49 @@ import de.schlichtherle.truezip.zip.ZipOutputStream;
  * This class is using ZipEntry and ZipOutputStream from the truezip library, in
  * order to get Zip64 support to overcome the 4GB size limitation.
  * 
+ * Raw data files and peak lists are compressed in parallel into temporary
+ * files, using the number of threads set in the preferences. The compressed
+ * entries are then copied into the project in a fixed order, so the project
+ * file does not depend on the order in which the threads finish.
+ * 
+ * Raw data files, peak lists and user parameters which did not change since
+ * they were saved to or loaded from the previous project file are copied from
+ * that file as they are, without decompressing them.
  */
 public class ProjectSavingTask extends AbstractTask {
 
 	public static final String VERSION_FILENAME = "MZMINE_VERSION";
 	public static final String CONFIG_FILENAME = "configuration.xml";
+	public static final String USER_PARAMETERS_FILENAME = "User parameters.xml";
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
 	private File saveFile;
 	private MZmineProjectImpl savedProject;
 
-	private RawDataFileSaveHandler rawDataFileSaveHandler;
-	private PeakListSaveHandler peakListSaveHandler;
+	private RawDataFileSaveHandler rawDataFileSaveHandlers[];
+	private PeakListBinarySaveHandler peakListSaveHandlers[];
 	private UserParameterSaveHandler userParameterSaveHandler;
 
+	// Compressed peak lists, until they are written into the project
+	private CompressedZipEntry peakListEntries[];
+
+	// Saved objects, and those of them copied from the previous project file
+	private RawDataFile savedDataFiles[];
+	private PeakList savedPeakLists[];
+	private String peakListSavedNames[];
+	private boolean rawDataFilesReused[], peakListsReused[];
+	private boolean userParametersReused = false;
+
+	// Previous project file and the number of bytes copied from it
+	private PreviousProjectFile previousProjectFile;
+	private long reusedBytes = 0;
+
+	private ExecutorService executor;
+
+	// Set when saving failed, to stop the remaining jobs
+	private volatile boolean jobsStopped = false;
+
 	private int currentStage;
 	private String currentSavedObjectName;
 
@@ -94,14 +130,36 @@ public class ProjectSavingTask extends AbstractTask {
 		switch (currentStage) {
 
 			case 2 :
-				if (rawDataFileSaveHandler == null)
+				RawDataFileSaveHandler rawHandlers[] = rawDataFileSaveHandlers;
+				boolean rawReused[] = rawDataFilesReused;
+				if ((rawHandlers == null) || (rawReused == null)
+						|| (rawHandlers.length == 0))
 					return 0;
-				return rawDataFileSaveHandler.getProgress();
+				double rawProgress = 0;
+				for (int i = 0; i < rawHandlers.length; i++) {
+					if (rawReused[i])
+						rawProgress += 1;
+					else if (rawHandlers[i] != null)
+						rawProgress += rawHandlers[i].getProgress();
+				}
+				return rawProgress / rawHandlers.length;
 			case 3 :
-				if (peakListSaveHandler == null)
+				PeakListBinarySaveHandler peakListHandlers[] = peakListSaveHandlers;
+				boolean peakListReused[] = peakListsReused;
+				if ((peakListHandlers == null) || (peakListReused == null)
+						|| (peakListHandlers.length == 0))
 					return 0;
-				return peakListSaveHandler.getProgress();
+				double peakListProgress = 0;
+				for (int i = 0; i < peakListHandlers.length; i++) {
+					if (peakListReused[i])
+						peakListProgress += 1;
+					else if (peakListHandlers[i] != null)
+						peakListProgress += peakListHandlers[i].getProgress();
+				}
+				return peakListProgress / peakListHandlers.length;
 			case 4 :
+				if (userParametersReused)
+					return 1;
 				if (userParameterSaveHandler == null)
 					return 0;
 				return userParameterSaveHandler.getProgress();
@@ -121,11 +179,27 @@ public class ProjectSavingTask extends AbstractTask {
 
 		setStatus(TaskStatus.CANCELED);
 
-		if (rawDataFileSaveHandler != null)
-			rawDataFileSaveHandler.cancel();
+		cancelHandlers();
+
+	}
+
+	private void cancelHandlers() {
 
-		if (peakListSaveHandler != null)
-			peakListSaveHandler.cancel();
+		RawDataFileSaveHandler rawHandlers[] = rawDataFileSaveHandlers;
+		if (rawHandlers != null) {
+			for (RawDataFileSaveHandler handler : rawHandlers) {
+				if (handler != null)
+					handler.cancel();
+			}
+		}
+
+		PeakListBinarySaveHandler peakListHandlers[] = peakListSaveHandlers;
+		if (peakListHandlers != null) {
+			for (PeakListBinarySaveHandler handler : peakListHandlers) {
+				if (handler != null)
+					handler.cancel();
+			}
+		}
 
 		if (userParameterSaveHandler != null)
 			userParameterSaveHandler.cancel();
@@ -137,6 +211,9 @@ public class ProjectSavingTask extends AbstractTask {
 	 */
 	public void run() {
 
+		File tempFile = null;
+		FileOutputStream tempStream = null;
+
 		try {
 
 			logger.info("Saving project to " + saveFile);
@@ -145,15 +222,29 @@ public class ProjectSavingTask extends AbstractTask {
 			// Get current project
 			savedProject = (MZmineProjectImpl) MZmineCore.getCurrentProject();
 
+			executor = MZmineCore.getParallelExecutor();
+
+			// Open the previous project file, to copy the unchanged entries
+			File previousFile = savedProject.getProjectFile();
+			if ((previousFile != null) && previousFile.exists()) {
+				try {
+					previousProjectFile = new PreviousProjectFile(previousFile);
+				} catch (IOException e) {
+					logger.warning("Could not open the previous project file "
+							+ previousFile + ", all entries will be saved again: "
+							+ ExceptionUtils.exceptionToString(e));
+				}
+			}
+
 			// Prepare a temporary ZIP file. We create this file in the same
 			// directory as the final saveFile to avoid moving between
 			// filesystems in the last stage (renameTo)
-			File tempFile = File.createTempFile(saveFile.getName(), ".tmp",
+			tempFile = File.createTempFile(saveFile.getName(), ".tmp",
 					saveFile.getParentFile());
 			tempFile.deleteOnExit();
 
 			// Create a ZIP stream writing to the temporary file
-			FileOutputStream tempStream = new FileOutputStream(tempFile);
+			tempStream = new FileOutputStream(tempFile);
 			ZipOutputStream zipStream = new ZipOutputStream(tempStream);
 
 			// Stage 1 - save version and configuration
@@ -168,7 +259,7 @@ public class ProjectSavingTask extends AbstractTask {
 
 			// Stage 2 - save RawDataFile objects
 			currentStage++;
-			saveRawDataFiles(zipStream);
+			saveRawDataFiles(zipStream, tempStream);
 			if (isCanceled()) {
 				zipStream.close();
 				tempFile.delete();
@@ -197,6 +288,10 @@ public class ProjectSavingTask extends AbstractTask {
 			currentStage++;
 			currentSavedObjectName = null;
 			zipStream.close();
+			if (previousProjectFile != null) {
+				previousProjectFile.close();
+				previousProjectFile = null;
+			}
 
 			// Final check for cancel
 			if (isCanceled()) {
@@ -204,6 +299,11 @@ public class ProjectSavingTask extends AbstractTask {
 				return;
 			}
 
+			// Raw data files may read their scans directly from the file we
+			// are going to replace
+			if (saveFile.exists())
+				releaseProjectFile();
+
 			// Move the temporary ZIP file to the final location
 			if (saveFile.exists() && !saveFile.delete()) {
 				throw new IOException("Could not delete old file " + saveFile);
@@ -217,6 +317,7 @@ public class ProjectSavingTask extends AbstractTask {
 
 			// Update the location of the project
 			savedProject.setProjectFile(saveFile);
+			updateSavedObjects();
 
 			// Update the window title to reflect the new name of the project
 			if (MZmineCore.getDesktop() instanceof MainWindow) {
@@ -224,7 +325,9 @@ public class ProjectSavingTask extends AbstractTask {
 				mainWindow.updateTitle();
 			}
 
-			logger.info("Finished saving the project to " + saveFile);
+			logger.info("Finished saving the project to " + saveFile + ": "
+					+ (saveFile.length() - reusedBytes) + " bytes written, "
+					+ reusedBytes + " bytes reused from the previous project file");
 
 			setStatus(TaskStatus.FINISHED);
 
@@ -241,6 +344,40 @@ public class ProjectSavingTask extends AbstractTask {
 						+ ExceptionUtils.exceptionToString(e);
 			}
 
+		} finally {
+			if (getStatus() != TaskStatus.FINISHED) {
+				restoreModifiedFlags();
+				// Remove the temporary ZIP file left by an error
+				if ((tempFile != null) && tempFile.exists()) {
+					try {
+						if (tempStream != null)
+							tempStream.close();
+					} catch (IOException e) {
+						// Ignore, the file is deleted
+					}
+					tempFile.delete();
+				}
+			}
+			if (previousProjectFile != null) {
+				try {
+					previousProjectFile.close();
+				} catch (IOException e) {
+					// Ignore, the file was only read
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes the raw data files of the project, including the sources of the
+	 * filtered files, stop reading their scans from the save file
+	 */
+	private void releaseProjectFile() throws IOException {
+		for (RawDataFile dataFile : savedProject.getDataFiles()) {
+			while (dataFile instanceof FilteredRawDataFile)
+				dataFile = ((FilteredRawDataFile) dataFile).getSourceFile();
+			if (dataFile instanceof RawDataFileImpl)
+				((RawDataFileImpl) dataFile).releaseProjectFile(saveFile);
 		}
 	}
 
@@ -292,57 +429,369 @@ public class ProjectSavingTask extends AbstractTask {
 
 	/**
 	 * Save the raw data files
-	 * 
-	 * @throws SAXException
-	 * @throws TransformerConfigurationException
 	 */
-	private void saveRawDataFiles(ZipOutputStream zipStream)
-			throws IOException, TransformerConfigurationException, SAXException {
+	private void saveRawDataFiles(ZipOutputStream zipStream,
+			FileOutputStream tempStream) throws Exception {
 
-		rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream);
+		final RawDataFile rawDataFiles[] = savedProject.getDataFiles();
+		final RawDataFile materializedFiles[] = new RawDataFile[rawDataFiles.length];
+		savedDataFiles = rawDataFiles;
+		rawDataFileSaveHandlers = new RawDataFileSaveHandler[rawDataFiles.length];
+		rawDataFilesReused = new boolean[rawDataFiles.length];
 
-		RawDataFile rawDataFiles[] = savedProject.getDataFiles();
+		assignDataFileIDs(rawDataFiles);
 
+		List<Future<RawDataFileSaveHandler>> jobs = new ArrayList<Future<RawDataFileSaveHandler>>();
 		for (int i = 0; i < rawDataFiles.length; i++) {
+			final int index = i;
+			final int fileID = Integer.parseInt(dataFilesIDMap
+					.get(rawDataFiles[i]));
+			rawDataFilesReused[i] = canReuseRawDataFile(rawDataFiles[i]);
+			if (rawDataFilesReused[i]) {
+				jobs.add(null);
+				continue;
+			}
+			final String previousScansName = canCopyScans(rawDataFiles[i])
+					? getRawDataEntryName(rawDataFiles[i]) + ".scans"
+					: null;
+			jobs.add(executor.submit(new Callable<RawDataFileSaveHandler>() {
+				public RawDataFileSaveHandler call() throws Exception {
+
+					if (isCanceled() || jobsStopped)
+						return null;
+
+					// Files filtered on demand are saved as a physical copy
+					RawDataFileImpl savedFile;
+					if (rawDataFiles[index] instanceof FilteredRawDataFile) {
+						FilteredRawDataFile filteredFile = (FilteredRawDataFile) rawDataFiles[index];
+						materializedFiles[index] = filteredFile
+								.materialize(MZmineCore
+										.createNewFile(filteredFile.getName()));
+						savedFile = (RawDataFileImpl) materializedFiles[index];
+					} else {
+						savedFile = (RawDataFileImpl) rawDataFiles[index];
+						// Changes made from now on are saved next time
+						savedFile.setModified(false);
+					}
+
+					RawDataFileSaveHandler handler = new RawDataFileSaveHandler(
+							savedFile, fileID);
+					rawDataFileSaveHandlers[index] = handler;
+					if (isCanceled() || jobsStopped)
+						handler.cancel();
+					if ((previousScansName == null)
+							|| !handler.prepareCopiedScans(previousProjectFile,
+									previousScansName))
+						handler.prepareRawDataFile();
+					return handler;
+				}
+			}));
+		}
 
-			if (isCanceled())
-				return;
-
-			currentSavedObjectName = rawDataFiles[i].getName();
-			rawDataFileSaveHandler.writeRawDataFile(
-					(RawDataFileImpl) rawDataFiles[i], i + 1);
-			dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
+		boolean finished = false;
+		try {
+			for (int i = 0; i < rawDataFiles.length; i++) {
+				if (rawDataFilesReused[i]) {
+					currentSavedObjectName = rawDataFiles[i].getName();
+					String entryName = getRawDataEntryName(rawDataFiles[i]);
+					reusedBytes += previousProjectFile.copyEntry(entryName
+							+ ".scans", entryName + ".scans", zipStream);
+					reusedBytes += previousProjectFile.copyEntry(entryName
+							+ ".xml", entryName + ".xml", zipStream);
+					continue;
+				}
+				RawDataFileSaveHandler handler = getJobResult(jobs.get(i));
+				if (isCanceled())
+					return;
+				currentSavedObjectName = rawDataFiles[i].getName();
+				handler.writeRawDataFile(zipStream, tempStream.getChannel());
+				reusedBytes += handler.getCopiedBytes();
+			}
+			finished = true;
+		} finally {
+			if (!finished) {
+				stopJobs(jobs);
+				for (RawDataFileSaveHandler handler : rawDataFileSaveHandlers) {
+					if (handler != null)
+						handler.discard();
+				}
+			}
+			for (RawDataFile materializedFile : materializedFiles) {
+				if (materializedFile != null)
+					materializedFile.close();
+			}
 		}
 	}
 
 	/**
 	 * Save the peak lists
-	 * 
-	 * @throws SAXException
-	 * @throws TransformerConfigurationException
 	 */
-	private void savePeakLists(ZipOutputStream zipStream) throws IOException,
-			TransformerConfigurationException, SAXException {
+	private void savePeakLists(ZipOutputStream zipStream) throws Exception {
 
-		PeakList peakLists[] = savedProject.getPeakLists();
+		final PeakList peakLists[] = savedProject.getPeakLists();
+		savedPeakLists = peakLists;
+		peakListSaveHandlers = new PeakListBinarySaveHandler[peakLists.length];
+		peakListEntries = new CompressedZipEntry[peakLists.length];
+		peakListSavedNames = new String[peakLists.length];
+		peakListsReused = new boolean[peakLists.length];
 
+		List<Future<CompressedZipEntry>> jobs = new ArrayList<Future<CompressedZipEntry>>();
 		for (int i = 0; i < peakLists.length; i++) {
+			final int index = i;
+			peakListSavedNames[i] = "Peak list #" + (i + 1) + " "
+					+ peakLists[i].getName() + ".peaks";
+			peakListsReused[i] = canReusePeakList(peakLists[i]);
+			if (peakListsReused[i]) {
+				jobs.add(null);
+				continue;
+			}
+			jobs.add(executor.submit(new Callable<CompressedZipEntry>() {
+				public CompressedZipEntry call() throws Exception {
+
+					if (isCanceled() || jobsStopped)
+						return null;
+
+					logger.info("Saving peak list: "
+							+ peakLists[index].getName());
+
+					CompressedZipEntry entry = new CompressedZipEntry(
+							peakListSavedNames[index]);
+					peakListEntries[index] = entry;
+					PeakListBinarySaveHandler handler = new PeakListBinarySaveHandler(
+							entry.getOutputStream(), dataFilesIDMap);
+					peakListSaveHandlers[index] = handler;
+					if (isCanceled() || jobsStopped)
+						handler.cancel();
+
+					// Changes made from now on are saved next time
+					if (peakLists[index] instanceof SimplePeakList)
+						((SimplePeakList) peakLists[index]).setModified(false);
+
+					handler.savePeakList(peakLists[index]);
+					entry.finish();
+					return entry;
+				}
+			}));
+		}
 
-			if (isCanceled())
-				return;
+		boolean finished = false;
+		try {
+			for (int i = 0; i < peakLists.length; i++) {
+				if (peakListsReused[i]) {
+					currentSavedObjectName = peakLists[i].getName();
+					reusedBytes += previousProjectFile.copyEntry(
+							((SimplePeakList) peakLists[i]).getProjectEntryName(),
+							peakListSavedNames[i], zipStream);
+					continue;
+				}
+				CompressedZipEntry entry = getJobResult(jobs.get(i));
+				if (isCanceled())
+					return;
+				currentSavedObjectName = peakLists[i].getName();
+				entry.writeTo(zipStream);
+			}
+			finished = true;
+		} finally {
+			if (!finished) {
+				stopJobs(jobs);
+				for (CompressedZipEntry entry : peakListEntries) {
+					if (entry != null)
+						entry.discard();
+				}
+			}
+		}
+	}
 
-			logger.info("Saving peak list: " + peakLists[i].getName());
+	/**
+	 * Assigns IDs to the raw data files. Files keep their ID from the previous
+	 * project file, so the unchanged peak lists and user parameters which
+	 * refer to them can be copied. Other files get unused IDs.
+	 */
+	private void assignDataFileIDs(RawDataFile rawDataFiles[]) {
+
+		int nextID = 1;
+		for (RawDataFile file : rawDataFiles) {
+			String previousID = getPreviousID(file);
+			if ((previousID == null) || dataFilesIDMap.containsValue(previousID))
+				continue;
+			dataFilesIDMap.put(file, previousID);
+			nextID = Math.max(nextID, Integer.parseInt(previousID) + 1);
+		}
 
-			String peakListSavedName = "Peak list #" + (i + 1) + " "
-					+ peakLists[i].getName();
+		for (RawDataFile file : rawDataFiles) {
+			if (!dataFilesIDMap.containsKey(file)) {
+				dataFilesIDMap.put(file, String.valueOf(nextID));
+				nextID++;
+			}
+		}
+	}
 
-			zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+	/**
+	 * Returns the ID of the raw data file in the previous project file, or
+	 * null
+	 */
+	private String getPreviousID(RawDataFile file) {
+		if ((previousProjectFile == null)
+				|| !(file instanceof RawDataFileImpl))
+			return null;
+		return ((RawDataFileImpl) file).getProjectID();
+	}
+
+	private boolean isIDKept(RawDataFile file) {
+		String previousID = getPreviousID(file);
+		return (previousID != null)
+				&& previousID.equals(dataFilesIDMap.get(file));
+	}
+
+	private String getRawDataEntryName(RawDataFile file) {
+		return "Raw data file #" + dataFilesIDMap.get(file) + " "
+				+ file.getName();
+	}
+
+	/**
+	 * Returns true if the entries of the raw data file can be copied from the
+	 * previous project file. Uncompressed scan data are copied by the save
+	 * handler instead, see canCopyScans().
+	 */
+	private boolean canReuseRawDataFile(RawDataFile file) {
+		if (!isIDKept(file) || ((RawDataFileImpl) file).isModified()
+				|| RawDataFileSaveHandler.isUncompressedScans())
+			return false;
+		String entryName = getRawDataEntryName(file);
+		return previousProjectFile.hasEntry(entryName + ".scans",
+				ZipEntry.DEFLATED)
+				&& previousProjectFile.hasEntry(entryName + ".xml",
+						ZipEntry.DEFLATED);
+	}
+
+	/**
+	 * Returns true if the uncompressed scan data of the raw data file may be
+	 * copied from the previous project file. The raw data description is
+	 * written again, because it records the position of the data in the
+	 * project file.
+	 */
+	private boolean canCopyScans(RawDataFile file) {
+		return isIDKept(file) && !((RawDataFileImpl) file).isModified()
+				&& RawDataFileSaveHandler.isUncompressedScans();
+	}
 
-			peakListSaveHandler = new PeakListSaveHandler(zipStream,
-					dataFilesIDMap);
+	/**
+	 * Returns true if the peak list can be copied from the previous project
+	 * file. Only peak lists in the binary format are copied, and only if the
+	 * raw data files they refer to keep their IDs.
+	 */
+	private boolean canReusePeakList(PeakList peakList) {
+		if ((previousProjectFile == null)
+				|| !(peakList instanceof SimplePeakList))
+			return false;
+		SimplePeakList simplePeakList = (SimplePeakList) peakList;
+		String entryName = simplePeakList.getProjectEntryName();
+		if (simplePeakList.isModified() || (entryName == null)
+				|| !entryName.endsWith(".peaks")
+				|| !previousProjectFile.hasEntry(entryName, ZipEntry.DEFLATED))
+			return false;
+		for (RawDataFile file : peakList.getRawDataFiles()) {
+			if (!isIDKept(file))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the user parameters can be copied from the previous
+	 * project file
+	 */
+	private boolean canReuseUserParameters() {
+		if ((previousProjectFile == null)
+				|| savedProject.isUserParametersModified()
+				|| !previousProjectFile.hasEntry(USER_PARAMETERS_FILENAME,
+						ZipEntry.DEFLATED))
+			return false;
+		for (RawDataFile file : savedDataFiles) {
+			if (!isIDKept(file))
+				return false;
+		}
+		return true;
+	}
 
-			currentSavedObjectName = peakLists[i].getName();
-			peakListSaveHandler.savePeakList(peakLists[i]);
+	/**
+	 * Records the IDs and entry names of the saved objects, so they can be
+	 * copied next time the project is saved, if they do not change
+	 */
+	private void updateSavedObjects() {
+		for (RawDataFile file : savedDataFiles) {
+			if (file instanceof RawDataFileImpl)
+				((RawDataFileImpl) file).setProjectID(dataFilesIDMap.get(file));
+		}
+		for (int i = 0; i < savedPeakLists.length; i++) {
+			if (savedPeakLists[i] instanceof SimplePeakList)
+				((SimplePeakList) savedPeakLists[i])
+						.setProjectEntryName(peakListSavedNames[i]);
+		}
+	}
+
+	/**
+	 * Marks the objects which were being written as modified again, when
+	 * saving failed or was canceled, so they are written next time
+	 */
+	private void restoreModifiedFlags() {
+
+		RawDataFile dataFiles[] = savedDataFiles;
+		if (dataFiles != null) {
+			for (int i = 0; i < dataFiles.length; i++) {
+				if (!rawDataFilesReused[i]
+						&& (dataFiles[i] instanceof RawDataFileImpl))
+					((RawDataFileImpl) dataFiles[i]).setModified(true);
+			}
+		}
+
+		PeakList peakLists[] = savedPeakLists;
+		if (peakLists != null) {
+			for (int i = 0; i < peakLists.length; i++) {
+				if (!peakListsReused[i]
+						&& (peakLists[i] instanceof SimplePeakList))
+					((SimplePeakList) peakLists[i]).setModified(true);
+			}
+		}
+
+		if ((savedProject != null) && !userParametersReused)
+			savedProject.setUserParametersModified(true);
+
+	}
+
+	/**
+	 * Waits for a job to finish and returns its result, or rethrows the
+	 * exception which stopped the job
+	 */
+	private <T> T getJobResult(Future<T> job) throws Exception {
+		try {
+			return job.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops the jobs after saving was canceled or failed, and waits until all
+	 * of them finish, so their temporary files can be removed. The jobs run
+	 * in the shared parallel executor, so the ones which have not started yet
+	 * are not skipped, but they return as soon as they start.
+	 */
+	private void stopJobs(List<? extends Future<?>> jobs)
+			throws InterruptedException {
+		jobsStopped = true;
+		cancelHandlers();
+		for (Future<?> job : jobs) {
+			if (job == null)
+				continue;
+			try {
+				job.get();
+			} catch (ExecutionException e) {
+				// The job was stopped, its error is not reported
+			}
 		}
 	}
 
@@ -358,14 +807,25 @@ public class ProjectSavingTask extends AbstractTask {
 		if (isCanceled())
 			return;
 
+		currentSavedObjectName = "User parameters";
+
+		if (canReuseUserParameters()) {
+			reusedBytes += previousProjectFile.copyEntry(
+					USER_PARAMETERS_FILENAME, USER_PARAMETERS_FILENAME,
+					zipStream);
+			userParametersReused = true;
+			return;
+		}
+
 		logger.info("Saving user parameters");
 
-		zipStream.putNextEntry(new ZipEntry("User parameters.xml"));
+		zipStream.putNextEntry(new ZipEntry(USER_PARAMETERS_FILENAME));
 
 		userParameterSaveHandler = new UserParameterSaveHandler(zipStream,
 				savedProject, dataFilesIDMap);
 
-		currentSavedObjectName = "User parameters";
+		// Changes made from now on are saved next time
+		savedProject.setUserParametersModified(false);
 		userParameterSaveHandler.saveParameters();
 
 	}
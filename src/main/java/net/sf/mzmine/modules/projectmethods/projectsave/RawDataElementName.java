@@ -28,7 +28,7 @@ enum RawDataElementName {
 			"precursor_charge"), RETENTION_TIME("rt"), CENTROIDED("centroid"), QUANTITY_DATAPOINTS(
 			"num_dp"), MASS_LIST("mass_list"), STORED_DATAPOINTS(
 			"stored_datapoints"), STORED_DATA("stored_data"), STORAGE_ID(
-			"storage_id");
+			"storage_id"), SCANS_HEADER_OFFSET("scans_header_offset");
 
 	private String elementName;
 
@@ -20,11 +20,13 @@
 package net.sf.mzmine.modules.projectmethods.projectsave;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -35,6 +37,8 @@ import javax.xml.transform.stream.StreamResult;
 
 import net.sf.mzmine.data.MassList;
 import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableMassList;
 import net.sf.mzmine.project.impl.StorableScan;
@@ -45,85 +49,291 @@ import org.xml.sax.helpers.AttributesImpl;
 import de.schlichtherle.truezip.zip.ZipEntry;
 import de.schlichtherle.truezip.zip.ZipOutputStream;
 
+/**
+ * Saves one raw data file into the project. The expensive part - reading and
+ * compressing the data points - is done by prepareRawDataFile(), which may run
+ * in parallel with the handlers of other files. The prepared entries are then
+ * written into the project by writeRawDataFile(), one file after another.
+ */
 class RawDataFileSaveHandler {
 
+	// Uncompressed scan data start at a multiple of this (one data point)
+	private static final int SCANS_ALIGNMENT = 8;
+
+	// ID of the extra field padding the local header of uncompressed scans
+	private static final int PADDING_EXTRA_FIELD_ID = 0xD935;
+
 	private Logger logger = Logger.getLogger(this.getClass().getName());
+	private final RawDataFileImpl rawDataFile;
+	private final String rawDataSavedName;
+	private final boolean uncompressedScans;
 	private int numOfScans, completedScans;
-	private ZipOutputStream zipOutputStream;
 	private boolean canceled = false;
 	private Map<Integer, Long> dataPointsOffsets;
 	private Map<Integer, Long> consolidatedDataPointsOffsets;
 	private Map<Integer, Integer> dataPointsLengths;
 	private double progress = 0;
 
-	RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
-		this.zipOutputStream = zipOutputStream;
+	// Prepared entries, or the size and CRC of uncompressed scan data
+	private CompressedZipEntry scansEntryData, descriptionEntryData;
+	private long scansSize, scansCrc;
+	private long scansHeaderOffset = -1;
+
+	// Previous project file, when its uncompressed scan data are copied
+	private PreviousProjectFile scansSource;
+	private String scansSourceName;
+
+	/**
+	 * @param rawDataFile
+	 *            raw data file to be saved
+	 * @param number
+	 *            number of the raw data file inside the zip file
+	 */
+	RawDataFileSaveHandler(RawDataFileImpl rawDataFile, int number) {
+		this.rawDataFile = rawDataFile;
+		this.rawDataSavedName = "Raw data file #" + number + " "
+				+ rawDataFile.getName();
+		this.uncompressedScans = isUncompressedScans();
+	}
+
+	static boolean isUncompressedScans() {
+		if (MZmineCore.getConfiguration() == null)
+			return false;
+		Boolean uncompressed = MZmineCore.getConfiguration().getPreferences()
+				.getParameter(MZminePreferences.uncompressedProjectScans)
+				.getValue();
+		return (uncompressed != null) && uncompressed;
 	}
 
 	/**
-	 * Copy the data points file of the raw data file from the temporary folder
-	 * to the zip file. Create an XML file which contains the description of the
-	 * same raw data file an copy it into the same zip file.
+	 * Compresses the data points file of the raw data file and the XML
+	 * description of the same raw data file into temporary files. Uncompressed
+	 * scan data are only read to calculate their CRC, they are copied later by
+	 * writeRawDataFile().
 	 * 
-	 * @param rawDataFile
-	 *            raw data file to be copied
-	 * @param rawDataSavedName
-	 *            name of the raw data inside the zip file
 	 * @throws java.io.IOException
 	 * @throws TransformerConfigurationException
 	 * @throws SAXException
 	 */
-	void writeRawDataFile(RawDataFileImpl rawDataFile, int number)
-			throws IOException, TransformerConfigurationException, SAXException {
+	void prepareRawDataFile() throws IOException,
+			TransformerConfigurationException, SAXException {
+
+		readStructure();
+
+		// step 1 - save data file
+		logger.info("Saving data points of: " + rawDataFile.getName());
+
+		if (uncompressedScans) {
+			CRC32 crc = new CRC32();
+			scansSize = writeDataPoints(null, crc, 0, 0.3);
+			scansCrc = crc.getValue();
+			return;
+		}
+
+		scansEntryData = new CompressedZipEntry(rawDataSavedName + ".scans");
+		writeDataPoints(scansEntryData.getOutputStream(), null, 0, 0.9);
+		scansEntryData.finish();
+
+		if (canceled)
+			return;
+
+		// step 2 - save raw data description
+		logger.info("Saving raw data description of: " + rawDataFile.getName());
+		descriptionEntryData = new CompressedZipEntry(rawDataSavedName
+				+ ".xml");
+		writeDescription(descriptionEntryData.getOutputStream());
+		descriptionEntryData.finish();
+
+	}
+
+	/**
+	 * Prepares to copy the uncompressed scan data of an unchanged raw data
+	 * file from the previous project file, instead of reading them from the
+	 * data points file. Returns false if the previous entry does not contain
+	 * the data points of the file, they must then be prepared by
+	 * prepareRawDataFile().
+	 */
+	boolean prepareCopiedScans(PreviousProjectFile previousProjectFile,
+			String previousScansName) {
+
+		ZipEntry previousEntry = previousProjectFile
+				.getEntry(previousScansName);
+		if (!uncompressedScans || (previousEntry == null)
+				|| (previousEntry.getMethod() != ZipEntry.STORED))
+			return false;
+
+		// The data points were saved in the order of their storage IDs, so
+		// their positions follow from their lengths
+		readStructure();
+		long size = 0;
+		for (Integer storageID : dataPointsOffsets.keySet()) {
+			consolidatedDataPointsOffsets.put(storageID, size);
+			size += dataPointsLengths.get(storageID) * 4 * 2;
+		}
+		if (size != previousEntry.getSize())
+			return false;
+
+		scansSize = size;
+		scansCrc = previousEntry.getCrc();
+		scansSource = previousProjectFile;
+		scansSourceName = previousScansName;
+		progress = 0.3;
+		return true;
+
+	}
+
+	/**
+	 * Returns the number of bytes copied from the previous project file
+	 */
+	long getCopiedBytes() {
+		return (scansSource != null) ? scansSize : 0;
+	}
 
+	private void readStructure() {
 		numOfScans = rawDataFile.getNumOfScans();
 
 		// Get the structure of the data points file
 		dataPointsOffsets = rawDataFile.getDataPointsOffsets();
 		dataPointsLengths = rawDataFile.getDataPointsLengths();
 		consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
+	}
 
-		// step 1 - save data file
-		logger.info("Saving data points of: " + rawDataFile.getName());
+	/**
+	 * Writes the prepared entries of the raw data file into the zip file.
+	 * Uncompressed scan data are written as an uncompressed (STORED) entry,
+	 * which can be read directly from the project file when it is opened. The
+	 * local header of the entry is padded so that the data start aligned, and
+	 * its position is recorded in the raw data description.
+	 * 
+	 * @param zipFileChannel
+	 *            channel of the file written by zipOutputStream, used to find
+	 *            the position of uncompressed scan data
+	 */
+	void writeRawDataFile(ZipOutputStream zipOutputStream,
+			FileChannel zipFileChannel) throws IOException,
+			TransformerConfigurationException, SAXException {
+
+		if (!uncompressedScans) {
+			scansEntryData.writeTo(zipOutputStream);
+			descriptionEntryData.writeTo(zipOutputStream);
+			progress = 1;
+			return;
+		}
 
-		String rawDataSavedName = "Raw data file #" + number + " "
-				+ rawDataFile.getName();
+		// The size and CRC of a STORED entry must be known before it is
+		// written
+		ZipEntry scansEntry = new ZipEntry(rawDataSavedName + ".scans");
+		scansEntry.setMethod(ZipEntry.STORED);
+		scansEntry.setSize(scansSize);
+		scansEntry.setCompressedSize(scansSize);
+		scansEntry.setCrc(scansCrc);
+
+		// Write out the previous entry, so the file position is the position
+		// of the new local header
+		zipOutputStream.closeEntry();
+		zipOutputStream.flush();
+		scansHeaderOffset = zipFileChannel.position();
+
+		// Local header is 30 bytes + name + extra field (4 bytes + padding)
+		long dataOffset = scansHeaderOffset + 30
+				+ scansEntry.getName().getBytes("UTF-8").length + 4;
+		int padding = (int) ((SCANS_ALIGNMENT - dataOffset % SCANS_ALIGNMENT) % SCANS_ALIGNMENT);
+		byte extra[] = new byte[4 + padding];
+		extra[0] = (byte) (PADDING_EXTRA_FIELD_ID & 0xff);
+		extra[1] = (byte) (PADDING_EXTRA_FIELD_ID >> 8);
+		extra[2] = (byte) padding;
+		scansEntry.setExtra(extra);
+
+		zipOutputStream.putNextEntry(scansEntry);
+		if (scansSource != null)
+			copyScans(zipOutputStream);
+		else
+			writeDataPoints(zipOutputStream, null, 0.3, 0.9);
 
-		zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
+		if (canceled)
+			return;
+
+		// step 2 - save raw data description
+		logger.info("Saving raw data description of: " + rawDataFile.getName());
+		zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
+		writeDescription(zipOutputStream);
+
+	}
+
+	/**
+	 * Removes the prepared entries, if they are not going to be written
+	 */
+	void discard() {
+		if (scansEntryData != null)
+			scansEntryData.discard();
+		if (descriptionEntryData != null)
+			descriptionEntryData.discard();
+	}
+
+	/**
+	 * Copies the uncompressed scan data from the previous project file. The
+	 * entry is STORED, so the data are not inflated.
+	 */
+	private void copyScans(OutputStream outputStream) throws IOException {
+
+		InputStream scansStream = scansSource.getInputStream(scansSourceName);
+		try {
+			byte buffer[] = new byte[1 << 20];
+			long copied = 0;
+			int length;
+			while ((length = scansStream.read(buffer)) > 0) {
+				if (canceled)
+					return;
+				outputStream.write(buffer, 0, length);
+				copied += length;
+				progress = 0.3 + 0.6 * ((double) copied / scansSize);
+			}
+		} finally {
+			scansStream.close();
+		}
+
+	}
+
+	/**
+	 * Writes the data points to the given stream and/or updates the CRC with
+	 * them. Returns the number of written bytes.
+	 */
+	private long writeDataPoints(OutputStream outputStream, CRC32 crc,
+			double startProgress, double endProgress) throws IOException {
 
 		// We save only those data points that still have a reference in the
 		// dataPointsOffset table. Some deleted mass lists may still be present
 		// in the data points file, we don't want to copy those.
 		long newOffset = 0;
 		byte buffer[] = new byte[1 << 20];
-		RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
+		int savedIDs = 0;
 		for (Integer storageID : dataPointsOffsets.keySet()) {
 
 			if (canceled)
-				return;
-
-			final long offset = dataPointsOffsets.get(storageID);
-			dataPointsFile.seek(offset);
+				return newOffset;
 
 			final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
 			consolidatedDataPointsOffsets.put(storageID, newOffset);
 			if (buffer.length < bytes) {
 				buffer = new byte[bytes * 2];
 			}
-			dataPointsFile.read(buffer, 0, bytes);
-			zipOutputStream.write(buffer, 0, bytes);
+			rawDataFile.readStoredBytes(storageID, buffer);
+			if (outputStream != null)
+				outputStream.write(buffer, 0, bytes);
+			if (crc != null)
+				crc.update(buffer, 0, bytes);
 			newOffset += bytes;
-			progress = 0.9 * ((double) offset / dataPointsFile.length());
+			savedIDs++;
+			progress = startProgress + (endProgress - startProgress)
+					* ((double) savedIDs / dataPointsOffsets.size());
 		}
+		return newOffset;
 
-		if (canceled)
-			return;
-
-		// step 2 - save raw data description
-		logger.info("Saving raw data description of: " + rawDataFile.getName());
+	}
 
-		zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
-		OutputStream finalStream = zipOutputStream;
+	private void writeDescription(OutputStream finalStream)
+			throws TransformerConfigurationException, SAXException,
+			IOException {
 
 		StreamResult streamResult = new StreamResult(finalStream);
 		SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory
@@ -138,6 +348,7 @@ class RawDataFileSaveHandler {
 		hd.startDocument();
 		saveRawDataInformation(rawDataFile, hd);
 		hd.endDocument();
+
 	}
 
 	/**
@@ -165,6 +376,11 @@ class RawDataFileSaveHandler {
 		// <STORED_DATAPOINTS>
 		atts.addAttribute("", "", RawDataElementName.QUANTITY.getElementName(),
 				"CDATA", String.valueOf(dataPointsOffsets.size()));
+		if (scansHeaderOffset >= 0) {
+			atts.addAttribute("", "",
+					RawDataElementName.SCANS_HEADER_OFFSET.getElementName(),
+					"CDATA", String.valueOf(scansHeaderOffset));
+		}
 		hd.startElement("", "",
 				RawDataElementName.STORED_DATAPOINTS.getElementName(), atts);
 		atts.clear();
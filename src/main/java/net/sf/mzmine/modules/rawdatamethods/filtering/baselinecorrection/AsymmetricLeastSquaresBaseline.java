@@ -0,0 +1,141 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection;
+
+import java.util.Arrays;
+
+/**
+ * Asymmetric least squares baseline, a Java implementation of asysm() from
+ * R's parametric time warping (ptw) package. The baseline z minimizes
+ * sum(w * (y - z)^2) + lambda * sum(diff(z, differences = 2)^2), where the
+ * weights are p for points above the baseline and 1 - p for points below it.
+ * The banded linear system is solved by Cholesky decomposition in linear
+ * time, so there is no shared state and the calculation may run in any
+ * number of threads.
+ */
+public final class AsymmetricLeastSquaresBaseline {
+
+	// Maximum number of re-weighting iterations (as in ptw).
+	private static final int MAX_ITERATIONS = 25;
+
+	/**
+	 * Utility class - no public access.
+	 */
+	private AsymmetricLeastSquaresBaseline() {
+		// no public access.
+	}
+
+	/**
+	 * Calculates the baseline of a chromatogram.
+	 * 
+	 * @param chromatogram
+	 *            the chromatogram whose baseline is to be determined.
+	 * @param smoothing
+	 *            the smoothing factor (lambda).
+	 * @param asymmetry
+	 *            the weight (p) of points above the baseline.
+	 * @return the baseline.
+	 */
+	public static double[] calculateBaseline(final double[] chromatogram,
+			final double smoothing, final double asymmetry) {
+
+		final int n = chromatogram.length;
+
+		// Second differences are undefined for less than 3 points.
+		if (n < 3) {
+			return chromatogram.clone();
+		}
+
+		// Lower bands of lambda * D'D, where D is the second difference
+		// matrix.
+		final double[] penalty0 = new double[n];
+		final double[] penalty1 = new double[n];
+		final double[] penalty2 = new double[n];
+		for (int r = 0; r < n - 2; r++) {
+			penalty0[r] += smoothing;
+			penalty0[r + 1] += 4.0 * smoothing;
+			penalty0[r + 2] += smoothing;
+			penalty1[r + 1] -= 2.0 * smoothing;
+			penalty1[r + 2] -= 2.0 * smoothing;
+			penalty2[r + 2] += smoothing;
+		}
+
+		// Cholesky factor bands and working vectors.
+		final double[] l0 = new double[n];
+		final double[] l1 = new double[n];
+		final double[] l2 = new double[n];
+		final double[] weights = new double[n];
+		final double[] baseline = new double[n];
+
+		Arrays.fill(weights, 1.0);
+
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+
+			// Factorize W + lambda * D'D = L * L'.
+			for (int i = 0; i < n; i++) {
+				l2[i] = i >= 2 ? penalty2[i] / l0[i - 2] : 0.0;
+				l1[i] = i >= 1 ? (penalty1[i] - (i >= 2
+						? l2[i] * l1[i - 1]
+						: 0.0)) / l0[i - 1] : 0.0;
+				l0[i] = Math.sqrt(weights[i] + penalty0[i] - l1[i] * l1[i]
+						- l2[i] * l2[i]);
+			}
+
+			// Solve L * v = W * y.
+			for (int i = 0; i < n; i++) {
+				double v = weights[i] * chromatogram[i];
+				if (i >= 1) {
+					v -= l1[i] * baseline[i - 1];
+				}
+				if (i >= 2) {
+					v -= l2[i] * baseline[i - 2];
+				}
+				baseline[i] = v / l0[i];
+			}
+
+			// Solve L' * z = v.
+			for (int i = n - 1; i >= 0; i--) {
+				double z = baseline[i];
+				if (i + 1 < n) {
+					z -= l1[i + 1] * baseline[i + 1];
+				}
+				if (i + 2 < n) {
+					z -= l2[i + 2] * baseline[i + 2];
+				}
+				baseline[i] = z / l0[i];
+			}
+
+			// Update weights, stop when they don't change.
+			boolean changed = false;
+			for (int i = 0; i < n; i++) {
+				final double weight = chromatogram[i] > baseline[i]
+						? asymmetry
+						: 1.0 - asymmetry;
+				changed |= weight != weights[i];
+				weights[i] = weight;
+			}
+			if (!changed) {
+				break;
+			}
+		}
+
+		return baseline;
+	}
+}
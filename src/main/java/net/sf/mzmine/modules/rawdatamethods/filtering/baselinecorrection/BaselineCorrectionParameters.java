@@ -76,6 +76,14 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
 			"The weight (0 <= p <= 1) for points above the trend line, whereas 1-p is the weight for points below it.  Naturally, p should be small for estimating baselines.",
 			DecimalFormat.getNumberInstance(), 0.001, 0.0, 1.0);
 
+	/**
+	 * Use R.
+	 */
+	public static final BooleanParameter USE_R = new BooleanParameter(
+			"Use R (ptw)",
+			"If checked, baselines are calculated by the R package ptw instead of the built-in implementation of the same algorithm.",
+			false);
+
 	/**
 	 * Apply in bins.
 	 */
@@ -110,7 +118,7 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
 	 */
 	public BaselineCorrectionParameters() {
 		super(new Parameter[]{dataFiles, SUFFIX, CHROMOTAGRAM_TYPE, MS_LEVEL,
-				SMOOTHING, ASYMMETRY, USE_MZ_BINS, MZ_BIN_WIDTH,
+				SMOOTHING, ASYMMETRY, USE_R, USE_MZ_BINS, MZ_BIN_WIDTH,
 				REMOVE_ORIGINAL});
 	}
 }
@@ -71,11 +71,16 @@ public class BaselineCorrectionTask extends AbstractTask {
 	// Smoothing and asymmetry parameters.
 	private final double smoothing;
 	private final double asymmetry;
+	private final boolean useR;
 	private final double binWidth;
 	private final boolean useBins;
 	private final int msLevel;
 	private final ChromatogramType chromatogramType;
 
+	// Reusable arrays for reading m/z and intensity values of scans.
+	private double[] mzBuffer;
+	private double[] intensityBuffer;
+
 	/**
 	 * Creates the task.
 	 * 
@@ -92,6 +97,8 @@ public class BaselineCorrectionTask extends AbstractTask {
 		correctedDataFile = null;
 		progressMax = 0;
 		progress = 0;
+		mzBuffer = new double[0];
+		intensityBuffer = new double[0];
 
 		// Get parameters.
 		suffix = parameters.getParameter(BaselineCorrectionParameters.SUFFIX)
@@ -102,6 +109,8 @@ public class BaselineCorrectionTask extends AbstractTask {
 				BaselineCorrectionParameters.SMOOTHING).getValue();
 		asymmetry = parameters.getParameter(
 				BaselineCorrectionParameters.ASYMMETRY).getValue();
+		useR = parameters.getParameter(BaselineCorrectionParameters.USE_R)
+				.getValue();
 		binWidth = parameters.getParameter(
 				BaselineCorrectionParameters.MZ_BIN_WIDTH).getValue();
 		useBins = parameters.getParameter(
@@ -242,20 +251,9 @@ public class BaselineCorrectionTask extends AbstractTask {
 			// Get original scan.
 			final Scan origScan = origDataFile.getScan(scanNumbers[scanIndex]);
 
-			// Get data points (m/z and intensity pairs) of the original scan
-			final DataPoint[] origDataPoints = origScan.getDataPoints();
-			final DataPoint[] newDataPoints = new DataPoint[origDataPoints.length];
-
-			// Copy original data points.
-			int i = 0;
-			for (final DataPoint dp : origDataPoints) {
-
-				newDataPoints[i++] = new SimpleDataPoint(dp);
-			}
-
-			// Create new copied scan.
+			// Create new copied scan (the clone constructor reads the data
+			// points of the original scan).
 			final SimpleScan newScan = new SimpleScan(origScan);
-			newScan.setDataPoints(newDataPoints);
 			writer.addScan(newScan);
 			progress++;
 		}
@@ -300,13 +298,11 @@ public class BaselineCorrectionTask extends AbstractTask {
 			final Scan origScan = origDataFile.getScan(scanNumbers[scanIndex]);
 
 			// Get data points (m/z and intensity pairs) of the original scan
-			final DataPoint[] origDataPoints = origScan.getDataPoints();
+			final int numDataPoints = readDataPoints(origScan);
 
 			// Create and write new corrected scan.
-			final SimpleScan newScan = new SimpleScan(origScan);
-			newScan.setDataPoints(subtractBasePeakBaselines(origDataPoints,
-					baseChrom, numBins, scanIndex));
-			writer.addScan(newScan);
+			writer.addScan(createScan(origScan, subtractBasePeakBaselines(
+					numDataPoints, baseChrom, numBins, scanIndex)));
 			progress++;
 		}
 	}
@@ -360,13 +356,11 @@ public class BaselineCorrectionTask extends AbstractTask {
 			final Scan origScan = origDataFile.getScan(scanNumbers[scanIndex]);
 
 			// Get data points (m/z and intensity pairs) of the original scan
-			final DataPoint[] origDataPoints = origScan.getDataPoints();
+			final int numDataPoints = readDataPoints(origScan);
 
 			// Create and write new corrected scan.
-			final SimpleScan newScan = new SimpleScan(origScan);
-			newScan.setDataPoints(subtractTICBaselines(origDataPoints,
-					baseChrom, numBins, scanIndex));
-			writer.addScan(newScan);
+			writer.addScan(createScan(origScan, subtractTICBaselines(
+					numDataPoints, baseChrom, numBins, scanIndex)));
 			progress++;
 		}
 	}
@@ -399,12 +393,13 @@ public class BaselineCorrectionTask extends AbstractTask {
 			final Scan scan = origDataFile.getScan(scanNumbers[scanIndex]);
 
 			// Process data points.
-			for (final DataPoint dataPoint : scan.getDataPoints()) {
+			final int numDataPoints = readDataPoints(scan);
+			for (int i = 0; i < numDataPoints; i++) {
 
-				final int bin = mzRange.binNumber(numBins, dataPoint.getMZ());
+				final int bin = mzRange.binNumber(numBins, mzBuffer[i]);
 				final double value = chromatograms[bin][scanIndex];
 				chromatograms[bin][scanIndex] = Math.max(value,
-						dataPoint.getIntensity());
+						intensityBuffer[i]);
 			}
 			progress++;
 		}
@@ -439,10 +434,10 @@ public class BaselineCorrectionTask extends AbstractTask {
 			final Scan scan = origDataFile.getScan(scanNumbers[scanIndex]);
 
 			// Process data points.
-			for (final DataPoint dataPoint : scan.getDataPoints()) {
+			final int numDataPoints = readDataPoints(scan);
+			for (int i = 0; i < numDataPoints; i++) {
 
-				chromatograms[mzRange.binNumber(numBins, dataPoint.getMZ())][scanIndex] += dataPoint
-						.getIntensity();
+				chromatograms[mzRange.binNumber(numBins, mzBuffer[i])][scanIndex] += intensityBuffer[i];
 			}
 			progress++;
 		}
@@ -450,6 +445,20 @@ public class BaselineCorrectionTask extends AbstractTask {
 		return chromatograms;
 	}
 
+	/**
+	 * Determine the baseline via Asymmetric Least Squares.
+	 * 
+	 * @param chromatogram
+	 *            the chromatogram whose baseline is to be determined.
+	 * @return the baseline.
+	 */
+	private double[] asymBaseline(final double[] chromatogram) {
+
+		return useR ? rAsymBaseline(chromatogram)
+				: AsymmetricLeastSquaresBaseline.calculateBaseline(
+						chromatogram, smoothing, asymmetry);
+	}
+
 	/**
 	 * Determine the baseline via Asymmetric Least Squares (in R's parametric
 	 * time warping PTW package).
@@ -458,7 +467,7 @@ public class BaselineCorrectionTask extends AbstractTask {
 	 *            the chromatogram whose baseline is to be determined.
 	 * @return the baseline.
 	 */
-	private double[] asymBaseline(final double[] chromatogram) {
+	private double[] rAsymBaseline(final double[] chromatogram) {
 
 		// Get R engine.
 		final Rengine rEngine;
@@ -500,10 +509,49 @@ public class BaselineCorrectionTask extends AbstractTask {
 	}
 
 	/**
-	 * Perform baseline correction in bins.
+	 * Read the data points of a scan into the reusable m/z and intensity
+	 * arrays.
+	 * 
+	 * @param scan
+	 *            the scan to read.
+	 * @return the number of data points read.
+	 */
+	private int readDataPoints(final Scan scan) {
+
+		final int numDataPoints = scan.getNumberOfDataPoints();
+		if (mzBuffer.length < numDataPoints) {
+			mzBuffer = new double[numDataPoints];
+			intensityBuffer = new double[numDataPoints];
+		}
+		return scan.getDataPoints(mzBuffer, intensityBuffer);
+	}
+
+	/**
+	 * Create a copy of a scan with new data points.
 	 * 
+	 * @param origScan
+	 *            the original scan.
 	 * @param dataPoints
-	 *            input data points to correct.
+	 *            the data points of the new scan.
+	 * @return the new scan.
+	 */
+	private static SimpleScan createScan(final Scan origScan,
+			final DataPoint[] dataPoints) {
+
+		return new SimpleScan(origScan.getDataFile(),
+				origScan.getScanNumber(), origScan.getMSLevel(),
+				origScan.getRetentionTime(), origScan.getParentScanNumber(),
+				origScan.getPrecursorMZ(), origScan.getPrecursorCharge(),
+				origScan.getFragmentScanNumbers(), dataPoints,
+				origScan.isCentroided());
+	}
+
+	/**
+	 * Perform baseline correction in bins.
+	 * 
+	 * @param numDataPoints
+	 *            number of data points to correct (held in the m/z and
+	 *            intensity arrays).
 	 * @param baselines
 	 *            the baselines - one per m/z bin.
 	 * @param numBins
@@ -512,26 +560,26 @@ public class BaselineCorrectionTask extends AbstractTask {
 	 *            the current scan index that these data points come from.
 	 * @return the corrected data points.
 	 */
-	private DataPoint[] subtractBasePeakBaselines(final DataPoint[] dataPoints,
+	private DataPoint[] subtractBasePeakBaselines(final int numDataPoints,
 			final double[][] baselines, final int numBins, final int scanIndex) {
 
-		// Create an ArrayList for new data points.
-		final DataPoint[] newDataPoints = new DataPoint[dataPoints.length];
+		// Create an array for new data points.
+		final DataPoint[] newDataPoints = new DataPoint[numDataPoints];
 
 		// Determine MZ range.
 		final Range mzRange = origDataFile.getDataMZRange();
 
 		// Loop through all original data points.
-		int i = 0;
-		for (final DataPoint dp : dataPoints) {
+		for (int i = 0; i < numDataPoints; i++) {
 
 			// Subtract baseline.
-			final double mz = dp.getMZ();
+			final double mz = mzBuffer[i];
+			final double intensity = intensityBuffer[i];
 			final int bin = mzRange.binNumber(numBins, mz);
 			final double baselineIntenstity = baselines[bin][scanIndex];
-			newDataPoints[i++] = baselineIntenstity <= 0.0
-					? new SimpleDataPoint(dp)
-					: new SimpleDataPoint(mz, Math.max(0.0, dp.getIntensity()
+			newDataPoints[i] = baselineIntenstity <= 0.0
+					? new SimpleDataPoint(mz, intensity)
+					: new SimpleDataPoint(mz, Math.max(0.0, intensity
 							- baselineIntenstity));
 		}
 
@@ -542,8 +590,9 @@ public class BaselineCorrectionTask extends AbstractTask {
 	/**
 	 * Perform baseline correction in bins.
 	 * 
-	 * @param dataPoints
-	 *            input data points to correct.
+	 * @param numDataPoints
+	 *            number of data points to correct (held in the m/z and
+	 *            intensity arrays).
 	 * @param baselines
 	 *            the baselines - one per m/z bin.
 	 * @param numBins
@@ -552,26 +601,26 @@ public class BaselineCorrectionTask extends AbstractTask {
 	 *            the current scan index that these data points come from.
 	 * @return the corrected data points.
 	 */
-	private DataPoint[] subtractTICBaselines(final DataPoint[] dataPoints,
+	private DataPoint[] subtractTICBaselines(final int numDataPoints,
 			final double[][] baselines, final int numBins, final int scanIndex) {
 
-		// Create an ArrayList for new data points.
-		final DataPoint[] newDataPoints = new DataPoint[dataPoints.length];
+		// Create an array for new data points.
+		final DataPoint[] newDataPoints = new DataPoint[numDataPoints];
 
 		// Determine MZ range.
 		final Range mzRange = origDataFile.getDataMZRange();
 
 		// Loop through all original data points.
-		int i = 0;
-		for (final DataPoint dp : dataPoints) {
+		for (int i = 0; i < numDataPoints; i++) {
 
 			// Subtract baseline.
-			final double mz = dp.getMZ();
+			final double mz = mzBuffer[i];
+			final double intensity = intensityBuffer[i];
 			final int bin = mzRange.binNumber(numBins, mz);
 			final double baselineIntenstity = baselines[bin][scanIndex];
-			newDataPoints[i++] = baselineIntenstity <= 0.0
-					? new SimpleDataPoint(dp)
-					: new SimpleDataPoint(mz, Math.max(0.0, dp.getIntensity()
+			newDataPoints[i] = baselineIntenstity <= 0.0
+					? new SimpleDataPoint(mz, intensity)
+					: new SimpleDataPoint(mz, Math.max(0.0, intensity
 							* (1.0 - baselineIntenstity)));
 		}
 
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.MassList;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.RawDataFileWriter;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.modules.MZmineProcessingStep;
+import net.sf.mzmine.modules.impl.MZmineProcessingStepImpl;
+import net.sf.mzmine.util.CollectionUtils;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Raw data file which keeps only a reference to the source file and a chain
+ * of scan filters. The filters are applied whenever scan data points are
+ * read, and the most recently filtered scans are kept in a bounded LRU cache.
+ * Mass lists added to the scans are kept in memory.
+ * 
+ * The file contains only the scans added by the filtering task, which are
+ * the MS1 scans the filters did not discard. While a filtered file is open,
+ * its source file is not closed, even if it is removed from the project.
+ */
+public class FilteredRawDataFile implements RawDataFile {
+
+	// Number of open filtered files reading each source file
+	private static final Hashtable<RawDataFile, Integer> openReaders = new Hashtable<RawDataFile, Integer>();
+
+	// Source files removed from the project, closed by their last reader
+	private static final Set<RawDataFile> removedSources = new HashSet<RawDataFile>();
+
+	private String name;
+	private final RawDataFile sourceFile;
+	private final List<MZmineProcessingStep<ScanFilter>> filters;
+	private boolean closed = false;
+
+	// Scans hold only scan properties, a summary of the filtered data and
+	// mass lists
+	private final Hashtable<Integer, FilteredScan> scans;
+
+	// Recently filtered scans
+	private final int cacheSize;
+	private final LinkedHashMap<Integer, Scan> cache;
+
+	private final Hashtable<Integer, int[]> scanNumbersCache;
+	private final Hashtable<Integer, Range> dataMZRange, dataRTRange;
+	private final Hashtable<Integer, Double> dataMaxBasePeakIntensity,
+			dataMaxTIC;
+
+	/**
+	 * Creates an empty file applying the given filter to the source file. If
+	 * the source file is a filtered file itself, the new file applies the
+	 * whole filter chain to the original data.
+	 * 
+	 * @param cacheSize
+	 *            maximum number of filtered scans kept in memory
+	 */
+	public FilteredRawDataFile(String name, RawDataFile sourceFile,
+			MZmineProcessingStep<ScanFilter> filter, int cacheSize) {
+
+		this.name = name;
+		this.filters = new ArrayList<MZmineProcessingStep<ScanFilter>>();
+
+		if (sourceFile instanceof FilteredRawDataFile) {
+			FilteredRawDataFile filteredSource = (FilteredRawDataFile) sourceFile;
+			this.sourceFile = filteredSource.sourceFile;
+			this.filters.addAll(filteredSource.filters);
+		} else {
+			this.sourceFile = sourceFile;
+		}
+
+		// Keep a copy of the parameters, which may be changed by the user
+		this.filters.add(new MZmineProcessingStepImpl<ScanFilter>(filter
+				.getModule(), filter.getParameterSet().cloneParameter()));
+
+		this.cacheSize = cacheSize;
+		this.cache = new LinkedHashMap<Integer, Scan>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Scan> eldest) {
+				return size() > FilteredRawDataFile.this.cacheSize;
+			}
+		};
+
+		scans = new Hashtable<Integer, FilteredScan>();
+		scanNumbersCache = new Hashtable<Integer, int[]>();
+		dataMZRange = new Hashtable<Integer, Range>();
+		dataRTRange = new Hashtable<Integer, Range>();
+		dataMaxBasePeakIntensity = new Hashtable<Integer, Double>();
+		dataMaxTIC = new Hashtable<Integer, Double>();
+
+		openSource(this.sourceFile);
+	}
+
+	/**
+	 * Returns the unfiltered file
+	 */
+	public RawDataFile getSourceFile() {
+		return sourceFile;
+	}
+
+	/**
+	 * Returns the filters, in the order they are applied
+	 */
+	public List<MZmineProcessingStep<ScanFilter>> getFilters() {
+		return filters;
+	}
+
+	/**
+	 * Adds a scan of the source file, given the result of filtering it. Only
+	 * the properties of the filtered scan are kept, its data points are
+	 * filtered again when they are read.
+	 */
+	synchronized void addScan(Scan sourceScan, Scan filteredScan) {
+
+		int scanNumber = sourceScan.getScanNumber();
+		scans.put(scanNumber, new FilteredScan(this, sourceScan, filteredScan));
+
+		scanNumbersCache.clear();
+		dataMZRange.clear();
+		dataRTRange.clear();
+		dataMaxBasePeakIntensity.clear();
+		dataMaxTIC.clear();
+
+		if (cacheSize > 0) {
+			synchronized (cache) {
+				cache.put(scanNumber, filteredScan);
+			}
+		}
+	}
+
+	/**
+	 * Returns the source scan processed by all the filters
+	 */
+	Scan getFilteredScan(int scanNumber) {
+
+		synchronized (cache) {
+			Scan filteredScan = cache.get(scanNumber);
+			if (filteredScan != null)
+				return filteredScan;
+		}
+
+		// Filter outside the lock, so several threads may filter different
+		// scans at the same time
+		Scan filteredScan = sourceFile.getScan(scanNumber);
+		for (MZmineProcessingStep<ScanFilter> filter : filters) {
+			filteredScan = filter.getModule().filterScan(filteredScan,
+					filter.getParameterSet());
+		}
+
+		if (cacheSize > 0) {
+			synchronized (cache) {
+				cache.put(scanNumber, filteredScan);
+			}
+		}
+
+		return filteredScan;
+	}
+
+	/**
+	 * Writes all filtered scans and their mass lists to a new physical file
+	 */
+	public RawDataFile materialize(RawDataFileWriter writer)
+			throws IOException {
+
+		int scanNumbers[] = getScanNumbers();
+		for (int scanNumber : scanNumbers) {
+			writer.addScan(getScan(scanNumber));
+		}
+		RawDataFile newFile = writer.finishWriting();
+
+		for (int scanNumber : scanNumbers) {
+			Scan newScan = newFile.getScan(scanNumber);
+			for (MassList massList : getScan(scanNumber).getMassLists()) {
+				newScan.addMassList(massList);
+			}
+		}
+
+		return newFile;
+	}
+
+	@Override
+	public @Nonnull
+	String getName() {
+		return name;
+	}
+
+	@Override
+	public void setName(@Nonnull String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	@Override
+	public int getNumOfScans() {
+		return scans.size();
+	}
+
+	@Override
+	public int getNumOfScans(int msLevel) {
+		return getScanNumbers(msLevel).length;
+	}
+
+	@Override
+	public synchronized @Nonnull
+	int[] getMSLevels() {
+		Set<Integer> msLevelsSet = new HashSet<Integer>();
+		for (Scan scan : scans.values())
+			msLevelsSet.add(scan.getMSLevel());
+		int msLevels[] = CollectionUtils.toIntArray(msLevelsSet);
+		Arrays.sort(msLevels);
+		return msLevels;
+	}
+
+	@Override
+	public synchronized @Nonnull
+	int[] getScanNumbers() {
+		int scanNumbers[] = scanNumbersCache.get(0);
+		if (scanNumbers == null) {
+			scanNumbers = CollectionUtils.toIntArray(scans.keySet());
+			Arrays.sort(scanNumbers);
+			scanNumbersCache.put(0, scanNumbers);
+		}
+		return scanNumbers;
+	}
+
+	@Override
+	public synchronized @Nonnull
+	int[] getScanNumbers(int msLevel) {
+		int scanNumbers[] = scanNumbersCache.get(msLevel);
+		if (scanNumbers == null) {
+			scanNumbers = getScanNumbers(msLevel, new Range(
+					Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+			scanNumbersCache.put(msLevel, scanNumbers);
+		}
+		return scanNumbers;
+	}
+
+	@Override
+	public synchronized @Nonnull
+	int[] getScanNumbers(int msLevel, @Nonnull Range rtRange) {
+		ArrayList<Integer> eligibleScanNumbers = new ArrayList<Integer>();
+		for (Scan scan : scans.values()) {
+			if ((scan.getMSLevel() == msLevel)
+					&& (rtRange.contains(scan.getRetentionTime())))
+				eligibleScanNumbers.add(scan.getScanNumber());
+		}
+		int numbersArray[] = CollectionUtils.toIntArray(eligibleScanNumbers);
+		Arrays.sort(numbersArray);
+		return numbersArray;
+	}
+
+	@Override
+	public @Nonnull
+	Scan getScan(int scanNumber) {
+		return scans.get(scanNumber);
+	}
+
+	@Override
+	public @Nonnull
+	Range getDataMZRange() {
+		return getDataMZRange(0);
+	}
+
+	@Override
+	public synchronized @Nonnull
+	Range getDataMZRange(int msLevel) {
+		Range mzRange = dataMZRange.get(msLevel);
+		if (mzRange == null) {
+			calculateDataRanges(msLevel);
+			mzRange = dataMZRange.get(msLevel);
+		}
+		return mzRange;
+	}
+
+	@Override
+	public @Nonnull
+	Range getDataRTRange() {
+		return getDataRTRange(0);
+	}
+
+	@Override
+	public synchronized @Nonnull
+	Range getDataRTRange(int msLevel) {
+		Range rtRange = dataRTRange.get(msLevel);
+		if (rtRange == null) {
+			calculateDataRanges(msLevel);
+			rtRange = dataRTRange.get(msLevel);
+		}
+		return rtRange;
+	}
+
+	@Override
+	public synchronized double getDataMaxBasePeakIntensity(int msLevel) {
+		Double maxBasePeak = dataMaxBasePeakIntensity.get(msLevel);
+		if (maxBasePeak == null) {
+			calculateDataRanges(msLevel);
+			maxBasePeak = dataMaxBasePeakIntensity.get(msLevel);
+		}
+		return maxBasePeak;
+	}
+
+	@Override
+	public synchronized double getDataMaxTotalIonCurrent(int msLevel) {
+		Double maxTIC = dataMaxTIC.get(msLevel);
+		if (maxTIC == null) {
+			calculateDataRanges(msLevel);
+			maxTIC = dataMaxTIC.get(msLevel);
+		}
+		return maxTIC;
+	}
+
+	/**
+	 * Calculates the ranges and maxima from the summaries of the filtered
+	 * scans, without filtering their data again
+	 */
+	private void calculateDataRanges(int msLevel) {
+		Range mzRange = null, rtRange = null;
+		double maxBasePeak = 0, maxTIC = 0;
+		int scanNumbers[] = msLevel == 0 ? getScanNumbers()
+				: getScanNumbers(msLevel);
+		for (int scanNumber : scanNumbers) {
+			Scan scan = getScan(scanNumber);
+			if (scan.getNumberOfDataPoints() > 0) {
+				if (mzRange == null)
+					mzRange = new Range(scan.getMZRange());
+				else
+					mzRange.extendRange(scan.getMZRange());
+			}
+			if (rtRange == null)
+				rtRange = new Range(scan.getRetentionTime());
+			else
+				rtRange.extendRange(scan.getRetentionTime());
+			DataPoint basePeak = scan.getBasePeak();
+			if ((basePeak != null) && (basePeak.getIntensity() > maxBasePeak))
+				maxBasePeak = basePeak.getIntensity();
+			if (scan.getTIC() > maxTIC)
+				maxTIC = scan.getTIC();
+		}
+		dataMZRange.put(msLevel, mzRange != null ? mzRange : new Range(0));
+		dataRTRange.put(msLevel, rtRange != null ? rtRange : new Range(0));
+		dataMaxBasePeakIntensity.put(msLevel, maxBasePeak);
+		dataMaxTIC.put(msLevel, maxTIC);
+	}
+
+	/**
+	 * Releases the cached scans. The source file is closed too, if it was
+	 * removed from the project and no other filtered file reads it.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		synchronized (cache) {
+			cache.clear();
+		}
+		closeSource(sourceFile);
+	}
+
+	/**
+	 * Closes a file removed from the project. If filtered files still read
+	 * its data, it is closed by the last of them instead.
+	 */
+	public static synchronized void closeWhenUnused(RawDataFile file) {
+		if (openReaders.containsKey(file))
+			removedSources.add(file);
+		else
+			file.close();
+	}
+
+	private static synchronized void openSource(RawDataFile source) {
+		Integer readers = openReaders.get(source);
+		openReaders.put(source, readers == null ? 1 : readers + 1);
+	}
+
+	private static synchronized void closeSource(RawDataFile source) {
+		int readers = openReaders.get(source) - 1;
+		if (readers > 0) {
+			openReaders.put(source, readers);
+			return;
+		}
+		openReaders.remove(source);
+		if (removedSources.remove(source))
+			source.close();
+	}
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.swing.SwingUtilities;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.MassList;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.desktop.impl.projecttree.ProjectTreeModel;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.ScanUtils;
+
+/**
+ * Scan of a FilteredRawDataFile. The scan properties are taken from the
+ * source scan and the summary of the data from the scan filtered when the
+ * file was created, while the data points are filtered on demand by the data
+ * file.
+ */
+class FilteredScan implements Scan {
+
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private final FilteredRawDataFile dataFile;
+	private final int scanNumber, msLevel, parentScan, precursorCharge;
+	private final double retentionTime, precursorMZ;
+	private final int fragmentScans[];
+
+	// Properties of the filtered data
+	private final boolean centroided;
+	private final int numberOfDataPoints;
+	private final Range mzRange;
+	private final DataPoint basePeak;
+	private final double totalIonCurrent;
+
+	private final ArrayList<MassList> massLists = new ArrayList<MassList>();
+
+	FilteredScan(FilteredRawDataFile dataFile, Scan sourceScan,
+			Scan filteredScan) {
+		this.dataFile = dataFile;
+		this.scanNumber = sourceScan.getScanNumber();
+		this.msLevel = sourceScan.getMSLevel();
+		this.retentionTime = sourceScan.getRetentionTime();
+		this.parentScan = sourceScan.getParentScanNumber();
+		this.precursorMZ = sourceScan.getPrecursorMZ();
+		this.precursorCharge = sourceScan.getPrecursorCharge();
+		this.fragmentScans = sourceScan.getFragmentScanNumbers();
+		this.centroided = filteredScan.isCentroided();
+		this.numberOfDataPoints = filteredScan.getNumberOfDataPoints();
+		this.mzRange = filteredScan.getMZRange();
+		this.basePeak = filteredScan.getBasePeak();
+		this.totalIonCurrent = filteredScan.getTIC();
+	}
+
+	private Scan getFilteredScan() {
+		return dataFile.getFilteredScan(scanNumber);
+	}
+
+	@Override
+	public @Nonnull
+	RawDataFile getDataFile() {
+		return dataFile;
+	}
+
+	@Override
+	public int getScanNumber() {
+		return scanNumber;
+	}
+
+	@Override
+	public int getMSLevel() {
+		return msLevel;
+	}
+
+	@Override
+	public double getRetentionTime() {
+		return retentionTime;
+	}
+
+	@Override
+	public int getParentScanNumber() {
+		return parentScan;
+	}
+
+	@Override
+	public double getPrecursorMZ() {
+		return precursorMZ;
+	}
+
+	@Override
+	public int getPrecursorCharge() {
+		return precursorCharge;
+	}
+
+	@Override
+	public int[] getFragmentScanNumbers() {
+		return fragmentScans;
+	}
+
+	@Override
+	public boolean isCentroided() {
+		return centroided;
+	}
+
+	@Override
+	public int getNumberOfDataPoints() {
+		return numberOfDataPoints;
+	}
+
+	@Override
+	public @Nonnull
+	Range getMZRange() {
+		return mzRange;
+	}
+
+	@Override
+	public DataPoint getBasePeak() {
+		return basePeak;
+	}
+
+	@Override
+	public double getTIC() {
+		return totalIonCurrent;
+	}
+
+	@Override
+	public @Nonnull
+	DataPoint[] getDataPoints() {
+		return getFilteredScan().getDataPoints();
+	}
+
+	@Override
+	public int getDataPoints(@Nonnull double mzValues[],
+			@Nonnull double intensityValues[]) {
+		return getFilteredScan().getDataPoints(mzValues, intensityValues);
+	}
+
+	@Override
+	public @Nonnull
+	DataPoint[] getDataPointsByMass(@Nonnull Range mzRange) {
+		return getFilteredScan().getDataPointsByMass(mzRange);
+	}
+
+	@Override
+	public int getDataPointsByMass(@Nonnull Range mzRange,
+			@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+		return getFilteredScan().getDataPointsByMass(mzRange, mzValues,
+				intensityValues);
+	}
+
+	@Override
+	public @Nonnull
+	DataPoint[] getDataPointsOverIntensity(double intensity) {
+		return getFilteredScan().getDataPointsOverIntensity(intensity);
+	}
+
+	@Override
+	public synchronized @Nonnull
+	MassList[] getMassLists() {
+		return massLists.toArray(new MassList[0]);
+	}
+
+	@Override
+	public synchronized MassList getMassList(@Nonnull String name) {
+		for (MassList ml : massLists) {
+			if (ml.getName().equals(name))
+				return ml;
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized void addMassList(final @Nonnull MassList massList) {
+
+		// Remove all mass lists with same name, if there are any
+		MassList currentMassLists[] = massLists.toArray(new MassList[0]);
+		for (MassList ml : currentMassLists) {
+			if (ml.getName().equals(massList.getName()))
+				removeMassList(ml);
+		}
+
+		massLists.add(massList);
+
+		// Add the mass list to the tree model
+		MZmineProjectImpl project = (MZmineProjectImpl) MZmineCore
+				.getCurrentProject();
+		if (Arrays.asList(project.getDataFiles()).contains(dataFile)) {
+			final ProjectTreeModel treeModel = project.getTreeModel();
+			Runnable swingCode = new Runnable() {
+				@Override
+				public void run() {
+					treeModel.addObject(massList);
+				}
+			};
+			try {
+				if (SwingUtilities.isEventDispatchThread())
+					swingCode.run();
+				else
+					SwingUtilities.invokeAndWait(swingCode);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Could not add mass list "
+						+ massList + " to the project tree", e);
+			}
+		}
+
+	}
+
+	@Override
+	public synchronized void removeMassList(final @Nonnull MassList massList) {
+
+		massLists.remove(massList);
+
+		// Remove from the tree model
+		MZmineProjectImpl project = (MZmineProjectImpl) MZmineCore
+				.getCurrentProject();
+		if (Arrays.asList(project.getDataFiles()).contains(dataFile)) {
+			final ProjectTreeModel treeModel = project.getTreeModel();
+			Runnable swingCode = new Runnable() {
+				@Override
+				public void run() {
+					treeModel.removeObject(massList);
+				}
+			};
+			SwingUtilities.invokeLater(swingCode);
+		}
+
+	}
+
+	@Override
+	public String toString() {
+		return ScanUtils.scanToString(this);
+	}
+
+}
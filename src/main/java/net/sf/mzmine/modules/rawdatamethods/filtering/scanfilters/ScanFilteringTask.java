@@ -29,13 +29,15 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelScanProcessor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 
 class ScanFilteringTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private RawDataFile dataFile, filteredRawDataFile;
+	private final RawDataFile dataFile;
+	private RawDataFile filteredRawDataFile;
 
 	// scan counter
 	private int processedScans = 0, totalScans;
@@ -44,9 +46,11 @@ class ScanFilteringTask extends AbstractTask {
 	// User parameters
 	private String suffix;
 	private boolean removeOriginal;
+	private boolean onDemand;
+	private int cacheSize;
 
 	// Raw Data Filter
-	private MZmineProcessingStep<ScanFilter> rawDataFilter;
+	private final MZmineProcessingStep<ScanFilter> rawDataFilter;
 
 	/**
 	 * @param dataFile
@@ -63,6 +67,15 @@ class ScanFilteringTask extends AbstractTask {
 		suffix = parameters.getParameter(ScanFiltersParameters.suffix)
 				.getValue();
 
+		removeOriginal = parameters.getParameter(
+				ScanFiltersParameters.autoRemove).getValue();
+
+		onDemand = parameters.getParameter(ScanFiltersParameters.onDemand)
+				.getValue();
+
+		cacheSize = parameters.getParameter(ScanFiltersParameters.cacheSize)
+				.getValue();
+
 	}
 
 	/**
@@ -99,55 +112,111 @@ class ScanFilteringTask extends AbstractTask {
 		scanNumbers = dataFile.getScanNumbers(1);
 		totalScans = scanNumbers.length;
 
+		String newName = dataFile.getName() + " " + suffix;
+
 		try {
 
-			// Create new raw data file
+			if (onDemand)
+				filteredRawDataFile = createFilteredFile(newName);
+			else
+				filteredRawDataFile = writeFilteredFile(newName);
 
-			String newName = dataFile.getName() + " " + suffix;
-			RawDataFileWriter rawDataFileWriter = MZmineCore
-					.createNewFile(newName);
+			if (isCanceled()) {
+				if (filteredRawDataFile != null)
+					filteredRawDataFile.close();
+				filteredRawDataFile = null;
+				return;
+			}
 
-			for (int i = 0; i < totalScans; i++) {
+			MZmineCore.getCurrentProject().addFile(filteredRawDataFile);
 
-				if (isCanceled()) {
-					return;
-				}
+			// Remove the original file if requested
+			if (removeOriginal) {
+				MZmineCore.getCurrentProject().removeFile(dataFile);
+			}
 
-				Scan scan = dataFile.getScan(scanNumbers[i]);
-				if ((scan.getMSLevel() != 1)
-						&& (scan.getParentScanNumber() <= 0)) {
-					return;
-				}
-				Scan newScan = rawDataFilter.getModule().filterScan(scan,
+			setStatus(TaskStatus.FINISHED);
+			logger.info("Finished scan filter on " + dataFile);
+
+		} catch (Exception e) {
+			if (filteredRawDataFile != null)
+				filteredRawDataFile.close();
+			filteredRawDataFile = null;
+			setStatus(TaskStatus.ERROR);
+			errorMessage = e.toString();
+			return;
+		}
+
+	}
+
+	/**
+	 * Creates a file which filters the scans when they are read. Each scan is
+	 * filtered once here, to leave out the scans discarded by the filter and
+	 * to keep the summary of the filtered data.
+	 */
+	private FilteredRawDataFile createFilteredFile(String newName)
+			throws Exception {
+
+		final FilteredRawDataFile filteredFile = new FilteredRawDataFile(
+				newName, dataFile, rawDataFilter, cacheSize);
+
+		ParallelScanProcessor<Scan> scanProcessor = new ParallelScanProcessor<Scan>() {
+
+			protected Scan processScan(int scanNumber) {
+				Scan scan = dataFile.getScan(scanNumber);
+				return rawDataFilter.getModule().filterScan(scan,
 						rawDataFilter.getParameterSet());
+			}
+
+			protected void storeResult(int scanNumber, Scan newScan) {
 				if (newScan != null) {
-					rawDataFileWriter.addScan(newScan);
+					filteredFile.addScan(dataFile.getScan(scanNumber), newScan);
 				}
-
 				processedScans++;
 			}
+		};
 
-			// Finalize writing
-			try {
-				filteredRawDataFile = rawDataFileWriter.finishWriting();
-				MZmineCore.getCurrentProject().addFile(filteredRawDataFile);
+		try {
+			scanProcessor.process(scanNumbers, this);
+		} catch (Exception e) {
+			filteredFile.close();
+			throw e;
+		}
 
-				// Remove the original file if requested
-				if (removeOriginal) {
-					MZmineCore.getCurrentProject().removeFile(dataFile);
-				}
-			} catch (Exception exception) {
+		return filteredFile;
+	}
+
+	/**
+	 * Writes all filtered scans to a new file
+	 */
+	private RawDataFile writeFilteredFile(String newName) throws Exception {
+
+		final RawDataFileWriter rawDataFileWriter = MZmineCore
+				.createNewFile(newName);
+
+		// Filter the scans in parallel, writing them in scan order
+		ParallelScanProcessor<Scan> scanProcessor = new ParallelScanProcessor<Scan>() {
+
+			protected Scan processScan(int scanNumber) {
+				Scan scan = dataFile.getScan(scanNumber);
+				return rawDataFilter.getModule().filterScan(scan,
+						rawDataFilter.getParameterSet());
 			}
 
-			setStatus(TaskStatus.FINISHED);
-			logger.info("Finished scan filter on " + dataFile);
+			protected void storeResult(int scanNumber, Scan newScan)
+					throws IOException {
+				if (newScan != null) {
+					rawDataFileWriter.addScan(newScan);
+				}
+				processedScans++;
+			}
+		};
+		scanProcessor.process(scanNumbers, this);
 
-		} catch (IOException e) {
-			setStatus(TaskStatus.ERROR);
-			errorMessage = e.toString();
-			return;
-		}
+		if (isCanceled())
+			return null;
 
+		return rawDataFileWriter.finishWriting();
 	}
 
 	public Object[] getCreatedObjects() {
@@ -26,6 +26,7 @@ import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.savitzkygolay.
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
 import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.ModuleComboParameter;
 import net.sf.mzmine.parameters.parametertypes.RawDataFilesParameter;
 import net.sf.mzmine.parameters.parametertypes.StringParameter;
@@ -47,8 +48,19 @@ public class ScanFiltersParameters extends SimpleParameterSet {
 			"Remove source file after filtering",
 			"If checked, original file will be removed and only filtered version remains");
 
+	public static final BooleanParameter onDemand = new BooleanParameter(
+			"Filter scans on demand",
+			"If checked, the new file only refers to the source file and filters each scan when it is read. Otherwise, all filtered scans are written to a new file.",
+			true);
+
+	public static final IntegerParameter cacheSize = new IntegerParameter(
+			"Cached scans",
+			"Number of recently filtered scans kept in memory when filtering on demand",
+			100, 0, null);
+
 	public ScanFiltersParameters() {
-		super(new Parameter[]{dataFiles, suffix, filter, autoRemove});
+		super(new Parameter[]{dataFiles, suffix, filter, autoRemove,
+				onDemand, cacheSize});
 	}
 
 }
@@ -19,8 +19,6 @@
 
 package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.mean;
 
-import java.util.Vector;
-
 import javax.annotation.Nonnull;
 
 import net.sf.mzmine.data.DataPoint;
@@ -41,55 +39,48 @@ public class MeanFilter implements ScanFilter {
 		if (sc.getMSLevel() != 1) {
 			return sc;
 		}
-		Vector<Double> massWindow = new Vector<Double>();
-		Vector<Double> intensityWindow = new Vector<Double>();
 
-		double currentMass;
-		double lowLimit;
-		double hiLimit;
-		double mzVal;
+		int numOfDataPoints = sc.getNumberOfDataPoints();
+		double mzValues[] = new double[numOfDataPoints];
+		double intensityValues[] = new double[numOfDataPoints];
+		numOfDataPoints = sc.getDataPoints(mzValues, intensityValues);
 
-		double elSum;
+		DataPoint newDataPoints[] = new DataPoint[numOfDataPoints];
 
-		DataPoint oldDataPoints[] = sc.getDataPoints();
-		DataPoint newDataPoints[] = new DataPoint[oldDataPoints.length];
+		/*
+		 * The window contains the data points from windowStart (inclusive) to
+		 * windowEnd (exclusive). Its intensity sum is updated as points enter
+		 * and leave the window, using compensated summation so that the
+		 * rounding error does not depend on the points which already left
+		 * the window, e.g. a large peak followed by noise.
+		 */
+		int windowStart = 0, windowEnd = 0;
+		RunningSum elSum = new RunningSum();
 
-		int addi = 0;
-		for (int i = 0; i < oldDataPoints.length; i++) {
+		for (int i = 0; i < numOfDataPoints; i++) {
 
-			currentMass = oldDataPoints[i].getMZ();
-			lowLimit = currentMass - windowLength;
-			hiLimit = currentMass + windowLength;
+			double currentMass = mzValues[i];
+			double lowLimit = currentMass - windowLength;
+			double hiLimit = currentMass + windowLength;
 
 			// Remove all elements from window whose m/z value is less than the
 			// low limit
-			if (massWindow.size() > 0) {
-				mzVal = massWindow.get(0).doubleValue();
-				while ((massWindow.size() > 0) && (mzVal < lowLimit)) {
-					massWindow.remove(0);
-					intensityWindow.remove(0);
-					if (massWindow.size() > 0) {
-						mzVal = massWindow.get(0).doubleValue();
-					}
-				}
+			while ((windowStart < windowEnd)
+					&& (mzValues[windowStart] < lowLimit)) {
+				elSum.add(-intensityValues[windowStart]);
+				windowStart++;
 			}
 
 			// Add new elements as long as their m/z values are less than the hi
 			// limit
-			while ((addi < oldDataPoints.length)
-					&& (oldDataPoints[addi].getMZ() <= hiLimit)) {
-				massWindow.add(oldDataPoints[addi].getMZ());
-				intensityWindow.add(oldDataPoints[addi].getIntensity());
-				addi++;
-			}
-
-			elSum = 0;
-			for (int j = 0; j < intensityWindow.size(); j++) {
-				elSum += ((Double) (intensityWindow.get(j))).doubleValue();
+			while ((windowEnd < numOfDataPoints)
+					&& (mzValues[windowEnd] <= hiLimit)) {
+				elSum.add(intensityValues[windowEnd]);
+				windowEnd++;
 			}
 
-			newDataPoints[i] = new SimpleDataPoint(currentMass, elSum
-					/ (double) intensityWindow.size());
+			newDataPoints[i] = new SimpleDataPoint(currentMass, elSum.get()
+					/ (double) (windowEnd - windowStart));
 
 		}
 
@@ -104,6 +95,28 @@ public class MeanFilter implements ScanFilter {
 
 	}
 
+	/**
+	 * Sum with Neumaier's compensation, which also keeps the error small when
+	 * a term is larger than the sum
+	 */
+	private static class RunningSum {
+
+		private double sum = 0, compensation = 0;
+
+		void add(double value) {
+			double newSum = sum + value;
+			if (Math.abs(sum) >= Math.abs(value))
+				compensation += (sum - newSum) + value;
+			else
+				compensation += (value - newSum) + sum;
+			sum = newSum;
+		}
+
+		double get() {
+			return sum + compensation;
+		}
+	}
+
 	@Override
 	public @Nonnull
 	String getName() {
@@ -35,6 +35,11 @@ public class SGFilter implements ScanFilter {
 	private static final Hashtable<Integer, Integer> Hvalues = new Hashtable<Integer, Integer>();
 	private static final Hashtable<Integer, int[]> Avalues = new Hashtable<Integer, int[]>();
 
+	/**
+	 * The coefficients of each filter width, converted to double
+	 */
+	private static final Hashtable<Integer, double[]> Cvalues = new Hashtable<Integer, double[]>();
+
 	static {
 		int[] a5Ints = {17, 12, -3, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
 		Avalues.put(5, a5Ints);
@@ -74,6 +79,14 @@ public class SGFilter implements ScanFilter {
 		Hvalues.put(23, 805);
 		Hvalues.put(25, 5175);
 
+		for (Integer width : Avalues.keySet()) {
+			int aVals[] = Avalues.get(width);
+			double coefficients[] = new double[(width + 1) / 2];
+			for (int i = 0; i < coefficients.length; i++)
+				coefficients[i] = aVals[i];
+			Cvalues.put(width, coefficients);
+		}
+
 	}
 
 	public Scan filterScan(Scan scan, ParameterSet parameters) {
@@ -81,10 +94,10 @@ public class SGFilter implements ScanFilter {
 		int numOfDataPoints = parameters.getParameter(
 				SGFilterParameters.datapoints).getValue();
 
-		assert Avalues.containsKey(numOfDataPoints);
+		assert Cvalues.containsKey(numOfDataPoints);
 		assert Hvalues.containsKey(numOfDataPoints);
 
-		int[] aVals = Avalues.get(numOfDataPoints);
+		double[] aVals = Cvalues.get(numOfDataPoints);
 		int h = Hvalues.get(numOfDataPoints).intValue();
 
 		// only process MS level 1 scans
@@ -95,8 +108,11 @@ public class SGFilter implements ScanFilter {
 		int marginSize = (numOfDataPoints + 1) / 2 - 1;
 		double sumOfInts;
 
-		DataPoint oldDataPoints[] = scan.getDataPoints();
-		int newDataPointsLength = oldDataPoints.length - (marginSize * 2);
+		int oldLength = scan.getNumberOfDataPoints();
+		double mzValues[] = new double[oldLength];
+		double intensityValues[] = new double[oldLength];
+		oldLength = scan.getDataPoints(mzValues, intensityValues);
+		int newDataPointsLength = oldLength - (marginSize * 2);
 
 		// only process scans with datapoints
 		if (newDataPointsLength < 1) {
@@ -105,21 +121,21 @@ public class SGFilter implements ScanFilter {
 
 		DataPoint newDataPoints[] = new DataPoint[newDataPointsLength];
 
-		for (int spectrumInd = marginSize; spectrumInd < (oldDataPoints.length - marginSize); spectrumInd++) {
+		for (int spectrumInd = marginSize; spectrumInd < (oldLength - marginSize); spectrumInd++) {
 
 			// zero intensity data points must be left unchanged
-			if (oldDataPoints[spectrumInd].getIntensity() == 0) {
-				newDataPoints[spectrumInd - marginSize] = oldDataPoints[spectrumInd];
+			if (intensityValues[spectrumInd] == 0) {
+				newDataPoints[spectrumInd - marginSize] = new SimpleDataPoint(
+						mzValues[spectrumInd], intensityValues[spectrumInd]);
 				continue;
 			}
 
-			sumOfInts = aVals[0] * oldDataPoints[spectrumInd].getIntensity();
+			sumOfInts = aVals[0] * intensityValues[spectrumInd];
 
 			for (int windowInd = 1; windowInd <= marginSize; windowInd++) {
 				sumOfInts += aVals[windowInd]
-						* (oldDataPoints[spectrumInd + windowInd]
-								.getIntensity() + oldDataPoints[spectrumInd
-								- windowInd].getIntensity());
+						* (intensityValues[spectrumInd + windowInd] + intensityValues[spectrumInd
+								- windowInd]);
 			}
 
 			sumOfInts = sumOfInts / h;
@@ -128,12 +144,18 @@ public class SGFilter implements ScanFilter {
 				sumOfInts = 0;
 			}
 			newDataPoints[spectrumInd - marginSize] = new SimpleDataPoint(
-					oldDataPoints[spectrumInd].getMZ(), sumOfInts);
+					mzValues[spectrumInd], sumOfInts);
 
 		}
 
-		SimpleScan newScan = new SimpleScan(scan);
-		newScan.setDataPoints(newDataPoints);
+		// Create the filtered scan directly, without copying the original
+		// data points first
+		Scan newScan = new SimpleScan(scan.getDataFile(),
+				scan.getScanNumber(), scan.getMSLevel(),
+				scan.getRetentionTime(), scan.getParentScanNumber(),
+				scan.getPrecursorMZ(), scan.getPrecursorCharge(),
+				scan.getFragmentScanNumbers(), newDataPoints,
+				scan.isCentroided());
 		return newScan;
 
 	}
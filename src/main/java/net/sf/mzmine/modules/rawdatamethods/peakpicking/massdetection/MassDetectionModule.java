@@ -25,12 +25,12 @@ import javax.annotation.Nonnull;
 
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.modules.MZmineModuleCategory;
-import net.sf.mzmine.modules.MZmineProcessingModule;
+import net.sf.mzmine.modules.MZminePerFileProcessingModule;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.util.ExitCode;
 
-public class MassDetectionModule implements MZmineProcessingModule {
+public class MassDetectionModule implements MZminePerFileProcessingModule {
 
 	private static final String MODULE_NAME = "Mass detection";
 	private static final String MODULE_DESCRIPTION = "This module detects individual ions in each scan and builds a mass list for each scan.";
@@ -76,4 +76,9 @@ public class MassDetectionModule implements MZmineProcessingModule {
 		return MassDetectionParameters.class;
 	}
 
+	@Override
+	public boolean createsPeakListsFromRawData() {
+		return false;
+	}
+
 }
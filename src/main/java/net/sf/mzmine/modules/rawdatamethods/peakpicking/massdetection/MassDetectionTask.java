@@ -28,22 +28,25 @@ import net.sf.mzmine.data.impl.SimpleMassList;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.ParallelScanProcessor;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
 
 public class MassDetectionTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
-	private RawDataFile dataFile;
+	private final RawDataFile dataFile;
 
 	// scan counter
-	private int processedScans = 0, totalScans = 0;
+	private int totalScans = 0;
+	private ParallelScanProcessor<DataPoint[]> scanProcessor;
 	private int msLevel;
 
 	// User parameters
-	private String name;
+	private final String name;
 
 	// Mass detector
-	private MZmineProcessingStep<MassDetector> massDetector;
+	private final MZmineProcessingStep<MassDetector> massDetector;
 
 	/**
 	 * @param dataFile
@@ -76,10 +79,10 @@ public class MassDetectionTask extends AbstractTask {
 	 * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
 	 */
 	public double getFinishedPercentage() {
-		if (totalScans == 0)
+		if ((totalScans == 0) || (scanProcessor == null))
 			return 0;
 		else
-			return (double) processedScans / totalScans;
+			return (double) scanProcessor.getProcessedScans() / totalScans;
 	}
 
 	public RawDataFile getDataFile() {
@@ -98,26 +101,37 @@ public class MassDetectionTask extends AbstractTask {
 		int scanNumbers[] = dataFile.getScanNumbers(msLevel);
 		totalScans = scanNumbers.length;
 
-		// Process scans one by one
-		for (int i = 0; i < totalScans; i++) {
-
-			if (isCanceled())
-				return;
-
-			Scan scan = dataFile.getScan(scanNumbers[i]);
-
-			MassDetector detector = massDetector.getModule();
-			DataPoint mzPeaks[] = detector.getMassValues(scan,
-					massDetector.getParameterSet());
-
-			SimpleMassList newMassList = new SimpleMassList(name, scan, mzPeaks);
-
-			// Add new mass list to the scan
-			scan.addMassList(newMassList);
-
-			processedScans++;
+		// Detect the masses in parallel, adding the mass lists in scan order
+		scanProcessor = new ParallelScanProcessor<DataPoint[]>() {
+
+			protected DataPoint[] processScan(int scanNumber) {
+				Scan scan = dataFile.getScan(scanNumber);
+				MassDetector detector = massDetector.getModule();
+				return detector.getMassValues(scan,
+						massDetector.getParameterSet());
+			}
+
+			protected void storeResult(int scanNumber, DataPoint mzPeaks[]) {
+				Scan scan = dataFile.getScan(scanNumber);
+				SimpleMassList newMassList = new SimpleMassList(name, scan,
+						mzPeaks);
+
+				// Add new mass list to the scan
+				scan.addMassList(newMassList);
+			}
+		};
+
+		try {
+			scanProcessor.process(scanNumbers, this);
+		} catch (Exception e) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = ExceptionUtils.exceptionToString(e);
+			return;
 		}
 
+		if (isCanceled())
+			return;
+
 		setStatus(TaskStatus.FINISHED);
 
 		logger.info("Finished mass detector on " + dataFile);
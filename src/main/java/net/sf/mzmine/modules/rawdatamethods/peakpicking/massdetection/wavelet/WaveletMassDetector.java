@@ -19,8 +19,7 @@
 
 package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet;
 
-import java.util.TreeSet;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 
@@ -29,9 +28,6 @@ import net.sf.mzmine.data.Scan;
 import net.sf.mzmine.data.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetector;
 import net.sf.mzmine.parameters.ParameterSet;
-import net.sf.mzmine.util.DataPointSorter;
-import net.sf.mzmine.util.SortingDirection;
-import net.sf.mzmine.util.SortingProperty;
 
 /**
  * This class implements the Continuous Wavelet Transform (CWT), Mexican Hat,
@@ -49,6 +45,23 @@ public class WaveletMassDetector implements MassDetector {
 	private static final int WAVELET_ESL = -5;
 	private static final int WAVELET_ESR = 5;
 
+	/**
+	 * Wavelet kernels, one for each (scale level, wavelet window) setting,
+	 * shared by all threads
+	 */
+	private static final ConcurrentHashMap<KernelKey, double[]> kernels = new ConcurrentHashMap<KernelKey, double[]>();
+
+	/**
+	 * Working arrays (m/z, intensity and CWT values) of each thread, which
+	 * grow as needed
+	 */
+	private static final ThreadLocal<double[][]> threadBuffers = new ThreadLocal<double[][]>() {
+		@Override
+		protected double[][] initialValue() {
+			return new double[3][0];
+		}
+	};
+
 	public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
 		double noiseLevel = parameters.getParameter(
 				WaveletMassDetectorParameters.noiseLevel).getValue();
@@ -57,26 +70,44 @@ public class WaveletMassDetector implements MassDetector {
 		double waveletWindow = parameters.getParameter(
 				WaveletMassDetectorParameters.waveletWindow).getValue();
 
-		DataPoint originalDataPoints[] = scan.getDataPoints();
+		return getMassValues(scan, noiseLevel, scaleLevel, waveletWindow);
+	}
+
+	static DataPoint[] getMassValues(Scan scan, double noiseLevel,
+			int scaleLevel, double waveletWindow) {
+
+		double buffers[][] = threadBuffers.get();
+		int numOfDataPoints = scan.getNumberOfDataPoints();
+		if (buffers[0].length < numOfDataPoints) {
+			for (int i = 0; i < buffers.length; i++)
+				buffers[i] = new double[numOfDataPoints];
+		}
+		double mzValues[] = buffers[0];
+		double intensityValues[] = buffers[1];
+		double cwtValues[] = buffers[2];
+
+		int length = scan.getDataPoints(mzValues, intensityValues);
 
-		DataPoint waveletDataPoints[] = performCWT(originalDataPoints,
-				waveletWindow, scaleLevel);
+		performCWT(intensityValues, length, getKernel(scaleLevel, waveletWindow),
+				scaleLevel, cwtValues);
 
-		DataPoint mzPeaks[] = getMzPeaks(noiseLevel, originalDataPoints,
-				waveletDataPoints);
+		DataPoint mzPeaks[] = getMzPeaks(noiseLevel, mzValues,
+				intensityValues, cwtValues, length);
 
 		return mzPeaks;
 	}
 
 	/**
-	 * Perform the CWT over raw data points in the selected scale level
-	 * 
-	 * @param dataPoints
+	 * Returns the wavelet kernel for given scale level and wavelet window.
+	 * Element k of the kernel is the wavelet value applied to the data point
+	 * at distance (k - scaleLevel * WAVELET_ESR) from the translated center.
 	 */
-	private SimpleDataPoint[] performCWT(DataPoint[] dataPoints,
-			double waveletWindow, int scaleLevel) {
-		int length = dataPoints.length;
-		SimpleDataPoint[] cwtDataPoints = new SimpleDataPoint[length];
+	static double[] getKernel(int scaleLevel, double waveletWindow) {
+		KernelKey key = new KernelKey(scaleLevel, waveletWindow);
+		double kernel[] = kernels.get(key);
+		if (kernel != null)
+			return kernel;
+
 		double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
 		double[] W = new double[(int) NPOINTS];
 
@@ -87,13 +118,44 @@ public class WaveletMassDetector implements MassDetector {
 			waveletIndex += wstep;
 		}
 
+		// Sample the wavelet at the offsets used by the convolution
+		int d = (int) NPOINTS / (WAVELET_ESR - WAVELET_ESL);
+		int a_esl = scaleLevel * WAVELET_ESL;
+		int a_esr = scaleLevel * WAVELET_ESR;
+		kernel = new double[a_esr - a_esl + 1];
+		for (int offset = a_esl; offset <= a_esr; offset++) {
+			int ind = (int) (NPOINTS / 2) + (d * offset / scaleLevel);
+			if (ind < 0)
+				ind = 0;
+			if (ind >= NPOINTS)
+				ind = (int) NPOINTS - 1;
+			kernel[offset - a_esl] = W[ind];
+		}
+
+		double existing[] = kernels.putIfAbsent(key, kernel);
+		return (existing != null) ? existing : kernel;
+	}
+
+	/**
+	 * Perform the CWT over raw data points in the selected scale level. The
+	 * convolution skips zero intensities, so regions of the spectrum without
+	 * any signal cost only a comparison per data point.
+	 * 
+	 * @param intensityValues
+	 */
+	private static void performCWT(double intensityValues[], int length,
+			double kernel[], int scaleLevel, double cwtValues[]) {
+
 		/*
 		 * We only perform Translation of the wavelet in the selected scale
 		 */
-		int d = (int) NPOINTS / (WAVELET_ESR - WAVELET_ESL);
 		int a_esl = scaleLevel * WAVELET_ESL;
 		int a_esr = scaleLevel * WAVELET_ESR;
 		double sqrtScaleLevel = Math.sqrt(scaleLevel);
+
+		// First non-zero data point at or after the left wavelet boundary
+		int firstNonZero = 0;
+
 		for (int dx = 0; dx < length; dx++) {
 
 			/* Compute wavelet boundaries */
@@ -104,26 +166,26 @@ public class WaveletMassDetector implements MassDetector {
 			if (t2 >= length)
 				t2 = (length - 1);
 
+			if (firstNonZero < t1)
+				firstNonZero = t1;
+			while ((firstNonZero <= t2) && (intensityValues[firstNonZero] == 0))
+				firstNonZero++;
+
 			/* Perform convolution */
 			double intensity = 0.0;
-			for (int i = t1; i <= t2; i++) {
-				int ind = (int) (NPOINTS / 2)
-						- (((int) d * (i - dx) / scaleLevel) * (-1));
-				if (ind < 0)
-					ind = 0;
-				if (ind >= NPOINTS)
-					ind = (int) NPOINTS - 1;
-				intensity += dataPoints[i].getIntensity() * W[ind];
+			int kernelShift = -a_esl - dx;
+			for (int i = firstNonZero; i <= t2; i++) {
+				if (intensityValues[i] == 0)
+					continue;
+				intensity += intensityValues[i] * kernel[i + kernelShift];
 			}
 			intensity /= sqrtScaleLevel;
 			// Eliminate the negative part of the wavelet map
 			if (intensity < 0)
 				intensity = 0;
-			cwtDataPoints[dx] = new SimpleDataPoint(dataPoints[dx].getMZ(),
-					(double) intensity);
+			cwtValues[dx] = intensity;
 		}
 
-		return cwtDataPoints;
 	}
 
 	/**
@@ -133,7 +195,7 @@ public class WaveletMassDetector implements MassDetector {
 	 * @param double a Window Width of the wavelet
 	 * @param double b Offset from the center of the peak
 	 */
-	private double cwtMEXHATreal(double x, double a, double b) {
+	private static double cwtMEXHATreal(double x, double a, double b) {
 		/* c = 2 / ( sqrt(3) * pi^(1/4) ) */
 		double c = 0.8673250705840776;
 		double TINY = 1E-200;
@@ -147,23 +209,21 @@ public class WaveletMassDetector implements MassDetector {
 	}
 
 	/**
-	 * This function searches for maximums from wavelet data points
+	 * This function searches for maximums from wavelet data points. The m/z
+	 * values are sorted, so the peaks are found in m/z order.
 	 */
-	private DataPoint[] getMzPeaks(double noiseLevel,
-			DataPoint[] originalDataPoints, DataPoint[] waveletDataPoints) {
+	private static DataPoint[] getMzPeaks(double noiseLevel, double mzValues[],
+			double intensityValues[], double cwtValues[], int length) {
 
-		TreeSet<DataPoint> mzPeaks = new TreeSet<DataPoint>(
-				new DataPointSorter(SortingProperty.MZ,
-						SortingDirection.Ascending));
+		DataPoint mzPeaks[] = new DataPoint[16];
+		int numOfPeaks = 0;
 
-		Vector<DataPoint> rawDataPoints = new Vector<DataPoint>();
 		int peakMaxInd = 0;
-		int stopInd = waveletDataPoints.length - 1;
+		int stopInd = length - 1;
 
 		for (int ind = 0; ind <= stopInd; ind++) {
 
-			while ((ind <= stopInd)
-					&& (waveletDataPoints[ind].getIntensity() == 0)) {
+			while ((ind <= stopInd) && (cwtValues[ind] == 0)) {
 				ind++;
 			}
 			peakMaxInd = ind;
@@ -171,15 +231,16 @@ public class WaveletMassDetector implements MassDetector {
 				break;
 			}
 
-			// While peak is on
-			while ((ind <= stopInd)
-					&& (waveletDataPoints[ind].getIntensity() > 0)) {
+			// While peak is on, find the highest wavelet value and the highest
+			// raw intensity of the peak
+			double aproxIntensity = 0;
+			while ((ind <= stopInd) && (cwtValues[ind] > 0)) {
 				// Check if this is the maximum point of the peak
-				if (waveletDataPoints[ind].getIntensity() > waveletDataPoints[peakMaxInd]
-						.getIntensity()) {
+				if (cwtValues[ind] > cwtValues[peakMaxInd]) {
 					peakMaxInd = ind;
 				}
-				rawDataPoints.add(originalDataPoints[ind]);
+				if (intensityValues[ind] > aproxIntensity)
+					aproxIntensity = intensityValues[ind];
 				ind++;
 			}
 
@@ -187,34 +248,32 @@ public class WaveletMassDetector implements MassDetector {
 				break;
 			}
 
-			rawDataPoints.add(originalDataPoints[ind]);
+			if (intensityValues[ind] > aproxIntensity)
+				aproxIntensity = intensityValues[ind];
 
-			if (originalDataPoints[peakMaxInd].getIntensity() > noiseLevel) {
-				SimpleDataPoint peakDataPoint = new SimpleDataPoint(
-						originalDataPoints[peakMaxInd].getMZ(),
-						calcAproxIntensity(rawDataPoints));
+			if (intensityValues[peakMaxInd] > noiseLevel) {
+				double mz = mzValues[peakMaxInd];
 
-				mzPeaks.add(peakDataPoint);
+				// Skip duplicate peaks
+				if ((numOfPeaks > 0) && (mzPeaks[numOfPeaks - 1].getMZ() == mz)
+						&& (mzPeaks[numOfPeaks - 1].getIntensity() == aproxIntensity))
+					continue;
 
+				if (numOfPeaks == mzPeaks.length) {
+					DataPoint newPeaks[] = new DataPoint[numOfPeaks * 2];
+					System.arraycopy(mzPeaks, 0, newPeaks, 0, numOfPeaks);
+					mzPeaks = newPeaks;
+				}
+				mzPeaks[numOfPeaks++] = new SimpleDataPoint(mz, aproxIntensity);
 			}
-			rawDataPoints.clear();
 		}
 
-		return mzPeaks.toArray(new DataPoint[0]);
+		DataPoint result[] = new DataPoint[numOfPeaks];
+		System.arraycopy(mzPeaks, 0, result, 0, numOfPeaks);
+		return result;
 
 	}
 
-	private double calcAproxIntensity(Vector<DataPoint> rawDataPoints) {
-
-		double aproxIntensity = 0;
-
-		for (DataPoint d : rawDataPoints) {
-			if (d.getIntensity() > aproxIntensity)
-				aproxIntensity = d.getIntensity();
-		}
-		return aproxIntensity;
-	}
-
 	@Override
 	public @Nonnull
 	String getName() {
@@ -227,4 +286,34 @@ public class WaveletMassDetector implements MassDetector {
 		return WaveletMassDetectorParameters.class;
 	}
 
+	/**
+	 * Key of the kernel cache
+	 */
+	private static final class KernelKey {
+
+		private final int scaleLevel;
+		private final double waveletWindow;
+
+		KernelKey(int scaleLevel, double waveletWindow) {
+			this.scaleLevel = scaleLevel;
+			this.waveletWindow = waveletWindow;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof KernelKey))
+				return false;
+			KernelKey other = (KernelKey) o;
+			return (scaleLevel == other.scaleLevel)
+					&& (Double.compare(waveletWindow, other.waveletWindow) == 0);
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(waveletWindow);
+			return 31 * scaleLevel + (int) (bits ^ (bits >>> 32));
+		}
+
+	}
+
 }
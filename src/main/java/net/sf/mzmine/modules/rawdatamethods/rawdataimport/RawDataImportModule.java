@@ -102,10 +102,10 @@ public class RawDataImportModule
 			newTask = new MzDataReadTask(fileName, newMZmineFile);
 		}
 		if (extension.endsWith("mzxml")) {
-			newTask = new MzXMLReadTask(fileName, newMZmineFile);
+			newTask = new IndexedMzXMLReadTask(fileName, newMZmineFile);
 		}
 		if (extension.endsWith("mzml")) {
-			newTask = new MzMLReadTask(fileName, newMZmineFile);
+			newTask = new IndexedMzMLReadTask(fileName, newMZmineFile);
 		}
 		if (extension.endsWith("cdf")) {
 			newTask = new NetCDFReadTask(fileName, newMZmineFile);
@@ -124,13 +124,15 @@ public class RawDataImportModule
 				reader.close();
 				String fileHeader = new String(buffer);
 				if (fileHeader.contains("mzXML")) {
-					newTask = new MzXMLReadTask(fileName, newMZmineFile);
+					newTask = new IndexedMzXMLReadTask(fileName,
+							newMZmineFile);
 				}
 				if (fileHeader.contains("mzData")) {
 					newTask = new MzDataReadTask(fileName, newMZmineFile);
 				}
 				if (fileHeader.contains("mzML")) {
-					newTask = new MzMLReadTask(fileName, newMZmineFile);
+					newTask = new IndexedMzMLReadTask(fileName,
+							newMZmineFile);
 				}
 			} catch (Exception e) {
 				logger.warning("Cannot read file " + fileName + ": " + e);
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sf.mzmine.data.RawDataFileWriter;
+import net.sf.mzmine.data.impl.SimpleScan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.Task;
+
+/**
+ * This class reads indexed and non-indexed mzML files, decoding the spectra in
+ * parallel. Scan numbers and parent scans are assigned the same way as in
+ * MzMLReadTask.
+ */
+public class IndexedMzMLReadTask extends IndexedXMLReadTask {
+
+	private static final Pattern SCAN_NUMBER_PATTERN = Pattern
+			.compile("scan=([0-9]+)");
+
+	private Map<String, List<MzMLSpectrumParser.CVParam>> paramGroups;
+
+	private int lastScanNumber = 0;
+
+	private Map<String, Integer> scanIdTable = new Hashtable<String, Integer>();
+
+	/*
+	 * This stack stores at most 20 consecutive scans. This window serves to
+	 * find possible fragments (current scan) that belongs to any of the stored
+	 * scans in the stack. The reason of the size follows the concept of
+	 * neighborhood of scans and all his fragments. These solution is
+	 * implemented because exists the possibility to find fragments of one scan
+	 * after one or more full scans.
+	 */
+	private static final int PARENT_STACK_SIZE = 20;
+	private LinkedList<SimpleScan> parentStack = new LinkedList<SimpleScan>();
+
+	public IndexedMzMLReadTask(File fileToOpen, RawDataFileWriter newMZmineFile) {
+		super(fileToOpen, newMZmineFile);
+	}
+
+	String getFormatName() {
+		return "mzML";
+	}
+
+	String getScanElementName() {
+		return "spectrum";
+	}
+
+	void readHeader(FileChannel channel, long headerEnd) throws Exception {
+		ByteBuffer header = ByteBuffer.allocate((int) headerEnd);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0)
+				break;
+		}
+		paramGroups = MzMLSpectrumParser.readParamGroups(header.array(),
+				header.position());
+	}
+
+	ScanFragmentParser createParser() throws Exception {
+		return new MzMLSpectrumParser(paramGroups);
+	}
+
+	/**
+	 * Spectra which are not supported by MzMLSpectrumParser, such as integer
+	 * or Numpress compressed data arrays, are read by jmzml
+	 */
+	Task createFallbackTask() throws IOException {
+		return new MzMLReadTask(file, MZmineCore.createNewFile(file.getName()));
+	}
+
+	void addParsedScan(ParsedScan parsedScan) throws Exception {
+
+		int scanNumber = convertScanIdToScanNumber(parsedScan.scanId);
+
+		// Get parent scan number
+		int parentScan = -1;
+		if (parsedScan.parentScanId != null)
+			parentScan = convertScanIdToScanNumber(parsedScan.parentScanId);
+
+		SimpleScan scan = new SimpleScan(null, scanNumber, parsedScan.msLevel,
+				parsedScan.retentionTime, parentScan, parsedScan.precursorMz,
+				parsedScan.precursorCharge, null, parsedScan.dataPoints,
+				parsedScan.centroided);
+
+		for (SimpleScan s : parentStack) {
+			if (s.getScanNumber() == parentScan) {
+				s.addFragmentScan(scanNumber);
+			}
+		}
+
+		/*
+		 * Verify the size of parentStack. The actual size of the window to
+		 * cover possible candidates is defined by limitSize.
+		 */
+		if (parentStack.size() > PARENT_STACK_SIZE) {
+			SimpleScan firstScan = parentStack.removeLast();
+			newMZmineFile.addScan(firstScan);
+		}
+
+		parentStack.addFirst(scan);
+
+		scanAdded();
+
+	}
+
+	void finishScans() throws Exception {
+		while (!parentStack.isEmpty()) {
+			SimpleScan scan = parentStack.removeLast();
+			newMZmineFile.addScan(scan);
+		}
+	}
+
+	private int convertScanIdToScanNumber(String scanId) {
+
+		if (scanIdTable.containsKey(scanId))
+			return scanIdTable.get(scanId);
+
+		final Matcher matcher = SCAN_NUMBER_PATTERN.matcher(scanId);
+		boolean scanNumberFound = matcher.find();
+
+		// Some vendors include scan=XX in the ID, some don't, such as
+		// mzML converted from WIFF files. See the definition of nativeID in
+		// http://psidev.cvs.sourceforge.net/viewvc/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo
+		if (scanNumberFound) {
+			int scanNumber = Integer.parseInt(matcher.group(1));
+			scanIdTable.put(scanId, scanNumber);
+			return scanNumber;
+		}
+
+		int scanNumber = lastScanNumber + 1;
+		lastScanNumber++;
+		scanIdTable.put(scanId, scanNumber);
+		return scanNumber;
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.File;
+import java.util.LinkedList;
+
+import net.sf.mzmine.data.RawDataFileWriter;
+import net.sf.mzmine.data.impl.SimpleScan;
+
+/**
+ * This class reads indexed and non-indexed mzXML files, decoding the scans in
+ * parallel. Parent and fragment scans are linked the same way as in
+ * MzXMLReadTask.
+ */
+public class IndexedMzXMLReadTask extends IndexedXMLReadTask {
+
+	/*
+	 * This variables are used to set the number of fragments that one single
+	 * scan can have. The initial size of array is set to 10, but it depends of
+	 * fragmentation level.
+	 */
+	private int parentTreeValue[] = new int[10];
+	private int msLevelTree = 0;
+
+	/*
+	 * This stack stores the current scan and all his fragments until all the
+	 * information is recover. The logic is FIFO at the moment of write into the
+	 * RawDataFile
+	 */
+	private LinkedList<SimpleScan> parentStack = new LinkedList<SimpleScan>();
+
+	/*
+	 * This variable hold the present scan or fragment, it is send to the stack
+	 * when another scan/fragment starts
+	 */
+	private SimpleScan buildingScan;
+
+	public IndexedMzXMLReadTask(File fileToOpen,
+			RawDataFileWriter newMZmineFile) {
+		super(fileToOpen, newMZmineFile);
+	}
+
+	String getFormatName() {
+		return "mzXML";
+	}
+
+	String getScanElementName() {
+		return "scan";
+	}
+
+	ScanFragmentParser createParser() throws Exception {
+		return new MzXMLScanParser();
+	}
+
+	void addParsedScan(ParsedScan parsedScan) throws Exception {
+
+		if (buildingScan != null) {
+			parentStack.addFirst(buildingScan);
+			buildingScan = null;
+		}
+
+		int scanNumber = parsedScan.scanNumber;
+		int msLevel = parsedScan.msLevel;
+		int parentScan = -1;
+
+		if (msLevel > 1) {
+			parentScan = parentTreeValue[msLevel - 1];
+			for (SimpleScan p : parentStack) {
+				if (p.getScanNumber() == parentScan) {
+					p.addFragmentScan(scanNumber);
+				}
+			}
+		}
+
+		// Setting the level of fragment of scan and parent scan number
+		msLevelTree++;
+		parentTreeValue[msLevel] = scanNumber;
+
+		buildingScan = new SimpleScan(null, scanNumber, msLevel,
+				parsedScan.retentionTime, parentScan, parsedScan.precursorMz,
+				parsedScan.precursorCharge, null, parsedScan.dataPoints,
+				parsedScan.centroided);
+
+		for (int i = 0; i < parsedScan.numOfClosedScans; i++)
+			closeScan();
+
+	}
+
+	void finishScans() {
+	}
+
+	/**
+	 * Processes the end of a scan element
+	 */
+	private void closeScan() throws Exception {
+
+		msLevelTree--;
+
+		/*
+		 * At this point we verify if the scan and his fragments are closed, so
+		 * we include the present scan/fragment into the stack and start to
+		 * take elements from them (FIFO) for the RawDataFile.
+		 */
+		if (msLevelTree == 0) {
+			parentStack.addFirst(buildingScan);
+			buildingScan = null;
+			while (!parentStack.isEmpty()) {
+				SimpleScan currentScan = parentStack.removeLast();
+				newMZmineFile.addScan(currentScan);
+				scanAdded();
+			}
+		}
+
+	}
+
+}
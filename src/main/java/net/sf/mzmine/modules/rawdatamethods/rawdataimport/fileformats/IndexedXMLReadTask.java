@@ -0,0 +1,332 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.RawDataFileWriter;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
+
+/**
+ * Base class of XML raw data file readers which locate the scans using the
+ * scan index and decode them in parallel. Each scan is parsed from its own
+ * fragment of the file, and the parsed scans are passed to addParsedScan() in
+ * the order of the file, so that parent and fragment scans can be linked the
+ * same way as by a sequential reader.
+ */
+public abstract class IndexedXMLReadTask extends AbstractTask {
+
+	// Number of scans parsed by one job
+	private static final int SCANS_PER_JOB = 32;
+
+	// Number of jobs per thread which may be queued ahead of the consumer
+	private static final int JOBS_AHEAD_PER_THREAD = 4;
+
+	protected Logger logger = Logger.getLogger(this.getClass().getName());
+
+	protected final File file;
+	protected final RawDataFileWriter newMZmineFile;
+	private RawDataFile finalRawDataFile;
+	private int totalScans = 0, parsedScans;
+
+	// Sequential reader used after the indexed reading failed
+	private volatile Task fallbackTask;
+
+	// Parsers which are not used by any job at the moment
+	private final ConcurrentLinkedQueue<ScanFragmentParser> parserPool = new ConcurrentLinkedQueue<ScanFragmentParser>();
+
+	protected IndexedXMLReadTask(File fileToOpen,
+			RawDataFileWriter newMZmineFile) {
+		this.file = fileToOpen;
+		this.newMZmineFile = newMZmineFile;
+	}
+
+	/**
+	 * Returns the name of the format for messages
+	 */
+	abstract String getFormatName();
+
+	/**
+	 * Returns the name of the scan elements
+	 */
+	abstract String getScanElementName();
+
+	/**
+	 * Reads the part of the file before the first scan, if needed
+	 */
+	void readHeader(FileChannel channel, long headerEnd) throws Exception {
+	}
+
+	/**
+	 * Creates a new scan parser, called by the parsing threads
+	 */
+	abstract ScanFragmentParser createParser() throws Exception;
+
+	/**
+	 * Processes the parsed scan, called in the order of the file
+	 */
+	abstract void addParsedScan(ParsedScan scan) throws Exception;
+
+	/**
+	 * Writes the remaining scans to the raw data file
+	 */
+	abstract void finishScans() throws Exception;
+
+	/**
+	 * Creates a sequential reader of the file, which writes a new raw data
+	 * file, or returns null if the format has none. The sequential reader is
+	 * run when the file cannot be read by the indexed reader.
+	 */
+	Task createFallbackTask() throws IOException {
+		return null;
+	}
+
+	/**
+	 * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
+	 */
+	public double getFinishedPercentage() {
+		Task fallback = fallbackTask;
+		if (fallback != null)
+			return fallback.getFinishedPercentage();
+		return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
+	}
+
+	/**
+	 * @see net.sf.mzmine.taskcontrol.Task#cancel()
+	 */
+	public void cancel() {
+		super.cancel();
+		Task fallback = fallbackTask;
+		if (fallback != null)
+			fallback.cancel();
+	}
+
+	/**
+	 * Increments the number of scans written to the raw data file
+	 */
+	protected void scanAdded() {
+		parsedScans++;
+	}
+
+	/**
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+
+		setStatus(TaskStatus.PROCESSING);
+		logger.info("Started parsing file " + file);
+
+		long startTime = System.currentTimeMillis();
+
+		RandomAccessFile dataFile = null;
+
+		// Jobs are consumed in the order of submission, while only a limited
+		// number of parsed scans is kept in memory
+		LinkedList<Future<ParsedScan[]>> jobs = new LinkedList<Future<ParsedScan[]>>();
+		Throwable error = null;
+
+		try {
+
+			dataFile = new RandomAccessFile(file, "r");
+			final FileChannel channel = dataFile.getChannel();
+
+			final long offsets[] = ScanOffsetIndex.getScanOffsets(channel,
+					getScanElementName());
+			totalScans = offsets.length - 1;
+
+			if (totalScans > 0)
+				readHeader(channel, offsets[0]);
+
+			int numOfThreads = MZmineCore.getConfiguration().getPreferences()
+					.getParameter(MZminePreferences.numOfThreads)
+					.getNumOfThreads();
+			ExecutorService executor = MZmineCore.getParallelExecutor();
+			int maxJobs = numOfThreads * JOBS_AHEAD_PER_THREAD;
+			int nextScan = 0;
+
+			while ((nextScan < totalScans) || (!jobs.isEmpty())) {
+
+				if (isCanceled())
+					return;
+
+				while ((nextScan < totalScans) && (jobs.size() < maxJobs)) {
+					final int first = nextScan;
+					final int last = Math.min(first + SCANS_PER_JOB,
+							totalScans);
+					jobs.add(executor.submit(new Callable<ParsedScan[]>() {
+						public ParsedScan[] call() throws Exception {
+							return parseScans(channel, offsets, first, last);
+						}
+					}));
+					nextScan = last;
+				}
+
+				ParsedScan parsedJob[];
+				try {
+					parsedJob = jobs.removeFirst().get();
+				} catch (ExecutionException e) {
+					throw e.getCause();
+				}
+				if (isCanceled())
+					return;
+				for (ParsedScan scan : parsedJob)
+					addParsedScan(scan);
+
+			}
+
+			finishScans();
+
+			// Close file
+			finalRawDataFile = newMZmineFile.finishWriting();
+
+		} catch (Throwable e) {
+			error = e;
+		} finally {
+			for (Future<ParsedScan[]> job : jobs)
+				job.cancel(false);
+			if (dataFile != null) {
+				try {
+					dataFile.close();
+				} catch (IOException e) {
+					logger.warning("Could not close file " + file + ": " + e);
+				}
+			}
+		}
+
+		if (error != null) {
+			/* we may already have set the status to CANCELED */
+			if (getStatus() == TaskStatus.PROCESSING) {
+				if (runFallbackTask(error))
+					return;
+				setStatus(TaskStatus.ERROR);
+				errorMessage = "Error parsing " + getFormatName() + ": "
+						+ ExceptionUtils.exceptionToString(error);
+			}
+			return;
+		}
+
+		if (parsedScans == 0) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = "No scans found";
+			return;
+		}
+
+		logger.info("Finished parsing " + file + ", parsed " + parsedScans
+				+ " scans"
+				+ RawDataFileReadingUtils.formatThroughput(file, parsedScans,
+						System.currentTimeMillis() - startTime));
+		setStatus(TaskStatus.FINISHED);
+
+	}
+
+	/**
+	 * Reads the file with the sequential reader, if there is one, and takes
+	 * over its result. The partially written raw data file is discarded.
+	 */
+	private boolean runFallbackTask(Throwable error) {
+
+		Task fallback;
+		try {
+			fallback = createFallbackTask();
+		} catch (IOException e) {
+			logger.warning("Could not create a new temporary file: " + e);
+			return false;
+		}
+		if (fallback == null)
+			return false;
+
+		logger.warning("Could not read " + file + " with the indexed "
+				+ getFormatName() + " reader (" + error + "), reading it with "
+				+ fallback.getClass().getSimpleName());
+
+		if (newMZmineFile instanceof RawDataFile)
+			((RawDataFile) newMZmineFile).close();
+
+		fallbackTask = fallback;
+		if (isCanceled())
+			return true;
+		fallback.run();
+		if (isCanceled())
+			return true;
+
+		switch (fallback.getStatus()) {
+			case FINISHED :
+				finalRawDataFile = (RawDataFile) fallback.getCreatedObjects()[0];
+				setStatus(TaskStatus.FINISHED);
+				break;
+			case ERROR :
+				errorMessage = fallback.getErrorMessage();
+				setStatus(TaskStatus.ERROR);
+				break;
+			default :
+				break;
+		}
+		return true;
+
+	}
+
+	/**
+	 * Parses the scans between first (inclusive) and last (exclusive)
+	 */
+	private ParsedScan[] parseScans(FileChannel channel, long offsets[],
+			int first, int last) throws Exception {
+
+		ScanFragmentParser parser = parserPool.poll();
+		if (parser == null)
+			parser = createParser();
+
+		ParsedScan scans[] = new ParsedScan[last - first];
+		for (int i = first; i < last; i++) {
+			if (isCanceled())
+				break;
+			scans[i - first] = parser.parse(channel, offsets[i],
+					offsets[i + 1]);
+		}
+
+		parserPool.add(parser);
+		return scans;
+
+	}
+
+	public String getTaskDescription() {
+		return "Opening file " + file;
+	}
+
+	public Object[] getCreatedObjects() {
+		return new Object[]{finalRawDataFile};
+	}
+
+}
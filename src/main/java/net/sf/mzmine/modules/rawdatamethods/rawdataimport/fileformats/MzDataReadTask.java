@@ -21,7 +21,6 @@ package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.LinkedList;
 import java.util.logging.Logger;
@@ -32,14 +31,13 @@ import javax.xml.parsers.SAXParserFactory;
 import net.sf.mzmine.data.DataPoint;
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.data.RawDataFileWriter;
-import net.sf.mzmine.data.impl.SimpleDataPoint;
 import net.sf.mzmine.data.impl.SimpleScan;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.BinaryArrayDecoder;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ScanUtils;
 
-import org.apache.axis.encoding.Base64;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -56,7 +54,8 @@ public class MzDataReadTask extends AbstractTask {
 	private RawDataFile finalRawDataFile;
 	private int totalScans = 0, parsedScans;
 	private int peaksCount = 0;
-	private StringBuilder charBuffer;
+	private BinaryArrayDecoder dataDecoder;
+	private boolean dataFlag = false;
 	private boolean precursorFlag = false;
 	private boolean spectrumInstrumentFlag = false;
 	private boolean mzArrayBinaryFlag = false;
@@ -74,8 +73,8 @@ public class MzDataReadTask extends AbstractTask {
 	 * The information of "m/z" & "int" is content in two arrays because the
 	 * mzData standard manages this information in two different tags.
 	 */
-	private double[] mzDataPoints;
-	private double[] intensityDataPoints;
+	private double[] mzDataPoints = new double[0];
+	private double[] intensityDataPoints = new double[0];
 
 	/*
 	 * This variable hold the current scan or fragment, it is send to the stack
@@ -99,8 +98,7 @@ public class MzDataReadTask extends AbstractTask {
 	private LinkedList<SimpleScan> parentStack;
 
 	public MzDataReadTask(File fileToOpen, RawDataFileWriter newMZmineFile) {
-		// 256 kilo-chars buffer
-		charBuffer = new StringBuilder(1 << 18);
+		dataDecoder = new BinaryArrayDecoder();
 		parentStack = new LinkedList<SimpleScan>();
 		this.file = fileToOpen;
 		this.newMZmineFile = newMZmineFile;
@@ -121,6 +119,8 @@ public class MzDataReadTask extends AbstractTask {
 		setStatus(TaskStatus.PROCESSING);
 		logger.info("Started parsing file " + file);
 
+		long startTime = System.currentTimeMillis();
+
 		// Use the default (non-validating) parser
 		SAXParserFactory factory = SAXParserFactory.newInstance();
 
@@ -148,7 +148,9 @@ public class MzDataReadTask extends AbstractTask {
 		}
 
 		logger.info("Finished parsing " + file + ", parsed " + parsedScans
-				+ " of " + totalScans + " scans");
+				+ " of " + totalScans + " scans"
+				+ RawDataFileReadingUtils.formatThroughput(file, parsedScans,
+						System.currentTimeMillis() - startTime));
 		setStatus(TaskStatus.FINISHED);
 
 	}
@@ -240,8 +242,9 @@ public class MzDataReadTask extends AbstractTask {
 
 			// <data>
 			if (qName.equalsIgnoreCase("data")) {
-				// clean the current char buffer for the new element
-				charBuffer.setLength(0);
+				// the binary data is decoded as it is received
+				dataDecoder.reset();
+				dataFlag = mzArrayBinaryFlag || intenArrayBinaryFlag;
 				if (mzArrayBinaryFlag) {
 					endian = attrs.getValue("endian");
 					precision = attrs.getValue("precision");
@@ -291,22 +294,16 @@ public class MzDataReadTask extends AbstractTask {
 			// <spectrum>
 			if (qName.equalsIgnoreCase("spectrum")) {
 
-				DataPoint completeDataPoints[] = new DataPoint[peaksCount];
 				spectrumInstrumentFlag = false;
 
-				// Copy m/z and intensity data
-				for (int i = 0; i < completeDataPoints.length; i++) {
-					completeDataPoints[i] = new SimpleDataPoint(
-							(double) mzDataPoints[i],
-							(double) intensityDataPoints[i]);
-				}
-
 				// Auto-detect whether this scan is centroided
-				boolean centroided = ScanUtils.isCentroided(completeDataPoints);
+				boolean centroided = ScanUtils.isCentroided(mzDataPoints,
+						intensityDataPoints, peaksCount);
 
 				// Remove zero data points
 				DataPoint optimizedDataPoints[] = ScanUtils
-						.removeZeroDataPoints(completeDataPoints, centroided);
+						.createNonZeroDataPoints(mzDataPoints,
+								intensityDataPoints, peaksCount, centroided);
 
 				buildingScan = new SimpleScan(null, scanNumber, msLevel,
 						retentionTime, parentScan, precursorMz,
@@ -347,54 +344,50 @@ public class MzDataReadTask extends AbstractTask {
 			if (qName.equalsIgnoreCase("mzArrayBinary")) {
 
 				mzArrayBinaryFlag = false;
-				mzDataPoints = new double[peaksCount];
-
-				byte[] peakBytes = Base64.decode(charBuffer.toString());
-
-				ByteBuffer currentMzBytes = ByteBuffer.wrap(peakBytes);
-
-				if (endian.equals("big")) {
-					currentMzBytes = currentMzBytes.order(ByteOrder.BIG_ENDIAN);
-				} else {
-					currentMzBytes = currentMzBytes
-							.order(ByteOrder.LITTLE_ENDIAN);
-				}
-
-				for (int i = 0; i < mzDataPoints.length; i++) {
-					if (precision == null || precision.equals("32"))
-						mzDataPoints[i] = (double) currentMzBytes.getFloat();
-					else
-						mzDataPoints[i] = currentMzBytes.getDouble();
-				}
+				mzDataPoints = decodeDataArray(mzDataPoints);
 			}
 
 			// <intenArrayBinary>
 			if (qName.equalsIgnoreCase("intenArrayBinary")) {
 
 				intenArrayBinaryFlag = false;
-				intensityDataPoints = new double[peaksCount];
-
-				byte[] peakBytes = Base64.decode(charBuffer.toString());
-
-				ByteBuffer currentIntensityBytes = ByteBuffer.wrap(peakBytes);
+				intensityDataPoints = decodeDataArray(intensityDataPoints);
+			}
+		}
 
-				if (endian.equals("big")) {
-					currentIntensityBytes = currentIntensityBytes
-							.order(ByteOrder.BIG_ENDIAN);
-				} else {
-					currentIntensityBytes = currentIntensityBytes
-							.order(ByteOrder.LITTLE_ENDIAN);
-				}
+		/**
+		 * Decodes the data of the last binary array into the given buffer, or
+		 * a new one if the buffer is too small, and returns the buffer
+		 */
+		private double[] decodeDataArray(double buffer[]) throws SAXException {
+
+			dataFlag = false;
+
+			ByteOrder byteOrder = "big".equals(endian)
+					? ByteOrder.BIG_ENDIAN
+					: ByteOrder.LITTLE_ENDIAN;
+			boolean doublePrecision = (precision != null)
+					&& !precision.equals("32");
+
+			int numOfValues;
+			try {
+				numOfValues = dataDecoder.decode(false, doublePrecision,
+						byteOrder);
+			} catch (IOException e) {
+				// Should not happen, the data is not compressed
+				throw new SAXException(e);
+			}
 
-				for (int i = 0; i < intensityDataPoints.length; i++) {
-					if (precision == null || precision.equals("32"))
-						intensityDataPoints[i] = (double) currentIntensityBytes
-								.getFloat();
-					else
-						intensityDataPoints[i] = currentIntensityBytes
-								.getDouble();
-				}
+			if (numOfValues < peaksCount) {
+				setStatus(TaskStatus.ERROR);
+				errorMessage = "Corrupt mzData file";
+				throw new SAXException("Parsing Cancelled");
 			}
+
+			if (buffer.length < numOfValues)
+				buffer = new double[numOfValues];
+			dataDecoder.getValues(buffer);
+			return buffer;
 		}
 
 		/**
@@ -404,7 +397,8 @@ public class MzDataReadTask extends AbstractTask {
 		 */
 		public void characters(char buf[], int offset, int len)
 				throws SAXException {
-			charBuffer.append(buf, offset, len);
+			if (dataFlag)
+				dataDecoder.append(buf, offset, len);
 		}
 
 		public void endDocument() throws SAXException {
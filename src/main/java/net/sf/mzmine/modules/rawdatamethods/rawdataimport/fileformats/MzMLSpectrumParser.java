@@ -0,0 +1,338 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Parser of a single mzML spectrum element. Only the parameters which are
+ * used by MZmine are read: MS level, retention time, precursor and the m/z and
+ * intensity arrays.
+ */
+class MzMLSpectrumParser extends ScanFragmentParser {
+
+	/**
+	 * Controlled vocabulary parameter
+	 */
+	static class CVParam {
+		final String accession, value, unitAccession;
+
+		CVParam(String accession, String value, String unitAccession) {
+			this.accession = accession;
+			this.value = value;
+			this.unitAccession = unitAccession;
+		}
+	}
+
+	// Parameters of referenceable parameter groups, shared by all parsers
+	private final Map<String, List<CVParam>> paramGroups;
+
+	// Position in the spectrum element
+	private int depth;
+	private boolean scanFlag, precursorFlag, selectedIonFlag,
+			binaryDataArrayFlag;
+	private int numOfPrecursors, numOfBinaryDataArrays;
+	private boolean retentionTimeFound, precursorMzFound,
+			precursorChargeFound;
+
+	// Description of the current binary data array
+	private boolean compressFlag, doublePrecision, integerData;
+	private int arrayType;
+	private static final int UNKNOWN_ARRAY = 0, MZ_ARRAY = 1,
+			INTENSITY_ARRAY = 2;
+
+	private int numOfMzValues, numOfIntensityValues;
+
+	MzMLSpectrumParser(Map<String, List<CVParam>> paramGroups)
+			throws ParserConfigurationException, SAXException {
+		this.paramGroups = paramGroups;
+	}
+
+	ParsedScan parse(byte data[], int length) throws IOException,
+			SAXException {
+		depth = 0;
+		scanFlag = precursorFlag = selectedIonFlag = binaryDataArrayFlag = false;
+		numOfPrecursors = numOfBinaryDataArrays = 0;
+		retentionTimeFound = precursorMzFound = precursorChargeFound = false;
+		numOfMzValues = numOfIntensityValues = 0;
+		return super.parse(data, length);
+	}
+
+	public void startElement(String namespaceURI, String lName, String qName,
+			Attributes attrs) throws SAXException {
+
+		depth++;
+
+		if (qName.equals("spectrum")) {
+			parsedScan.scanId = attrs.getValue("id");
+			parsedScan.parentScanId = null;
+			return;
+		}
+
+		if (qName.equals("cvParam")) {
+			processCVParam(new CVParam(attrs.getValue("accession"),
+					attrs.getValue("value"), attrs.getValue("unitAccession")));
+			return;
+		}
+
+		if (qName.equals("referenceableParamGroupRef")) {
+			List<CVParam> params = paramGroups.get(attrs.getValue("ref"));
+			if (params == null)
+				throw new SAXException("Unknown referenceable param group "
+						+ attrs.getValue("ref"));
+			for (CVParam param : params)
+				processCVParam(param);
+			return;
+		}
+
+		if (qName.equals("scan")) {
+			scanFlag = true;
+			return;
+		}
+
+		if (qName.equals("precursor")) {
+			numOfPrecursors++;
+			precursorFlag = (numOfPrecursors == 1);
+			if (precursorFlag)
+				parsedScan.parentScanId = attrs.getValue("spectrumRef");
+			return;
+		}
+
+		if (qName.equals("selectedIon")) {
+			selectedIonFlag = true;
+			return;
+		}
+
+		if (qName.equals("binaryDataArray")) {
+			binaryDataArrayFlag = true;
+			compressFlag = false;
+			doublePrecision = true;
+			integerData = false;
+			arrayType = UNKNOWN_ARRAY;
+			return;
+		}
+
+		if (qName.equals("binary")) {
+			startBinaryData();
+			return;
+		}
+
+	}
+
+	public void endElement(String namespaceURI, String sName, String qName)
+			throws SAXException {
+
+		depth--;
+
+		if (qName.equals("spectrum")) {
+			setDataPoints(Math.min(numOfMzValues, numOfIntensityValues));
+			endOfScan();
+		}
+
+		if (qName.equals("scan"))
+			scanFlag = false;
+
+		if (qName.equals("precursor"))
+			precursorFlag = false;
+
+		if (qName.equals("selectedIon"))
+			selectedIonFlag = false;
+
+		if (qName.equals("binaryDataArray")) {
+			binaryDataArrayFlag = false;
+			numOfBinaryDataArrays++;
+		}
+
+		if (qName.equals("binary")) {
+
+			int numOfValues = decodeBinaryData(compressFlag, doublePrecision,
+					ByteOrder.LITTLE_ENDIAN);
+
+			// Without the array type, the first array contains m/z values and
+			// the second one intensity values
+			int type = arrayType;
+			if (type == UNKNOWN_ARRAY) {
+				if (numOfBinaryDataArrays == 0)
+					type = MZ_ARRAY;
+				if (numOfBinaryDataArrays == 1)
+					type = INTENSITY_ARRAY;
+			}
+			if (type == UNKNOWN_ARRAY)
+				return;
+
+			if (integerData)
+				throw new SAXException(
+						"Integer binary data arrays are not supported");
+
+			if (type == MZ_ARRAY) {
+				mzValues = getBinaryData(numOfValues, mzValues);
+				numOfMzValues = numOfValues;
+			} else {
+				intensityValues = getBinaryData(numOfValues, intensityValues);
+				numOfIntensityValues = numOfValues;
+			}
+		}
+
+	}
+
+	private void processCVParam(CVParam param) throws SAXException {
+
+		String accession = param.accession;
+		String value = param.value;
+		if (accession == null)
+			return;
+
+		if (binaryDataArrayFlag) {
+			if (accession.equals("MS:1000514"))
+				arrayType = MZ_ARRAY;
+			if (accession.equals("MS:1000515"))
+				arrayType = INTENSITY_ARRAY;
+			if (accession.equals("MS:1000521"))
+				doublePrecision = false;
+			if (accession.equals("MS:1000523"))
+				doublePrecision = true;
+			if (accession.equals("MS:1000519")
+					|| accession.equals("MS:1000522"))
+				integerData = true;
+			if (accession.equals("MS:1000574"))
+				compressFlag = true;
+			if (accession.equals("MS:1000576"))
+				compressFlag = false;
+			// MS-Numpress compression, alone or followed by zlib
+			if (accession.equals("MS:1002312")
+					|| accession.equals("MS:1002313")
+					|| accession.equals("MS:1002314")
+					|| accession.equals("MS:1002746")
+					|| accession.equals("MS:1002747")
+					|| accession.equals("MS:1002748"))
+				throw new SAXException(
+						"Numpress compressed binary data arrays are not supported");
+			return;
+		}
+
+		if (value == null)
+			return;
+
+		// Precursor m/z and charge, from the first precursor only
+		if (selectedIonFlag) {
+			if (!precursorFlag)
+				return;
+			// MS:1000040 is used in mzML 1.0,
+			// MS:1000744 is used in mzML 1.1.0
+			if ((!precursorMzFound)
+					&& (accession.equals("MS:1000040") || accession
+							.equals("MS:1000744"))) {
+				parsedScan.precursorMz = Double.parseDouble(value);
+				precursorMzFound = true;
+			}
+			if ((!precursorChargeFound) && accession.equals("MS:1000041")) {
+				parsedScan.precursorCharge = Integer.parseInt(value);
+				precursorChargeFound = true;
+			}
+			return;
+		}
+
+		// Retention time (actually "Scan start time") MS:1000016
+		if (scanFlag) {
+			if ((!retentionTimeFound) && accession.equals("MS:1000016")) {
+				// MS:1000038 is used in mzML 1.0, while UO:0000031
+				// is used in mzML 1.1.0 :-/
+				String unitAccession = param.unitAccession;
+				if ((unitAccession == null)
+						|| (unitAccession.equals("MS:1000038"))
+						|| unitAccession.equals("UO:0000031")) {
+					parsedScan.retentionTime = Double.parseDouble(value);
+				} else {
+					parsedScan.retentionTime = Double.parseDouble(value) / 60d;
+				}
+				retentionTimeFound = true;
+			}
+			return;
+		}
+
+		// MS level MS:1000511, a parameter of the spectrum itself
+		if ((depth == 2) && accession.equals("MS:1000511"))
+			parsedScan.msLevel = Integer.parseInt(value);
+
+	}
+
+	/**
+	 * Reads the referenceable parameter groups from the beginning of the file
+	 * (before the run element)
+	 */
+	static Map<String, List<CVParam>> readParamGroups(byte header[],
+			int length) throws ParserConfigurationException, SAXException,
+			IOException {
+
+		final Map<String, List<CVParam>> paramGroups = new Hashtable<String, List<CVParam>>();
+
+		DefaultHandler handler = new DefaultHandler() {
+			private List<CVParam> currentGroup;
+
+			public void startElement(String namespaceURI, String lName,
+					String qName, Attributes attrs) throws SAXException {
+				if (qName.equals("run"))
+					throw new SAXException(END_OF_HEADER);
+				if (qName.equals("referenceableParamGroup")) {
+					currentGroup = new ArrayList<CVParam>();
+					paramGroups.put(attrs.getValue("id"), currentGroup);
+				}
+				if (qName.equals("cvParam") && (currentGroup != null)) {
+					currentGroup.add(new CVParam(attrs.getValue("accession"),
+							attrs.getValue("value"), attrs
+									.getValue("unitAccession")));
+				}
+			}
+
+			public void endElement(String namespaceURI, String sName,
+					String qName) {
+				if (qName.equals("referenceableParamGroup"))
+					currentGroup = null;
+			}
+		};
+
+		try {
+			SAXParserFactory.newInstance().newSAXParser()
+					.parse(new ByteArrayInputStream(header, 0, length), handler);
+		} catch (SAXException e) {
+			if (!END_OF_HEADER.equals(e.getMessage()))
+				throw e;
+		}
+
+		return paramGroups;
+
+	}
+
+	private static final String END_OF_HEADER = "End of mzML header";
+
+}
@@ -19,14 +19,12 @@
 
 package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteOrder;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.logging.Logger;
-import java.util.zip.DataFormatException;
 
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.Duration;
@@ -36,15 +34,13 @@ import javax.xml.parsers.SAXParserFactory;
 import net.sf.mzmine.data.DataPoint;
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.data.RawDataFileWriter;
-import net.sf.mzmine.data.impl.SimpleDataPoint;
 import net.sf.mzmine.data.impl.SimpleScan;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.CompressionUtils;
+import net.sf.mzmine.util.BinaryArrayDecoder;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ScanUtils;
 
-import org.apache.axis.encoding.Base64;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -62,10 +58,15 @@ public class MzXMLReadTask extends AbstractTask {
 	private int totalScans = 0, parsedScans;
 	private int peaksCount = 0;
 	private StringBuilder charBuffer;
-	private boolean compressFlag = false;
+	private boolean compressFlag = false, peaksFlag = false;
 	private DefaultHandler handler = new MzXMLHandler();
 	private String precision;
 
+	// Decoder of the <peaks> data and reusable buffers for decoded values
+	private BinaryArrayDecoder peaksDecoder = new BinaryArrayDecoder();
+	private double mzValues[] = new double[0],
+			intensityValues[] = new double[0];
+
 	// Retention time parser
 	private DatatypeFactory dataTypeFactory;
 
@@ -113,6 +114,8 @@ public class MzXMLReadTask extends AbstractTask {
 		setStatus(TaskStatus.PROCESSING);
 		logger.info("Started parsing file " + file);
 
+		long startTime = System.currentTimeMillis();
+
 		// Use the default (non-validating) parser
 		SAXParserFactory factory = SAXParserFactory.newInstance();
 
@@ -142,7 +145,9 @@ public class MzXMLReadTask extends AbstractTask {
 		}
 
 		logger.info("Finished parsing " + file + ", parsed " + parsedScans
-				+ " scans");
+				+ " scans"
+				+ RawDataFileReadingUtils.formatThroughput(file, parsedScans,
+						System.currentTimeMillis() - startTime));
 		setStatus(TaskStatus.FINISHED);
 
 	}
@@ -231,8 +236,9 @@ public class MzXMLReadTask extends AbstractTask {
 
 			// <peaks>
 			if (qName.equalsIgnoreCase("peaks")) {
-				// clean the current char buffer for the new element
-				charBuffer.setLength(0);
+				// the peaks data is decoded as it is received
+				peaksDecoder.reset();
+				peaksFlag = true;
 				compressFlag = false;
 				String compressionType = attrs.getValue("compressionType");
 				if ((compressionType == null)
@@ -311,59 +317,42 @@ public class MzXMLReadTask extends AbstractTask {
 			// <peaks>
 			if (qName.equalsIgnoreCase("peaks")) {
 
-				byte[] peakBytes = Base64.decode(charBuffer.toString());
-
-				if (compressFlag) {
-					try {
-						peakBytes = CompressionUtils.decompress(peakBytes);
-					} catch (DataFormatException e) {
-						setStatus(TaskStatus.ERROR);
-						errorMessage = "Corrupt compressed peak: "
-								+ e.toString();
-						throw new SAXException("Parsing Cancelled");
-					}
-				}
-
-				// make a data input stream
-				DataInputStream peakStream = new DataInputStream(
-						new ByteArrayInputStream(peakBytes));
-
-				DataPoint completeDataPoints[] = new DataPoint[peaksCount];
+				peaksFlag = false;
 
+				// Always respect this order pairOrder="m/z-int"
+				int numOfValues;
 				try {
-					for (int i = 0; i < completeDataPoints.length; i++) {
-
-						// Always respect this order pairOrder="m/z-int"
-						double massOverCharge;
-						double intensity;
-						if ("64".equals(precision)) {
-							massOverCharge = peakStream.readDouble();
-							intensity = peakStream.readDouble();
-						} else {
-							massOverCharge = (double) peakStream.readFloat();
-							intensity = (double) peakStream.readFloat();
-						}
-
-						// Copy m/z and intensity data
-						completeDataPoints[i] = new SimpleDataPoint(
-								massOverCharge, intensity);
+					numOfValues = peaksDecoder.decode(compressFlag,
+							"64".equals(precision), ByteOrder.BIG_ENDIAN);
+				} catch (IOException e) {
+					setStatus(TaskStatus.ERROR);
+					errorMessage = "Corrupt compressed peak: " + e.toString();
+					throw new SAXException("Parsing Cancelled");
+				}
 
-					}
-				} catch (IOException eof) {
+				if (numOfValues / 2 < peaksCount) {
 					setStatus(TaskStatus.ERROR);
 					errorMessage = "Corrupt mzXML file";
 					throw new SAXException("Parsing Cancelled");
 				}
 
+				if (mzValues.length < numOfValues / 2) {
+					mzValues = new double[numOfValues / 2];
+					intensityValues = new double[numOfValues / 2];
+				}
+				peaksDecoder.getValuePairs(mzValues, intensityValues);
+
 				// Auto-detect whether this scan is centroided
-				boolean centroided = ScanUtils.isCentroided(completeDataPoints);
+				boolean centroided = ScanUtils.isCentroided(mzValues,
+						intensityValues, peaksCount);
 
 				// Set the centroided tag
 				buildingScan.setCentroided(centroided);
 
 				// Remove zero data points
 				DataPoint optimizedDataPoints[] = ScanUtils
-						.removeZeroDataPoints(completeDataPoints, centroided);
+						.createNonZeroDataPoints(mzValues, intensityValues,
+								peaksCount, centroided);
 
 				// Set the final data points to the scan
 				buildingScan.setDataPoints(optimizedDataPoints);
@@ -379,7 +368,10 @@ public class MzXMLReadTask extends AbstractTask {
 		 */
 		public void characters(char buf[], int offset, int len)
 				throws SAXException {
-			charBuffer.append(buf, offset, len);
+			if (peaksFlag)
+				peaksDecoder.append(buf, offset, len);
+			else
+				charBuffer.append(buf, offset, len);
 		}
 	}
 
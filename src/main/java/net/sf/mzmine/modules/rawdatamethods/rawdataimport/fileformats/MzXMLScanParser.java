@@ -0,0 +1,167 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Date;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.Duration;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * Parser of a single mzXML scan element. Nested scans (fragments) are not
+ * parsed, they have their own entries in the scan index.
+ */
+class MzXMLScanParser extends ScanFragmentParser {
+
+	private static final byte SCAN_END_TAG[] = "</scan>".getBytes();
+
+	// A scan which contains nested scans ends at the start of the first
+	// nested scan, so its fragment is followed by an empty scan element
+	private static final byte FRAGMENT_END[] = "<scan/>".getBytes();
+
+	// Retention time parser
+	private final DatatypeFactory dataTypeFactory;
+
+	private boolean scanStarted;
+	private int peaksCount;
+	private boolean compressFlag;
+	private String precision;
+
+	MzXMLScanParser() throws ParserConfigurationException, SAXException,
+			DatatypeConfigurationException {
+		dataTypeFactory = DatatypeFactory.newInstance();
+	}
+
+	ParsedScan parse(byte data[], int length) throws IOException,
+			SAXException {
+
+		scanStarted = false;
+		peaksCount = 0;
+
+		ParsedScan scan = super.parse(data, length);
+
+		// Count the scan elements closed before the next scan starts
+		int numOfClosedScans = 0;
+		for (int i = 0; i <= length - SCAN_END_TAG.length; i++) {
+			if (data[i] != '<')
+				continue;
+			int j = 1;
+			while ((j < SCAN_END_TAG.length) && (data[i + j] == SCAN_END_TAG[j]))
+				j++;
+			if (j == SCAN_END_TAG.length)
+				numOfClosedScans++;
+		}
+		scan.numOfClosedScans = numOfClosedScans;
+
+		return scan;
+	}
+
+	protected byte[] getFragmentEnd() {
+		return FRAGMENT_END;
+	}
+
+	public void startElement(String namespaceURI, String lName, String qName,
+			Attributes attrs) throws SAXException {
+
+		// <scan>
+		if (qName.equalsIgnoreCase("scan")) {
+
+			// Nested scan, our scan is complete
+			if (scanStarted)
+				endOfScan();
+			scanStarted = true;
+
+			/*
+			 * Only num, msLevel & peaksCount values are required according
+			 * with mzxml standard, the others are optional
+			 */
+			parsedScan.scanNumber = Integer.parseInt(attrs.getValue("num"));
+			parsedScan.msLevel = Integer.parseInt(attrs.getValue("msLevel"));
+			peaksCount = Integer.parseInt(attrs.getValue("peaksCount"));
+
+			// Parse retention time
+			String retentionTimeStr = attrs.getValue("retentionTime");
+			if (retentionTimeStr == null)
+				throw new SAXException(
+						"This file does not contain retentionTime for scans");
+			Date currentDate = new Date();
+			Duration dur = dataTypeFactory.newDuration(retentionTimeStr);
+			parsedScan.retentionTime = dur.getTimeInMillis(currentDate) / 1000d / 60d;
+
+			if (parsedScan.msLevel > 9)
+				throw new SAXException("The value of msLevel is bigger than 10");
+		}
+
+		// <peaks>
+		if (qName.equalsIgnoreCase("peaks")) {
+			String compressionType = attrs.getValue("compressionType");
+			compressFlag = (compressionType != null)
+					&& (!compressionType.equals("none"));
+			precision = attrs.getValue("precision");
+			startBinaryData();
+		}
+
+		// <precursorMz>
+		if (qName.equalsIgnoreCase("precursorMz")) {
+			charBuffer.setLength(0);
+			String precursorCharge = attrs.getValue("precursorCharge");
+			if (precursorCharge != null)
+				parsedScan.precursorCharge = Integer.parseInt(precursorCharge);
+		}
+
+	}
+
+	public void endElement(String namespaceURI, String sName, String qName)
+			throws SAXException {
+
+		// </scan>
+		if (qName.equalsIgnoreCase("scan")) {
+			endOfScan();
+		}
+
+		// <precursorMz>
+		if (qName.equalsIgnoreCase("precursorMz")) {
+			parsedScan.precursorMz = Double.parseDouble(charBuffer.toString()
+					.trim());
+		}
+
+		// <peaks>
+		if (qName.equalsIgnoreCase("peaks")) {
+
+			// Always respect this order pairOrder="m/z-int"
+			int numOfValues = decodeBinaryData(compressFlag,
+					"64".equals(precision), ByteOrder.BIG_ENDIAN);
+			if (numOfValues / 2 < peaksCount)
+				throw new SAXException("Corrupt mzXML file");
+
+			getBinaryDataPairs(numOfValues);
+			setDataPoints(peaksCount);
+		}
+
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import net.sf.mzmine.data.DataPoint;
+
+/**
+ * Scan decoded from its own fragment of an XML file by a ScanFragmentParser.
+ * Scan numbers and parent/fragment relations are resolved later, in the order
+ * of the scans in the file.
+ */
+class ParsedScan {
+
+	// Scan ID (mzML) and scan number (mzXML)
+	String scanId;
+	int scanNumber;
+
+	int msLevel = 1;
+	double retentionTime;
+
+	// ID of the precursor spectrum (mzML)
+	String parentScanId;
+	double precursorMz;
+	int precursorCharge;
+
+	DataPoint dataPoints[];
+	boolean centroided;
+
+	// Number of scan elements closed between the start of this scan and the
+	// start of the next one (mzXML scans are nested)
+	int numOfClosedScans;
+
+}
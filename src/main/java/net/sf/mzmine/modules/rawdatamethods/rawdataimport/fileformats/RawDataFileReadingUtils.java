@@ -0,0 +1,41 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.File;
+
+/**
+ * Raw data file reading utilities
+ */
+class RawDataFileReadingUtils {
+
+	/**
+	 * Returns a description of the parsing throughput (scans per second and MB
+	 * per second) for the log
+	 */
+	static String formatThroughput(File file, int parsedScans,
+			long elapsedMillis) {
+		double seconds = Math.max(elapsedMillis, 1) / 1000d;
+		double megabytes = file.length() / (1024d * 1024d);
+		return String.format(" in %.2f s (%.1f scans/s, %.2f MB/s)", seconds,
+				parsedScans / seconds, megabytes / seconds);
+	}
+
+}
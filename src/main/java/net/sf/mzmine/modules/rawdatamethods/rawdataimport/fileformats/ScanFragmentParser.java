@@ -0,0 +1,211 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.util.BinaryArrayDecoder;
+import net.sf.mzmine.util.ScanUtils;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Parser of a single scan, which reads and parses only the part of an XML
+ * file between the start of the scan element and the start of the next scan
+ * element. Each instance keeps its own SAX parser and buffers, so it may be
+ * used by one thread at a time only.
+ */
+abstract class ScanFragmentParser extends DefaultHandler {
+
+	/**
+	 * Thrown by the handler to stop the SAX parser when the scan is complete,
+	 * because the rest of the fragment is not well-formed XML
+	 */
+	private static class EndOfScanException extends SAXException {
+		EndOfScanException() {
+			super("End of scan");
+		}
+	}
+
+	private final SAXParser saxParser;
+
+	// Raw bytes of the fragment
+	private byte fragmentBytes[] = new byte[1 << 16];
+
+	// Decoder of binary arrays and reusable buffers for decoded values
+	private final BinaryArrayDecoder decoder = new BinaryArrayDecoder();
+	protected double mzValues[] = new double[0],
+			intensityValues[] = new double[0];
+
+	// Character data of text elements
+	protected final StringBuilder charBuffer = new StringBuilder();
+	protected boolean binaryDataFlag;
+
+	// The scan which is currently being parsed
+	protected ParsedScan parsedScan;
+
+	ScanFragmentParser() throws ParserConfigurationException, SAXException {
+		saxParser = SAXParserFactory.newInstance().newSAXParser();
+	}
+
+	/**
+	 * Reads the bytes between start and end from the file and parses the scan
+	 * which starts at the beginning of these bytes
+	 */
+	ParsedScan parse(FileChannel channel, long start, long end)
+			throws IOException, SAXException {
+
+		int length = (int) (end - start);
+		if (fragmentBytes.length < length)
+			fragmentBytes = new byte[length];
+
+		ByteBuffer buffer = ByteBuffer.wrap(fragmentBytes, 0, length);
+		long position = start;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				break;
+			position += read;
+		}
+
+		return parse(fragmentBytes, buffer.position());
+	}
+
+	/**
+	 * Parses the scan which starts at the beginning of the given bytes
+	 */
+	ParsedScan parse(byte data[], int length) throws IOException,
+			SAXException {
+
+		parsedScan = new ParsedScan();
+		parsedScan.dataPoints = new DataPoint[0];
+		binaryDataFlag = false;
+		charBuffer.setLength(0);
+
+		try {
+			saxParser.reset();
+			saxParser.parse(new SequenceInputStream(new ByteArrayInputStream(
+					data, 0, length), new ByteArrayInputStream(
+					getFragmentEnd())), this);
+			throw new SAXException("Incomplete scan data");
+		} catch (EndOfScanException e) {
+			// The scan is complete
+		}
+
+		return parsedScan;
+	}
+
+	/**
+	 * Returns bytes which are appended to each fragment, so that the handler
+	 * can recognize the end of a scan which is not closed within its fragment
+	 */
+	protected byte[] getFragmentEnd() {
+		return new byte[0];
+	}
+
+	/**
+	 * Stops parsing of the fragment
+	 */
+	protected void endOfScan() throws SAXException {
+		throw new EndOfScanException();
+	}
+
+	/**
+	 * Starts decoding of a new binary array
+	 */
+	protected void startBinaryData() {
+		decoder.reset();
+		binaryDataFlag = true;
+	}
+
+	/**
+	 * Finishes decoding of the current binary array and returns the number of
+	 * values it contains
+	 */
+	protected int decodeBinaryData(boolean compressed,
+			boolean doublePrecision, ByteOrder byteOrder) throws SAXException {
+		binaryDataFlag = false;
+		try {
+			return decoder.decode(compressed, doublePrecision, byteOrder);
+		} catch (IOException e) {
+			throw new SAXException("Corrupt compressed peak: " + e);
+		}
+	}
+
+	/**
+	 * Copies the decoded values into the given buffer, or into a new one if
+	 * the buffer is too small, and returns the buffer
+	 */
+	protected double[] getBinaryData(int numOfValues, double buffer[]) {
+		if (buffer.length < numOfValues)
+			buffer = new double[numOfValues];
+		decoder.getValues(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Copies decoded interleaved m/z and intensity values into mzValues and
+	 * intensityValues
+	 */
+	protected void getBinaryDataPairs(int numOfValues) {
+		if (mzValues.length < numOfValues / 2) {
+			mzValues = new double[numOfValues / 2];
+			intensityValues = new double[numOfValues / 2];
+		}
+		decoder.getValuePairs(mzValues, intensityValues);
+	}
+
+	/**
+	 * Creates the data points of the scan from mzValues and intensityValues
+	 */
+	protected void setDataPoints(int numOfDataPoints) {
+
+		// Auto-detect whether this scan is centroided
+		parsedScan.centroided = ScanUtils.isCentroided(mzValues,
+				intensityValues, numOfDataPoints);
+
+		// Remove zero data points
+		parsedScan.dataPoints = ScanUtils.createNonZeroDataPoints(mzValues,
+				intensityValues, numOfDataPoints, parsedScan.centroided);
+	}
+
+	/**
+	 * @see org.xml.sax.ContentHandler#characters(char[], int, int)
+	 */
+	public void characters(char buf[], int offset, int len)
+			throws SAXException {
+		if (binaryDataFlag)
+			decoder.append(buf, offset, len);
+		else
+			charBuffer.append(buf, offset, len);
+	}
+
+}
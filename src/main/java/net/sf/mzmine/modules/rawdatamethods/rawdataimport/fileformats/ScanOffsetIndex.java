@@ -0,0 +1,228 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offsets of scan elements in an XML raw data file. The offsets are taken from
+ * the index at the end of indexed mzXML and mzML files. If the file has no
+ * index or the index does not match the file content, the file is scanned for
+ * the scan start tags.
+ */
+class ScanOffsetIndex {
+
+	// Size of the file tail which contains the offset of the index
+	private static final int TAIL_SIZE = 4096;
+
+	// Block size for scanning of files without index
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	private static final Pattern INDEX_OFFSET_PATTERN = Pattern
+			.compile("<index(?:List)?Offset>\\s*([0-9]+)\\s*</index(?:List)?Offset>");
+	private static final Pattern INDEX_PATTERN = Pattern.compile(
+			"<index\\s+name=\"([^\"]*)\"[^>]*>(.*?)</index>", Pattern.DOTALL);
+	private static final Pattern OFFSET_PATTERN = Pattern
+			.compile("<offset[^>]*>\\s*([0-9]+)\\s*</offset>");
+
+	/**
+	 * Returns the offsets of all elements with the given name in the order of
+	 * the file, followed by the position where the content of the last element
+	 * ends at the latest
+	 */
+	static long[] getScanOffsets(FileChannel channel, String elementName)
+			throws IOException {
+		long offsets[] = readIndex(channel, elementName);
+		if (offsets == null)
+			offsets = buildIndex(channel, elementName);
+		return offsets;
+	}
+
+	/**
+	 * Reads the offsets from the index of the file, returns null if the file
+	 * has no valid index
+	 */
+	private static long[] readIndex(FileChannel channel, String elementName)
+			throws IOException {
+
+		long fileSize = channel.size();
+		long tailStart = Math.max(0, fileSize - TAIL_SIZE);
+		String tail = readString(channel, tailStart, fileSize);
+
+		Matcher matcher = INDEX_OFFSET_PATTERN.matcher(tail);
+		long indexOffset = -1;
+		while (matcher.find())
+			indexOffset = Long.parseLong(matcher.group(1));
+		if ((indexOffset <= 0) || (indexOffset >= fileSize))
+			return null;
+
+		String index = readString(channel, indexOffset, fileSize);
+		if (!index.startsWith("<index"))
+			return null;
+
+		long scanOffsets[] = null;
+		long end = indexOffset;
+
+		Matcher indexMatcher = INDEX_PATTERN.matcher(index);
+		while (indexMatcher.find()) {
+			long indexOffsets[] = parseOffsets(indexMatcher.group(2));
+			if (indexMatcher.group(1).equals(elementName)) {
+				scanOffsets = indexOffsets;
+				continue;
+			}
+			// Other indexed elements (e.g. mzML chromatograms) follow the
+			// scans
+			for (long offset : indexOffsets) {
+				if (offset > 0)
+					end = Math.min(end, offset);
+			}
+		}
+
+		if ((scanOffsets == null) || (scanOffsets.length == 0))
+			return null;
+
+		Arrays.sort(scanOffsets);
+		for (int i = 0; i < scanOffsets.length; i++) {
+			if ((i > 0) && (scanOffsets[i] == scanOffsets[i - 1]))
+				return null;
+			if ((scanOffsets[i] < 0) || (scanOffsets[i] >= end))
+				return null;
+		}
+
+		// Verify that each offset points to a start tag
+		byte startTag[] = ("<" + elementName).getBytes();
+		ByteBuffer buffer = ByteBuffer.allocate(startTag.length + 1);
+		for (long offset : scanOffsets) {
+			buffer.clear();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) < 0)
+					return null;
+			}
+			if (!isStartTag(buffer.array(), 0, startTag))
+				return null;
+		}
+
+		long offsets[] = Arrays.copyOf(scanOffsets, scanOffsets.length + 1);
+		offsets[scanOffsets.length] = end;
+		return offsets;
+
+	}
+
+	/**
+	 * Finds the offsets of all start tags of the element by scanning the whole
+	 * file
+	 */
+	private static long[] buildIndex(FileChannel channel, String elementName)
+			throws IOException {
+
+		byte startTag[] = ("<" + elementName).getBytes();
+		int tagLength = startTag.length + 1;
+
+		long offsets[] = new long[1024];
+		int numOfOffsets = 0;
+
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE + tagLength);
+		byte bytes[] = buffer.array();
+		long fileSize = channel.size();
+
+		// Position of the first byte of the buffer in the file
+		long bufferPosition = 0;
+		int carry = 0;
+
+		while (bufferPosition + carry < fileSize) {
+
+			buffer.clear();
+			buffer.position(carry);
+			int read = channel.read(buffer, bufferPosition + carry);
+			if (read < 0)
+				break;
+			int length = carry + read;
+
+			// Tags which would continue in the next block are left for the
+			// next block
+			int searchEnd = length - tagLength;
+
+			for (int i = 0; i <= searchEnd; i++) {
+				if (bytes[i] != '<')
+					continue;
+				if (!isStartTag(bytes, i, startTag))
+					continue;
+				if (numOfOffsets == offsets.length)
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				offsets[numOfOffsets++] = bufferPosition + i;
+			}
+
+			// Move the unsearched rest to the start of the buffer
+			int nextStart = Math.max(searchEnd + 1, 0);
+			carry = length - nextStart;
+			System.arraycopy(bytes, nextStart, bytes, 0, carry);
+			bufferPosition += nextStart;
+
+		}
+
+		offsets = Arrays.copyOf(offsets, numOfOffsets + 1);
+		offsets[numOfOffsets] = fileSize;
+		return offsets;
+
+	}
+
+	/**
+	 * Returns true if the bytes at the position contain the start tag,
+	 * followed by whitespace or the end of the tag
+	 */
+	private static boolean isStartTag(byte bytes[], int position,
+			byte startTag[]) {
+		for (int i = 0; i < startTag.length; i++) {
+			if (bytes[position + i] != startTag[i])
+				return false;
+		}
+		byte next = bytes[position + startTag.length];
+		return (next == ' ') || (next == '\t') || (next == '\r')
+				|| (next == '\n') || (next == '>') || (next == '/');
+	}
+
+	private static long[] parseOffsets(String index) {
+		long offsets[] = new long[1024];
+		int numOfOffsets = 0;
+		Matcher matcher = OFFSET_PATTERN.matcher(index);
+		while (matcher.find()) {
+			if (numOfOffsets == offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			offsets[numOfOffsets++] = Long.parseLong(matcher.group(1));
+		}
+		return Arrays.copyOf(offsets, numOfOffsets);
+	}
+
+	private static String readString(FileChannel channel, long start, long end)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start + buffer.position()) < 0)
+				break;
+		}
+		return new String(buffer.array(), 0, buffer.position(), "ISO-8859-1");
+	}
+
+}
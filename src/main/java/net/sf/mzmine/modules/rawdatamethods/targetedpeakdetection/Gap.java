@@ -60,7 +60,13 @@ class Gap {
 		this.intTolerance = intTolerance;
 	}
 
-	void offerNextScan(Scan scan) {
+	/**
+	 * Offers the next scan to this gap. The data points of the scan are passed
+	 * as primitive arrays sorted by m/z, so the same arrays can be shared by
+	 * all gaps.
+	 */
+	void offerNextScan(Scan scan, double mzValues[], double intensityValues[],
+			int numOfDataPoints) {
 
 		double scanRT = scan.getRetentionTime();
 
@@ -75,12 +81,14 @@ class Gap {
 		}
 
 		// Find top m/z peak in our range
-		DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+		int basePeakIndex = ScanUtils.findBasePeakIndex(mzValues,
+				intensityValues, numOfDataPoints, mzRange);
 
 		GapDataPoint currentDataPoint;
-		if (basePeak != null) {
+		if (basePeakIndex >= 0) {
 			currentDataPoint = new GapDataPoint(scan.getScanNumber(),
-					basePeak.getMZ(), scanRT, basePeak.getIntensity());
+					mzValues[basePeakIndex], scanRT,
+					intensityValues[basePeakIndex]);
 		} else {
 			currentDataPoint = new GapDataPoint(scan.getScanNumber(),
 					mzRange.getAverage(), scanRT, 0);
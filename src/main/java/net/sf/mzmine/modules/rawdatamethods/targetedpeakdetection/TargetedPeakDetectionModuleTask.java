@@ -145,6 +145,9 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
 		// Get all scans of this data file
 		int scanNumbers[] = dataFile.getScanNumbers(1);
 
+		// Reusable arrays for reading the scans
+		double mzBuffer[] = new double[0], intensityBuffer[] = new double[0];
+
 		// Process each scan
 		for (int scanNumber : scanNumbers) {
 
@@ -156,9 +159,19 @@ class TargetedPeakDetectionModuleTask extends AbstractTask {
 			// Get the scan
 			Scan scan = dataFile.getScan(scanNumber);
 
+			// Read the data points only once for all gaps
+			final int numOfDataPoints = scan.getNumberOfDataPoints();
+			if (mzBuffer.length < numOfDataPoints) {
+				mzBuffer = new double[numOfDataPoints];
+				intensityBuffer = new double[numOfDataPoints];
+			}
+			final int readDataPoints = scan.getDataPoints(mzBuffer,
+					intensityBuffer);
+
 			// Feed this scan to all gaps
 			for (Gap gap : gaps) {
-				gap.offerNextScan(scan);
+				gap.offerNextScan(scan, mzBuffer, intensityBuffer,
+						readDataPoints);
 			}
 
 			processedScans++;
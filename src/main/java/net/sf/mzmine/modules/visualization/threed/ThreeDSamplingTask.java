@@ -19,11 +19,14 @@
 
 package net.sf.mzmine.modules.visualization.threed;
 
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.data.DataPoint;
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.project.impl.IntensityPyramid;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
@@ -116,6 +119,20 @@ class ThreeDSamplingTask extends AbstractTask {
 					* rtResolution];
 			boolean rtDataSet[] = new boolean[rtResolution];
 
+			// If the m/z bins are not finer than the intensity pyramid, the
+			// scans are binned from the pyramid instead of their data points
+			IntensityPyramid pyramid = null;
+			if ((dataFile instanceof RawDataFileImpl)
+					&& (scanNumbers.length > 0)) {
+				int msLevel = dataFile.getScan(scanNumbers[0]).getMSLevel();
+				pyramid = ((RawDataFileImpl) dataFile)
+						.getIntensityPyramid(msLevel);
+				if ((pyramid != null)
+						&& (mzRange.getSize() / mzResolution < pyramid
+								.getBinWidth()))
+					pyramid = null;
+			}
+
 			// load scans
 			for (int scanIndex = 0; scanIndex < scanNumbers.length; scanIndex++) {
 
@@ -124,18 +141,29 @@ class ThreeDSamplingTask extends AbstractTask {
 
 				Scan scan = dataFile.getScan(scanNumbers[scanIndex]);
 
-				DataPoint dataPoints[] = scan.getDataPoints();
-				double[] scanMZValues = new double[dataPoints.length];
-				double[] scanIntensityValues = new double[dataPoints.length];
-				for (int dp = 0; dp < dataPoints.length; dp++) {
-					scanMZValues[dp] = dataPoints[dp].getMZ();
-					scanIntensityValues[dp] = dataPoints[dp].getIntensity();
+				int pyramidColumn = -1;
+				if (pyramid != null)
+					pyramidColumn = Arrays.binarySearch(
+							pyramid.getScanNumbers(), scanNumbers[scanIndex]);
+
+				double[] binnedIntensities;
+				if (pyramidColumn >= 0) {
+					binnedIntensities = pyramid.getBinnedIntensities(
+							pyramidColumn, mzRange, mzResolution);
+				} else {
+					DataPoint dataPoints[] = scan.getDataPoints();
+					double[] scanMZValues = new double[dataPoints.length];
+					double[] scanIntensityValues = new double[dataPoints.length];
+					for (int dp = 0; dp < dataPoints.length; dp++) {
+						scanMZValues[dp] = dataPoints[dp].getMZ();
+						scanIntensityValues[dp] = dataPoints[dp].getIntensity();
+					}
+
+					binnedIntensities = ScanUtils.binValues(scanMZValues,
+							scanIntensityValues, mzRange, mzResolution,
+							!scan.isCentroided(), BinningType.MAX);
 				}
 
-				double[] binnedIntensities = ScanUtils.binValues(scanMZValues,
-						scanIntensityValues, mzRange, mzResolution,
-						!scan.isCentroided(), BinningType.MAX);
-
 				int scanBinIndex;
 
 				double rt = scan.getRetentionTime();
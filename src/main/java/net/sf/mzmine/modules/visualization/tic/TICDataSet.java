@@ -33,7 +33,8 @@ import javax.swing.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -74,7 +75,7 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
 	private double intensityMax;
 
 	private TaskStatus status;
-	private final LinkedList<TaskListener> taskListeners;
+	private final List<TaskListener> taskListeners;
 	private String errorMessage;
 
 	/**
@@ -104,7 +105,7 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
 		processedScans = 0;
 		intensityMin = 0.0;
 		intensityMax = 0.0;
-		taskListeners = new LinkedList<TaskListener>();
+		taskListeners = new CopyOnWriteArrayList<TaskListener>();
 		status = WAITING;
 		errorMessage = null;
 
@@ -161,6 +162,18 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
 		taskListeners.add(t);
 	}
 
+	/**
+	 * Removes a TaskListener from this Task
+	 * 
+	 * @param t
+	 *            The TaskListener to remove
+	 */
+	@Override
+	public void removeTaskListener(final TaskListener t) {
+
+		taskListeners.remove(t);
+	}
+
 	/**
 	 * Returns all of the TaskListeners which are listening to this task.
 	 * 
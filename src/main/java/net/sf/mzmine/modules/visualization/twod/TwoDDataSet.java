@@ -21,13 +21,16 @@ package net.sf.mzmine.modules.visualization.twod;
 
 import java.lang.ref.SoftReference;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.sf.mzmine.data.DataPoint;
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.data.Scan;
 import net.sf.mzmine.data.impl.SimpleDataPoint;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.IntensityPyramid;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
@@ -46,22 +49,30 @@ import org.jfree.data.xy.AbstractXYDataset;
 class TwoDDataSet extends AbstractXYDataset implements Task {
 
 	private RawDataFile rawDataFile;
+	private int msLevel;
 
 	private double retentionTimes[];
 	private double basePeaks[];
 	private SoftReference<DataPoint[]> dataPointMatrix[];
 
+	// Precomputed maximum intensities, if the data file has them. The scans
+	// of this data set are the pyramid columns starting at pyramidOffset.
+	// The pyramid is looked up by run(), as it may have to be built first.
+	private volatile IntensityPyramid intensityPyramid;
+	private int pyramidOffset;
+
 	private Range totalRTRange, totalMZRange;
 	private int scanNumbers[], totalScans, processedScans;
 
 	private TaskStatus status = TaskStatus.WAITING;
-	private LinkedList<TaskListener> taskListeners = new LinkedList<TaskListener>();
+	private List<TaskListener> taskListeners = new CopyOnWriteArrayList<TaskListener>();
 
 	@SuppressWarnings("unchecked")
 	TwoDDataSet(RawDataFile rawDataFile, int msLevel, Range rtRange,
 			Range mzRange, TwoDVisualizerWindow visualizer) {
 
 		this.rawDataFile = rawDataFile;
+		this.msLevel = msLevel;
 
 		totalRTRange = rtRange;
 		totalMZRange = mzRange;
@@ -84,6 +95,22 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
 		setStatus(TaskStatus.PROCESSING);
 
+		if ((rawDataFile instanceof RawDataFileImpl)
+				&& (scanNumbers.length > 0)) {
+			IntensityPyramid pyramid = ((RawDataFileImpl) rawDataFile)
+					.getIntensityPyramid(msLevel);
+			if (pyramid != null) {
+				int pyramidScans[] = pyramid.getScanNumbers();
+				int offset = Arrays.binarySearch(pyramidScans, scanNumbers[0]);
+				if ((offset >= 0)
+						&& (offset + scanNumbers.length <= pyramidScans.length)
+						&& (pyramidScans[offset + scanNumbers.length - 1] == scanNumbers[scanNumbers.length - 1])) {
+					pyramidOffset = offset;
+					intensityPyramid = pyramid;
+				}
+			}
+		}
+
 		for (int index = 0; index < scanNumbers.length; index++) {
 
 			// Cancel?
@@ -95,9 +122,13 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 			retentionTimes[index] = scan.getRetentionTime();
 			basePeaks[index] = (scanBasePeak == null ? 0 : scanBasePeak
 					.getIntensity());
-			DataPoint scanDataPoints[] = scan.getDataPoints();
-			dataPointMatrix[index] = new SoftReference<DataPoint[]>(
-					scanDataPoints);
+
+			// With a pyramid, data points are only read for zoomed in views
+			if (intensityPyramid == null) {
+				DataPoint scanDataPoints[] = scan.getDataPoints();
+				dataPointMatrix[index] = new SoftReference<DataPoint[]>(
+						scanDataPoints);
+			}
 			processedScans++;
 		}
 
@@ -188,6 +219,16 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 				return getMaxIntensity(startScanIndex, mzRange, plotMode);
 		}
 
+		if ((intensityPyramid != null) && (intensityPyramid.covers(mzRange))) {
+			int endScanIndex = startScanIndex;
+			while ((endScanIndex + 1 < searchRetentionTimes.length)
+					&& (searchRetentionTimes[endScanIndex + 1] <= rtRange
+							.getMax()))
+				endScanIndex++;
+			return intensityPyramid.getMaxIntensity(pyramidOffset
+					+ startScanIndex, pyramidOffset + endScanIndex, mzRange);
+		}
+
 		for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length) && (searchRetentionTimes[scanIndex] <= rtRange
 				.getMax())); scanIndex++) {
 
@@ -208,7 +249,12 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
 	private double getMaxIntensity(int dataPointMatrixIndex, Range mzRange,
 			PlotMode plotMode) {
-		DataPoint dataPoints[] = dataPointMatrix[dataPointMatrixIndex].get();
+		if ((intensityPyramid != null) && (intensityPyramid.covers(mzRange)))
+			return intensityPyramid.getMaxIntensity(pyramidOffset
+					+ dataPointMatrixIndex,
+					pyramidOffset + dataPointMatrixIndex, mzRange);
+		SoftReference<DataPoint[]> reference = dataPointMatrix[dataPointMatrixIndex];
+		DataPoint dataPoints[] = (reference == null ? null : reference.get());
 		if (dataPoints == null) {
 			Scan scan = rawDataFile.getScan(scanNumbers[dataPointMatrixIndex]);
 			dataPoints = scan.getDataPoints();
@@ -302,6 +348,16 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 		this.taskListeners.add(t);
 	}
 
+	/**
+	 * Removes a TaskListener from this Task
+	 * 
+	 * @param t
+	 *            The TaskListener to remove
+	 */
+	public void removeTaskListener(TaskListener t) {
+		this.taskListeners.remove(t);
+	}
+
 	/**
 	 * Returns all of the TaskListeners which are listening to this task.
 	 * 
@@ -68,6 +68,28 @@ public class MZTolerance {
 				+ getMzToleranceForMass(mzRange.getMax()));
 	}
 
+	/**
+	 * Returns a range containing every m/z value whose tolerance range
+	 * contains the given m/z value. The range is slightly wider than needed,
+	 * to cover rounding errors, so matches found by searching it should still
+	 * be verified using getToleranceRange().
+	 */
+	public Range getInverseToleranceRange(final double mzValue) {
+		double min = mzValue - mzTolerance;
+		double max = mzValue + mzTolerance;
+		final double relativeTolerance = ppmTolerance / MILLION;
+		if ((mzValue > 0) && (relativeTolerance > 0)) {
+			min = Math.min(min, mzValue / (1 + relativeTolerance));
+			if (relativeTolerance < 1)
+				max = Math.max(max, mzValue / (1 - relativeTolerance));
+			else
+				max = Double.POSITIVE_INFINITY;
+		}
+		final double margin = (Math.abs(mzValue) + mzTolerance + 1) / MILLION
+				/ MILLION;
+		return new Range(min - margin, max + margin);
+	}
+
 	public boolean checkWithinTolerance(final double mz1, final double mz2) {
 		return getToleranceRange(mz1).contains(mz2);
 	}
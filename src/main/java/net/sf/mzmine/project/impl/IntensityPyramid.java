@@ -0,0 +1,375 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Maximum intensities of the scans of one MS level at several resolutions,
+ * which allow the visualizers to draw zoomed out views without reading the
+ * scans.
+ * 
+ * Level 0 has one column per scan (in the order of scan numbers) and
+ * NUM_OF_BINS m/z bins spanning the m/z range of the scans. Each further level
+ * halves the number of columns and bins, keeping the maximum of each 2x2
+ * block. The levels are stored as float values in a temporary file next to
+ * the data points file and memory-mapped, so they do not take heap space.
+ * Closing the pyramid unmaps the levels and removes the file; queries of a
+ * closed pyramid return no intensities.
+ */
+public class IntensityPyramid {
+
+	// Number of m/z bins of level 0
+	static final int NUM_OF_BINS = 2048;
+
+	// The top level has at least this many m/z bins
+	private static final int MIN_BINS = 16;
+
+	// Number of scans binned by one job while building
+	private static final int SCANS_PER_JOB = 64;
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+
+	private final int scanNumbers[];
+	private final double mzMin, binWidth;
+
+	// Number of columns and bins of each level, and the level values
+	private final int numOfColumns[], numOfBins[];
+	private final MappedByteBuffer mappings[];
+	private final FloatBuffer levels[];
+	private boolean closed = false;
+
+	private IntensityPyramid(File file, int scanNumbers[], Range mzRange)
+			throws IOException {
+
+		this.file = file;
+		this.scanNumbers = scanNumbers;
+		this.mzMin = mzRange.getMin();
+		this.binWidth = mzRange.getSize() / NUM_OF_BINS;
+
+		List<int[]> sizes = new ArrayList<int[]>();
+		int columns = scanNumbers.length, bins = NUM_OF_BINS;
+		while (true) {
+			sizes.add(new int[] { columns, bins });
+			if ((bins / 2 < MIN_BINS) || (columns == 1))
+				break;
+			columns = (columns + 1) / 2;
+			bins = (bins + 1) / 2;
+		}
+
+		numOfColumns = new int[sizes.size()];
+		numOfBins = new int[sizes.size()];
+		mappings = new MappedByteBuffer[sizes.size()];
+		levels = new FloatBuffer[sizes.size()];
+
+		// Locked like the data points file, so the file is only removed by
+		// the temporary file cleanup when no instance of MZmine uses it
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		FileChannel channel = randomAccessFile.getChannel();
+		channel.lock();
+		long offset = 0;
+		for (int level = 0; level < levels.length; level++) {
+			numOfColumns[level] = sizes.get(level)[0];
+			numOfBins[level] = sizes.get(level)[1];
+			long size = 4L * numOfColumns[level] * numOfBins[level];
+			if (size > Integer.MAX_VALUE) {
+				close();
+				throw new IOException("Too many scans (" + scanNumbers.length
+						+ ") for an intensity pyramid");
+			}
+			mappings[level] = channel.map(FileChannel.MapMode.READ_WRITE,
+					offset, size);
+			levels[level] = mappings[level].order(ByteOrder.nativeOrder())
+					.asFloatBuffer();
+			offset += size;
+		}
+
+	}
+
+	/**
+	 * Builds the pyramid of the scans of given MS level and stores it in the
+	 * given file. Returns null if there are no scans to build it from.
+	 */
+	static IntensityPyramid build(final RawDataFile dataFile, int msLevel,
+			File file) throws IOException {
+
+		final int scanNumbers[] = dataFile.getScanNumbers(msLevel);
+		Range mzRange = dataFile.getDataMZRange(msLevel);
+		if ((scanNumbers.length == 0) || (!(mzRange.getSize() > 0)))
+			return null;
+
+		final IntensityPyramid pyramid = new IntensityPyramid(file,
+				scanNumbers, mzRange);
+
+		// Level 0 is binned in parallel, each job writing its own columns
+		ExecutorService executor = MZmineCore.getParallelExecutor();
+		List<Future<Object>> jobs = new ArrayList<Future<Object>>();
+		boolean finished = false;
+		try {
+			for (int first = 0; first < scanNumbers.length; first += SCANS_PER_JOB) {
+				final int start = first;
+				final int end = Math.min(first + SCANS_PER_JOB,
+						scanNumbers.length);
+				jobs.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						double mzValues[] = new double[0];
+						double intensityValues[] = new double[0];
+						for (int column = start; column < end; column++) {
+							Scan scan = dataFile.getScan(scanNumbers[column]);
+							int numOfDataPoints = scan
+									.getNumberOfDataPoints();
+							if (mzValues.length < numOfDataPoints) {
+								mzValues = new double[numOfDataPoints];
+								intensityValues = new double[numOfDataPoints];
+							}
+							numOfDataPoints = scan.getDataPoints(mzValues,
+									intensityValues);
+							pyramid.binScan(column, mzValues,
+									intensityValues, numOfDataPoints);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> job : jobs)
+				job.get();
+			finished = true;
+		} catch (InterruptedException e) {
+			throw new IOException("Building of intensity pyramid interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Could not build intensity pyramid: "
+					+ e.getCause());
+		} finally {
+			if (!finished) {
+				// No job may write to the pyramid once it is unmapped
+				for (Future<Object> job : jobs) {
+					try {
+						job.get();
+					} catch (Exception e) {
+						// Already reported
+					}
+				}
+				pyramid.close();
+			}
+		}
+
+		for (int level = 1; level < pyramid.levels.length; level++)
+			pyramid.buildLevel(level);
+
+		return pyramid;
+
+	}
+
+	private void binScan(int column, double mzValues[],
+			double intensityValues[], int numOfDataPoints) {
+		FloatBuffer values = levels[0];
+		int columnOffset = column * NUM_OF_BINS;
+		for (int i = 0; i < numOfDataPoints; i++) {
+			int bin = getBin(mzValues[i]);
+			if ((bin < 0) || (bin >= NUM_OF_BINS))
+				continue;
+			if (intensityValues[i] > values.get(columnOffset + bin))
+				values.put(columnOffset + bin, (float) intensityValues[i]);
+		}
+	}
+
+	/**
+	 * Fills a level with the maximum of each 2x2 block of the level below
+	 */
+	private void buildLevel(int level) {
+		FloatBuffer lower = levels[level - 1], values = levels[level];
+		int lowerColumns = numOfColumns[level - 1];
+		int lowerBins = numOfBins[level - 1];
+		for (int column = 0; column < numOfColumns[level]; column++) {
+			for (int bin = 0; bin < numOfBins[level]; bin++) {
+				float max = 0;
+				for (int c = column * 2; c < Math.min(column * 2 + 2,
+						lowerColumns); c++) {
+					for (int b = bin * 2; b < Math.min(bin * 2 + 2, lowerBins); b++)
+						max = Math.max(max, lower.get(c * lowerBins + b));
+				}
+				values.put(column * numOfBins[level] + bin, max);
+			}
+		}
+	}
+
+	/**
+	 * Returns the level 0 bin containing given m/z value
+	 */
+	private int getBin(double mz) {
+		if (mz < mzMin)
+			return -1;
+		int bin = (int) ((mz - mzMin) / binWidth);
+		// The maximum m/z value falls into the last bin
+		if ((bin == NUM_OF_BINS) && (mz <= mzMin + binWidth * NUM_OF_BINS))
+			bin--;
+		return bin;
+	}
+
+	/**
+	 * Returns the scan numbers of the pyramid columns at level 0
+	 */
+	public int[] getScanNumbers() {
+		return scanNumbers;
+	}
+
+	/**
+	 * Returns the width of the m/z bins at level 0. Queries of smaller m/z
+	 * ranges have to read the scans.
+	 */
+	public double getBinWidth() {
+		return binWidth;
+	}
+
+	/**
+	 * Returns true if the pyramid is fine enough to answer queries of given
+	 * m/z range size
+	 */
+	public boolean covers(Range mzRange) {
+		return mzRange.getSize() >= 2 * binWidth;
+	}
+
+	/**
+	 * Returns the maximum intensity of columns firstColumn to lastColumn
+	 * (inclusive) in the given m/z range. The value is read from the coarsest
+	 * level whose cells are at most half the size of the query in both
+	 * dimensions, so it may include data points up to one cell outside of the
+	 * query.
+	 */
+	public synchronized double getMaxIntensity(int firstColumn,
+			int lastColumn, Range mzRange) {
+
+		if (closed)
+			return 0;
+
+		int firstBin = getBin(mzRange.getMin());
+		int lastBin = getBin(mzRange.getMax());
+		if ((lastBin < 0) || (firstBin >= NUM_OF_BINS))
+			return 0;
+		firstBin = Math.max(firstBin, 0);
+		lastBin = Math.min(lastBin, NUM_OF_BINS - 1);
+
+		int numOfQueryColumns = lastColumn - firstColumn + 1;
+		double numOfQueryBins = mzRange.getSize() / binWidth;
+		int level = 0;
+		while ((level + 1 < levels.length)
+				&& ((2 << (level + 1)) <= numOfQueryColumns)
+				&& ((2 << (level + 1)) <= numOfQueryBins))
+			level++;
+
+		FloatBuffer values = levels[level];
+		int bins = numOfBins[level];
+		firstBin >>= level;
+		lastBin >>= level;
+		float max = 0;
+		for (int column = firstColumn >> level; column <= lastColumn >> level; column++) {
+			int columnOffset = column * bins;
+			for (int bin = firstBin; bin <= lastBin; bin++)
+				max = Math.max(max, values.get(columnOffset + bin));
+		}
+		return max;
+
+	}
+
+	/**
+	 * Returns the maximum intensity of each of the given number of equal m/z
+	 * bins of one column, for drawing the scan at a lower m/z resolution.
+	 * The pyramid must cover the m/z size of the bins.
+	 */
+	public synchronized double[] getBinnedIntensities(int column,
+			Range mzRange, int numOfBinnedValues) {
+		double binnedValues[] = new double[numOfBinnedValues];
+		if (closed)
+			return binnedValues;
+		double binnedWidth = mzRange.getSize() / numOfBinnedValues;
+		FloatBuffer values = levels[0];
+		int columnOffset = column * NUM_OF_BINS;
+		for (int bin = 0; bin < NUM_OF_BINS; bin++) {
+			float intensity = values.get(columnOffset + bin);
+			if (intensity == 0)
+				continue;
+			double binCenter = mzMin + (bin + 0.5) * binWidth;
+			if (!mzRange.contains(binCenter))
+				continue;
+			int index = (int) ((binCenter - mzRange.getMin()) / binnedWidth);
+			if (index == numOfBinnedValues)
+				index--;
+			if (intensity > binnedValues[index])
+				binnedValues[index] = intensity;
+		}
+		return binnedValues;
+	}
+
+	/**
+	 * Unmaps the levels, then closes and removes the pyramid file
+	 */
+	synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		for (MappedByteBuffer mapping : mappings) {
+			if (mapping != null)
+				unmap(mapping);
+		}
+		try {
+			randomAccessFile.close();
+		} catch (IOException e) {
+			// Ignore, we are removing the file anyway
+		}
+		file.delete();
+	}
+
+	/**
+	 * Releases a mapping right away, instead of waiting for the garbage
+	 * collector. The buffer cleaner is not public API, so if it is not
+	 * available the mapping is left to the garbage collector.
+	 */
+	static void unmap(MappedByteBuffer mapping) {
+		try {
+			Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(mapping);
+			if (cleaner != null)
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+		} catch (Exception e) {
+			// Not supported by this JVM
+		}
+	}
+
+}
@@ -29,10 +29,12 @@ import javax.swing.tree.TreePath;
 
 import net.sf.mzmine.data.PeakList;
 import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimplePeakList;
 import net.sf.mzmine.desktop.impl.MainWindow;
 import net.sf.mzmine.desktop.impl.projecttree.ProjectTree;
 import net.sf.mzmine.desktop.impl.projecttree.ProjectTreeModel;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.FilteredRawDataFile;
 import net.sf.mzmine.parameters.UserParameter;
 import net.sf.mzmine.project.MZmineProject;
 
@@ -48,6 +50,10 @@ public class MZmineProjectImpl implements MZmineProject {
 
 	private File projectFile;
 
+	// Whether the user parameters changed since the project was last saved
+	// or loaded
+	private volatile boolean userParametersModified = true;
+
 	public MZmineProjectImpl() {
 
 		this.treeModel = new ProjectTreeModel(this);
@@ -100,11 +106,13 @@ public class MZmineProjectImpl implements MZmineProject {
 
 		Hashtable<RawDataFile, Object> parameterValues = new Hashtable<RawDataFile, Object>();
 		projectParametersAndValues.put(parameter, parameterValues);
+		userParametersModified = true;
 
 	}
 
 	public void removeParameter(UserParameter parameter) {
 		projectParametersAndValues.remove(parameter);
+		userParametersModified = true;
 	}
 
 	public boolean hasParameter(UserParameter parameter) {
@@ -126,6 +134,15 @@ public class MZmineProjectImpl implements MZmineProject {
 			parameterValues.remove(rawDataFile);
 		else
 			parameterValues.put(rawDataFile, value);
+		userParametersModified = true;
+	}
+
+	public boolean isUserParametersModified() {
+		return userParametersModified;
+	}
+
+	public void setUserParametersModified(boolean modified) {
+		userParametersModified = modified;
 	}
 
 	public Object getParameterValue(UserParameter parameter,
@@ -162,6 +179,9 @@ public class MZmineProjectImpl implements MZmineProject {
 
 		assert file != null;
 
+		// Saved user parameters refer to the removed file
+		userParametersModified = true;
+
 		Runnable swingCode = new Runnable() {
 			public void run() {
 				treeModel.removeObject(file);
@@ -176,8 +196,10 @@ public class MZmineProjectImpl implements MZmineProject {
 			e.printStackTrace();
 		}
 
-		// Close the data file, which also removed the temporary data
-		file.close();
+		// Close the data file, which also removes the temporary data. Files
+		// filtered on demand may still read the data, in which case the last
+		// of them closes it.
+		FilteredRawDataFile.closeWhenUnused(file);
 
 	}
 
@@ -264,6 +286,10 @@ public class MZmineProjectImpl implements MZmineProject {
 
 	@Override
 	public void notifyObjectChanged(Object object, boolean structureChanged) {
+		if (object instanceof SimplePeakList)
+			((SimplePeakList) object).setModified(true);
+		if (object instanceof RawDataFileImpl)
+			((RawDataFileImpl) object).setModified(true);
 		treeModel.notifyObjectChanged(object, structureChanged);
 	}
 
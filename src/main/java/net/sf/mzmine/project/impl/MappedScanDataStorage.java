@@ -0,0 +1,191 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scan data storage which memory-maps the data points file in large segments.
+ * Reads do not hold any lock - each read only creates a new view of the mapped
+ * segment, so any number of threads can decode scans of the same file at the
+ * same time. Appends are written through the file channel at explicit
+ * positions, so they never move a shared file pointer.
+ * 
+ * A segment is mapped lazily when it is first read, up to the end of the data
+ * written so far, so the mapping never extends the file. When a read reaches
+ * data appended after the last segment was mapped, that segment is mapped
+ * again. All mappings, including the superseded ones, are released explicitly
+ * by close(), so the file can be removed right away. The rare blocks crossing
+ * a segment boundary are read using a positional read of the file channel.
+ * 
+ * The storage may also be a view of a part of a larger file, such as the scan
+ * data saved uncompressed in a project file. Offsets are then relative to the
+ * start of that part.
+ */
+class MappedScanDataStorage implements ScanDataStorage {
+
+	/**
+	 * Size of one mapped segment (256 MB)
+	 */
+	static final int SEGMENT_SIZE = 1 << 28;
+
+	private final FileChannel fileChannel;
+	private final ConcurrentHashMap<Integer, MappedByteBuffer> segments;
+
+	// All mappings created so far, to be released by close()
+	private final List<MappedByteBuffer> mappings;
+	private volatile boolean closed = false;
+
+	// Position of the storage data in the file
+	private final long baseOffset;
+
+	// Whether data are appended to the storage
+	private final boolean growing;
+
+	// Number of bytes written to the file, updated after each append
+	private volatile long length;
+
+	MappedScanDataStorage(RandomAccessFile dataPointsFile) throws IOException {
+		this(dataPointsFile.getChannel(), 0, dataPointsFile.length(), true);
+	}
+
+	/**
+	 * Creates a read-only storage of the given number of bytes, starting at
+	 * baseOffset in the file
+	 */
+	MappedScanDataStorage(FileChannel fileChannel, long baseOffset, long length) {
+		this(fileChannel, baseOffset, length, false);
+	}
+
+	private MappedScanDataStorage(FileChannel fileChannel, long baseOffset,
+			long length, boolean growing) {
+		this.fileChannel = fileChannel;
+		this.segments = new ConcurrentHashMap<Integer, MappedByteBuffer>();
+		this.mappings = new ArrayList<MappedByteBuffer>();
+		this.baseOffset = baseOffset;
+		this.length = length;
+		this.growing = growing;
+	}
+
+	public long append(ByteBuffer data) throws IOException {
+		if (!growing)
+			throw new IOException("Cannot append to a read-only storage");
+		final long currentOffset = length;
+		long position = currentOffset;
+		while (data.hasRemaining()) {
+			position += fileChannel.write(data, baseOffset + position);
+		}
+		length = position;
+		return currentOffset;
+	}
+
+	public FloatBuffer readFloats(long offset, int numOfFloats)
+			throws IOException {
+
+		if (closed)
+			throw new IOException("The scan data storage was closed");
+
+		final int numOfBytes = numOfFloats * 4;
+		final long end = offset + numOfBytes;
+		if (end > length) {
+			throw new IOException("Cannot read " + numOfBytes
+					+ " bytes at offset " + offset
+					+ ", the data points file has only " + length + " bytes");
+		}
+
+		final int segmentIndex = (int) (offset / SEGMENT_SIZE);
+		final long segmentStart = (long) segmentIndex * SEGMENT_SIZE;
+
+		// Block crossing the segment boundary
+		if (end > segmentStart + SEGMENT_SIZE) {
+			ByteBuffer buffer = ByteBuffer.allocate(numOfBytes);
+			long position = baseOffset + offset;
+			while (buffer.hasRemaining()) {
+				int bytesRead = fileChannel.read(buffer, position);
+				if (bytesRead < 0)
+					throw new EOFException();
+				position += bytesRead;
+			}
+			buffer.flip();
+			return buffer.asFloatBuffer();
+		}
+
+		MappedByteBuffer segment = getSegment(segmentIndex, segmentStart, end
+				- segmentStart);
+
+		// duplicate() gives us our own position and limit, so the mapped
+		// segment itself is never modified
+		ByteBuffer view = segment.duplicate();
+		view.limit((int) (end - segmentStart));
+		view.position((int) (offset - segmentStart));
+		return view.slice().asFloatBuffer();
+
+	}
+
+	/**
+	 * Returns the mapped segment of given index, which is at least
+	 * requiredSize bytes long. Two threads may occasionally map the same
+	 * segment at the same time, that is harmless.
+	 */
+	private MappedByteBuffer getSegment(int segmentIndex, long segmentStart,
+			long requiredSize) throws IOException {
+
+		MappedByteBuffer segment = segments.get(segmentIndex);
+		if ((segment != null) && (segment.capacity() >= requiredSize))
+			return segment;
+
+		// Only the data written so far are mapped, a read-only mapping
+		// beyond the end of the file would extend it
+		long segmentSize = Math.min(SEGMENT_SIZE, length - segmentStart);
+		segment = fileChannel.map(FileChannel.MapMode.READ_ONLY, baseOffset
+				+ segmentStart, segmentSize);
+		synchronized (mappings) {
+			mappings.add(segment);
+		}
+		segments.put(segmentIndex, segment);
+		return segment;
+
+	}
+
+	/**
+	 * Unmaps all segments. The buffers returned by readFloats() must not be
+	 * used any more, RawDataFileImpl ensures that by closing the storage only
+	 * while no scan is being read.
+	 */
+	public void close() {
+		closed = true;
+		segments.clear();
+		synchronized (mappings) {
+			for (MappedByteBuffer mapping : mappings)
+				IntensityPyramid.unmap(mapping);
+			mappings.clear();
+		}
+	}
+
+}
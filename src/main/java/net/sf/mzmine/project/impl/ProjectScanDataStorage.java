@@ -0,0 +1,66 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Scan data storage of a raw data file loaded from a project, whose scan data
+ * were saved uncompressed. The saved data points are read directly from the
+ * project file, which is only read. Data points stored after loading (e.g.
+ * new mass lists) are appended to the temporary data points file, so their
+ * offsets follow the end of the saved data. Before the project file is
+ * replaced, RawDataFileImpl.releaseProjectFile() replaces this storage by a
+ * copy of both parts in a single data points file.
+ */
+class ProjectScanDataStorage implements ScanDataStorage {
+
+	private final ScanDataStorage projectStorage, appendStorage;
+
+	// Number of bytes of scan data saved in the project
+	private final long projectDataLength;
+
+	ProjectScanDataStorage(ScanDataStorage projectStorage,
+			long projectDataLength, ScanDataStorage appendStorage) {
+		this.projectStorage = projectStorage;
+		this.projectDataLength = projectDataLength;
+		this.appendStorage = appendStorage;
+	}
+
+	public long append(ByteBuffer data) throws IOException {
+		return projectDataLength + appendStorage.append(data);
+	}
+
+	public FloatBuffer readFloats(long offset, int numOfFloats)
+			throws IOException {
+		if (offset < projectDataLength)
+			return projectStorage.readFloats(offset, numOfFloats);
+		return appendStorage.readFloats(offset - projectDataLength,
+				numOfFloats);
+	}
+
+	public void close() {
+		projectStorage.close();
+		appendStorage.close();
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Scan data storage which reads the data points using seek() and read() on a
+ * RandomAccessFile. All reads share the file pointer, therefore they are
+ * serialized. This is the original storage of MZmine, kept as a fallback for
+ * systems where memory mapping of large files is not desirable.
+ */
+class RandomAccessScanDataStorage implements ScanDataStorage {
+
+	private final RandomAccessFile dataPointsFile;
+
+	RandomAccessScanDataStorage(RandomAccessFile dataPointsFile) {
+		this.dataPointsFile = dataPointsFile;
+	}
+
+	public synchronized long append(ByteBuffer data) throws IOException {
+		final long currentOffset = dataPointsFile.length();
+		dataPointsFile.seek(currentOffset);
+		dataPointsFile.write(data.array(), data.arrayOffset() + data.position(),
+				data.remaining());
+		return currentOffset;
+	}
+
+	public synchronized FloatBuffer readFloats(long offset, int numOfFloats)
+			throws IOException {
+		byte bytes[] = new byte[numOfFloats * 4];
+		dataPointsFile.seek(offset);
+		dataPointsFile.readFully(bytes);
+		return ByteBuffer.wrap(bytes).asFloatBuffer();
+	}
+
+	public void close() {
+		// Nothing to release, the file is closed by RawDataFileImpl
+	}
+
+}
@@ -32,6 +32,10 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
@@ -41,6 +45,9 @@ import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.data.RawDataFileWriter;
 import net.sf.mzmine.data.Scan;
 import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineConfiguration;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.util.CollectionUtils;
 import net.sf.mzmine.util.Range;
 
@@ -55,6 +62,20 @@ import net.sf.mzmine.util.Range;
  * the storage ID is just deleted from the two TreeMaps. When the project is
  * saved, the contents of the dataPointsFile are consolidated - only data points
  * referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * 
+ * The actual reading and writing of the dataPointsFile is done by a
+ * ScanDataStorage, selected in the MZmine preferences. Reading does not lock
+ * this RawDataFileImpl instance - the storage ID lookup uses a concurrent copy
+ * of the two TreeMaps, so many threads can read scans of the same file at the
+ * same time. Only storing and removing of data points is synchronized. The
+ * readers hold the shared read lock of the storage while they use the read
+ * data, so close() can release the storage once no scan is being read.
+ * 
+ * When a project with uncompressed scan data is loaded, the saved data points
+ * are read directly from the project file (see openProjectDataPoints()) and
+ * the dataPointsFile only receives data points stored after loading. Before
+ * the project file is replaced, the saved data points are copied into a new
+ * dataPointsFile (see releaseProjectFile()).
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
@@ -68,19 +89,46 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 			dataMaxTIC;
 	private final Hashtable<Integer, int[]> scanNumbersCache;
 
-	private ByteBuffer buffer = ByteBuffer.allocate(20000);
 	private final TreeMap<Integer, Long> dataPointsOffsets;
 	private final TreeMap<Integer, Integer> dataPointsLengths;
 
+	// Concurrent copy of dataPointsOffsets and dataPointsLengths, which can be
+	// used by readDataPoints() without holding a lock
+	private final ConcurrentHashMap<Integer, StoredDataPoints> storedDataPoints;
+
 	// Temporary file for scan data storage
 	private File dataPointsFileName;
 	private RandomAccessFile dataPointsFile;
+	private volatile ScanDataStorage dataPointsStorage;
+
+	// Held for reading while the data returned by the storage are used, and
+	// for writing while the storage is closed
+	private final ReadWriteLock storageLock = new ReentrantReadWriteLock();
+
+	// Project file holding the saved data points, if they are read from it,
+	// and the position of the data points in that file
+	private File projectDataPointsFileName;
+	private RandomAccessFile projectDataPointsFile;
+	private long projectDataPointsOffset, projectDataPointsLength;
+
+	// Intensity pyramids of each MS level, stored next to the data points
+	// file and built when they are first requested. The MS levels whose
+	// pyramid was requested are kept, so a pyramid which could not be built
+	// is not built again.
+	private final Hashtable<Integer, IntensityPyramid> intensityPyramids;
+	private final Set<Integer> requestedPyramids;
 
 	/**
 	 * Scans
 	 */
 	private final Hashtable<Integer, StorableScan> scans;
 
+	// ID of this file in the project file it was last saved to or loaded
+	// from, and whether the file changed since then. Unchanged files are
+	// copied from the previous project file when the project is saved.
+	private String projectID;
+	private volatile boolean modified = true;
+
 	public RawDataFileImpl(String dataFileName) throws IOException {
 
 		this.dataFileName = dataFileName;
@@ -94,6 +142,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 		scans = new Hashtable<Integer, StorableScan>();
 		dataPointsOffsets = new TreeMap<Integer, Long>();
 		dataPointsLengths = new TreeMap<Integer, Integer>();
+		storedDataPoints = new ConcurrentHashMap<Integer, StoredDataPoints>();
+		intensityPyramids = new Hashtable<Integer, IntensityPyramid>();
+		requestedPyramids = new HashSet<Integer>();
 
 	}
 
@@ -139,6 +190,128 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 		// shutdown hook registered in the main.ShutDownHook class
 		dataPointsFileName.deleteOnExit();
 
+		// The structure of the file may have been filled in by the project
+		// loading code before opening the file
+		for (Integer storageID : dataPointsOffsets.keySet()) {
+			storedDataPoints.put(storageID, new StoredDataPoints(
+					dataPointsOffsets.get(storageID), dataPointsLengths
+							.get(storageID)));
+		}
+
+		this.dataPointsStorage = getScanDataStorageType().createStorage(
+				dataPointsFile);
+
+	}
+
+	/**
+	 * Reads the data points saved in a project directly from the project
+	 * file, instead of a copy in the data points file. The saved data points
+	 * must be stored uncompressed at the given offset of the project file, and
+	 * the data points file must already be opened and empty. The offsets in
+	 * the TreeMaps are relative to the start of the saved data points.
+	 */
+	public synchronized void openProjectDataPoints(File projectFile,
+			long offset, long length) throws IOException {
+
+		if ((dataPointsStorage == null) || (dataPointsFile.length() != 0)) {
+			throw new IOException(
+					"Project data points must be opened after an empty data points file");
+		}
+
+		projectDataPointsFileName = projectFile;
+		projectDataPointsFile = new RandomAccessFile(projectFile, "r");
+		projectDataPointsOffset = offset;
+		projectDataPointsLength = length;
+		ScanDataStorage projectStorage = new MappedScanDataStorage(
+				projectDataPointsFile.getChannel(), offset, length);
+		dataPointsStorage = new ProjectScanDataStorage(projectStorage, length,
+				dataPointsStorage);
+
+	}
+
+	/**
+	 * Stops reading the saved data points from the given project file, so the
+	 * file can be replaced. The saved data points are copied into a new data
+	 * points file, followed by the data points stored after loading, so all
+	 * storage IDs keep their offsets. Does nothing if the data points are not
+	 * read from the given file.
+	 */
+	public synchronized void releaseProjectFile(File projectFile)
+			throws IOException {
+
+		if ((projectDataPointsFile == null)
+				|| !projectFile.getCanonicalFile().equals(
+						projectDataPointsFileName.getCanonicalFile()))
+			return;
+
+		logger.info("Copying the scans of " + dataFileName
+				+ " from the project file " + projectFile);
+
+		File newFileName = createNewDataPointsFile();
+		RandomAccessFile newFile = new RandomAccessFile(newFileName, "rw");
+		try {
+			newFile.getChannel().lock();
+			newFileName.deleteOnExit();
+			copyFileData(projectDataPointsFile.getChannel(),
+					projectDataPointsOffset, projectDataPointsLength,
+					newFile.getChannel());
+			copyFileData(dataPointsFile.getChannel(), 0,
+					dataPointsFile.length(), newFile.getChannel());
+		} catch (IOException e) {
+			newFile.close();
+			newFileName.delete();
+			throw e;
+		}
+
+		// Appends are excluded by the lock of this instance, readers by the
+		// write lock of the storage
+		storageLock.writeLock().lock();
+		try {
+			dataPointsStorage.close();
+			projectDataPointsFile.close();
+			projectDataPointsFile = null;
+			projectDataPointsFileName = null;
+			dataPointsFile.close();
+			if (!dataPointsFileName.delete())
+				logger.warning("Could not remove file " + dataPointsFileName);
+			dataPointsFile = newFile;
+			dataPointsFileName = newFileName;
+			dataPointsStorage = getScanDataStorageType().createStorage(
+					newFile);
+		} finally {
+			storageLock.writeLock().unlock();
+		}
+
+	}
+
+	/**
+	 * Copies the given part of the source file to the current position of the
+	 * target file
+	 */
+	private static void copyFileData(FileChannel source, long position,
+			long length, FileChannel target) throws IOException {
+		long end = position + length;
+		while (position < end) {
+			long copied = source.transferTo(position, end - position, target);
+			if (copied <= 0)
+				throw new IOException("Unexpected end of file, "
+						+ (end - position) + " bytes missing");
+			position += copied;
+		}
+	}
+
+	/**
+	 * Returns the scan data storage type selected in the preferences
+	 */
+	private static ScanDataStorageType getScanDataStorageType() {
+		MZmineConfiguration configuration = MZmineCore.getConfiguration();
+		if (configuration == null)
+			return ScanDataStorageType.MEMORY_MAPPED;
+		ScanDataStorageType storageType = configuration.getPreferences()
+				.getParameter(MZminePreferences.scanDataStorage).getValue();
+		if (storageType == null)
+			return ScanDataStorageType.MEMORY_MAPPED;
+		return storageType;
 	}
 
 	/**
@@ -308,92 +481,175 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
 	}
 
-	public synchronized int storeDataPoints(DataPoint dataPoints[])
-			throws IOException {
-
-		if (dataPointsFile == null) {
-			File newFile = RawDataFileImpl.createNewDataPointsFile();
-			openDataPointsFile(newFile);
-		}
-
-		final long currentOffset = dataPointsFile.length();
-
-		final int currentID;
-		if (!dataPointsOffsets.isEmpty())
-			currentID = dataPointsOffsets.lastKey() + 1;
-		else
-			currentID = 1;
+	/**
+	 * Stores the data points and returns their storage ID. The data points
+	 * are converted before locking, so concurrent callers only wait for each
+	 * other while the data are appended.
+	 */
+	public int storeDataPoints(DataPoint dataPoints[]) throws IOException {
 
 		final int numOfDataPoints = dataPoints.length;
 
-		// Convert the dataPoints into a byte array. Each float takes 4 bytes,
-		// so we get the current float offset by dividing the size of the file
-		// by 4
+		// Convert the dataPoints into a byte array. Each float takes 4 bytes.
 		final int numOfBytes = numOfDataPoints * 2 * 4;
-
-		if (buffer.capacity() < numOfBytes) {
-			buffer = ByteBuffer.allocate(numOfBytes * 2);
-		} else {
-			buffer.clear();
-		}
-
+		final ByteBuffer buffer = ByteBuffer.allocate(numOfBytes);
 		FloatBuffer floatBuffer = buffer.asFloatBuffer();
 		for (DataPoint dp : dataPoints) {
 			floatBuffer.put((float) dp.getMZ());
 			floatBuffer.put((float) dp.getIntensity());
 		}
 
-		dataPointsFile.seek(currentOffset);
-		dataPointsFile.write(buffer.array(), 0, numOfBytes);
+		synchronized (this) {
+
+			if (dataPointsFile == null) {
+				File newFile = RawDataFileImpl.createNewDataPointsFile();
+				openDataPointsFile(newFile);
+			}
+
+			final int currentID;
+			if (!dataPointsOffsets.isEmpty())
+				currentID = dataPointsOffsets.lastKey() + 1;
+			else
+				currentID = 1;
 
-		dataPointsOffsets.put(currentID, currentOffset);
-		dataPointsLengths.put(currentID, numOfDataPoints);
+			final long currentOffset = dataPointsStorage.append(buffer);
 
-		return currentID;
+			dataPointsOffsets.put(currentID, currentOffset);
+			dataPointsLengths.put(currentID, numOfDataPoints);
+			storedDataPoints.put(currentID, new StoredDataPoints(
+					currentOffset, numOfDataPoints));
+			modified = true;
+
+			return currentID;
+		}
 
 	}
 
-	public synchronized DataPoint[] readDataPoints(int ID) throws IOException {
+	/**
+	 * Reads the data points stored under given storage ID. This method does
+	 * not block other readers, it may be called concurrently from any
+	 * number of threads.
+	 */
+	public DataPoint[] readDataPoints(int ID) throws IOException {
+
+		final Lock readLock = getStorageReadLock();
+		readLock.lock();
+		try {
+			final FloatBuffer floatBuffer = readStoredFloats(ID);
+			final int numOfDataPoints = floatBuffer.remaining() / 2;
 
-		final Long currentOffset = dataPointsOffsets.get(ID);
-		final Integer numOfDataPoints = dataPointsLengths.get(ID);
+			DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
 
-		if ((currentOffset == null) || (numOfDataPoints == null)) {
-			throw new IllegalArgumentException("Unknown storage ID " + ID);
+			for (int i = 0; i < numOfDataPoints; i++) {
+				float mz = floatBuffer.get();
+				float intensity = floatBuffer.get();
+				dataPoints[i] = new SimpleDataPoint(mz, intensity);
+			}
+
+			return dataPoints;
+		} finally {
+			readLock.unlock();
 		}
 
-		final int numOfBytes = numOfDataPoints * 2 * 4;
+	}
+
+	/**
+	 * Reads the data points stored under given storage ID into the given
+	 * arrays, without creating any DataPoint instances. This method does not
+	 * block other readers, it may be called concurrently from any number of
+	 * threads.
+	 * 
+	 * @return number of data points read
+	 */
+	public int readDataPoints(int ID, double mzValues[],
+			double intensityValues[]) throws IOException {
+
+		final Lock readLock = getStorageReadLock();
+		readLock.lock();
+		try {
+			final FloatBuffer floatBuffer = readStoredFloats(ID);
+			final int numOfDataPoints = floatBuffer.remaining() / 2;
 
-		if (buffer.capacity() < numOfBytes) {
-			buffer = ByteBuffer.allocate(numOfBytes * 2);
-		} else {
-			buffer.clear();
+			for (int i = 0; i < numOfDataPoints; i++) {
+				mzValues[i] = floatBuffer.get();
+				intensityValues[i] = floatBuffer.get();
+			}
+
+			return numOfDataPoints;
+		} finally {
+			readLock.unlock();
 		}
 
-		dataPointsFile.seek(currentOffset);
-		dataPointsFile.read(buffer.array(), 0, numOfBytes);
+	}
 
-		FloatBuffer floatBuffer = buffer.asFloatBuffer();
+	/**
+	 * Returns the number of data points stored under given storage ID, or 0
+	 * if the ID is unknown
+	 */
+	int getNumOfStoredDataPoints(int ID) {
+		final StoredDataPoints stored = storedDataPoints.get(ID);
+		if (stored == null)
+			return 0;
+		return stored.numOfDataPoints;
+	}
+
+	/**
+	 * Returns the lock which must be held while the buffers returned by
+	 * readStoredFloats() are used. Any number of threads may hold it at the
+	 * same time.
+	 */
+	Lock getStorageReadLock() {
+		return storageLock.readLock();
+	}
 
-		DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+	/**
+	 * Returns the m/z and intensity pairs stored under given storage ID, as a
+	 * read-only buffer of floats. The caller must hold the storage read lock
+	 * until it is done with the buffer.
+	 */
+	FloatBuffer readStoredFloats(int ID) throws IOException {
 
-		for (int i = 0; i < numOfDataPoints; i++) {
-			float mz = floatBuffer.get();
-			float intensity = floatBuffer.get();
-			dataPoints[i] = new SimpleDataPoint(mz, intensity);
+		final StoredDataPoints stored = storedDataPoints.get(ID);
+		final ScanDataStorage storage = dataPointsStorage;
+
+		if ((stored == null) || (storage == null)) {
+			throw new IllegalArgumentException("Unknown storage ID " + ID);
 		}
 
-		return dataPoints;
+		return storage.readFloats(stored.offset, stored.numOfDataPoints * 2);
+
+	}
 
+	/**
+	 * Copies the data points stored under given storage ID to the given array,
+	 * in the format of the data points file (pairs of big-endian floats). The
+	 * array must be large enough, returns the number of copied bytes.
+	 */
+	public int readStoredBytes(int ID, byte buffer[]) throws IOException {
+		final Lock readLock = getStorageReadLock();
+		readLock.lock();
+		try {
+			final FloatBuffer floatBuffer = readStoredFloats(ID);
+			final int numOfBytes = floatBuffer.remaining() * 4;
+			ByteBuffer.wrap(buffer, 0, numOfBytes).asFloatBuffer()
+					.put(floatBuffer);
+			return numOfBytes;
+		} finally {
+			readLock.unlock();
+		}
 	}
 
 	public synchronized void removeStoredDataPoints(int ID) throws IOException {
 		dataPointsOffsets.remove(ID);
 		dataPointsLengths.remove(ID);
+		storedDataPoints.remove(ID);
+		modified = true;
 	}
 
 	public synchronized void addScan(Scan newScan) throws IOException {
 
+		modified = true;
+
 		// When we are loading the project, scan data file is already prepare
 		// and we just need store the reference
 		if (newScan instanceof StorableScan) {
@@ -420,9 +676,55 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 		}
 		logger.finest("Writing of scans to file " + dataPointsFileName
 				+ " finished");
+		closeIntensityPyramids();
 		return this;
 	}
 
+	private void closeIntensityPyramids() {
+		synchronized (intensityPyramids) {
+			for (IntensityPyramid pyramid : intensityPyramids.values())
+				pyramid.close();
+			intensityPyramids.clear();
+			requestedPyramids.clear();
+		}
+	}
+
+	/**
+	 * Returns the intensity pyramid of given MS level, or null if there is
+	 * none. The pyramid is built by the first call, so the visualizers call
+	 * this from their tasks. A pyramid which cannot be built is only
+	 * reported, the visualizers then read the scans.
+	 */
+	public IntensityPyramid getIntensityPyramid(int msLevel) {
+
+		synchronized (intensityPyramids) {
+
+			if (requestedPyramids.contains(msLevel))
+				return intensityPyramids.get(msLevel);
+			requestedPyramids.add(msLevel);
+
+			if (dataPointsFileName == null)
+				return null;
+
+			File pyramidFile = new File(dataPointsFileName.getPath() + ".ms"
+					+ msLevel + ".pyramid");
+			try {
+				IntensityPyramid pyramid = IntensityPyramid.build(this,
+						msLevel, pyramidFile);
+				if (pyramid != null)
+					intensityPyramids.put(msLevel, pyramid);
+				return pyramid;
+			} catch (IOException e) {
+				logger.warning("Could not build intensity pyramid of "
+						+ dataFileName + ": " + e.toString());
+				pyramidFile.delete();
+				return null;
+			}
+
+		}
+
+	}
+
 	public @Nonnull
 	Range getDataMZRange() {
 		return getDataMZRange(0);
@@ -518,12 +820,26 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 	}
 
 	public synchronized void close() {
+		closeIntensityPyramids();
+		storageLock.writeLock().lock();
 		try {
-			dataPointsFile.close();
-			dataPointsFileName.delete();
+			if (dataPointsStorage != null)
+				dataPointsStorage.close();
+			if (projectDataPointsFile != null)
+				projectDataPointsFile.close();
+			// No data points file is created until scans are stored
+			if (dataPointsFile != null) {
+				dataPointsFile.close();
+				// The file is also scheduled for removal on exit
+				if (!dataPointsFileName.delete())
+					logger.warning("Could not remove file "
+							+ dataPointsFileName);
+			}
 		} catch (IOException e) {
 			logger.warning("Could not close file " + dataPointsFileName + ": "
 					+ e.toString());
+		} finally {
+			storageLock.writeLock().unlock();
 		}
 	}
 
@@ -534,10 +850,46 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
 	public void setName(@Nonnull String name) {
 		this.dataFileName = name;
+		modified = true;
+	}
+
+	public String getProjectID() {
+		return projectID;
+	}
+
+	public void setProjectID(String projectID) {
+		this.projectID = projectID;
+	}
+
+	/**
+	 * Returns true if the file changed since it was last saved to or loaded
+	 * from a project
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	public void setModified(boolean modified) {
+		this.modified = modified;
 	}
 
 	public String toString() {
 		return dataFileName;
 	}
 
+	/**
+	 * Location of data points stored under one storage ID
+	 */
+	private static final class StoredDataPoints {
+
+		private final long offset;
+		private final int numOfDataPoints;
+
+		StoredDataPoints(long offset, int numOfDataPoints) {
+			this.offset = offset;
+			this.numOfDataPoints = numOfDataPoints;
+		}
+
+	}
+
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Backend of the temporary data points file used by RawDataFileImpl. The
+ * storage only appends and reads blocks of floats (m/z and intensity pairs);
+ * the mapping of storage IDs to offsets and lengths is maintained by
+ * RawDataFileImpl.
+ * 
+ * Implementations must allow readFloats() to be called concurrently from any
+ * number of threads, also while another thread is appending. Calls to append()
+ * are serialized by the caller.
+ */
+public interface ScanDataStorage {
+
+	/**
+	 * Appends the remaining bytes of the given buffer to the end of the
+	 * storage.
+	 * 
+	 * @return offset (in bytes) at which the data was written
+	 */
+	public long append(ByteBuffer data) throws IOException;
+
+	/**
+	 * Returns a buffer holding the given number of floats stored at the given
+	 * offset. The returned buffer is positioned at 0 and must be treated as
+	 * read-only, because it may directly reflect the storage.
+	 */
+	public FloatBuffer readFloats(long offset, int numOfFloats)
+			throws IOException;
+
+	/**
+	 * Releases all resources held by this storage. The underlying file is not
+	 * closed, that is a responsibility of the owner. The buffers returned by
+	 * readFloats() must not be used after closing.
+	 */
+	public void close();
+
+}
@@ -79,6 +79,24 @@ public class StorableMassList implements MassList {
 		}
 	}
 
+	@Override
+	public int getNumberOfDataPoints() {
+		return rawDataFile.getNumOfStoredDataPoints(storageID);
+	}
+
+	@Override
+	public int getDataPoints(@Nonnull double mzValues[],
+			@Nonnull double intensityValues[]) {
+		try {
+			return rawDataFile.readDataPoints(storageID, mzValues,
+					intensityValues);
+		} catch (IOException e) {
+			logger.severe("Could not read data from temporary file "
+					+ e.toString());
+			return 0;
+		}
+	}
+
 	public void removeStoredData() {
 		try {
 			rawDataFile.removeStoredDataPoints(storageID);
@@ -20,9 +20,10 @@
 package net.sf.mzmine.project.impl;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Vector;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
@@ -32,6 +33,7 @@ import net.sf.mzmine.data.DataPoint;
 import net.sf.mzmine.data.MassList;
 import net.sf.mzmine.data.RawDataFile;
 import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
 import net.sf.mzmine.desktop.impl.projecttree.ProjectTreeModel;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.util.Range;
@@ -40,6 +42,10 @@ import net.sf.mzmine.util.ScanUtils;
 /**
  * Implementation of the Scan interface which stores raw data points in a
  * temporary file, accessed by RawDataFileImpl.readFromFloatBufferFile()
+ * 
+ * The stored data points are sorted by m/z, so the range queries
+ * (getDataPointsByMass) binary-search the stored m/z values and decode only
+ * the matching data points.
  */
 public class StorableScan implements Scan {
 
@@ -119,34 +125,117 @@ public class StorableScan implements Scan {
 
 	}
 
+	/**
+	 * @see net.sf.mzmine.data.Scan#getDataPoints(double[], double[])
+	 */
+	public int getDataPoints(@Nonnull double mzValues[],
+			@Nonnull double intensityValues[]) {
+
+		try {
+			return rawDataFile.readDataPoints(storageID, mzValues,
+					intensityValues);
+		} catch (IOException e) {
+			logger.severe("Could not read data from temporary file "
+					+ e.toString());
+			return 0;
+		}
+
+	}
+
 	/**
 	 * @return Returns scan datapoints within a given range
 	 */
 	public @Nonnull
 	DataPoint[] getDataPointsByMass(@Nonnull Range mzRange) {
 
-		DataPoint dataPoints[] = getDataPoints();
-
-		int startIndex, endIndex;
-		for (startIndex = 0; startIndex < dataPoints.length; startIndex++) {
-			if (dataPoints[startIndex].getMZ() >= mzRange.getMin()) {
-				break;
+		final Lock readLock = rawDataFile.getStorageReadLock();
+		readLock.lock();
+		try {
+			final FloatBuffer floatBuffer = rawDataFile
+					.readStoredFloats(storageID);
+			final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+			final int startIndex = findIndex(floatBuffer, numOfDataPoints,
+					mzRange.getMin(), false);
+			final int endIndex = findIndex(floatBuffer, numOfDataPoints,
+					mzRange.getMax(), true);
+
+			// Decode only the relevant points
+			DataPoint pointsWithinRange[] = new DataPoint[Math.max(0, endIndex
+					- startIndex)];
+			for (int i = 0; i < pointsWithinRange.length; i++) {
+				final int floatIndex = (startIndex + i) * 2;
+				pointsWithinRange[i] = new SimpleDataPoint(
+						floatBuffer.get(floatIndex),
+						floatBuffer.get(floatIndex + 1));
 			}
+
+			return pointsWithinRange;
+
+		} catch (IOException e) {
+			logger.severe("Could not read data from temporary file "
+					+ e.toString());
+			return new DataPoint[0];
+		} finally {
+			readLock.unlock();
 		}
+	}
 
-		for (endIndex = startIndex; endIndex < dataPoints.length; endIndex++) {
-			if (dataPoints[endIndex].getMZ() > mzRange.getMax()) {
-				break;
+	/**
+	 * @see net.sf.mzmine.data.Scan#getDataPointsByMass(Range, double[],
+	 *      double[])
+	 */
+	public int getDataPointsByMass(@Nonnull Range mzRange,
+			@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+
+		final Lock readLock = rawDataFile.getStorageReadLock();
+		readLock.lock();
+		try {
+			final FloatBuffer floatBuffer = rawDataFile
+					.readStoredFloats(storageID);
+			final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+			final int startIndex = findIndex(floatBuffer, numOfDataPoints,
+					mzRange.getMin(), false);
+			final int endIndex = findIndex(floatBuffer, numOfDataPoints,
+					mzRange.getMax(), true);
+
+			int count = 0;
+			for (int i = startIndex; i < endIndex; i++) {
+				mzValues[count] = floatBuffer.get(i * 2);
+				intensityValues[count] = floatBuffer.get(i * 2 + 1);
+				count++;
 			}
-		}
 
-		DataPoint pointsWithinRange[] = new DataPoint[endIndex - startIndex];
+			return count;
 
-		// Copy the relevant points
-		System.arraycopy(dataPoints, startIndex, pointsWithinRange, 0, endIndex
-				- startIndex);
+		} catch (IOException e) {
+			logger.severe("Could not read data from temporary file "
+					+ e.toString());
+			return 0;
+		} finally {
+			readLock.unlock();
+		}
+	}
 
-		return pointsWithinRange;
+	/**
+	 * Binary search in the stored m/z values (every other float of the
+	 * buffer). Returns the index of the first data point with m/z greater or
+	 * equal than given value, or strictly greater if afterEqual is true.
+	 * Returns numOfDataPoints if there is no such data point.
+	 */
+	private static int findIndex(FloatBuffer floatBuffer, int numOfDataPoints,
+			double mz, boolean afterEqual) {
+		int low = 0, high = numOfDataPoints;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			final double middleMZ = floatBuffer.get(middle * 2);
+			if ((middleMZ < mz) || (afterEqual && (middleMZ == mz)))
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
 	}
 
 	/**
@@ -154,19 +243,41 @@ public class StorableScan implements Scan {
 	 */
 	public @Nonnull
 	DataPoint[] getDataPointsOverIntensity(double intensity) {
-		int index;
-		Vector<DataPoint> points = new Vector<DataPoint>();
-		DataPoint dataPoints[] = getDataPoints();
 
-		for (index = 0; index < dataPoints.length; index++) {
-			if (dataPoints[index].getIntensity() >= intensity) {
-				points.add(dataPoints[index]);
+		final Lock readLock = rawDataFile.getStorageReadLock();
+		readLock.lock();
+		try {
+			final FloatBuffer floatBuffer = rawDataFile
+					.readStoredFloats(storageID);
+			final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+			// Count the matching points first, so we can allocate the result
+			// array directly
+			int count = 0;
+			for (int i = 0; i < numOfDataPoints; i++) {
+				if (floatBuffer.get(i * 2 + 1) >= intensity)
+					count++;
+			}
+
+			DataPoint pointsOverIntensity[] = new DataPoint[count];
+			int index = 0;
+			for (int i = 0; i < numOfDataPoints; i++) {
+				final float dpIntensity = floatBuffer.get(i * 2 + 1);
+				if (dpIntensity >= intensity) {
+					pointsOverIntensity[index++] = new SimpleDataPoint(
+							floatBuffer.get(i * 2), dpIntensity);
+				}
 			}
-		}
 
-		DataPoint pointsOverIntensity[] = points.toArray(new DataPoint[0]);
+			return pointsOverIntensity;
 
-		return pointsOverIntensity;
+		} catch (IOException e) {
+			logger.severe("Could not read data from temporary file "
+					+ e.toString());
+			return new DataPoint[0];
+		} finally {
+			readLock.unlock();
+		}
 	}
 
 	public @Nonnull
@@ -221,26 +332,48 @@ public class StorableScan implements Scan {
 	}
 
 	void updateValues() {
-		DataPoint dataPoints[] = getDataPoints();
+
+		final Lock readLock = rawDataFile.getStorageReadLock();
+		readLock.lock();
+		try {
+			updateValues(rawDataFile.readStoredFloats(storageID));
+		} catch (IOException e) {
+			logger.severe("Could not read data from temporary file "
+					+ e.toString());
+			updateValues(FloatBuffer.allocate(0));
+		} finally {
+			readLock.unlock();
+		}
+
+	}
+
+	private void updateValues(FloatBuffer floatBuffer) {
+
+		final int numOfDataPoints = floatBuffer.remaining() / 2;
 
 		// find m/z range and base peak
-		if (dataPoints.length > 0) {
+		if (numOfDataPoints > 0) {
 
-			basePeak = dataPoints[0];
-			mzRange = new Range(dataPoints[0].getMZ(), dataPoints[0].getMZ());
+			int basePeakIndex = 0;
+			mzRange = new Range(floatBuffer.get(0), floatBuffer.get(0));
 			double tic = 0;
 
-			for (DataPoint dp : dataPoints) {
+			for (int i = 0; i < numOfDataPoints; i++) {
+
+				final float mz = floatBuffer.get(i * 2);
+				final float intensity = floatBuffer.get(i * 2 + 1);
 
-				if (dp.getIntensity() > basePeak.getIntensity())
-					basePeak = dp;
+				if (intensity > floatBuffer.get(basePeakIndex * 2 + 1))
+					basePeakIndex = i;
 
-				mzRange.extendRange(dp.getMZ());
+				mzRange.extendRange(mz);
 
-				tic += dp.getIntensity();
+				tic += intensity;
 
 			}
 
+			basePeak = new SimpleDataPoint(floatBuffer.get(basePeakIndex * 2),
+					floatBuffer.get(basePeakIndex * 2 + 1));
 			totalIonCurrent = new Double(tic);
 
 		} else {
@@ -19,7 +19,8 @@
 
 package net.sf.mzmine.taskcontrol;
 
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskStatus;
@@ -30,8 +31,8 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
  */
 public abstract class AbstractTask implements Task {
 
-	private TaskStatus status = TaskStatus.WAITING;
-	private LinkedList<TaskListener> taskListeners = new LinkedList<TaskListener>();
+	private volatile TaskStatus status = TaskStatus.WAITING;
+	private List<TaskListener> taskListeners = new CopyOnWriteArrayList<TaskListener>();
 	protected String errorMessage = null;
 
 	/**
@@ -44,6 +45,16 @@ public abstract class AbstractTask implements Task {
 		taskListeners.add(t);
 	}
 
+	/**
+	 * Removes a TaskListener from this Task
+	 * 
+	 * @param t
+	 *            The TaskListener to remove
+	 */
+	public void removeTaskListener(TaskListener t) {
+		taskListeners.remove(t);
+	}
+
 	/**
 	 * Returns all of the TaskListeners which are listening to this task.
 	 * 
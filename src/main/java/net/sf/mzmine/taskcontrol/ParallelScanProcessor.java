@@ -0,0 +1,166 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.taskcontrol;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Processes the scans of one raw data file in parallel. The scans are split
+ * into blocks which are processed by the parallel executor of MZmineCore,
+ * while the results are stored by the calling thread in the order of the scan
+ * numbers. Only a limited number of blocks is processed ahead of the results
+ * being stored.
+ * 
+ * @param <ResultType>
+ *            result of processing one scan
+ */
+public abstract class ParallelScanProcessor<ResultType> {
+
+	// Number of scans processed by one job
+	private static final int SCANS_PER_JOB = 16;
+
+	// Number of jobs per thread which may be queued ahead of storing
+	private static final int JOBS_AHEAD_PER_THREAD = 4;
+
+	// Written by the thread which runs process(), read by the task progress
+	private volatile int processedScans = 0;
+
+	/**
+	 * Processes one scan. Called concurrently from the worker threads, so it
+	 * must not modify any shared state.
+	 */
+	protected abstract ResultType processScan(int scanNumber) throws Exception;
+
+	/**
+	 * Stores the result of processing one scan. Called from the thread which
+	 * runs process(), in the order of the scan numbers.
+	 */
+	protected abstract void storeResult(int scanNumber, ResultType result)
+			throws Exception;
+
+	/**
+	 * Returns the number of scans whose results have been stored
+	 */
+	public int getProcessedScans() {
+		return processedScans;
+	}
+
+	/**
+	 * Processes the given scans using the number of threads set in the
+	 * preferences. Stops early if the task is canceled.
+	 */
+	public void process(final int scanNumbers[], final AbstractTask task)
+			throws Exception {
+
+		int numOfThreads = MZmineCore.getConfiguration().getPreferences()
+				.getParameter(MZminePreferences.numOfThreads)
+				.getNumOfThreads();
+		process(scanNumbers, task, numOfThreads);
+
+	}
+
+	/**
+	 * Processes the given scans, keeping up to JOBS_AHEAD_PER_THREAD jobs per
+	 * thread ahead of the stored results
+	 */
+	@SuppressWarnings("unchecked")
+	void process(final int scanNumbers[], final AbstractTask task,
+			int numOfThreads) throws Exception {
+
+		// No need for a pool, if there is nothing to parallelize
+		if ((numOfThreads <= 1) || (scanNumbers.length <= SCANS_PER_JOB)) {
+			for (int scanNumber : scanNumbers) {
+				if (task.isCanceled())
+					return;
+				storeResult(scanNumber, processScan(scanNumber));
+				processedScans++;
+			}
+			return;
+		}
+
+		ExecutorService executor = MZmineCore.getParallelExecutor();
+		LinkedList<Future<Object[]>> jobs = new LinkedList<Future<Object[]>>();
+
+		try {
+
+			int maxJobs = numOfThreads * JOBS_AHEAD_PER_THREAD;
+			int nextScan = 0;
+
+			while ((nextScan < scanNumbers.length) || (!jobs.isEmpty())) {
+
+				if (task.isCanceled())
+					return;
+
+				while ((nextScan < scanNumbers.length)
+						&& (jobs.size() < maxJobs)) {
+					final int first = nextScan;
+					final int last = Math.min(first + SCANS_PER_JOB,
+							scanNumbers.length);
+					jobs.add(executor.submit(new Callable<Object[]>() {
+						public Object[] call() throws Exception {
+							Object results[] = new Object[last - first];
+							for (int i = first; i < last; i++) {
+								if (task.isCanceled())
+									break;
+								results[i - first] = processScan(scanNumbers[i]);
+							}
+							return results;
+						}
+					}));
+					nextScan = last;
+				}
+
+				// Results are stored in order, so the first job starts at the
+				// number of scans stored so far
+				Object results[];
+				try {
+					results = jobs.removeFirst().get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Exception)
+						throw (Exception) cause;
+					throw e;
+				}
+				if (task.isCanceled())
+					return;
+				for (int i = 0; i < results.length; i++) {
+					storeResult(scanNumbers[processedScans],
+							(ResultType) results[i]);
+					processedScans++;
+				}
+
+			}
+
+		} finally {
+			// Jobs which are already running finish their block
+			for (Future<Object[]> job : jobs)
+				job.cancel(false);
+		}
+
+	}
+
+}
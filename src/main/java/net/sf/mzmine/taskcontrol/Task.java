@@ -48,6 +48,8 @@ public interface Task extends Runnable {
 
 	public void addTaskListener(TaskListener t);
 
+	public void removeTaskListener(TaskListener t);
+
 	public TaskListener[] getTaskListeners();
 
 }
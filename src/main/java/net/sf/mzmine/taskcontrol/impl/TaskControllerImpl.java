@@ -25,36 +25,78 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.*;
 
 import javax.swing.*;
-import java.util.ArrayList;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
- * Task controller implementation
+ * Task controller implementation. Tasks are executed by a pool of worker
+ * threads. HIGH priority tasks are started immediately, NORMAL priority tasks
+ * wait until the number of running NORMAL tasks drops below the maximum number
+ * of concurrent threads specified in the preferences. The next waiting task is
+ * started as soon as a running task finishes, without any polling.
+ * 
+ * The pool has a few more threads than the maximum number of NORMAL tasks, so
+ * HIGH priority tasks find a free thread even when all NORMAL threads are busy.
+ * If more HIGH priority tasks are started at once, they wait in the queue of
+ * the pool.
  */
-public class TaskControllerImpl implements TaskController, Runnable {
+public class TaskControllerImpl implements TaskController, TaskListener {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	ArrayList<TaskControlListener> listeners = new ArrayList<TaskControlListener>();
+	List<TaskControlListener> listeners = new CopyOnWriteArrayList<TaskControlListener>();
 
 	/**
 	 * Update the task progress window every 300 ms
 	 */
-	private final int TASKCONTROLLER_THREAD_SLEEP = 300;
+	private final int TASK_WINDOW_REFRESH_INTERVAL = 300;
+
+	/**
+	 * Priority of the pool threads while they process a task of any priority,
+	 * until the priority is changed in the task progress window
+	 */
+	static final int WORKER_THREAD_PRIORITY = Thread.MIN_PRIORITY;
+
+	/**
+	 * Number of pool threads reserved for HIGH priority tasks
+	 */
+	static final int HIGH_PRIORITY_THREADS = 4;
+
+	/**
+	 * Idle pool threads are discarded after this many seconds
+	 */
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
 
-	private Thread taskControllerThread;
+	private ThreadPoolExecutor workerPool;
 
 	private TaskQueue taskQueue;
 	private TaskProgressWindow taskWindow;
+	private Timer taskWindowTimer;
 
 	/**
-	 * This vector contains references to all running threads of NORMAL
-	 * priority. Maximum number of concurrent threads is specified in the
-	 * preferences dialog.
+	 * NORMAL priority tasks waiting for a free thread, in the order of their
+	 * submission. Guarded by this.
 	 */
-	private Vector<WorkerThread> runningThreads;
+	private LinkedList<WrappedTask> waitingTasks;
+
+	/**
+	 * Number of running tasks which were started with NORMAL priority. Maximum
+	 * number of concurrent threads is specified in the preferences dialog.
+	 * Guarded by this.
+	 */
+	private int numOfRunningTasks;
+
+	private int previousQueueSize = -1;
 
 	/**
 	 * Initialize the task controller
@@ -63,16 +105,37 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
 		taskQueue = new TaskQueue();
 
-		runningThreads = new Vector<WorkerThread>();
-
-		// Create a low-priority thread that will manage the queue and start
-		// worker threads for tasks
-		taskControllerThread = new Thread(this, "Task controller thread");
-		taskControllerThread.setPriority(Thread.MIN_PRIORITY);
-		taskControllerThread.start();
+		waitingTasks = new LinkedList<WrappedTask>();
+
+		// Create a pool of low-priority threads that will process the tasks.
+		// Idle threads are discarded after a while. The size of the pool is
+		// set from the preferences when the tasks are started.
+		workerPool = new ThreadPoolExecutor(HIGH_PRIORITY_THREADS,
+				HIGH_PRIORITY_THREADS, THREAD_KEEP_ALIVE_SECONDS,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger(
+							1);
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Task worker thread "
+								+ threadNumber.getAndIncrement());
+						thread.setPriority(WORKER_THREAD_PRIORITY);
+						return thread;
+					}
+				});
+		workerPool.allowCoreThreadTimeOut(true);
 
 		// Create the task progress window
 		taskWindow = new TaskProgressWindow();
+
+		// Refresh the progress of the tasks while the window is shown
+		taskWindowTimer = new Timer(TASK_WINDOW_REFRESH_INTERVAL,
+				new ActionListener() {
+					public void actionPerformed(ActionEvent e) {
+						taskQueue.refresh();
+					}
+				});
 	}
 
 	TaskQueue getTaskQueue() {
@@ -98,16 +161,25 @@ public class TaskControllerImpl implements TaskController, Runnable {
 		if ((tasks == null) || (tasks.length == 0))
 			return;
 
-		for (Task task : tasks) {
-			WrappedTask newQueueEntry = new WrappedTask(task, priority);
-			taskQueue.addWrappedTask(newQueueEntry);
-		}
-
-		// Wake up the task controller thread
 		synchronized (this) {
-			this.notifyAll();
+			for (Task task : tasks) {
+				WrappedTask newQueueEntry = new WrappedTask(task, priority);
+				taskQueue.addWrappedTask(newQueueEntry);
+
+				// Listen to the task, so we notice when it is canceled before
+				// it was started
+				task.addTaskListener(this);
+
+				if (priority == TaskPriority.HIGH)
+					startTask(newQueueEntry, false);
+				else
+					waitingTasks.add(newQueueEntry);
+			}
+			startWaitingTasks();
 		}
 
+		updateQueueState();
+
 		// Show the task list component, if we have GUI
 		if (MZmineCore.getDesktop().getMainFrame() != null) {
 			SwingUtilities.invokeLater(new Runnable() {
@@ -123,6 +195,7 @@ public class TaskControllerImpl implements TaskController, Runnable {
 						SwingUtilities.updateComponentTreeUI(taskWindow);
 					}
 					taskWindow.setVisible(true);
+					taskWindowTimer.start();
 				}
 			});
 		}
@@ -130,103 +203,149 @@ public class TaskControllerImpl implements TaskController, Runnable {
 	}
 
 	/**
-	 * Task controller thread main method.
-	 * 
-	 * @see java.lang.Runnable#run()
+	 * Starts NORMAL priority tasks from the waiting list, as long as the
+	 * maximum number of concurrent threads is not reached
 	 */
-	public void run() {
+	private synchronized void startWaitingTasks() {
 
-		int previousQueueSize = -1;
+		int maxRunningThreads = getMaxRunningThreads();
 
-		while (true) {
+		Iterator<WrappedTask> taskIterator = waitingTasks.iterator();
+		while (taskIterator.hasNext()
+				&& (numOfRunningTasks < maxRunningThreads)) {
+			WrappedTask task = taskIterator.next();
+			taskIterator.remove();
 
-			int currentQueueSize = taskQueue.getNumOfWaitingTasks();
-			if (currentQueueSize != previousQueueSize) {
-				previousQueueSize = currentQueueSize;
-				for (TaskControlListener listener : listeners)
-					listener.numberOfWaitingTasksChanged(currentQueueSize);
+			// Skip canceled tasks
+			if (task.getActualTask().getStatus() == TaskStatus.CANCELED) {
+				task.getActualTask().removeTaskListener(this);
+				continue;
 			}
 
-			// If the queue is empty, we can sleep. When new task is added into
-			// the queue, we will be awaken by notify()
-			synchronized (this) {
-				while (taskQueue.isEmpty()) {
-					try {
-						this.wait();
-					} catch (InterruptedException e) {
-						// Ignore
-					}
-				}
-			}
+			startTask(task, true);
+		}
 
-			// Check if all tasks in the queue are finished
-			if (taskQueue.allTasksFinished()) {
-				if (MZmineCore.getDesktop().getMainFrame() != null) {
-					SwingUtilities.invokeLater(new Runnable() {
-						public void run() {
-							taskWindow.setVisible(false);
-						}
-					});
-				}
-				taskQueue.clear();
-				continue;
-			}
+	}
 
-			// Remove already finished threads from runningThreads
-			Iterator<WorkerThread> threadIterator = runningThreads.iterator();
-			while (threadIterator.hasNext()) {
-				WorkerThread thread = threadIterator.next();
-				if (thread.isFinished())
-					threadIterator.remove();
-			}
+	/**
+	 * Submits the task to the worker pool
+	 * 
+	 * @param limited
+	 *            true if the task counts towards the maximum number of
+	 *            concurrent threads
+	 */
+	private synchronized void startTask(WrappedTask task, boolean limited) {
+		if (limited)
+			numOfRunningTasks++;
+		updatePoolSize();
+		workerPool.execute(new TaskWorker(this, task, limited));
+	}
+
+	/**
+	 * Resizes the worker pool when the maximum number of concurrent threads
+	 * was changed in the preferences. Threads of the running tasks are kept
+	 * until their tasks finish.
+	 */
+	private void updatePoolSize() {
+		int poolSize = getMaxRunningThreads() + HIGH_PRIORITY_THREADS;
+		if (poolSize > workerPool.getMaximumPoolSize()) {
+			workerPool.setMaximumPoolSize(poolSize);
+			workerPool.setCorePoolSize(poolSize);
+		} else if (poolSize < workerPool.getMaximumPoolSize()) {
+			workerPool.setCorePoolSize(poolSize);
+			workerPool.setMaximumPoolSize(poolSize);
+		}
+	}
 
-			// Get a snapshot of the queue
-			WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
+	/**
+	 * Obtain the settings of max concurrent threads
+	 */
+	private int getMaxRunningThreads() {
+		NumOfThreadsParameter parameter = MZmineCore.getConfiguration()
+				.getPreferences().getParameter(MZminePreferences.numOfThreads);
+		return parameter.getNumOfThreads();
+	}
 
-			// Obtain the settings of max concurrent threads
-			NumOfThreadsParameter parameter = MZmineCore.getConfiguration()
-					.getPreferences()
-					.getParameter(MZminePreferences.numOfThreads);
-			int maxRunningThreads;
-			if (parameter.isAutomatic() || (parameter.getValue() == null))
-				maxRunningThreads = Runtime.getRuntime().availableProcessors();
-			else
-				maxRunningThreads = parameter.getValue();
+	/**
+	 * Called by the TaskWorker when the processing of a task has finished
+	 */
+	void taskFinished(WrappedTask task, boolean limited) {
+		synchronized (this) {
+			if (limited)
+				numOfRunningTasks--;
+			startWaitingTasks();
+		}
+		updateQueueState();
+	}
 
-			// Check all tasks in the queue
-			for (WrappedTask task : queueSnapshot) {
+	/**
+	 * Notifies the listeners about the number of waiting tasks and clears the
+	 * queue when all tasks are finished
+	 */
+	private void updateQueueState() {
 
-				// Skip assigned and canceled tasks
-				if (task.isAssigned()
-						|| (task.getActualTask().getStatus() == TaskStatus.CANCELED))
-					continue;
+		int currentQueueSize;
+		boolean allTasksFinished;
+		synchronized (this) {
+			currentQueueSize = taskQueue.getNumOfWaitingTasks();
+			if (currentQueueSize == previousQueueSize)
+				currentQueueSize = -1;
+			else
+				previousQueueSize = currentQueueSize;
 
-				// Create a new thread if the task is high-priority or if we
-				// have less then maximum # of threads running
-				if ((task.getPriority() == TaskPriority.HIGH)
-						|| (runningThreads.size() < maxRunningThreads)) {
-					WorkerThread newThread = new WorkerThread(task);
+			// Tasks may finish in any order, so the queue is only cleared
+			// once all of them are done
+			allTasksFinished = !taskQueue.isEmpty()
+					&& taskQueue.allTasksFinished();
+			if (allTasksFinished) {
+				waitingTasks.clear();
+				taskQueue.clear();
+			}
+		}
 
-					if (task.getPriority() == TaskPriority.NORMAL) {
-						runningThreads.add(newThread);
-					}
+		if (currentQueueSize >= 0) {
+			for (TaskControlListener listener : listeners)
+				listener.numberOfWaitingTasksChanged(currentQueueSize);
+		}
 
-					newThread.start();
+		if (allTasksFinished && (MZmineCore.getDesktop().getMainFrame() != null)) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					taskWindowTimer.stop();
+					taskWindow.setVisible(false);
 				}
-			}
+			});
+		}
 
-			// Tell the queue to refresh the Task progress window
-			taskQueue.refresh();
+	}
 
-			// Sleep for a while until next update
-			try {
-				Thread.sleep(TASKCONTROLLER_THREAD_SLEEP);
-			} catch (InterruptedException e) {
-				// Ignore
+	/**
+	 * Task status listener, used to release the tasks which were canceled
+	 * while waiting for a free thread. The listener is removed from each task
+	 * once the task is finished or released.
+	 * 
+	 * @see net.sf.mzmine.taskcontrol.TaskListener#statusChanged(net.sf.mzmine.taskcontrol.TaskEvent)
+	 */
+	public void statusChanged(TaskEvent e) {
+		if (e.getStatus() != TaskStatus.CANCELED)
+			return;
+		boolean removed = false;
+		synchronized (this) {
+			Iterator<WrappedTask> taskIterator = waitingTasks.iterator();
+			while (taskIterator.hasNext()) {
+				if (taskIterator.next().getActualTask() == e.getSource()) {
+					taskIterator.remove();
+					removed = true;
+				}
 			}
-
 		}
 
+		// The task will never be started, so we stop listening to it. Running
+		// tasks are released by their TaskWorker.
+		if (removed)
+			e.getSource().removeTaskListener(this);
+
+		updateQueueState();
 	}
 
 	public void setTaskPriority(Task task, TaskPriority priority) {
@@ -242,6 +361,15 @@ public class TaskControllerImpl implements TaskController, Runnable {
 						+ task.getTaskDescription() + "\" to " + priority);
 				wrappedTask.setPriority(priority);
 
+				// A waiting task raised to HIGH priority is started
+				// immediately
+				if (priority == TaskPriority.HIGH) {
+					synchronized (this) {
+						if (waitingTasks.remove(wrappedTask))
+							startTask(wrappedTask, false);
+					}
+				}
+
 				// Call refresh to re-sort the queue according to new priority
 				// and update the Task progress window
 				taskQueue.refresh();
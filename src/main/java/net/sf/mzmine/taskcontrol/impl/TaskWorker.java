@@ -28,20 +28,27 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 
 /**
- * Task controller worker thread, this thread will process one task and then
- * finish
+ * Task controller worker, this runnable will process one task in a thread of
+ * the task controller pool and then notify the task controller
  */
-class WorkerThread extends Thread {
+class TaskWorker implements Runnable {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private WrappedTask wrappedTask;
-	private boolean finished = false;
+	private final TaskControllerImpl taskController;
+	private final WrappedTask wrappedTask;
+	private final boolean limited;
 
-	WorkerThread(WrappedTask wrappedTask) {
-		super("Thread executing task " + wrappedTask);
+	/**
+	 * @param limited
+	 *            true if this worker counts towards the maximum number of
+	 *            concurrent tasks (NORMAL priority tasks)
+	 */
+	TaskWorker(TaskControllerImpl taskController, WrappedTask wrappedTask,
+			boolean limited) {
+		this.taskController = taskController;
 		this.wrappedTask = wrappedTask;
-		wrappedTask.assignTo(this);
+		this.limited = limited;
 	}
 
 	/**
@@ -49,6 +56,11 @@ class WorkerThread extends Thread {
 	 */
 	public void run() {
 
+		Thread currentThread = Thread.currentThread();
+		String threadName = currentThread.getName();
+		currentThread.setName("Thread executing task " + wrappedTask);
+		wrappedTask.assignTo(currentThread);
+
 		Task actualTask = wrappedTask.getActualTask();
 
 		logger.finest("Starting processing of task: "
@@ -56,8 +68,10 @@ class WorkerThread extends Thread {
 
 		try {
 
-			// Process the actual task
-			actualTask.run();
+			// Process the actual task, unless it was canceled while waiting
+			// in the pool queue
+			if (actualTask.getStatus() != TaskStatus.CANCELED)
+				actualTask.run();
 
 			// Check if task finished with an error
 			if (actualTask.getStatus() == TaskStatus.ERROR) {
@@ -101,14 +115,20 @@ class WorkerThread extends Thread {
 		}
 
 		/*
-		 * Mark this thread as finished
+		 * The task controller does not need status changes of the processed
+		 * task anymore, so the task does not keep a reference to it
 		 */
-		finished = true;
+		actualTask.removeTaskListener(taskController);
 
-	}
+		/*
+		 * Return the thread to the pool in its original state and let the task
+		 * controller start the next waiting task
+		 */
+		wrappedTask.releaseThread();
+		currentThread.setPriority(TaskControllerImpl.WORKER_THREAD_PRIORITY);
+		currentThread.setName(threadName);
+		taskController.taskFinished(wrappedTask, limited);
 
-	boolean isFinished() {
-		return finished;
 	}
 
 }
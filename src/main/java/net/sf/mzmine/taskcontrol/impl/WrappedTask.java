@@ -29,7 +29,7 @@ class WrappedTask {
 
 	private Task task;
 	private TaskPriority priority;
-	private WorkerThread assignedTo;
+	private Thread assignedTo;
 
 	WrappedTask(Task task, TaskPriority priority) {
 		this.task = task;
@@ -39,7 +39,7 @@ class WrappedTask {
 	/**
 	 * @return Returns the priority.
 	 */
-	TaskPriority getPriority() {
+	synchronized TaskPriority getPriority() {
 		return priority;
 	}
 
@@ -47,7 +47,7 @@ class WrappedTask {
 	 * @param priority
 	 *            The priority to set.
 	 */
-	void setPriority(TaskPriority priority) {
+	synchronized void setPriority(TaskPriority priority) {
 		this.priority = priority;
 		if (assignedTo != null) {
 			switch (priority) {
@@ -64,14 +64,22 @@ class WrappedTask {
 	/**
 	 * @return Returns the assigned.
 	 */
-	boolean isAssigned() {
+	synchronized boolean isAssigned() {
 		return assignedTo != null;
 	}
 
-	void assignTo(WorkerThread thread) {
+	synchronized void assignTo(Thread thread) {
 		assignedTo = thread;
 	}
 
+	/**
+	 * Releases the pool thread after the task is processed, so that later
+	 * priority changes do not affect other tasks executed by the same thread
+	 */
+	synchronized void releaseThread() {
+		assignedTo = null;
+	}
+
 	/**
 	 * @return Returns the task.
 	 */
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2006-2012 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streaming decoder of Base64-encoded binary arrays, as used in mzXML, mzData
+ * and mzML files. The characters are decoded as they are received from the XML
+ * parser into a reusable byte buffer, optionally inflated (zlib) into another
+ * reusable buffer, and converted directly to primitive double values. One
+ * instance should be reused for all arrays of a file, and it must not be
+ * shared by multiple threads.
+ */
+public class BinaryArrayDecoder {
+
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	// Base64 character values, -1 for characters which are not part of the
+	// Base64 alphabet (e.g. white space)
+	private static final byte BASE64_VALUES[] = new byte[128];
+
+	static {
+		for (int i = 0; i < BASE64_VALUES.length; i++)
+			BASE64_VALUES[i] = -1;
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); i++)
+			BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+	}
+
+	// Decoded (possibly compressed) bytes
+	private byte encodedBytes[] = new byte[INITIAL_CAPACITY];
+	private int numOfEncodedBytes;
+
+	// Inflated bytes, used only for compressed arrays
+	private byte inflatedBytes[] = new byte[INITIAL_CAPACITY];
+
+	// Bytes of the last decoded array, either encodedBytes or inflatedBytes
+	private byte decodedBytes[];
+	private int numOfDecodedBytes;
+	private ByteOrder byteOrder;
+	private boolean doublePrecision;
+
+	// Incomplete Base64 quantum (up to 4 characters, 6 bits each)
+	private int quantum, quantumLength;
+	private boolean paddingReached;
+
+	/**
+	 * Prepares the decoder for a new array
+	 */
+	public void reset() {
+		numOfEncodedBytes = 0;
+		quantum = 0;
+		quantumLength = 0;
+		paddingReached = false;
+	}
+
+	/**
+	 * Decodes a chunk of Base64 characters, as received by
+	 * ContentHandler.characters(). White space is ignored.
+	 */
+	public void append(char chars[], int offset, int length) {
+
+		// Each 4 characters produce at most 3 bytes
+		ensureEncodedCapacity(numOfEncodedBytes + (length / 4 + 1) * 3);
+
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+
+			char c = chars[i];
+
+			if (c == '=') {
+				paddingReached = true;
+				continue;
+			}
+
+			if (paddingReached || (c >= BASE64_VALUES.length))
+				continue;
+
+			int value = BASE64_VALUES[c];
+			if (value < 0)
+				continue;
+
+			quantum = (quantum << 6) | value;
+			quantumLength++;
+
+			if (quantumLength == 4) {
+				encodedBytes[numOfEncodedBytes++] = (byte) (quantum >> 16);
+				encodedBytes[numOfEncodedBytes++] = (byte) (quantum >> 8);
+				encodedBytes[numOfEncodedBytes++] = (byte) quantum;
+				quantum = 0;
+				quantumLength = 0;
+			}
+		}
+	}
+
+	/**
+	 * Finishes decoding of the array and returns the number of values it
+	 * contains. The values can be obtained by getValues() or getValuePairs().
+	 * 
+	 * @param compressed
+	 *            true if the array is zlib-compressed
+	 * @param doublePrecision
+	 *            true for 64-bit, false for 32-bit floating point values
+	 * @param byteOrder
+	 *            byte order of the values
+	 * @throws IOException
+	 *             if the compressed data is corrupt or truncated
+	 */
+	public int decode(boolean compressed, boolean doublePrecision,
+			ByteOrder byteOrder) throws IOException {
+
+		// Flush the last incomplete quantum (padded input)
+		if (quantumLength == 2) {
+			ensureEncodedCapacity(numOfEncodedBytes + 1);
+			encodedBytes[numOfEncodedBytes++] = (byte) (quantum >> 4);
+		} else if (quantumLength == 3) {
+			ensureEncodedCapacity(numOfEncodedBytes + 2);
+			encodedBytes[numOfEncodedBytes++] = (byte) (quantum >> 10);
+			encodedBytes[numOfEncodedBytes++] = (byte) (quantum >> 2);
+		}
+		quantum = 0;
+		quantumLength = 0;
+
+		// An empty element is an empty array, even if marked as compressed
+		if (compressed && (numOfEncodedBytes > 0)) {
+			inflate();
+		} else {
+			decodedBytes = encodedBytes;
+			numOfDecodedBytes = numOfEncodedBytes;
+		}
+
+		this.doublePrecision = doublePrecision;
+		this.byteOrder = byteOrder;
+
+		return numOfDecodedBytes / (doublePrecision ? 8 : 4);
+	}
+
+	/**
+	 * Copies the decoded values to the given array, which must be large
+	 * enough to hold all of them
+	 */
+	public void getValues(double values[]) {
+		getValues(values, null);
+	}
+
+	/**
+	 * Copies the decoded values, which are interleaved pairs (e.g. m/z and
+	 * intensity in mzXML), to the given arrays. Each array must be large
+	 * enough to hold half of the values.
+	 */
+	public void getValuePairs(double firstValues[], double secondValues[]) {
+		getValues(firstValues, secondValues);
+	}
+
+	private void getValues(double firstValues[], double secondValues[]) {
+
+		ByteBuffer bytes = ByteBuffer.wrap(decodedBytes, 0, numOfDecodedBytes)
+				.order(byteOrder);
+
+		if (doublePrecision) {
+			DoubleBuffer values = bytes.asDoubleBuffer();
+			int numOfValues = values.remaining();
+			if (secondValues == null) {
+				values.get(firstValues, 0, numOfValues);
+				return;
+			}
+			for (int i = 0, j = 0; j + 1 < numOfValues; i++, j += 2) {
+				firstValues[i] = values.get(j);
+				secondValues[i] = values.get(j + 1);
+			}
+		} else {
+			FloatBuffer values = bytes.asFloatBuffer();
+			int numOfValues = values.remaining();
+			if (secondValues == null) {
+				for (int i = 0; i < numOfValues; i++)
+					firstValues[i] = values.get(i);
+				return;
+			}
+			for (int i = 0, j = 0; j + 1 < numOfValues; i++, j += 2) {
+				firstValues[i] = values.get(j);
+				secondValues[i] = values.get(j + 1);
+			}
+		}
+
+	}
+
+	/**
+	 * Inflates the encoded bytes into inflatedBytes
+	 */
+	private void inflate() throws IOException {
+
+		// Compressed arrays of spectra typically inflate to 2-4 times their
+		// size
+		if (inflatedBytes.length < numOfEncodedBytes * 2)
+			inflatedBytes = new byte[numOfEncodedBytes * 2];
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(encodedBytes, 0, numOfEncodedBytes);
+
+			int length = 0;
+			while (!inflater.finished()) {
+				if (length == inflatedBytes.length) {
+					byte newBuffer[] = new byte[inflatedBytes.length * 2];
+					System.arraycopy(inflatedBytes, 0, newBuffer, 0, length);
+					inflatedBytes = newBuffer;
+				}
+				int inflatedLength = inflater.inflate(inflatedBytes, length,
+						inflatedBytes.length - length);
+				length += inflatedLength;
+				if ((inflatedLength > 0) || inflater.finished())
+					continue;
+
+				// The whole input was consumed before the end of the stream
+				if (inflater.needsInput())
+					throw new IOException("Compressed data is truncated after "
+							+ length + " bytes");
+				if (inflater.needsDictionary())
+					throw new IOException(
+							"Compressed data requires a preset dictionary");
+			}
+
+			decodedBytes = inflatedBytes;
+			numOfDecodedBytes = length;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt compressed data: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private void ensureEncodedCapacity(int capacity) {
+		if (encodedBytes.length >= capacity)
+			return;
+		int newCapacity = Math.max(capacity, encodedBytes.length * 2);
+		byte newBuffer[] = new byte[newCapacity];
+		System.arraycopy(encodedBytes, 0, newBuffer, 0, numOfEncodedBytes);
+		encodedBytes = newBuffer;
+	}
+
+}
@@ -41,6 +41,18 @@ import org.apache.axis.encoding.Base64;
  */
 public class ScanUtils {
 
+	/**
+	 * Arrays used by findBasePeak() and calculateTIC() to read the scan data
+	 * without creating DataPoint instances. Each thread has its own pair of
+	 * arrays (m/z and intensity), which grows as needed.
+	 */
+	private static final ThreadLocal<double[][]> threadBuffers = new ThreadLocal<double[][]>() {
+		@Override
+		protected double[][] initialValue() {
+			return new double[2][0];
+		}
+	};
+
 	/**
 	 * Common utility method to be used as Scan.toString() method in various
 	 * Scan implementations
@@ -78,16 +90,130 @@ public class ScanUtils {
 	 */
 	public static DataPoint findBasePeak(Scan scan, Range mzRange) {
 
-		DataPoint dataPoints[] = scan.getDataPointsByMass(mzRange);
-		DataPoint basePeak = null;
+		final double buffers[][] = getThreadBuffers(scan
+				.getNumberOfDataPoints());
+		final int numOfDataPoints = scan.getDataPointsByMass(mzRange,
+				buffers[0], buffers[1]);
 
-		for (DataPoint dp : dataPoints) {
-			if ((basePeak == null)
-					|| (dp.getIntensity() > basePeak.getIntensity()))
-				basePeak = dp;
+		final int basePeakIndex = findBasePeakIndex(buffers[0], buffers[1],
+				numOfDataPoints, mzRange);
+		if (basePeakIndex < 0)
+			return null;
+
+		return new SimpleDataPoint(buffers[0][basePeakIndex],
+				buffers[1][basePeakIndex]);
+	}
+
+	/**
+	 * Find base peaks of a given scan in many m/z ranges at once. The scan
+	 * data are read only once, so this method is preferable to calling
+	 * findBasePeak() for each range.
+	 * 
+	 * @return array of base peaks, one for each m/z range. Elements are null
+	 *         for ranges which contain no data point.
+	 */
+	public static DataPoint[] findBasePeaks(Scan scan, Range mzRanges[]) {
+
+		final double buffers[][] = getThreadBuffers(scan
+				.getNumberOfDataPoints());
+		final int numOfDataPoints = scan.getDataPoints(buffers[0], buffers[1]);
+
+		DataPoint basePeaks[] = new DataPoint[mzRanges.length];
+		for (int r = 0; r < mzRanges.length; r++) {
+			final int basePeakIndex = findBasePeakIndex(buffers[0],
+					buffers[1], numOfDataPoints, mzRanges[r]);
+			if (basePeakIndex >= 0)
+				basePeaks[r] = new SimpleDataPoint(buffers[0][basePeakIndex],
+						buffers[1][basePeakIndex]);
+		}
+
+		return basePeaks;
+	}
+
+	/**
+	 * Find base peaks of a scan represented by primitive arrays (sorted by
+	 * m/z) in many m/z ranges, in a single pass over the scan. The ranges must
+	 * be sorted by their minimum m/z value; they may overlap.
+	 * 
+	 * @param basePeakIndexes
+	 *            array of at least mzRanges.length elements, which is filled
+	 *            with the index of the base peak of each range, or -1 if the
+	 *            range contains no data point
+	 */
+	public static void findBasePeakIndexes(double mzValues[],
+			double intensityValues[], int numOfDataPoints, Range mzRanges[],
+			int basePeakIndexes[]) {
+
+		// Index of the first data point which may belong to the current range.
+		// Because the ranges are sorted by their minimum, it never moves back.
+		int startIndex = 0;
+
+		for (int r = 0; r < mzRanges.length; r++) {
+
+			final double mzMin = mzRanges[r].getMin();
+			final double mzMax = mzRanges[r].getMax();
+
+			while ((startIndex < numOfDataPoints)
+					&& (mzValues[startIndex] < mzMin))
+				startIndex++;
+
+			int basePeakIndex = -1;
+			for (int i = startIndex; i < numOfDataPoints; i++) {
+				if (mzValues[i] > mzMax)
+					break;
+				if ((basePeakIndex < 0)
+						|| (intensityValues[i] > intensityValues[basePeakIndex]))
+					basePeakIndex = i;
+			}
+
+			basePeakIndexes[r] = basePeakIndex;
+		}
+	}
+
+	/**
+	 * Find a base peak in given m/z range of a scan represented by primitive
+	 * arrays, sorted by m/z
+	 * 
+	 * @return index of the base peak, or -1 if there is no data point in the
+	 *         m/z range
+	 */
+	public static int findBasePeakIndex(double mzValues[],
+			double intensityValues[], int numOfDataPoints, Range mzRange) {
+
+		int basePeakIndex = -1;
+		final double mzMax = mzRange.getMax();
+
+		for (int i = findFirstIndex(mzValues, numOfDataPoints,
+				mzRange.getMin()); i < numOfDataPoints; i++) {
+			if (mzValues[i] > mzMax)
+				break;
+			if ((basePeakIndex < 0)
+					|| (intensityValues[i] > intensityValues[basePeakIndex]))
+				basePeakIndex = i;
 		}
 
-		return basePeak;
+		return basePeakIndex;
+	}
+
+	/**
+	 * Returns the index of the first element of the sorted array of m/z values
+	 * which is greater or equal than given m/z value. Only first
+	 * numOfDataPoints elements of the array are considered.
+	 * 
+	 * @return index of the element, or numOfDataPoints if all elements are
+	 *         smaller
+	 */
+	public static int findFirstIndex(double mzValues[], int numOfDataPoints,
+			double mz) {
+		int low = 0, high = numOfDataPoints;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (mzValues[middle] < mz)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
 	}
 
 	/**
@@ -101,14 +227,81 @@ public class ScanUtils {
 	 */
 	public static double calculateTIC(Scan scan, Range mzRange) {
 
-		double tic = 0.0;
-		for (final DataPoint dataPoint : scan.getDataPointsByMass(mzRange)) {
+		final double buffers[][] = getThreadBuffers(scan
+				.getNumberOfDataPoints());
+		final double mzValues[] = buffers[0], intensityValues[] = buffers[1];
+		final int numOfDataPoints = scan.getDataPointsByMass(mzRange,
+				mzValues, intensityValues);
 
-			tic += dataPoint.getIntensity();
+		double tic = 0.0;
+		for (int i = 0; i < numOfDataPoints; i++) {
+			tic += intensityValues[i];
 		}
 		return tic;
 	}
 
+	/**
+	 * Returns the per-thread m/z and intensity arrays, with at least given
+	 * number of elements
+	 */
+	private static double[][] getThreadBuffers(int numOfDataPoints) {
+		double buffers[][] = threadBuffers.get();
+		if (buffers[0].length < numOfDataPoints) {
+			buffers[0] = new double[numOfDataPoints];
+			buffers[1] = new double[numOfDataPoints];
+		}
+		return buffers;
+	}
+
+	/**
+	 * Copies the m/z and intensity values of given data points into the given
+	 * arrays. Common implementation of Scan.getDataPoints(double[], double[])
+	 * for scans which keep their data points in memory.
+	 * 
+	 * @return number of data points copied
+	 */
+	public static int copyDataPoints(DataPoint dataPoints[],
+			double mzValues[], double intensityValues[]) {
+		for (int i = 0; i < dataPoints.length; i++) {
+			mzValues[i] = dataPoints[i].getMZ();
+			intensityValues[i] = dataPoints[i].getIntensity();
+		}
+		return dataPoints.length;
+	}
+
+	/**
+	 * Copies the m/z and intensity values of data points within given m/z
+	 * range into the given arrays. The data points must be sorted by m/z.
+	 * Common implementation of Scan.getDataPointsByMass(Range, double[],
+	 * double[]) for scans which keep their data points in memory.
+	 * 
+	 * @return number of data points copied
+	 */
+	public static int copyDataPointsByMass(DataPoint dataPoints[],
+			Range mzRange, double mzValues[], double intensityValues[]) {
+
+		// Binary search for the first data point in the range
+		final double mzMin = mzRange.getMin(), mzMax = mzRange.getMax();
+		int low = 0, high = dataPoints.length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (dataPoints[middle].getMZ() < mzMin)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		int count = 0;
+		for (int i = low; i < dataPoints.length; i++) {
+			if (dataPoints[i].getMZ() > mzMax)
+				break;
+			mzValues[count] = dataPoints[i].getMZ();
+			intensityValues[count] = dataPoints[i].getIntensity();
+			count++;
+		}
+		return count;
+	}
+
 	/**
 	 * Selects data points within given m/z range
 	 * 
@@ -394,6 +587,52 @@ public class ScanUtils {
 
 	}
 
+	/**
+	 * Determines if the spectrum represented by given arrays of m/z and
+	 * intensity values is centroided or continuous. Same as
+	 * isCentroided(DataPoint[]), but without creating DataPoint instances.
+	 */
+	public static boolean isCentroided(double mzValues[],
+			double intensityValues[], int numOfDataPoints) {
+
+		// If the spectrum has less than 10 data points, it should be centroid
+		if (numOfDataPoints <= 10)
+			return true;
+
+		boolean centroid = false;
+		boolean hasZeroDP = false;
+
+		double minMz = mzValues[0], maxMz = mzValues[0];
+		for (int i = 0; i < numOfDataPoints; i++) {
+			if (mzValues[i] < minMz)
+				minMz = mzValues[i];
+			if (mzValues[i] > maxMz)
+				maxMz = mzValues[i];
+			if (intensityValues[i] == 0)
+				hasZeroDP = true;
+		}
+
+		// If the spectrum has no zero data points, it should be centroid
+		if (!hasZeroDP)
+			return true;
+
+		double massStep = (maxMz - minMz) / numOfDataPoints;
+		double tempdiff, previousMass = mzValues[0];
+		for (int i = 0; i < numOfDataPoints; i++) {
+			tempdiff = Math.abs(mzValues[i] - previousMass);
+			previousMass = mzValues[i];
+			if (intensityValues[i] == 0)
+				continue;
+			if (tempdiff > (massStep * 1.5d)) {
+				centroid = true;
+				break;
+			}
+		}
+
+		return centroid;
+
+	}
+
 	/**
 	 * Finds the MS/MS scan with highest intensity, within given retention time
 	 * range and with precursor m/z within given m/z range
@@ -434,6 +673,55 @@ public class ScanUtils {
 
 	}
 
+	/**
+	 * Creates data points from the given arrays of m/z and intensity values,
+	 * leaving out zero-intensity data points in the same way as
+	 * removeZeroDataPoints(DataPoint[], boolean). DataPoint instances are only
+	 * created for the data points which are kept.
+	 */
+	public static DataPoint[] createNonZeroDataPoints(double mzValues[],
+			double intensityValues[], int numOfDataPoints, boolean centroided) {
+
+		// First, check if we actually have any zero data point
+		boolean haveZeroDP = false;
+		for (int i = 0; i < numOfDataPoints; i++) {
+			if (intensityValues[i] == 0)
+				haveZeroDP = true;
+		}
+
+		int numOfKept = 0;
+		boolean keep[] = new boolean[numOfDataPoints];
+		for (int i = 0; i < numOfDataPoints; i++) {
+
+			// If the data point is > 0 (or there are no zero data points at
+			// all), keep it
+			if ((!haveZeroDP) || (intensityValues[i] > 0))
+				keep[i] = true;
+
+			// Check the neighbouring data points, but only if the scan is not
+			// centroided
+			else if (!centroided) {
+				if ((i > 0) && (intensityValues[i - 1] > 0))
+					keep[i] = true;
+				if ((i < numOfDataPoints - 1) && (intensityValues[i + 1] > 0))
+					keep[i] = true;
+			}
+
+			if (keep[i])
+				numOfKept++;
+		}
+
+		DataPoint dataPoints[] = new DataPoint[numOfKept];
+		for (int i = 0, j = 0; i < numOfDataPoints; i++) {
+			if (keep[i])
+				dataPoints[j++] = new SimpleDataPoint(mzValues[i],
+						intensityValues[i]);
+		}
+
+		return dataPoints;
+
+	}
+
 	/**
 	 * Removes zero-intensity data points from the given array. This function
 	 * doesn't remove ALL zero data points. In case the spectrum is continuous,
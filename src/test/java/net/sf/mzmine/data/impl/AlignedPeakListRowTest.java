@@ -0,0 +1,136 @@
+package net.sf.mzmine.data.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.util.PeakMeasurementType;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Compares AlignedPeakListRow with SimplePeakListRow filled with the same
+ * peaks
+ */
+public class AlignedPeakListRowTest {
+
+	private static final int NUM_OF_FILES = 10;
+	private static final int NUM_OF_ROWS = 50;
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void testSameValuesAsSimpleRow() {
+
+		RawDataFile dataFiles[] = TestDataFactory.createDataFiles(NUM_OF_FILES);
+		AlignedPeakList peakList = new AlignedPeakList("Aligned", dataFiles);
+		Random random = new Random(7);
+
+		for (int i = 0; i < NUM_OF_ROWS; i++) {
+			AlignedPeakListRow row = new AlignedPeakListRow(i + 1, peakList);
+			SimplePeakListRow simpleRow = new SimplePeakListRow(i + 1);
+
+			// Files are added in random order, some of them twice
+			for (int j = 0; j < NUM_OF_FILES; j++) {
+				if (random.nextInt(3) == 0)
+					continue;
+				RawDataFile file = dataFiles[random.nextInt(NUM_OF_FILES)];
+				ChromatographicPeak peak = createPeak(file, random);
+				row.addPeak(file, peak);
+				simpleRow.addPeak(file, peak);
+			}
+			if (random.nextBoolean()) {
+				RawDataFile file = simpleRow.getRawDataFiles()[0];
+				row.removePeak(file);
+				simpleRow.removePeak(file);
+			}
+
+			assertEquals(simpleRow.getNumberOfPeaks(), row.getNumberOfPeaks());
+			assertClose(simpleRow.getAverageMZ(), row.getAverageMZ());
+			assertClose(simpleRow.getAverageRT(), row.getAverageRT());
+			assertClose(simpleRow.getAverageHeight(), row.getAverageHeight());
+			assertClose(simpleRow.getAverageArea(), row.getAverageArea());
+			assertSame(simpleRow.getBestPeak(), row.getBestPeak());
+
+			double maxIntensity = 0;
+			for (ChromatographicPeak peak : row.getPeaks())
+				maxIntensity = Math.max(maxIntensity, peak
+						.getRawDataPointsIntensityRange().getMax());
+			assertEquals(maxIntensity, row.getDataPointMaxIntensity(), 0);
+
+			int numOfPeaks = 0;
+			for (int column = 0; column < NUM_OF_FILES; column++) {
+				ChromatographicPeak peak = simpleRow.getPeak(dataFiles[column]);
+				assertSame(peak, row.getPeak(dataFiles[column]));
+				assertSame(peak, row.getPeak(column));
+				assertEquals(peak != null, row.hasPeak(column));
+				if (peak != null) {
+					assertEquals(peak.getHeight(), row.getHeight(column), 0);
+					assertTrue(row.hasPeak(peak));
+					numOfPeaks++;
+				}
+			}
+			assertEquals(numOfPeaks, row.getPeaks().length);
+			assertEquals(numOfPeaks, row.getRawDataFiles().length);
+
+			peakList.addRow(row);
+		}
+
+		// The feature matrix reads the columns directly
+		FeatureMatrix matrix = peakList.getFeatureMatrix();
+		for (int row = 0; row < NUM_OF_ROWS; row++) {
+			for (int file = 0; file < NUM_OF_FILES; file++) {
+				ChromatographicPeak peak = peakList.getRow(row).getPeak(
+						dataFiles[file]);
+				assertEquals(peak != null, matrix.isPresent(file, row));
+				assertEquals((peak == null) ? 0 : peak.getArea(),
+						matrix.getValue(PeakMeasurementType.AREA, file, row),
+						0);
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyRow() {
+		RawDataFile dataFiles[] = TestDataFactory.createDataFiles(3);
+		AlignedPeakListRow row = new AlignedPeakListRow(1, new AlignedPeakList(
+				"Aligned", dataFiles));
+		assertEquals(0, row.getNumberOfPeaks());
+		assertEquals(0, row.getPeaks().length);
+		assertNull(row.getBestPeak());
+		assertNull(row.getPeak(dataFiles[0]));
+		assertFalse(row.hasPeak(dataFiles[0]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFileOutsideColumns() {
+		RawDataFile dataFiles[] = TestDataFactory.createDataFiles(3);
+		AlignedPeakListRow row = new AlignedPeakListRow(1, new AlignedPeakList(
+				"Aligned", dataFiles));
+		RawDataFile otherFile = TestDataFactory.createDataFile("Other file");
+		row.addPeak(otherFile, createPeak(otherFile, new Random(1)));
+	}
+
+	/**
+	 * The sums are accumulated in a different order, so the averages may
+	 * differ by rounding errors
+	 */
+	private static void assertClose(double expected, double actual) {
+		assertEquals(expected, actual, Math.abs(expected) * EPSILON);
+	}
+
+	private static ChromatographicPeak createPeak(RawDataFile dataFile,
+			Random random) {
+		return TestDataFactory.createPeak(dataFile,
+				100 + random.nextDouble() * 900, random.nextDouble() * 60,
+				random.nextDouble() * 1e6, random.nextDouble() * 1e7);
+	}
+
+}
@@ -0,0 +1,140 @@
+package net.sf.mzmine.data.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.util.PeakMeasurementType;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Compares the feature matrix of a peak list with the peaks of its rows, and
+ * checks that the cached matrix is rebuilt when the rows change
+ */
+public class FeatureMatrixTest {
+
+	private static final int NUM_OF_FILES = 10;
+	private static final int NUM_OF_ROWS = 1000;
+
+	@Test
+	public void testSameValues() {
+
+		RawDataFile dataFiles[] = TestDataFactory.createDataFiles(NUM_OF_FILES);
+		SimplePeakList peakList = createPeakList(dataFiles, new Random(42));
+		PeakListRow rows[] = peakList.getRows();
+
+		FeatureMatrix matrix = FeatureMatrix.getFeatureMatrix(peakList);
+		assertArrayEquals(rows, matrix.getRows());
+		assertArrayEquals(dataFiles, matrix.getRawDataFiles());
+
+		double heights[][] = matrix.getValues(PeakMeasurementType.HEIGHT,
+				dataFiles, rows);
+		double areas[][] = matrix.getTransposedValues(PeakMeasurementType.AREA,
+				dataFiles, rows);
+
+		for (int row = 0; row < rows.length; row++) {
+			for (int file = 0; file < dataFiles.length; file++) {
+				ChromatographicPeak peak = rows[row].getPeak(dataFiles[file]);
+				assertEquals(peak != null, matrix.isPresent(file, row));
+				if (peak == null) {
+					assertEquals(0, heights[file][row], 0);
+					assertEquals(0, areas[row][file], 0);
+				} else {
+					assertEquals(peak.getHeight(), heights[file][row], 0);
+					assertEquals(peak.getArea(), areas[row][file], 0);
+				}
+			}
+		}
+
+		// Values of a subset of files and rows
+		RawDataFile selectedFiles[] = { dataFiles[3], dataFiles[1] };
+		PeakListRow selectedRows[] = { rows[7], rows[2], rows[5] };
+		double selected[][] = matrix.getValues(PeakMeasurementType.AREA,
+				selectedFiles, selectedRows);
+		for (int i = 0; i < selectedFiles.length; i++) {
+			for (int j = 0; j < selectedRows.length; j++) {
+				ChromatographicPeak peak = selectedRows[j]
+						.getPeak(selectedFiles[i]);
+				assertEquals(peak == null ? 0 : peak.getArea(),
+						selected[i][j], 0);
+			}
+		}
+
+	}
+
+	@Test
+	public void testMatrixFollowsRowChanges() {
+
+		RawDataFile dataFiles[] = TestDataFactory.createDataFiles(NUM_OF_FILES);
+		SimplePeakList peakList = createPeakList(dataFiles, new Random(1));
+
+		FeatureMatrix matrix = FeatureMatrix.getFeatureMatrix(peakList);
+		assertSame(matrix, FeatureMatrix.getFeatureMatrix(peakList));
+
+		// Adding a peak to an existing row
+		PeakListRow row = peakList.getRow(10);
+		RawDataFile missingFile = null;
+		for (RawDataFile dataFile : dataFiles) {
+			if (row.getPeak(dataFile) == null)
+				missingFile = dataFile;
+		}
+		int file = matrix.getFileIndex(missingFile);
+		assertFalse(matrix.isPresent(file, 10));
+		row.addPeak(missingFile,
+				TestDataFactory.createPeak(missingFile, 200, 10, 1234, 12340));
+		FeatureMatrix newMatrix = FeatureMatrix.getFeatureMatrix(peakList);
+		assertNotSame(matrix, newMatrix);
+		assertTrue(newMatrix.isPresent(file, 10));
+		assertEquals(1234, newMatrix.getValue(PeakMeasurementType.HEIGHT,
+				file, 10), 0);
+
+		// Adding a row
+		SimplePeakListRow newRow = new SimplePeakListRow(NUM_OF_ROWS + 1);
+		newRow.addPeak(dataFiles[0],
+				TestDataFactory.createPeak(dataFiles[0], 300, 20, 5678, 56780));
+		peakList.addRow(newRow);
+		matrix = FeatureMatrix.getFeatureMatrix(peakList);
+		assertEquals(NUM_OF_ROWS + 1, matrix.getNumberOfRows());
+		assertEquals(5678, matrix.getValue(PeakMeasurementType.HEIGHT, 0,
+				matrix.getRowIndex(newRow)), 0);
+
+	}
+
+	/**
+	 * Creates a peak list where each row has a peak in about 70% of the files.
+	 * The area of each peak is 10 times its height.
+	 */
+	private static SimplePeakList createPeakList(RawDataFile dataFiles[],
+			Random random) {
+		SimplePeakList peakList = new SimplePeakList("Synthetic peak list",
+				dataFiles);
+		for (int i = 0; i < NUM_OF_ROWS; i++) {
+			SimplePeakListRow row = new SimplePeakListRow(i + 1);
+			double mz = 100 + random.nextDouble() * 900;
+			double rt = random.nextDouble() * 60;
+			for (RawDataFile dataFile : dataFiles) {
+				if (random.nextDouble() < 0.7) {
+					double height = random.nextDouble() * 1e6;
+					row.addPeak(dataFile, TestDataFactory.createPeak(dataFile,
+							mz, rt, height, height * 10));
+				}
+			}
+			if (row.getNumberOfPeaks() == 0)
+				row.addPeak(dataFiles[0], TestDataFactory.createPeak(
+						dataFiles[0], mz, rt, 1000, 10000));
+			peakList.addRow(row);
+		}
+		return peakList;
+	}
+
+}
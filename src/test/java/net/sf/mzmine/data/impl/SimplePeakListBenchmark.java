@@ -0,0 +1,81 @@
+package net.sf.mzmine.data.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Measures the indexed range queries of SimplePeakList against a linear
+ * search on a peak list of 200k rows. Run with "mvn test -Pbenchmark".
+ */
+public class SimplePeakListBenchmark {
+
+	private static final int NUM_OF_ROWS = 200000;
+	private static final int NUM_OF_QUERIES = 2000;
+	private static final int NUM_OF_RUNS = 2;
+
+	// The index must be at least this many times faster
+	private static final double MIN_SPEED_UP = 50;
+
+	@Test
+	public void testSpeedUp() {
+
+		RawDataFile dataFile = TestDataFactory
+				.createDataFile("Synthetic data file");
+		Random random = new Random(42);
+		SimplePeakList peakList = SimplePeakListTest.createPeakList(dataFile,
+				NUM_OF_ROWS, random);
+		PeakListRow rows[] = peakList.getRows();
+
+		Range rtRanges[] = new Range[NUM_OF_QUERIES];
+		Range mzRanges[] = new Range[NUM_OF_QUERIES];
+		for (int i = 0; i < NUM_OF_QUERIES; i++) {
+			PeakListRow row = rows[random.nextInt(rows.length)];
+			rtRanges[i] = new Range(row.getAverageRT()
+					- SimplePeakListTest.RT_TOLERANCE, row.getAverageRT()
+					+ SimplePeakListTest.RT_TOLERANCE);
+			mzRanges[i] = new Range(row.getAverageMZ()
+					- SimplePeakListTest.MZ_TOLERANCE, row.getAverageMZ()
+					+ SimplePeakListTest.MZ_TOLERANCE);
+		}
+
+		PeakListRow expected[][] = new PeakListRow[NUM_OF_QUERIES][];
+		PeakListRow actual[][] = new PeakListRow[NUM_OF_QUERIES][];
+		long linearTime = Long.MAX_VALUE, indexedTime = Long.MAX_VALUE;
+		for (int run = 0; run < NUM_OF_RUNS; run++) {
+
+			long startTime = System.nanoTime();
+			for (int i = 0; i < NUM_OF_QUERIES; i++)
+				expected[i] = SimplePeakListTest.linearSearch(rows,
+						rtRanges[i], mzRanges[i]);
+			linearTime = Math.min(linearTime, System.nanoTime() - startTime);
+
+			startTime = System.nanoTime();
+			for (int i = 0; i < NUM_OF_QUERIES; i++)
+				actual[i] = peakList.getRowsInsideScanAndMZRange(rtRanges[i],
+						mzRanges[i]);
+			indexedTime = Math.min(indexedTime, System.nanoTime() - startTime);
+
+		}
+
+		for (int i = 0; i < NUM_OF_QUERIES; i++)
+			assertArrayEquals(expected[i], actual[i]);
+
+		double speedUp = (double) linearTime / indexedTime;
+		System.out.println(NUM_OF_QUERIES + " range queries on "
+				+ NUM_OF_ROWS + " rows: linear search " + linearTime / 1000000
+				+ " ms, index " + indexedTime / 1000000 + " ms, speed-up "
+				+ speedUp);
+		assertTrue("Speed-up " + speedUp, speedUp >= MIN_SPEED_UP);
+
+	}
+
+}
@@ -0,0 +1,216 @@
+package net.sf.mzmine.data.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.IsotopePatternStatus;
+import net.sf.mzmine.data.PeakIdentity;
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Compares the indexed range queries of SimplePeakList with a linear search,
+ * and checks its change tracking
+ */
+public class SimplePeakListTest {
+
+	private static final int NUM_OF_ROWS[] = { 1000, 20000 };
+	private static final int NUM_OF_QUERIES = 2000;
+
+	static final double MZ_TOLERANCE = 0.01;
+	static final double RT_TOLERANCE = 0.5;
+
+	@Test
+	public void testRangeQueries() {
+
+		RawDataFile dataFile = TestDataFactory
+				.createDataFile("Synthetic data file");
+		Random random = new Random(42);
+
+		for (int numOfRows : NUM_OF_ROWS) {
+
+			SimplePeakList peakList = createPeakList(dataFile, numOfRows,
+					random);
+			PeakListRow rows[] = peakList.getRows();
+
+			Range rtRanges[] = new Range[NUM_OF_QUERIES];
+			Range mzRanges[] = new Range[NUM_OF_QUERIES];
+			for (int i = 0; i < NUM_OF_QUERIES; i++) {
+				PeakListRow row = rows[random.nextInt(rows.length)];
+				rtRanges[i] = new Range(row.getAverageRT() - RT_TOLERANCE,
+						row.getAverageRT() + RT_TOLERANCE);
+				mzRanges[i] = new Range(row.getAverageMZ() - MZ_TOLERANCE,
+						row.getAverageMZ() + MZ_TOLERANCE);
+			}
+
+			List<PeakListRow[]> expected = new ArrayList<PeakListRow[]>();
+			for (int i = 0; i < NUM_OF_QUERIES; i++)
+				expected.add(linearSearch(rows, rtRanges[i], mzRanges[i]));
+
+			List<PeakListRow[]> actual = new ArrayList<PeakListRow[]>();
+			for (int i = 0; i < NUM_OF_QUERIES; i++)
+				actual.add(peakList.getRowsInsideScanAndMZRange(rtRanges[i],
+						mzRanges[i]));
+
+			for (int i = 0; i < NUM_OF_QUERIES; i++)
+				assertArrayEquals(expected.get(i), actual.get(i));
+
+			// m/z-only and peak queries
+			for (int i = 0; i < 10; i++) {
+				assertArrayEquals(
+						linearSearch(rows, new Range(Double.MIN_VALUE,
+								Double.MAX_VALUE), mzRanges[i]),
+						peakList.getRowsInsideMZRange(mzRanges[i]));
+				assertEquals(linearSearch(rows, rtRanges[i], mzRanges[i]).length,
+						peakList.getPeaksInsideScanAndMZRange(dataFile,
+								rtRanges[i], mzRanges[i]).length);
+			}
+		}
+	}
+
+	@Test
+	public void testIndexFollowsRowChanges() {
+
+		RawDataFile dataFile = TestDataFactory
+				.createDataFile("Synthetic data file");
+		SimplePeakList peakList = createPeakList(dataFile, 100, new Random(1));
+		Range rtRange = new Range(1000, 1001);
+		Range mzRange = new Range(2000, 2001);
+		assertEquals(0,
+				peakList.getRowsInsideScanAndMZRange(rtRange, mzRange).length);
+
+		// Moving an existing row into the range
+		PeakListRow row = peakList.getRow(10);
+		row.addPeak(dataFile,
+				TestDataFactory.createPeak(dataFile, 2000.5, 1000.5, 1000, 1000));
+		assertArrayEquals(new PeakListRow[] { row },
+				peakList.getRowsInsideScanAndMZRange(rtRange, mzRange));
+
+		// Adding a row without peaks and filling it later
+		SimplePeakListRow newRow = new SimplePeakListRow(1000);
+		peakList.addRow(newRow);
+		newRow.addPeak(dataFile,
+				TestDataFactory.createPeak(dataFile, 2000.2, 1000.2, 1000, 1000));
+		assertArrayEquals(new PeakListRow[] { row, newRow },
+				peakList.getRowsInsideScanAndMZRange(rtRange, mzRange));
+	}
+
+	@Test
+	public void testIndexFollowsAddedAndRemovedRows() {
+
+		MZmineCore.initializeHeadless();
+		RawDataFile dataFile = TestDataFactory
+				.createDataFile("Synthetic data file");
+		Random random = new Random(7);
+		SimplePeakList peakList = createPeakList(dataFile, 5000, random);
+		int nextID = 5001;
+
+		// Enough changes to go past the limit of the index several times
+		for (int i = 0; i < 1000; i++) {
+			if (random.nextBoolean()) {
+				SimplePeakListRow row = new SimplePeakListRow(nextID++);
+				row.addPeak(dataFile, TestDataFactory.createPeak(dataFile,
+						100 + random.nextDouble() * 900,
+						random.nextDouble() * 60, 1000, 1000));
+				peakList.addRow(row);
+			} else {
+				peakList.removeRow(random.nextInt(peakList.getNumberOfRows()));
+			}
+
+			PeakListRow rows[] = peakList.getRows();
+			PeakListRow row = rows[random.nextInt(rows.length)];
+			Range rtRange = new Range(row.getAverageRT() - 5,
+					row.getAverageRT() + 5);
+			Range mzRange = new Range(row.getAverageMZ() - 50,
+					row.getAverageMZ() + 50);
+			PeakListRow expected[] = linearSearch(rows, rtRange, mzRange);
+			assertArrayEquals(expected,
+					peakList.getRowsInsideScanAndMZRange(rtRange, mzRange));
+			ChromatographicPeak peaks[] = peakList
+					.getPeaksInsideScanAndMZRange(dataFile, rtRange, mzRange);
+			assertEquals(expected.length, peaks.length);
+			for (int j = 0; j < peaks.length; j++)
+				assertSame(expected[j].getPeak(dataFile), peaks[j]);
+		}
+	}
+
+	@Test
+	public void testInPlaceChangesMarkModified() {
+
+		RawDataFile dataFile = TestDataFactory
+				.createDataFile("Synthetic data file");
+		SimplePeakList peakList = createPeakList(dataFile, 100, new Random(2));
+		PeakListRow row = peakList.getRow(20);
+		ChromatographicPeak peak = row.getPeak(dataFile);
+		SimplePeakIdentity identity = new SimplePeakIdentity("Compound");
+		row.addPeakIdentity(identity, true);
+
+		peakList.setModified(false);
+		assertFalse(peakList.isModified());
+
+		peak.setCharge(2);
+		assertTrue(peakList.isModified());
+		peakList.setModified(false);
+
+		((SimpleChromatographicPeak) peak).setHeight(peak.getHeight() * 2);
+		assertEquals(peak.getHeight(), row.getAverageHeight(), 0);
+		assertTrue(peakList.isModified());
+		peakList.setModified(false);
+
+		peak.setIsotopePattern(new SimpleIsotopePattern(
+				new DataPoint[] { new SimpleDataPoint(100, 10),
+						new SimpleDataPoint(101, 5) },
+				IsotopePatternStatus.DETECTED, "Pattern"));
+		assertTrue(peakList.isModified());
+		peakList.setModified(false);
+
+		identity.setPropertyValue(PeakIdentity.PROPERTY_FORMULA, "C6H12O6");
+		assertTrue(peakList.isModified());
+		peakList.setModified(false);
+
+		row.setComment("Checked");
+		assertTrue(peakList.isModified());
+		peakList.setModified(false);
+		assertFalse(peakList.isModified());
+	}
+
+	static PeakListRow[] linearSearch(PeakListRow rows[],
+			Range rtRange, Range mzRange) {
+		List<PeakListRow> rowsInside = new ArrayList<PeakListRow>();
+		for (PeakListRow row : rows) {
+			if (rtRange.contains(row.getAverageRT())
+					&& mzRange.contains(row.getAverageMZ()))
+				rowsInside.add(row);
+		}
+		return rowsInside.toArray(new PeakListRow[0]);
+	}
+
+	static SimplePeakList createPeakList(RawDataFile dataFile,
+			int numOfRows, Random random) {
+		SimplePeakList peakList = new SimplePeakList("Synthetic peak list",
+				dataFile);
+		for (int i = 0; i < numOfRows; i++) {
+			SimplePeakListRow row = new SimplePeakListRow(i + 1);
+			row.addPeak(dataFile, TestDataFactory.createPeak(dataFile,
+					100 + random.nextDouble() * 900, random.nextDouble() * 60,
+					1000, 1000));
+			peakList.addRow(row);
+		}
+		return peakList;
+	}
+
+}
@@ -0,0 +1,63 @@
+package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
+
+import static org.junit.Assert.assertTrue;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.RawDataFile;
+
+import org.junit.Test;
+
+/**
+ * Measures the m/z index of HighestDataPointConnector against the original
+ * linear search on a synthetic data file with 5000 scans and 3000 features.
+ * Run with "mvn test -Pbenchmark".
+ */
+public class HighestDataPointConnectorBenchmark {
+
+	private static final int NUM_OF_SCANS = 5000;
+	private static final int NUM_OF_FEATURES = 3000;
+	private static final int NUM_OF_RUNS = 2;
+
+	// The index must be at least this many times faster
+	private static final double MIN_SPEED_UP = 3;
+
+	@Test
+	public void testSpeedUp() {
+
+		RawDataFile dataFile = HighestDataPointConnectorTest
+				.createDataFile(NUM_OF_SCANS);
+		DataPoint scans[][] = HighestDataPointConnectorTest
+				.createScans(NUM_OF_SCANS, NUM_OF_FEATURES);
+
+		long linearTime = Long.MAX_VALUE, indexedTime = Long.MAX_VALUE;
+		for (int run = 0; run < NUM_OF_RUNS; run++) {
+
+			long startTime = System.nanoTime();
+			HighestDataPointConnectorTest.LinearConnector linearConnector = new HighestDataPointConnectorTest.LinearConnector();
+			for (int i = 0; i < NUM_OF_SCANS; i++)
+				linearConnector.addScan(dataFile, i + 1, scans[i].clone());
+			linearConnector.finishChromatograms();
+			linearTime = Math.min(linearTime, System.nanoTime() - startTime);
+
+			startTime = System.nanoTime();
+			HighestDataPointConnector connector = new HighestDataPointConnector(
+					HighestDataPointConnectorTest.MIN_TIME_SPAN,
+					HighestDataPointConnectorTest.MIN_HEIGHT,
+					HighestDataPointConnectorTest.MZ_TOLERANCE);
+			for (int i = 0; i < NUM_OF_SCANS; i++)
+				connector.addScan(dataFile, i + 1, scans[i].clone());
+			connector.finishChromatograms();
+			indexedTime = Math.min(indexedTime, System.nanoTime() - startTime);
+
+		}
+
+		double speedUp = (double) linearTime / indexedTime;
+		System.out.println("HighestDataPointConnector on " + NUM_OF_SCANS
+				+ " scans: linear search " + linearTime / 1000000
+				+ " ms, m/z index " + indexedTime / 1000000 + " ms, speed-up "
+				+ speedUp);
+		assertTrue("Speed-up " + speedUp, speedUp >= MIN_SPEED_UP);
+
+	}
+
+}
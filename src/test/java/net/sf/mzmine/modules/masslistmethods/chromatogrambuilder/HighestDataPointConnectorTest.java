@@ -0,0 +1,227 @@
+package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.parameters.parametertypes.MZTolerance;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+import org.junit.Test;
+
+/**
+ * Compares the indexed HighestDataPointConnector with the original linear
+ * search on a synthetic data file
+ */
+public class HighestDataPointConnectorTest {
+
+	private static final int NUM_OF_SCANS = 1000;
+	private static final int NUM_OF_FEATURES = 150;
+	private static final int NUM_OF_NOISE_PEAKS = 50;
+	private static final double SCAN_INTERVAL = 0.01;
+
+	static final double MIN_TIME_SPAN = 0.1;
+	static final double MIN_HEIGHT = 1000;
+	static final MZTolerance MZ_TOLERANCE = new MZTolerance(0.001, 10);
+
+	@Test
+	public void testSameChromatograms() {
+
+		RawDataFile dataFile = createDataFile(NUM_OF_SCANS);
+		DataPoint scans[][] = createScans(NUM_OF_SCANS, NUM_OF_FEATURES);
+
+		LinearConnector linearConnector = new LinearConnector();
+		for (int i = 0; i < NUM_OF_SCANS; i++)
+			linearConnector.addScan(dataFile, i + 1, scans[i].clone());
+		Chromatogram expected[] = linearConnector.finishChromatograms();
+
+		HighestDataPointConnector connector = new HighestDataPointConnector(
+				MIN_TIME_SPAN, MIN_HEIGHT, MZ_TOLERANCE);
+		for (int i = 0; i < NUM_OF_SCANS; i++)
+			connector.addScan(dataFile, i + 1, scans[i].clone());
+		Chromatogram actual[] = connector.finishChromatograms();
+
+		assertEquals(describe(expected), describe(actual));
+
+	}
+
+	private static List<String> describe(Chromatogram chromatograms[]) {
+		List<String> description = new ArrayList<String>();
+		for (Chromatogram chrom : chromatograms) {
+			description.add(chrom.getMZ() + " " + chrom.getRT() + " "
+					+ chrom.getHeight() + " " + chrom.getArea() + " "
+					+ Arrays.toString(chrom.getScanNumbers()));
+		}
+		return description;
+	}
+
+	/**
+	 * Creates mass lists with Gaussian-shaped features at fixed m/z values
+	 * (with small m/z jitter) and random noise peaks
+	 */
+	static DataPoint[][] createScans(int numOfScans, int numOfFeatures) {
+		Random random = new Random(42);
+
+		double featureMz[] = new double[numOfFeatures];
+		double featureRt[] = new double[numOfFeatures];
+		double featureWidth[] = new double[numOfFeatures];
+		double featureHeight[] = new double[numOfFeatures];
+		for (int i = 0; i < numOfFeatures; i++) {
+			featureMz[i] = 100 + random.nextDouble() * 900;
+			featureRt[i] = random.nextDouble() * numOfScans * SCAN_INTERVAL;
+			featureWidth[i] = 0.05 + random.nextDouble() * 0.5;
+			featureHeight[i] = 1000 + random.nextDouble() * 1e6;
+		}
+
+		DataPoint scans[][] = new DataPoint[numOfScans][];
+		for (int scan = 0; scan < numOfScans; scan++) {
+			double rt = scan * SCAN_INTERVAL;
+			List<DataPoint> dataPoints = new ArrayList<DataPoint>();
+			for (int i = 0; i < numOfFeatures; i++) {
+				double distance = (rt - featureRt[i]) / featureWidth[i];
+				double intensity = featureHeight[i]
+						* Math.exp(-distance * distance / 2);
+				if (intensity < 10)
+					continue;
+				double mz = featureMz[i] + random.nextGaussian() * 0.0005;
+				dataPoints.add(new SimpleDataPoint(mz, intensity));
+			}
+			for (int i = 0; i < NUM_OF_NOISE_PEAKS; i++) {
+				double mz = 100 + random.nextDouble() * 900;
+				double intensity = 10 + random.nextDouble() * 500;
+				dataPoints.add(new SimpleDataPoint(mz, intensity));
+			}
+			scans[scan] = dataPoints.toArray(new DataPoint[0]);
+		}
+		return scans;
+	}
+
+	/**
+	 * Creates a minimal raw data file, providing only what Chromatogram needs
+	 */
+	static RawDataFile createDataFile(int numOfScans) {
+		final Scan scans[] = new Scan[numOfScans + 1];
+		for (int i = 1; i <= numOfScans; i++) {
+			final double rt = (i - 1) * SCAN_INTERVAL;
+			scans[i] = (Scan) Proxy.newProxyInstance(
+					Scan.class.getClassLoader(), new Class<?>[] { Scan.class },
+					new InvocationHandler() {
+						public Object invoke(Object proxy, Method method,
+								Object[] args) {
+							if (method.getName().equals("getRetentionTime"))
+								return rt;
+							throw new UnsupportedOperationException(
+									method.getName());
+						}
+					});
+		}
+		final Range rtRange = new Range(0, (numOfScans - 1) * SCAN_INTERVAL);
+		return (RawDataFile) Proxy.newProxyInstance(
+				RawDataFile.class.getClassLoader(),
+				new Class<?>[] { RawDataFile.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if (name.equals("getScan"))
+							return scans[(Integer) args[0]];
+						if (name.equals("getDataRTRange"))
+							return rtRange;
+						if (name.equals("getScanNumbers"))
+							return new int[0];
+						if (name.equals("toString"))
+							return "Synthetic data file";
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+
+	/**
+	 * The original connecting algorithm, which tests every building
+	 * chromatogram for each m/z peak
+	 */
+	static class LinearConnector {
+
+		private Set<Chromatogram> buildingChromatograms = new LinkedHashSet<Chromatogram>();
+
+		void addScan(RawDataFile dataFile, int scanNumber, DataPoint mzValues[]) {
+
+			Arrays.sort(mzValues, new DataPointSorter(
+					SortingProperty.Intensity, SortingDirection.Descending));
+
+			Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
+
+			for (DataPoint mzPeak : mzValues) {
+				Chromatogram bestChromatogram = null;
+				for (Chromatogram testChrom : buildingChromatograms) {
+					Range toleranceRange = MZ_TOLERANCE
+							.getToleranceRange(testChrom.getLastMzPeak()
+									.getMZ());
+					if (toleranceRange.contains(mzPeak.getMZ())) {
+						if ((bestChromatogram == null)
+								|| (testChrom.getLastMzPeak().getIntensity() > bestChromatogram
+										.getLastMzPeak().getIntensity())) {
+							bestChromatogram = testChrom;
+						}
+					}
+				}
+				if (bestChromatogram != null) {
+					if (connectedChromatograms.contains(bestChromatogram))
+						continue;
+				} else {
+					bestChromatogram = new Chromatogram(dataFile);
+				}
+				bestChromatogram.addMzPeak(scanNumber, mzPeak);
+				connectedChromatograms.add(bestChromatogram);
+			}
+
+			for (Chromatogram testChrom : buildingChromatograms) {
+				if (connectedChromatograms.contains(testChrom))
+					continue;
+				if (testChrom.getBuildingSegmentLength() >= MIN_TIME_SPAN) {
+					testChrom.commitBuildingSegment();
+					connectedChromatograms.add(testChrom);
+					continue;
+				}
+				if (testChrom.getNumberOfCommittedSegments() > 0) {
+					testChrom.removeBuildingSegment();
+					connectedChromatograms.add(testChrom);
+				}
+			}
+
+			buildingChromatograms = connectedChromatograms;
+		}
+
+		Chromatogram[] finishChromatograms() {
+			List<Chromatogram> result = new ArrayList<Chromatogram>();
+			for (Chromatogram chromatogram : buildingChromatograms) {
+				if (chromatogram.getBuildingSegmentLength() >= MIN_TIME_SPAN) {
+					chromatogram.commitBuildingSegment();
+				} else {
+					if (chromatogram.getNumberOfCommittedSegments() == 0)
+						continue;
+					chromatogram.removeBuildingSegment();
+				}
+				chromatogram.finishChromatogram();
+				if (chromatogram.getHeight() >= MIN_HEIGHT)
+					result.add(chromatogram);
+			}
+			return result.toArray(new Chromatogram[0]);
+		}
+	}
+
+}
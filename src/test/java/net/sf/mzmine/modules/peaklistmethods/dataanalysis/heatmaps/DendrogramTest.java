@@ -0,0 +1,136 @@
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the nearest neighbor chain clustering with a direct implementation
+ * of complete linkage clustering
+ */
+public class DendrogramTest {
+
+	@Test
+	public void testSameHeights() {
+		Random random = new Random(42);
+		for (int test = 0; test < 20; test++) {
+			int n = 2 + random.nextInt(60);
+			int length = 1 + random.nextInt(8);
+			double vectors[][] = new double[n][length];
+			for (double vector[] : vectors) {
+				for (int i = 0; i < length; i++) {
+					vector[i] = (random.nextDouble() < 0.1) ? Double.NaN
+							: random.nextGaussian();
+				}
+			}
+			double weights[] = new double[n];
+			for (int i = 0; i < n; i++)
+				weights[i] = random.nextGaussian();
+
+			double distances[] = Dendrogram.getDistances(vectors);
+			for (int i = 0; i < n; i++) {
+				for (int j = i + 1; j < n; j++) {
+					assertEquals(getDistance(vectors[i], vectors[j]),
+							distances[Dendrogram.getIndex(n, i, j)], 1e-12);
+				}
+			}
+
+			Dendrogram dendrogram = Dendrogram.cluster(distances, n, weights);
+			double heights[] = clusterDirectly(vectors);
+			for (int k = 0; k < n - 1; k++) {
+				if (Double.isInfinite(heights[k]))
+					continue;
+				assertEquals(heights[k], dendrogram.getHeight(n + k), 1e-9);
+			}
+
+			// Every vector is drawn exactly once
+			boolean seen[] = new boolean[n];
+			for (int leaf : dendrogram.getLeafOrder()) {
+				assertFalse(seen[leaf]);
+				seen[leaf] = true;
+			}
+		}
+	}
+
+	@Test
+	public void testWeightOrder() {
+		double vectors[][] = { { 0 }, { 10 }, { 1 }, { 11 } };
+		double weights[] = { 4, 3, 2, 1 };
+		Dendrogram dendrogram = Dendrogram.cluster(
+				Dendrogram.getDistances(vectors), 4, weights);
+		int order[] = dendrogram.getLeafOrder();
+
+		// The lighter cluster {1, 3} comes first, and the lighter vector first
+		// inside each cluster
+		assertEquals(3, order[0]);
+		assertEquals(1, order[1]);
+		assertEquals(2, order[2]);
+		assertEquals(0, order[3]);
+		assertEquals(11, dendrogram.getMaxHeight(), 0);
+	}
+
+	/**
+	 * Euclidean distance like R's dist(), scaled up for missing values
+	 */
+	private static double getDistance(double a[], double b[]) {
+		double sum = 0;
+		int count = 0;
+		for (int i = 0; i < a.length; i++) {
+			double difference = a[i] - b[i];
+			if (!Double.isNaN(difference)) {
+				sum += difference * difference;
+				count++;
+			}
+		}
+		if (count == 0)
+			return Double.NaN;
+		return Math.sqrt(sum * a.length / count);
+	}
+
+	/**
+	 * Merges the two closest clusters until one is left, and returns the
+	 * heights of the merges
+	 */
+	private static double[] clusterDirectly(double vectors[][]) {
+		int n = vectors.length;
+		List<List<Integer>> clusters = new ArrayList<List<Integer>>();
+		for (int i = 0; i < n; i++) {
+			List<Integer> cluster = new ArrayList<Integer>();
+			cluster.add(i);
+			clusters.add(cluster);
+		}
+
+		double heights[] = new double[n - 1];
+		for (int k = 0; k < n - 1; k++) {
+			double minDistance = Double.NaN;
+			int first = 0, second = 1;
+			for (int a = 0; a < clusters.size(); a++) {
+				for (int b = a + 1; b < clusters.size(); b++) {
+					double distance = 0;
+					for (int i : clusters.get(a)) {
+						for (int j : clusters.get(b)) {
+							double d = getDistance(vectors[i], vectors[j]);
+							if (Double.isNaN(d))
+								d = Double.POSITIVE_INFINITY;
+							distance = Math.max(distance, d);
+						}
+					}
+					if (Double.isNaN(minDistance) || (distance < minDistance)) {
+						minDistance = distance;
+						first = a;
+						second = b;
+					}
+				}
+			}
+			heights[k] = minDistance;
+			clusters.get(first).addAll(clusters.remove(second));
+		}
+		return heights;
+	}
+
+}
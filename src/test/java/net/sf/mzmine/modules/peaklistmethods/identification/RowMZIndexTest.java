@@ -0,0 +1,108 @@
+package net.sf.mzmine.modules.peaklistmethods.identification;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimplePeakListRow;
+import net.sf.mzmine.parameters.parametertypes.MZTolerance;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Compares the m/z index used by the identification modules with a linear
+ * search
+ */
+public class RowMZIndexTest {
+
+	private static final int NUM_OF_ROWS = 500;
+	private static final int NUM_OF_QUERIES = 200;
+
+	@Test
+	public void testRangeQueries() {
+
+		Random random = new Random(42);
+		PeakListRow rows[] = createRows(random);
+		RowMZIndex index = new RowMZIndex(rows);
+
+		for (int i = 0; i < NUM_OF_QUERIES; i++) {
+			Range ranges[] = new Range[1 + random.nextInt(5)];
+			for (int j = 0; j < ranges.length; j++) {
+				double mz = rows[random.nextInt(rows.length)].getAverageMZ();
+				double width = random.nextDouble() * 5;
+				ranges[j] = new Range(mz - width, mz + width);
+			}
+
+			assertArrayEquals(linearSearch(rows, ranges[0]),
+					sorted(index.getRowsInsideMZRange(ranges[0])));
+			assertArrayEquals(linearSearch(rows, ranges),
+					sorted(index.getRowsInsideMZRanges(ranges)));
+		}
+	}
+
+	@Test
+	public void testInverseToleranceRange() {
+
+		Random random = new Random(1);
+		PeakListRow rows[] = createRows(random);
+		RowMZIndex index = new RowMZIndex(rows);
+		MZTolerance tolerances[] = { new MZTolerance(0.001, 5),
+				new MZTolerance(0.5, 0), new MZTolerance(0, 100) };
+
+		for (MZTolerance tolerance : tolerances) {
+			for (int i = 0; i < NUM_OF_QUERIES; i++) {
+				double mz = rows[random.nextInt(rows.length)].getAverageMZ()
+						+ (random.nextDouble() - 0.5) * 0.1;
+				int found[] = sorted(index.getRowsInsideMZRange(tolerance
+						.getInverseToleranceRange(mz)));
+				for (int j = 0; j < rows.length; j++) {
+					if (tolerance.getToleranceRange(rows[j].getAverageMZ())
+							.contains(mz))
+						assertTrue(Arrays.binarySearch(found, j) >= 0);
+				}
+			}
+		}
+	}
+
+	private static int[] linearSearch(PeakListRow rows[], Range... ranges) {
+		int found[] = new int[rows.length];
+		int numFound = 0;
+		for (int i = 0; i < rows.length; i++) {
+			for (Range range : ranges) {
+				if (range.contains(rows[i].getAverageMZ())) {
+					found[numFound++] = i;
+					break;
+				}
+			}
+		}
+		return Arrays.copyOf(found, numFound);
+	}
+
+	private static int[] sorted(int positions[]) {
+		int result[] = positions.clone();
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Creates rows with a single peak each, with some duplicate m/z values
+	 */
+	private static PeakListRow[] createRows(Random random) {
+		RawDataFile dataFile = TestDataFactory.createDataFile("Test file");
+		PeakListRow rows[] = new PeakListRow[NUM_OF_ROWS];
+		for (int i = 0; i < NUM_OF_ROWS; i++) {
+			double mz = Math.round((100 + random.nextDouble() * 900) * 100) / 100.0;
+			rows[i] = new SimplePeakListRow(i + 1);
+			rows[i].addPeak(dataFile,
+					TestDataFactory.createPeak(dataFile, mz, 10, 1000, 10000));
+		}
+		return rows;
+	}
+
+}
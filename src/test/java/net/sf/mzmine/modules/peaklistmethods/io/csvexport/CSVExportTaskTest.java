@@ -0,0 +1,155 @@
+package net.sf.mzmine.modules.peaklistmethods.io.csvexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.mzmine.data.PeakIdentity;
+import net.sf.mzmine.data.PeakList;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimplePeakIdentity;
+import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.SimplePeakListRow;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Exports a synthetic peak list with many data files, so the rows are
+ * formatted in several parallel blocks
+ */
+public class CSVExportTaskTest {
+
+	private static final int NUM_OF_FILES = 50;
+	private static final int NUM_OF_ROWS = 3000;
+
+	@Test
+	public void testParallelOutputIsIdentical() {
+
+		PeakList peakList = createPeakList();
+		ParameterSet parameters = createParameters(peakList, new File(
+				"peaks.csv"), false);
+
+		String serial = export(peakList, parameters, 1);
+		String parallel = export(peakList, parameters, 8);
+
+		assertEquals(serial, parallel);
+		assertEquals(NUM_OF_ROWS + 1, serial.split("\n").length);
+
+	}
+
+	@Test
+	public void testCompressedFileName() throws IOException {
+
+		File file = File.createTempFile("mzmine", ".csv");
+		File compressedFile = new File(file.getPath() + ".gz");
+		try {
+			PeakList peakList = createPeakList();
+			ParameterSet parameters = createParameters(peakList, file, true);
+
+			CSVExportTask task = new CSVExportTask(parameters);
+			task.run();
+			assertEquals(task.getErrorMessage(), TaskStatus.FINISHED,
+					task.getStatus());
+
+			// The plain file name is left alone
+			assertEquals(0, file.length());
+			assertTrue(compressedFile.exists());
+			assertEquals(export(peakList, parameters, 1),
+					readCompressed(compressedFile));
+
+			// A name which already has the extension is not extended twice
+			parameters = createParameters(peakList, compressedFile, true);
+			new CSVExportTask(parameters).run();
+			assertFalse(new File(compressedFile.getPath() + ".gz").exists());
+			assertEquals(export(peakList, parameters, 1),
+					readCompressed(compressedFile));
+		} finally {
+			file.delete();
+			compressedFile.delete();
+		}
+
+	}
+
+	private static String export(PeakList peakList, ParameterSet parameters,
+			int numOfThreads) {
+		CSVExportTask task = new CSVExportTask(parameters);
+		StringWriter writer = new StringWriter();
+		task.exportPeakList(peakList, writer, numOfThreads);
+		assertEquals(task.getErrorMessage(), TaskStatus.WAITING,
+				task.getStatus());
+		return writer.toString();
+	}
+
+	private static String readCompressed(File file) throws IOException {
+		Reader reader = new InputStreamReader(new GZIPInputStream(
+				new FileInputStream(file)));
+		try {
+			StringBuilder content = new StringBuilder();
+			char buffer[] = new char[8192];
+			int length;
+			while ((length = reader.read(buffer)) != -1)
+				content.append(buffer, 0, length);
+			return content.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static ParameterSet createParameters(PeakList peakList,
+			File file, boolean compression) {
+		ParameterSet parameters = new CSVExportParameters();
+		parameters.getParameter(CSVExportParameters.peakList).setValue(
+				new PeakList[]{peakList});
+		parameters.getParameter(CSVExportParameters.filename).setValue(file);
+		parameters.getParameter(CSVExportParameters.fieldSeparator).setValue(
+				",");
+		parameters.getParameter(CSVExportParameters.exportCommonItems)
+				.setValue(ExportRowCommonElement.values());
+		parameters.getParameter(CSVExportParameters.exportIdentityItems)
+				.setValue(new String[]{PeakIdentity.PROPERTY_NAME});
+		parameters.getParameter(CSVExportParameters.exportDataFileItems)
+				.setValue(ExportRowDataFileElement.values());
+		parameters.getParameter(CSVExportParameters.compression).setValue(
+				compression);
+		return parameters;
+	}
+
+	/**
+	 * Creates rows which have peaks in a part of the data files, with a
+	 * comment or identity containing the field separator in some rows
+	 */
+	private static PeakList createPeakList() {
+		RawDataFile dataFiles[] = TestDataFactory
+				.createDataFiles(NUM_OF_FILES);
+		SimplePeakList peakList = new SimplePeakList("Synthetic peak list",
+				dataFiles);
+		for (int i = 0; i < NUM_OF_ROWS; i++) {
+			SimplePeakListRow row = new SimplePeakListRow(i + 1);
+			for (int j = i % 3; j < NUM_OF_FILES; j += 2) {
+				double mz = 100 + i * 0.1 + j * 0.0001;
+				row.addPeak(dataFiles[j], TestDataFactory.createPeak(
+						dataFiles[j], mz, 1 + i * 0.01, 1000 + i * j,
+						10000 + i * j));
+			}
+			if (i % 5 == 0)
+				row.setComment("Row " + i + ", commented");
+			if (i % 7 == 0)
+				row.addPeakIdentity(new SimplePeakIdentity("Compound " + i),
+						true);
+			peakList.addRow(row);
+		}
+		return peakList;
+	}
+
+}
@@ -0,0 +1,167 @@
+package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.IsotopePatternStatus;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimpleChromatographicPeak;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.data.impl.SimpleIsotopePattern;
+import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.SimplePeakListRow;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ScanUtils;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Exports synthetic peak lists into an embedded H2 database
+ */
+public class SQLExportTaskTest {
+
+	private static final int NUM_OF_ROWS = 25;
+	private static final int BATCH_SIZE = 10;
+
+	@Test
+	public void testExport() throws SQLException {
+
+		String connectionString = "jdbc:h2:mem:export;DB_CLOSE_DELAY=-1";
+		Connection connection = DriverManager.getConnection(connectionString);
+		try {
+			createTable(connection);
+
+			SimplePeakList peakList = createPeakList();
+			SQLExportTask task = new SQLExportTask(peakList,
+					connectionString, "peaks", createColumns(), BATCH_SIZE);
+			task.run();
+			assertEquals(TaskStatus.FINISHED, task.getStatus());
+			assertEquals(1.0, task.getFinishedPercentage(), 0);
+
+			Statement statement = connection.createStatement();
+			ResultSet result = statement
+					.executeQuery("SELECT name, mz, height, isotopes FROM peaks ORDER BY mz");
+			int row = 0;
+			while (result.next()) {
+				assertEquals("test", result.getString(1));
+				assertEquals(getMZ(row), result.getDouble(2), 0);
+				assertEquals(getHeight(row), result.getDouble(3), 0);
+				DataPoint expected[] = createIsotopes(row);
+				DataPoint isotopes[] = ScanUtils
+						.decodeDataPointsFromBytes(result.getBytes(4));
+				assertEquals(expected.length, isotopes.length);
+				for (int i = 0; i < expected.length; i++) {
+					assertEquals(expected[i].getMZ(), isotopes[i].getMZ(), 0);
+					assertEquals(expected[i].getIntensity(),
+							isotopes[i].getIntensity(), 0);
+				}
+				row++;
+			}
+			assertEquals(NUM_OF_ROWS, row);
+			statement.close();
+		} finally {
+			connection.close();
+		}
+
+	}
+
+	@Test
+	public void testFailedBatchIsRolledBack() throws SQLException {
+
+		String connectionString = "jdbc:h2:mem:rollback;DB_CLOSE_DELAY=-1";
+		Connection connection = DriverManager.getConnection(connectionString);
+		try {
+			createTable(connection);
+
+			// The comment column does not accept null values, so the row
+			// without a comment fails the second batch
+			SimplePeakList peakList = createPeakList();
+			peakList.getRow(BATCH_SIZE + 10).setComment(null);
+			SQLExportTask task = new SQLExportTask(peakList,
+					connectionString, "peaks", createColumns(), BATCH_SIZE);
+			task.run();
+			assertEquals(TaskStatus.ERROR, task.getStatus());
+			assertTrue(task.getErrorMessage().length() > 0);
+
+			Statement statement = connection.createStatement();
+			ResultSet result = statement
+					.executeQuery("SELECT COUNT(*) FROM peaks");
+			result.next();
+			assertEquals(BATCH_SIZE, result.getInt(1));
+			statement.close();
+		} finally {
+			connection.close();
+		}
+
+	}
+
+	private static void createTable(Connection connection)
+			throws SQLException {
+		Statement statement = connection.createStatement();
+		statement.execute("CREATE TABLE peaks (name VARCHAR(20), mz DOUBLE, "
+				+ "height DOUBLE, comment VARCHAR(20) NOT NULL, isotopes BLOB)");
+		statement.close();
+	}
+
+	private static SQLColumnSettings createColumns() {
+		SQLColumnSettings columns = new SQLColumnSettings();
+		addColumn(columns, "name", SQLExportDataType.CONSTANT, "test");
+		addColumn(columns, "mz", SQLExportDataType.MZ, "");
+		addColumn(columns, "height", SQLExportDataType.HEIGHT, "");
+		addColumn(columns, "comment", SQLExportDataType.COMMENT, "");
+		addColumn(columns, "isotopes", SQLExportDataType.ISOTOPEPATTERN, "");
+		return columns;
+	}
+
+	private static void addColumn(SQLColumnSettings columns, String name,
+			SQLExportDataType dataType, String value) {
+		columns.addNewRow();
+		int row = columns.getRowCount() - 1;
+		columns.setValueAt(name, row, 0);
+		columns.setValueAt(dataType, row, 1);
+		columns.setValueAt(value, row, 2);
+	}
+
+	private static SimplePeakList createPeakList() {
+		RawDataFile dataFile = TestDataFactory
+				.createDataFile("Synthetic data file");
+		SimplePeakList peakList = new SimplePeakList("Synthetic peak list",
+				dataFile);
+		for (int i = 0; i < NUM_OF_ROWS; i++) {
+			SimplePeakListRow row = new SimplePeakListRow(i + 1);
+			SimpleChromatographicPeak peak = TestDataFactory.createPeak(
+					dataFile, getMZ(i), 1, getHeight(i), getHeight(i) * 10);
+			peak.setIsotopePattern(new SimpleIsotopePattern(createIsotopes(i),
+					IsotopePatternStatus.DETECTED, "Row " + i));
+			row.addPeak(dataFile, peak);
+			row.setComment("Row " + i);
+			peakList.addRow(row);
+		}
+		return peakList;
+	}
+
+	private static double getMZ(int row) {
+		return 100 + row * 0.25;
+	}
+
+	private static double getHeight(int row) {
+		return 1000 + row;
+	}
+
+	private static DataPoint[] createIsotopes(int row) {
+		DataPoint isotopes[] = new DataPoint[1 + row % 4];
+		for (int i = 0; i < isotopes.length; i++)
+			isotopes[i] = new SimpleDataPoint(getMZ(row) + i * 1.00335,
+					getHeight(row) / (i + 1));
+		return isotopes;
+	}
+
+}
@@ -0,0 +1,76 @@
+package net.sf.mzmine.modules.peaklistmethods.peakpicking.deconvolution.centwave;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Detects synthetic Gaussian peaks with the Java implementation of
+ * findPeaks.centWave
+ */
+public class CentWaveTest {
+
+	private static final int NUM_OF_SCANS = 600;
+	private static final double SCAN_INTERVAL = 2;
+	private static final double MZ = 300;
+
+	// Apex scan, sigma in scans and height of the peaks
+	private static final int APEX[] = {200, 400};
+	private static final double SIGMA[] = {4, 3};
+	private static final double HEIGHT[] = {1e5, 5e4};
+
+	@Test
+	public void testGaussianPeaks() {
+
+		double scanTime[] = new double[NUM_OF_SCANS];
+		double intensity[] = new double[NUM_OF_SCANS];
+		Random random = new Random(3);
+		for (int i = 0; i < NUM_OF_SCANS; i++) {
+			scanTime[i] = i * SCAN_INTERVAL;
+			intensity[i] = 1000 + 100 * random.nextDouble();
+			for (int p = 0; p < APEX.length; p++)
+				intensity[i] += HEIGHT[p]
+						* Math.exp(-(i - APEX[p]) * (i - APEX[p])
+								/ (2 * SIGMA[p] * SIGMA[p]));
+		}
+
+		for (int integrate = 1; integrate <= 2; integrate++) {
+
+			double peaks[][] = CentWave.findPeaks(scanTime, intensity, MZ, 10,
+					10, 60, integrate);
+			assertEquals(APEX.length, peaks.length);
+
+			for (int p = 0; p < APEX.length; p++) {
+				double peak[] = peaks[p];
+				assertEquals(MZ, peak[CentWave.MZ], 0);
+				assertEquals(scanTime[APEX[p]], peak[CentWave.RT], 0);
+				assertEquals(intensity[APEX[p]], peak[CentWave.MAXO], 0);
+				assertTrue(peak[CentWave.RT_MIN] < peak[CentWave.RT]);
+				assertTrue(peak[CentWave.RT_MAX] > peak[CentWave.RT]);
+
+				// Area of the Gaussian, in intensity * seconds
+				double area = HEIGHT[p] * SIGMA[p] * SCAN_INTERVAL
+						* Math.sqrt(2 * Math.PI);
+				assertEquals(area, peak[CentWave.INTB], 0.05 * area);
+				assertTrue(peak[CentWave.INTO] > peak[CentWave.INTB]);
+			}
+
+			// Narrower boundaries from the smoothed data
+			if (integrate == CentWave.INTEGRATE_SMOOTHED)
+				assertTrue(peaks[0][CentWave.RT_MAX]
+						- peaks[0][CentWave.RT_MIN] < 60);
+		}
+
+	}
+
+	@Test
+	public void testNoMatchingScales() {
+		double peaks[][] = CentWave.findPeaks(new double[]{0, 60, 120},
+				new double[]{0, 1000, 0}, MZ, 10, 10, 20, 1);
+		assertEquals(0, peaks.length);
+	}
+
+}
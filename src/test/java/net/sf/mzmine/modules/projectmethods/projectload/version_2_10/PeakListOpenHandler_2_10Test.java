@@ -0,0 +1,216 @@
+package net.sf.mzmine.modules.projectmethods.projectload.version_2_10;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Hashtable;
+import java.util.Random;
+
+import net.sf.mzmine.data.ChromatographicPeak;
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.IsotopePattern;
+import net.sf.mzmine.data.IsotopePatternStatus;
+import net.sf.mzmine.data.PeakList;
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.PeakStatus;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.impl.SimpleChromatographicPeak;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.data.impl.SimpleIsotopePattern;
+import net.sf.mzmine.data.impl.SimplePeakIdentity;
+import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.SimplePeakListAppliedMethod;
+import net.sf.mzmine.data.impl.SimplePeakListRow;
+import net.sf.mzmine.modules.projectmethods.projectsave.PeakListBinarySaveHandler;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Saves a peak list in the binary format and compares the loaded copy with
+ * the original
+ */
+public class PeakListOpenHandler_2_10Test {
+
+	private static final int NUM_OF_ROWS = 50;
+	private static final int MAX_DATA_POINTS = 40;
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		RawDataFile dataFiles[] = TestDataFactory.createDataFiles(2);
+		SimplePeakList peakList = createPeakList(dataFiles, new Random(3));
+
+		Hashtable<RawDataFile, String> savedIDs = new Hashtable<RawDataFile, String>();
+		Hashtable<String, RawDataFile> loadedIDs = new Hashtable<String, RawDataFile>();
+		for (int i = 0; i < dataFiles.length; i++) {
+			savedIDs.put(dataFiles[i], String.valueOf(i + 1));
+			loadedIDs.put(String.valueOf(i + 1), dataFiles[i]);
+		}
+
+		ByteArrayOutputStream savedData = new ByteArrayOutputStream();
+		PeakListBinarySaveHandler saveHandler = new PeakListBinarySaveHandler(
+				savedData, savedIDs);
+		saveHandler.savePeakList(peakList);
+		assertEquals(1, saveHandler.getProgress(), 0);
+
+		PeakListOpenHandler_2_10 openHandler = new PeakListOpenHandler_2_10(
+				loadedIDs);
+		PeakList loadedPeakList = openHandler
+				.readPeakList(new ByteArrayInputStream(savedData.toByteArray()));
+		assertEquals(1, openHandler.getProgress(), 1e-9);
+
+		assertEquals(peakList.getName(), loadedPeakList.getName());
+		assertEquals(peakList.getDateCreated(),
+				((SimplePeakList) loadedPeakList).getDateCreated());
+		assertArrayEquals(dataFiles, loadedPeakList.getRawDataFiles());
+		assertEquals(1, loadedPeakList.getAppliedMethods().length);
+		assertEquals("Method parameters",
+				loadedPeakList.getAppliedMethods()[0].getParameters());
+		assertEquals(NUM_OF_ROWS, loadedPeakList.getNumberOfRows());
+
+		for (int i = 0; i < NUM_OF_ROWS; i++) {
+			PeakListRow row = peakList.getRow(i);
+			PeakListRow loadedRow = loadedPeakList.getRow(i);
+			assertEquals(row.getID(), loadedRow.getID());
+			assertEquals(row.getComment(), loadedRow.getComment());
+			assertEquals(row.getPeakIdentities().length,
+					loadedRow.getPeakIdentities().length);
+			if (row.getPreferredPeakIdentity() == null) {
+				assertNull(loadedRow.getPreferredPeakIdentity());
+			} else {
+				assertEquals(row.getPreferredPeakIdentity().getAllProperties(),
+						loadedRow.getPreferredPeakIdentity()
+								.getAllProperties());
+			}
+			assertEquals(row.getNumberOfPeaks(), loadedRow.getNumberOfPeaks());
+			for (RawDataFile dataFile : row.getRawDataFiles())
+				comparePeaks(row.getPeak(dataFile), loadedRow.getPeak(dataFile));
+		}
+	}
+
+	private static void comparePeaks(ChromatographicPeak peak,
+			ChromatographicPeak loadedPeak) {
+		assertEquals(peak.getDataFile(), loadedPeak.getDataFile());
+		assertEquals(peak.getMZ(), loadedPeak.getMZ(), 0);
+		assertEquals(peak.getRT(), loadedPeak.getRT(), 0);
+		assertEquals(peak.getHeight(), loadedPeak.getHeight(), 0);
+		assertEquals(peak.getArea(), loadedPeak.getArea(), 0);
+		assertEquals(peak.getPeakStatus(), loadedPeak.getPeakStatus());
+		assertEquals(peak.getCharge(), loadedPeak.getCharge());
+		assertEquals(peak.getRepresentativeScanNumber(),
+				loadedPeak.getRepresentativeScanNumber());
+		assertEquals(peak.getMostIntenseFragmentScanNumber(),
+				loadedPeak.getMostIntenseFragmentScanNumber());
+		compareRanges(peak.getRawDataPointsRTRange(),
+				loadedPeak.getRawDataPointsRTRange());
+		compareRanges(peak.getRawDataPointsMZRange(),
+				loadedPeak.getRawDataPointsMZRange());
+		compareRanges(peak.getRawDataPointsIntensityRange(),
+				loadedPeak.getRawDataPointsIntensityRange());
+
+		assertArrayEquals(peak.getScanNumbers(), loadedPeak.getScanNumbers());
+		for (int scanNumber : peak.getScanNumbers()) {
+			DataPoint dataPoint = peak.getDataPoint(scanNumber);
+			DataPoint loadedDataPoint = loadedPeak.getDataPoint(scanNumber);
+			if (dataPoint == null) {
+				assertNull(loadedDataPoint);
+				continue;
+			}
+			assertEquals(dataPoint.getMZ(), loadedDataPoint.getMZ(), 0);
+			assertEquals(dataPoint.getIntensity(),
+					loadedDataPoint.getIntensity(), 0);
+		}
+
+		IsotopePattern isotopePattern = peak.getIsotopePattern();
+		IsotopePattern loadedIsotopePattern = loadedPeak.getIsotopePattern();
+		if (isotopePattern == null) {
+			assertNull(loadedIsotopePattern);
+			return;
+		}
+		assertEquals(isotopePattern.getStatus(),
+				loadedIsotopePattern.getStatus());
+		assertEquals(isotopePattern.getDescription(),
+				loadedIsotopePattern.getDescription());
+		DataPoint isotopes[] = isotopePattern.getDataPoints();
+		DataPoint loadedIsotopes[] = loadedIsotopePattern.getDataPoints();
+		assertEquals(isotopes.length, loadedIsotopes.length);
+		for (int i = 0; i < isotopes.length; i++) {
+			assertEquals(isotopes[i].getMZ(), loadedIsotopes[i].getMZ(), 0);
+			assertEquals(isotopes[i].getIntensity(),
+					loadedIsotopes[i].getIntensity(), 0);
+		}
+	}
+
+	private static void compareRanges(Range range, Range loadedRange) {
+		if (range == null) {
+			assertNull(loadedRange);
+			return;
+		}
+		assertEquals(range.getMin(), loadedRange.getMin(), 0);
+		assertEquals(range.getMax(), loadedRange.getMax(), 0);
+	}
+
+	private static SimplePeakList createPeakList(RawDataFile dataFiles[],
+			Random random) {
+		SimplePeakList peakList = new SimplePeakList("Peak list é",
+				dataFiles);
+		peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
+				"Method", "Method parameters"));
+		for (int i = 0; i < NUM_OF_ROWS; i++) {
+			SimplePeakListRow row = new SimplePeakListRow(i + 1);
+			if (i % 3 == 0)
+				row.setComment("Comment " + i);
+			for (int j = 0; j < i % 4; j++) {
+				Hashtable<String, String> properties = new Hashtable<String, String>();
+				properties.put("Name", "Compound " + i + "." + j);
+				properties.put("Formula", "C" + j + "H" + i);
+				row.addPeakIdentity(new SimplePeakIdentity(properties), j == 1);
+			}
+			for (RawDataFile dataFile : dataFiles) {
+				if (random.nextBoolean())
+					row.addPeak(dataFile, createPeak(dataFile, random));
+			}
+			peakList.addRow(row);
+		}
+		return peakList;
+	}
+
+	private static ChromatographicPeak createPeak(RawDataFile dataFile,
+			Random random) {
+		int numOfDataPoints = 1 + random.nextInt(MAX_DATA_POINTS);
+		int firstScan = random.nextInt(1000);
+		int scanNumbers[] = new int[numOfDataPoints];
+		DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+		for (int i = 0; i < numOfDataPoints; i++) {
+			scanNumbers[i] = firstScan + i;
+			// Some scans have no data point of the peak
+			if (random.nextInt(5) > 0)
+				dataPoints[i] = new SimpleDataPoint(
+						(float) (100 + random.nextDouble() * 900),
+						(float) (random.nextDouble() * 1e6));
+		}
+		double mz = 100 + random.nextDouble() * 900;
+		double rt = random.nextDouble() * 60;
+		SimpleChromatographicPeak peak = new SimpleChromatographicPeak(
+				dataFile, mz, rt, random.nextDouble() * 1e6,
+				random.nextDouble() * 1e7, scanNumbers, dataPoints,
+				PeakStatus.values()[random.nextInt(PeakStatus.values().length)],
+				scanNumbers[numOfDataPoints / 2], -1, new Range(rt - 0.1,
+						rt + 0.1), random.nextBoolean() ? new Range(mz) : null,
+				new Range(0, 1e6));
+		peak.setCharge(random.nextInt(3));
+		if (random.nextBoolean()) {
+			DataPoint isotopes[] = { new SimpleDataPoint(mz, 1000),
+					new SimpleDataPoint(mz + 1.003, 500) };
+			peak.setIsotopePattern(new SimpleIsotopePattern(isotopes,
+					IsotopePatternStatus.DETECTED, "Isotopes of " + mz));
+		}
+		return peak;
+	}
+
+}
@@ -0,0 +1,98 @@
+package net.sf.mzmine.modules.projectmethods.projectload.version_2_5;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+import de.schlichtherle.truezip.zip.ZipEntry;
+import de.schlichtherle.truezip.zip.ZipOutputStream;
+
+/**
+ * Checks that uncompressed scan data are only read from the project file when
+ * their local header matches the zip entry
+ */
+public class RawDataFileOpenHandler_2_5Test {
+
+	private static final String SCANS_NAME = "Raw data file #1 test.scans";
+
+	@Test
+	public void testStoredDataOffset() throws Exception {
+
+		byte data[] = new byte[1000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) i;
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		File projectFile = File.createTempFile("mzmine", ".mzmine");
+		projectFile.deleteOnExit();
+		try {
+			FileOutputStream fileStream = new FileOutputStream(projectFile);
+			ZipOutputStream zipStream = new ZipOutputStream(fileStream);
+			zipStream.putNextEntry(new ZipEntry("version"));
+			zipStream.write(new byte[13]);
+			zipStream.closeEntry();
+			zipStream.flush();
+			long headerOffset = fileStream.getChannel().position();
+			zipStream.putNextEntry(createEntry(data.length, crc.getValue()));
+			zipStream.write(data);
+			zipStream.close();
+
+			ZipEntry entry = createEntry(data.length, crc.getValue());
+			long dataOffset = RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					projectFile, headerOffset, entry);
+			assertEquals(headerOffset + 30 + SCANS_NAME.length(), dataOffset);
+			RandomAccessFile file = new RandomAccessFile(projectFile, "r");
+			byte readData[] = new byte[data.length];
+			file.seek(dataOffset);
+			file.readFully(readData);
+			file.close();
+			for (int i = 0; i < data.length; i++)
+				assertEquals(data[i], readData[i]);
+
+			// Wrong or missing header position
+			assertEquals(-1, RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					projectFile, -1, entry));
+			assertEquals(-1, RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					projectFile, 0, entry));
+			assertEquals(-1, RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					projectFile, headerOffset + 1, entry));
+			assertEquals(-1, RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					projectFile, projectFile.length() - 10, entry));
+			assertEquals(-1, RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					null, headerOffset, entry));
+
+			// Local header describing different data
+			assertEquals(-1, RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					projectFile, headerOffset, createEntry(data.length,
+							crc.getValue() ^ 1)));
+			assertEquals(-1, RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					projectFile, headerOffset, createEntry(data.length - 8,
+							crc.getValue())));
+
+			// Compressed entry
+			ZipEntry compressedEntry = new ZipEntry(SCANS_NAME);
+			compressedEntry.setMethod(ZipEntry.DEFLATED);
+			assertEquals(-1, RawDataFileOpenHandler_2_5.getStoredDataOffset(
+					projectFile, headerOffset, compressedEntry));
+		} finally {
+			projectFile.delete();
+		}
+
+	}
+
+	private static ZipEntry createEntry(long size, long crc) {
+		ZipEntry entry = new ZipEntry(SCANS_NAME);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(size);
+		entry.setCompressedSize(size);
+		entry.setCrc(crc);
+		return entry;
+	}
+
+}
@@ -0,0 +1,378 @@
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.PeakList;
+import net.sf.mzmine.data.PeakListRow;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.RawDataFileWriter;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.data.impl.SimplePeakList;
+import net.sf.mzmine.data.impl.SimplePeakListRow;
+import net.sf.mzmine.data.impl.SimpleScan;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectLoaderParameters;
+import net.sf.mzmine.modules.projectmethods.projectload.ProjectOpeningTask;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.project.MZmineProject;
+import net.sf.mzmine.project.impl.MZmineProjectImpl;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Saves a project with several raw data files and peak lists, which are
+ * processed in parallel, and opens it again. Canceled saving and opening must
+ * not leave any temporary files behind.
+ */
+public class ProjectSavingTaskTest {
+
+	private static final int NUM_OF_FILES = 4;
+	private static final int NUM_OF_SCANS = 40;
+	private static final int NUM_OF_PEAK_LISTS = 3;
+	private static final int NUM_OF_ROWS = 300;
+
+	@Test
+	public void testSaveAndOpen() throws Exception {
+
+		MZmineCore.initializeHeadless();
+		File directory = createTempDirectory();
+		File projectFile = new File(directory, "Round trip.mzmine");
+		MZmineCore.getProjectManager().setCurrentProject(createProject());
+		try {
+			Set<String> tempFiles = listTempFiles();
+
+			ProjectSavingTask saveTask = new ProjectSavingTask(
+					createParameters(projectFile));
+			saveTask.run();
+			assertEquals(saveTask.getErrorMessage(), TaskStatus.FINISHED,
+					saveTask.getStatus());
+
+			// Only the project remains, the compressed entries were removed
+			assertArrayEquals(new String[]{projectFile.getName()},
+					directory.list());
+			assertEquals(tempFiles, listTempFiles());
+
+			ProjectOpeningTask openTask = new ProjectOpeningTask(
+					createParameters(projectFile));
+			openTask.run();
+			assertEquals(openTask.getErrorMessage(), TaskStatus.FINISHED,
+					openTask.getStatus());
+
+			MZmineProject openedProject = MZmineCore.getCurrentProject();
+			assertEquals(projectFile, openedProject.getProjectFile());
+			checkProject(openedProject);
+		} finally {
+			MZmineCore.getProjectManager().setCurrentProject(
+					new MZmineProjectImpl());
+			deleteDirectory(directory);
+		}
+
+	}
+
+	@Test
+	public void testSaveToOpenedProjectFile() throws Exception {
+
+		MZmineCore.initializeHeadless();
+		MZmineCore.getConfiguration().getPreferences()
+				.getParameter(MZminePreferences.uncompressedProjectScans)
+				.setValue(true);
+		File directory = createTempDirectory();
+		File projectFile = new File(directory, "Saved twice.mzmine");
+		MZmineCore.getProjectManager().setCurrentProject(createProject());
+		try {
+			ProjectSavingTask saveTask = new ProjectSavingTask(
+					createParameters(projectFile));
+			saveTask.run();
+			assertEquals(saveTask.getErrorMessage(), TaskStatus.FINISHED,
+					saveTask.getStatus());
+
+			// The opened files read their scans from the project file
+			ProjectOpeningTask openTask = new ProjectOpeningTask(
+					createParameters(projectFile));
+			openTask.run();
+			assertEquals(openTask.getErrorMessage(), TaskStatus.FINISHED,
+					openTask.getStatus());
+			MZmineProject openedProject = MZmineCore.getCurrentProject();
+			RawDataFileImpl dataFile = (RawDataFileImpl) openedProject
+					.getDataFiles()[0];
+			assertEquals(0, dataFile.getDataPointsFile().length());
+
+			// Setting the name marks the file as modified, so its scans are
+			// saved from the project file instead of being copied
+			dataFile.setName(dataFile.getName());
+
+			saveTask = new ProjectSavingTask(createParameters(projectFile));
+			saveTask.run();
+			assertEquals(saveTask.getErrorMessage(), TaskStatus.FINISHED,
+					saveTask.getStatus());
+			assertArrayEquals(new String[]{projectFile.getName()},
+					directory.list());
+
+			// The scans were copied out of the replaced project file
+			assertTrue(dataFile.getDataPointsFile().length() > 0);
+			checkProject(openedProject);
+
+			openTask = new ProjectOpeningTask(createParameters(projectFile));
+			openTask.run();
+			assertEquals(openTask.getErrorMessage(), TaskStatus.FINISHED,
+					openTask.getStatus());
+			checkProject(MZmineCore.getCurrentProject());
+		} finally {
+			MZmineCore.getConfiguration().getPreferences()
+					.getParameter(MZminePreferences.uncompressedProjectScans)
+					.setValue(false);
+			MZmineCore.getProjectManager().setCurrentProject(
+					new MZmineProjectImpl());
+			deleteDirectory(directory);
+		}
+
+	}
+
+	@Test
+	public void testCancelSaving() throws Exception {
+
+		MZmineCore.initializeHeadless();
+		File directory = createTempDirectory();
+		File projectFile = new File(directory, "Canceled.mzmine");
+		MZmineProjectImpl project = createProject();
+		MZmineCore.getProjectManager().setCurrentProject(project);
+		try {
+			Set<String> tempFiles = listTempFiles();
+
+			// Cancel while the peak lists are being compressed, after the raw
+			// data files were written into the temporary project file
+			ProjectSavingTask saveTask = new ProjectSavingTask(
+					createParameters(projectFile));
+			runCanceled(saveTask, "Saving peak list");
+
+			assertEquals(0, directory.list().length);
+			assertEquals(tempFiles, listTempFiles());
+
+			// Saving again writes all the data
+			for (RawDataFile dataFile : project.getDataFiles())
+				assertTrue(((RawDataFileImpl) dataFile).isModified());
+			for (PeakList peakList : project.getPeakLists())
+				assertTrue(((SimplePeakList) peakList).isModified());
+		} finally {
+			MZmineCore.getProjectManager().setCurrentProject(
+					new MZmineProjectImpl());
+			deleteDirectory(directory);
+		}
+
+	}
+
+	@Test
+	public void testCancelOpening() throws Exception {
+
+		MZmineCore.initializeHeadless();
+		File directory = createTempDirectory();
+		File projectFile = new File(directory, "Canceled.mzmine");
+		MZmineProjectImpl project = createProject();
+		MZmineCore.getProjectManager().setCurrentProject(project);
+		try {
+			ProjectSavingTask saveTask = new ProjectSavingTask(
+					createParameters(projectFile));
+			saveTask.run();
+			assertEquals(saveTask.getErrorMessage(), TaskStatus.FINISHED,
+					saveTask.getStatus());
+
+			Set<String> tempFiles = listTempFiles();
+
+			// Cancel after the raw data files were read into temporary files
+			ProjectOpeningTask openTask = new ProjectOpeningTask(
+					createParameters(projectFile));
+			runCanceled(openTask, "Loading peak lists");
+
+			assertEquals(tempFiles, listTempFiles());
+			assertSame(project, MZmineCore.getCurrentProject());
+		} finally {
+			MZmineCore.getProjectManager().setCurrentProject(
+					new MZmineProjectImpl());
+			deleteDirectory(directory);
+		}
+
+	}
+
+	/**
+	 * Runs the task, canceling it when it logs the given message
+	 */
+	private static void runCanceled(final AbstractTask task,
+			final String message) {
+
+		Logger logger = Logger.getLogger(task.getClass().getName());
+		Level level = logger.getLevel();
+		Handler handler = new Handler() {
+			public void publish(LogRecord record) {
+				if (record.getMessage().startsWith(message))
+					task.cancel();
+			}
+
+			public void flush() {
+			}
+
+			public void close() {
+			}
+		};
+		logger.setLevel(Level.INFO);
+		logger.addHandler(handler);
+		try {
+			task.run();
+		} finally {
+			logger.removeHandler(handler);
+			logger.setLevel(level);
+		}
+
+		assertEquals(TaskStatus.CANCELED, task.getStatus());
+
+	}
+
+	private static MZmineProjectImpl createProject() throws IOException {
+
+		MZmineProjectImpl project = new MZmineProjectImpl();
+
+		RawDataFile dataFiles[] = new RawDataFile[NUM_OF_FILES];
+		for (int i = 0; i < NUM_OF_FILES; i++) {
+			RawDataFileWriter writer = MZmineCore.createNewFile("Data file "
+					+ (i + 1));
+			for (int scanNumber = 1; scanNumber <= NUM_OF_SCANS; scanNumber++) {
+				writer.addScan(new SimpleScan(null, scanNumber, 1,
+						scanNumber * 0.1, -1, 0, 0, new int[0],
+						createDataPoints(i, scanNumber), true));
+			}
+			dataFiles[i] = writer.finishWriting();
+			project.addFile(dataFiles[i]);
+		}
+
+		for (int i = 0; i < NUM_OF_PEAK_LISTS; i++) {
+			SimplePeakList peakList = new SimplePeakList("Peak list "
+					+ (i + 1), dataFiles);
+			for (int j = 0; j < NUM_OF_ROWS; j++) {
+				SimplePeakListRow row = new SimplePeakListRow(j + 1);
+				for (RawDataFile dataFile : dataFiles) {
+					row.addPeak(dataFile, TestDataFactory.createPeak(dataFile,
+							getMZ(i, j), 1 + j * 0.01, getHeight(i, j),
+							getHeight(i, j) * 10));
+				}
+				peakList.addRow(row);
+			}
+			project.addPeakList(peakList);
+		}
+
+		return project;
+
+	}
+
+	private static void checkProject(MZmineProject project) {
+
+		RawDataFile dataFiles[] = project.getDataFiles();
+		assertEquals(NUM_OF_FILES, dataFiles.length);
+		for (int i = 0; i < NUM_OF_FILES; i++) {
+			assertEquals("Data file " + (i + 1), dataFiles[i].getName());
+			assertEquals(NUM_OF_SCANS, dataFiles[i].getNumOfScans());
+			for (int scanNumber = 1; scanNumber <= NUM_OF_SCANS; scanNumber++) {
+				Scan scan = dataFiles[i].getScan(scanNumber);
+				assertEquals(scanNumber * 0.1, scan.getRetentionTime(), 1e-9);
+				DataPoint expected[] = createDataPoints(i, scanNumber);
+				DataPoint dataPoints[] = scan.getDataPoints();
+				assertEquals(expected.length, dataPoints.length);
+				for (int j = 0; j < expected.length; j++) {
+					assertEquals(expected[j].getMZ(), dataPoints[j].getMZ(), 0);
+					assertEquals(expected[j].getIntensity(),
+							dataPoints[j].getIntensity(), 0);
+				}
+			}
+		}
+
+		PeakList peakLists[] = project.getPeakLists();
+		assertEquals(NUM_OF_PEAK_LISTS, peakLists.length);
+		for (int i = 0; i < NUM_OF_PEAK_LISTS; i++) {
+			assertEquals("Peak list " + (i + 1), peakLists[i].getName());
+			assertArrayEquals(dataFiles, peakLists[i].getRawDataFiles());
+			assertEquals(NUM_OF_ROWS, peakLists[i].getNumberOfRows());
+			for (int j = 0; j < NUM_OF_ROWS; j++) {
+				PeakListRow row = peakLists[i].getRow(j);
+				assertEquals(j + 1, row.getID());
+				assertEquals(NUM_OF_FILES, row.getNumberOfPeaks());
+				assertEquals(getMZ(i, j), row.getPeak(dataFiles[0]).getMZ(),
+						0);
+				assertEquals(getHeight(i, j), row.getPeak(dataFiles[0])
+						.getHeight(), 0);
+			}
+		}
+
+	}
+
+	private static DataPoint[] createDataPoints(int file, int scanNumber) {
+		DataPoint dataPoints[] = new DataPoint[10 + (file + scanNumber) % 7];
+		for (int i = 0; i < dataPoints.length; i++)
+			dataPoints[i] = new SimpleDataPoint(100 + i * 10.5, 1000 * (file
+					+ 1) + scanNumber * 10 + i);
+		return dataPoints;
+	}
+
+	private static double getMZ(int peakList, int row) {
+		return 100 + row * 0.5 + peakList * 0.125;
+	}
+
+	private static double getHeight(int peakList, int row) {
+		return 1000 + row * 3 + peakList;
+	}
+
+	private static ParameterSet createParameters(File projectFile) {
+		ParameterSet parameters = new ProjectLoaderParameters();
+		parameters.getParameter(ProjectLoaderParameters.projectFile).setValue(
+				projectFile);
+		return parameters;
+	}
+
+	/**
+	 * Returns the names of the temporary files created by MZmine, which
+	 * include the data points of raw data files and the compressed project
+	 * entries
+	 */
+	private static Set<String> listTempFiles() {
+		File tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+		Set<String> names = new HashSet<String>();
+		for (String name : tempDirectory.list()) {
+			if (name.startsWith("mzmine"))
+				names.add(name);
+		}
+		return names;
+	}
+
+	private static File createTempDirectory() throws IOException {
+		File directory = File.createTempFile("projecttest", "");
+		directory.delete();
+		assertTrue(directory.mkdir());
+		return directory;
+	}
+
+	private static void deleteDirectory(File directory) {
+		File files[] = directory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+
+}
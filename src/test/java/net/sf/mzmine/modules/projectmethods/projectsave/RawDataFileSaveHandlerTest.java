@@ -0,0 +1,189 @@
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.data.impl.SimpleScan;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.projectmethods.projectload.version_2_5.RawDataFileOpenHandler_2_5;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+
+import org.junit.Test;
+
+import de.schlichtherle.truezip.zip.ZipEntry;
+import de.schlichtherle.truezip.zip.ZipFile;
+import de.schlichtherle.truezip.zip.ZipOutputStream;
+
+/**
+ * Saves a raw data file with uncompressed scans and checks that the opened
+ * copy reads them from the project file, also after they were copied into a
+ * new project file
+ */
+public class RawDataFileSaveHandlerTest {
+
+	private static final int NUM_OF_SCANS = 50;
+	private static final int MAX_DATA_POINTS = 200;
+
+	@Test
+	public void testUncompressedScansRoundTrip() throws Exception {
+
+		MZmineCore.initializeHeadless();
+		MZmineCore.getConfiguration().getPreferences()
+				.getParameter(MZminePreferences.uncompressedProjectScans)
+				.setValue(true);
+
+		RawDataFileImpl dataFile = (RawDataFileImpl) MZmineCore
+				.createNewFile("Synthetic data file");
+		Random random = new Random(5);
+		for (int i = 1; i <= NUM_OF_SCANS; i++) {
+			DataPoint dataPoints[] = new DataPoint[random
+					.nextInt(MAX_DATA_POINTS)];
+			for (int j = 0; j < dataPoints.length; j++)
+				dataPoints[j] = new SimpleDataPoint(100 + j,
+						(float) (random.nextDouble() * 1e6));
+			dataFile.addScan(new SimpleScan(null, i, 1, i * 0.5, -1, 0, 0,
+					new int[0], dataPoints, false));
+		}
+		dataFile.finishWriting();
+
+		File projectFile = File.createTempFile("mzmine", ".mzmine");
+		projectFile.deleteOnExit();
+		RawDataFile openedFile = null;
+		ZipFile zipFile = null;
+		try {
+			FileOutputStream fileStream = new FileOutputStream(projectFile);
+			ZipOutputStream zipStream = new ZipOutputStream(fileStream);
+
+			// An entry before the scans, so their local header does not start
+			// at the beginning of the file
+			zipStream.putNextEntry(new ZipEntry("version"));
+			zipStream.write(new byte[13]);
+
+			RawDataFileSaveHandler saveHandler = new RawDataFileSaveHandler(
+					dataFile, 1);
+			saveHandler.prepareRawDataFile();
+			saveHandler.writeRawDataFile(zipStream, fileStream.getChannel());
+			zipStream.close();
+
+			zipFile = new ZipFile(projectFile);
+			ZipEntry scansEntry = zipFile
+					.getEntry("Raw data file #1 Synthetic data file.scans");
+			ZipEntry xmlEntry = zipFile
+					.getEntry("Raw data file #1 Synthetic data file.xml");
+			assertEquals(ZipEntry.STORED, scansEntry.getMethod());
+
+			openedFile = new RawDataFileOpenHandler_2_5(projectFile)
+					.readRawDataFile(zipFile, scansEntry, xmlEntry);
+
+			// The scans were not copied into the data points file
+			assertEquals(0, ((RawDataFileImpl) openedFile).getDataPointsFile()
+					.length());
+
+			assertSameScans(dataFile, openedFile);
+
+		// Data points stored after opening go to the data points file,
+			// the project file is not modified
+			long projectLength = projectFile.length();
+			DataPoint newDataPoints[] = {new SimpleDataPoint(50, 7)};
+			int storageID = ((RawDataFileImpl) openedFile)
+					.storeDataPoints(newDataPoints);
+			DataPoint readDataPoints[] = ((RawDataFileImpl) openedFile)
+					.readDataPoints(storageID);
+			assertEquals(1, readDataPoints.length);
+			assertEquals(7, readDataPoints[0].getIntensity(), 0);
+			assertEquals(projectLength, projectFile.length());
+
+			// Back to the data points of the project file
+			((RawDataFileImpl) openedFile).removeStoredDataPoints(storageID);
+
+			// Saving the unchanged file again copies its scan data from
+			// the previous project file, at a different position
+			File copiedProjectFile = File.createTempFile("mzmine",
+					".mzmine");
+			copiedProjectFile.deleteOnExit();
+			PreviousProjectFile previousProjectFile = new PreviousProjectFile(
+					projectFile);
+			RawDataFile copiedFile = null;
+			ZipFile copiedZipFile = null;
+			try {
+				fileStream = new FileOutputStream(copiedProjectFile);
+				zipStream = new ZipOutputStream(fileStream);
+				zipStream.putNextEntry(new ZipEntry("version 2"));
+				zipStream.write(new byte[21]);
+
+				saveHandler = new RawDataFileSaveHandler(
+						(RawDataFileImpl) openedFile, 1);
+				assertFalse(saveHandler.prepareCopiedScans(
+						previousProjectFile, "Missing entry.scans"));
+				assertTrue(saveHandler.prepareCopiedScans(
+						previousProjectFile, scansEntry.getName()));
+				saveHandler.writeRawDataFile(zipStream,
+						fileStream.getChannel());
+				zipStream.close();
+				assertEquals(scansEntry.getSize(),
+						saveHandler.getCopiedBytes());
+
+				copiedZipFile = new ZipFile(copiedProjectFile);
+				copiedFile = new RawDataFileOpenHandler_2_5(
+						copiedProjectFile).readRawDataFile(copiedZipFile,
+						copiedZipFile.getEntry(scansEntry.getName()),
+						copiedZipFile.getEntry(xmlEntry.getName()));
+				assertEquals(0, ((RawDataFileImpl) copiedFile)
+						.getDataPointsFile().length());
+				assertSameScans(dataFile, copiedFile);
+			} finally {
+				previousProjectFile.close();
+				if (copiedFile != null)
+					copiedFile.close();
+				if (copiedZipFile != null)
+					copiedZipFile.close();
+				copiedProjectFile.delete();
+			}
+
+		} finally {
+			MZmineCore.getConfiguration().getPreferences()
+					.getParameter(MZminePreferences.uncompressedProjectScans)
+					.setValue(false);
+			if (openedFile != null)
+				openedFile.close();
+			if (zipFile != null)
+				zipFile.close();
+			dataFile.close();
+			projectFile.delete();
+		}
+
+	}
+
+	private static void assertSameScans(RawDataFile dataFile,
+			RawDataFile openedFile) {
+		assertArrayEquals(dataFile.getScanNumbers(),
+				openedFile.getScanNumbers());
+		for (int scanNumber : dataFile.getScanNumbers()) {
+			Scan scan = dataFile.getScan(scanNumber);
+			Scan openedScan = openedFile.getScan(scanNumber);
+			assertEquals(scan.getRetentionTime(),
+					openedScan.getRetentionTime(), 1e-9);
+			DataPoint dataPoints[] = scan.getDataPoints();
+			DataPoint openedDataPoints[] = openedScan.getDataPoints();
+			assertEquals(dataPoints.length, openedDataPoints.length);
+			for (int i = 0; i < dataPoints.length; i++) {
+				assertEquals(dataPoints[i].getMZ(),
+						openedDataPoints[i].getMZ(), 0);
+				assertEquals(dataPoints[i].getIntensity(),
+						openedDataPoints[i].getIntensity(), 0);
+			}
+		}
+	}
+
+}
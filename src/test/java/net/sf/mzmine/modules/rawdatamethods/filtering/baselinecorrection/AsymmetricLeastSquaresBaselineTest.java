@@ -0,0 +1,136 @@
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Compares the banded asymmetric least squares baseline with a direct
+ * implementation of ptw::asysm on synthetic chromatograms
+ */
+public class AsymmetricLeastSquaresBaselineTest {
+
+	private static final int NUM_OF_SCANS = 200;
+	private static final double SMOOTHING = 1e5, ASYMMETRY = 0.001;
+	private static final double PEAK_HEIGHT = 1e4;
+
+	@Test
+	public void testLinearChromatogram() {
+
+		// A straight line has no second differences, so it is its own
+		// baseline
+		double chromatogram[] = new double[NUM_OF_SCANS];
+		for (int i = 0; i < NUM_OF_SCANS; i++)
+			chromatogram[i] = 500 + 2 * i;
+		double baseline[] = AsymmetricLeastSquaresBaseline.calculateBaseline(
+				chromatogram, SMOOTHING, ASYMMETRY);
+		for (int i = 0; i < NUM_OF_SCANS; i++)
+			assertEquals(chromatogram[i], baseline[i], 1e-3);
+
+	}
+
+	@Test
+	public void testChromatogramWithPeaks() {
+
+		double drift[] = new double[NUM_OF_SCANS];
+		double chromatogram[] = new double[NUM_OF_SCANS];
+		for (int i = 0; i < NUM_OF_SCANS; i++) {
+			drift[i] = 500 + 2 * i;
+			chromatogram[i] = drift[i] + gaussian(i, 60, 5, PEAK_HEIGHT)
+					+ gaussian(i, 140, 3, PEAK_HEIGHT / 2);
+		}
+
+		double baseline[] = AsymmetricLeastSquaresBaseline.calculateBaseline(
+				chromatogram, SMOOTHING, ASYMMETRY);
+		double expected[] = asysm(chromatogram, SMOOTHING, ASYMMETRY);
+		for (int i = 0; i < NUM_OF_SCANS; i++)
+			assertEquals(expected[i], baseline[i], 1e-6 * PEAK_HEIGHT);
+
+		// The baseline follows the drift under the peaks
+		for (int i = 0; i < NUM_OF_SCANS; i++)
+			assertTrue(Math.abs(baseline[i] - drift[i]) < 0.05 * PEAK_HEIGHT);
+
+	}
+
+	@Test
+	public void testShortChromatogram() {
+		double chromatogram[] = {3, 1};
+		double baseline[] = AsymmetricLeastSquaresBaseline.calculateBaseline(
+				chromatogram, SMOOTHING, ASYMMETRY);
+		assertEquals(3, baseline[0], 0);
+		assertEquals(1, baseline[1], 0);
+	}
+
+	private static double gaussian(int x, double center, double sigma,
+			double height) {
+		return height * Math.exp(-(x - center) * (x - center)
+				/ (2 * sigma * sigma));
+	}
+
+	/**
+	 * asysm() of the ptw package, solving the full system
+	 * (W + lambda * D'D) z = W y by Gaussian elimination
+	 */
+	private static double[] asysm(double y[], double lambda, double p) {
+
+		int n = y.length;
+		double penalty[][] = new double[n][n];
+		for (int r = 0; r < n - 2; r++) {
+			double d[] = {1, -2, 1};
+			for (int i = 0; i < 3; i++)
+				for (int j = 0; j < 3; j++)
+					penalty[r + i][r + j] += lambda * d[i] * d[j];
+		}
+
+		double w[] = new double[n];
+		Arrays.fill(w, 1);
+		double z[] = null;
+		for (int iteration = 0; iteration < 25; iteration++) {
+			double a[][] = new double[n][];
+			double b[] = new double[n];
+			for (int i = 0; i < n; i++) {
+				a[i] = penalty[i].clone();
+				a[i][i] += w[i];
+				b[i] = w[i] * y[i];
+			}
+			z = solve(a, b);
+
+			boolean changed = false;
+			for (int i = 0; i < n; i++) {
+				double newWeight = y[i] > z[i] ? p : 1 - p;
+				changed |= newWeight != w[i];
+				w[i] = newWeight;
+			}
+			if (!changed)
+				break;
+		}
+		return z;
+
+	}
+
+	private static double[] solve(double a[][], double b[]) {
+		int n = b.length;
+		for (int k = 0; k < n; k++) {
+			for (int i = k + 1; i < n; i++) {
+				double factor = a[i][k] / a[k][k];
+				if (factor == 0)
+					continue;
+				for (int j = k; j < n; j++)
+					a[i][j] -= factor * a[k][j];
+				b[i] -= factor * b[k];
+			}
+		}
+		double x[] = new double[n];
+		for (int i = n - 1; i >= 0; i--) {
+			double sum = b[i];
+			for (int j = i + 1; j < n; j++)
+				sum -= a[i][j] * x[j];
+			x[i] = sum / a[i][i];
+		}
+		return x;
+	}
+
+}
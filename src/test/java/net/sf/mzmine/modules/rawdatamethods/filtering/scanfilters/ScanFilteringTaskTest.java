@@ -0,0 +1,222 @@
+package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.data.impl.SimpleScan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.impl.MZmineProcessingStepImpl;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.mean.MeanFilter;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.mean.MeanFilterParameters;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.project.MZmineProject;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+import org.junit.Test;
+
+/**
+ * Compares the files filtered on demand with the files written by the scan
+ * filtering task, and checks when the source file of a file filtered on
+ * demand is closed
+ */
+public class ScanFilteringTaskTest {
+
+	private static final int NUM_OF_SCANS = 120;
+	private static final int NUM_OF_DATA_POINTS = 300;
+
+	@Test
+	public void testOnDemandSameAsWritten() throws Exception {
+
+		MZmineCore.initializeHeadless();
+		MZmineProject project = MZmineCore.getCurrentProject();
+		RawDataFile dataFile = createDataFile(new RawDataFileImpl(
+				"Source file"));
+		project.addFile(dataFile);
+
+		RawDataFile writtenFile = runTask(dataFile, false, false);
+		RawDataFile filteredFile = runTask(dataFile, true, false);
+		assertTrue(filteredFile instanceof FilteredRawDataFile);
+
+		// Only the MS1 scans kept by the filter
+		int scanNumbers[] = writtenFile.getScanNumbers();
+		assertArrayEquals(scanNumbers, filteredFile.getScanNumbers());
+		assertArrayEquals(scanNumbers, filteredFile.getScanNumbers(1));
+		assertArrayEquals(new int[]{1}, filteredFile.getMSLevels());
+		assertEquals(0, filteredFile.getNumOfScans(2));
+		for (int scanNumber : dataFile.getScanNumbers()) {
+			boolean kept = (dataFile.getScan(scanNumber).getMSLevel() == 1)
+					&& (scanNumber % DiscardingFilter.DISCARDED_SCANS != 0);
+			assertEquals(kept, Arrays.binarySearch(scanNumbers, scanNumber) >= 0);
+			if (!kept)
+				assertNull(filteredFile.getScan(scanNumber));
+		}
+
+		// The written file stores the data points as floats
+		for (int scanNumber : scanNumbers) {
+			Scan writtenScan = writtenFile.getScan(scanNumber);
+			Scan filteredScan = filteredFile.getScan(scanNumber);
+			assertEquals(writtenScan.getRetentionTime(),
+					filteredScan.getRetentionTime(), 0);
+			assertEquals(writtenScan.getNumberOfDataPoints(),
+					filteredScan.getNumberOfDataPoints());
+			assertEquals(writtenScan.getTIC(), filteredScan.getTIC(),
+					writtenScan.getTIC() * 1e-6);
+			DataPoint writtenDataPoints[] = writtenScan.getDataPoints();
+			DataPoint filteredDataPoints[] = filteredScan.getDataPoints();
+			assertEquals(writtenDataPoints.length, filteredDataPoints.length);
+			for (int i = 0; i < writtenDataPoints.length; i++) {
+				assertEquals(writtenDataPoints[i].getMZ(),
+						(float) filteredDataPoints[i].getMZ(), 0);
+				assertEquals(writtenDataPoints[i].getIntensity(),
+						(float) filteredDataPoints[i].getIntensity(), 0);
+			}
+		}
+		assertEquals(writtenFile.getDataRTRange(1).getMin(), filteredFile
+				.getDataRTRange(1).getMin(), 0);
+		assertEquals(writtenFile.getDataRTRange(1).getMax(), filteredFile
+				.getDataRTRange(1).getMax(), 0);
+		assertEquals(writtenFile.getDataMZRange(1).getMin(), filteredFile
+				.getDataMZRange(1).getMin(), 1e-3);
+		assertEquals(writtenFile.getDataMZRange(1).getMax(), filteredFile
+				.getDataMZRange(1).getMax(), 1e-3);
+
+		project.removeFile(filteredFile);
+		project.removeFile(writtenFile);
+		project.removeFile(dataFile);
+
+	}
+
+	@Test
+	public void testSourceClosedWithLastFilteredFile() throws Exception {
+
+		MZmineCore.initializeHeadless();
+		MZmineProject project = MZmineCore.getCurrentProject();
+		ClosingCountFile dataFile = new ClosingCountFile("Source file");
+		createDataFile(dataFile);
+		project.addFile(dataFile);
+
+		RawDataFile filteredFile = runTask(dataFile, true, false);
+		RawDataFile refilteredFile = runTask(filteredFile, true, true);
+
+		// Both filtered files read the source, which is still in the project
+		assertFalse(Arrays.asList(project.getDataFiles()).contains(
+				filteredFile));
+		project.removeFile(dataFile);
+		assertEquals(0, dataFile.closeCount);
+		int scanNumber = refilteredFile.getScanNumbers()[0];
+		assertEquals(refilteredFile.getScan(scanNumber)
+				.getNumberOfDataPoints(), refilteredFile.getScan(scanNumber)
+				.getDataPoints().length);
+
+		// The last filtered file closes the source
+		project.removeFile(refilteredFile);
+		assertEquals(1, dataFile.closeCount);
+
+		// Closing again does not close the source twice
+		refilteredFile.close();
+		assertEquals(1, dataFile.closeCount);
+
+	}
+
+	private static RawDataFile runTask(RawDataFile dataFile,
+			boolean onDemand, boolean removeOriginal) {
+		MeanFilterParameters filterParameters = new MeanFilterParameters();
+		filterParameters.getParameter(
+				MeanFilterParameters.oneSidedWindowLength).setValue(0.5);
+
+		ParameterSet parameters = new ScanFiltersParameters();
+		parameters.getParameter(ScanFiltersParameters.suffix).setValue(
+				onDemand ? "on demand" : "written");
+		parameters.getParameter(ScanFiltersParameters.filter).setValue(
+				new MZmineProcessingStepImpl<ScanFilter>(
+						new DiscardingFilter(), filterParameters));
+		parameters.getParameter(ScanFiltersParameters.autoRemove).setValue(
+				removeOriginal);
+		parameters.getParameter(ScanFiltersParameters.onDemand).setValue(
+				onDemand);
+		parameters.getParameter(ScanFiltersParameters.cacheSize).setValue(10);
+
+		ScanFilteringTask task = new ScanFilteringTask(dataFile, parameters);
+		task.run();
+		assertEquals(task.getErrorMessage(), TaskStatus.FINISHED,
+				task.getStatus());
+		assertEquals(1, task.getFinishedPercentage(), 0);
+		return (RawDataFile) task.getCreatedObjects()[0];
+	}
+
+	/**
+	 * Writes profile scans, every fifth of them an MS2 scan
+	 */
+	private static RawDataFile createDataFile(RawDataFileImpl dataFile)
+			throws IOException {
+		Random random = new Random(17);
+		for (int i = 1; i <= NUM_OF_SCANS; i++) {
+			DataPoint dataPoints[] = new DataPoint[NUM_OF_DATA_POINTS];
+			for (int j = 0; j < NUM_OF_DATA_POINTS; j++)
+				dataPoints[j] = new SimpleDataPoint(100 + j * 0.1,
+						random.nextDouble() * 1e5);
+			int msLevel = i % 5 == 0 ? 2 : 1;
+			dataFile.addScan(new SimpleScan(null, i, msLevel, i * 0.1,
+					msLevel == 2 ? i - 1 : -1, msLevel == 2 ? 120 : 0, 0,
+					new int[0], dataPoints, false));
+		}
+		return dataFile.finishWriting();
+	}
+
+	/**
+	 * Mean filter which discards every seventh scan
+	 */
+	private static class DiscardingFilter implements ScanFilter {
+
+		static final int DISCARDED_SCANS = 7;
+
+		private final MeanFilter meanFilter = new MeanFilter();
+
+		public Scan filterScan(Scan scan, ParameterSet parameters) {
+			if (scan.getScanNumber() % DISCARDED_SCANS == 0)
+				return null;
+			return meanFilter.filterScan(scan, parameters);
+		}
+
+		public @Nonnull
+		String getName() {
+			return "Discarding mean filter";
+		}
+
+		public @Nonnull
+		Class<? extends ParameterSet> getParameterSetClass() {
+			return MeanFilterParameters.class;
+		}
+
+	}
+
+	private static class ClosingCountFile extends RawDataFileImpl {
+
+		int closeCount = 0;
+
+		ClosingCountFile(String name) throws IOException {
+			super(name);
+		}
+
+		public synchronized void close() {
+			closeCount++;
+			super.close();
+		}
+
+	}
+
+}
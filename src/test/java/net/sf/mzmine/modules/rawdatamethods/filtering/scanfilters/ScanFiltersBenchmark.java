@@ -0,0 +1,152 @@
+package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters;
+
+import static org.junit.Assert.assertTrue;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.data.impl.SimpleScan;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.mean.MeanFilter;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.mean.MeanFilterParameters;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.savitzkygolay.SGFilter;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.savitzkygolay.SGFilterParameters;
+
+import org.junit.Test;
+
+/**
+ * Measures the throughput of the mean and Savitzky-Golay scan filters against
+ * their original implementations on 20 profile scans of 50k data points. Run
+ * with "mvn test -Pbenchmark".
+ */
+public class ScanFiltersBenchmark {
+
+	private static final int NUM_OF_SCANS = 20;
+	private static final int NUM_OF_RUNS = 5;
+
+	// The running sum must be at least this many times faster
+	private static final double MIN_MEAN_SPEED_UP = 2;
+
+	// The primitive arrays must not be slower
+	private static final double MIN_SG_SPEED_UP = 1;
+
+	@Test
+	public void testMeanFilterSpeedUp() {
+
+		Scan scans[] = ScanFiltersTest.createScans(NUM_OF_SCANS);
+		MeanFilter filter = new MeanFilter();
+
+		for (double windowLength : ScanFiltersTest.WINDOW_LENGTH) {
+
+			MeanFilterParameters parameters = new MeanFilterParameters();
+			parameters.getParameter(MeanFilterParameters.oneSidedWindowLength)
+					.setValue(windowLength);
+
+			long originalTime = Long.MAX_VALUE, filterTime = Long.MAX_VALUE;
+			for (int run = 0; run < NUM_OF_RUNS; run++) {
+
+				long startTime = System.nanoTime();
+				for (Scan scan : scans)
+					originalMeanFilter(scan, windowLength);
+				originalTime = Math.min(originalTime, System.nanoTime()
+						- startTime);
+
+				startTime = System.nanoTime();
+				for (Scan scan : scans)
+					filter.filterScan(scan, parameters);
+				filterTime = Math.min(filterTime, System.nanoTime() - startTime);
+
+			}
+
+			double speedUp = (double) originalTime / filterTime;
+			System.out.println("MeanFilter, window " + windowLength
+					+ ": original " + scansPerSecond(originalTime)
+					+ " scans/s, running sum " + scansPerSecond(filterTime)
+					+ " scans/s, speed-up " + speedUp);
+			assertTrue("Speed-up " + speedUp, speedUp >= MIN_MEAN_SPEED_UP);
+
+		}
+
+	}
+
+	@Test
+	public void testSGFilterSpeedUp() {
+
+		Scan scans[] = ScanFiltersTest.createScans(NUM_OF_SCANS);
+		SGFilter filter = new SGFilter();
+
+		for (Integer numOfDataPoints : ScanFiltersTest.SG_DATA_POINTS) {
+
+			SGFilterParameters parameters = new SGFilterParameters();
+			parameters.getParameter(SGFilterParameters.datapoints).setValue(
+					numOfDataPoints);
+
+			long originalTime = Long.MAX_VALUE, filterTime = Long.MAX_VALUE;
+			for (int run = 0; run < NUM_OF_RUNS; run++) {
+
+				long startTime = System.nanoTime();
+				for (Scan scan : scans)
+					originalSGFilter(scan, numOfDataPoints);
+				originalTime = Math.min(originalTime, System.nanoTime()
+						- startTime);
+
+				startTime = System.nanoTime();
+				for (Scan scan : scans)
+					filter.filterScan(scan, parameters);
+				filterTime = Math.min(filterTime, System.nanoTime() - startTime);
+
+			}
+
+			double speedUp = (double) originalTime / filterTime;
+			System.out.println("SGFilter, " + numOfDataPoints
+					+ " data points: original " + scansPerSecond(originalTime)
+					+ " scans/s, primitive arrays "
+					+ scansPerSecond(filterTime) + " scans/s, speed-up "
+					+ speedUp);
+			assertTrue("Speed-up " + speedUp, speedUp >= MIN_SG_SPEED_UP);
+
+		}
+
+	}
+
+	/**
+	 * Filters the scan and creates the filtered scan as the original mean
+	 * filter did
+	 */
+	private static Scan originalMeanFilter(Scan scan, double windowLength) {
+		DataPoint oldDataPoints[] = scan.getDataPoints();
+		double intensityValues[] = ScanFiltersTest.originalMeanFilter(
+				oldDataPoints, windowLength);
+		DataPoint newDataPoints[] = new DataPoint[intensityValues.length];
+		for (int i = 0; i < intensityValues.length; i++)
+			newDataPoints[i] = new SimpleDataPoint(oldDataPoints[i].getMZ(),
+					intensityValues[i]);
+		return new SimpleScan(scan.getDataFile(), scan.getScanNumber(),
+				scan.getMSLevel(), scan.getRetentionTime(),
+				scan.getParentScanNumber(), scan.getPrecursorMZ(),
+				scan.getPrecursorCharge(), scan.getFragmentScanNumbers(),
+				newDataPoints, true);
+	}
+
+	/**
+	 * Filters the scan and creates the filtered scan as the original
+	 * Savitzky-Golay filter did
+	 */
+	private static Scan originalSGFilter(Scan scan, int numOfDataPoints) {
+		DataPoint oldDataPoints[] = scan.getDataPoints();
+		double intensityValues[] = ScanFiltersTest.originalSGFilter(
+				oldDataPoints, numOfDataPoints);
+		int marginSize = (numOfDataPoints + 1) / 2 - 1;
+		DataPoint newDataPoints[] = new DataPoint[intensityValues.length];
+		for (int i = 0; i < intensityValues.length; i++)
+			newDataPoints[i] = new SimpleDataPoint(
+					oldDataPoints[i + marginSize].getMZ(), intensityValues[i]);
+		SimpleScan newScan = new SimpleScan(scan);
+		newScan.setDataPoints(newDataPoints);
+		return newScan;
+	}
+
+	private static long scansPerSecond(long nanoTime) {
+		return Math.round(NUM_OF_SCANS / (nanoTime / 1e9));
+	}
+
+}
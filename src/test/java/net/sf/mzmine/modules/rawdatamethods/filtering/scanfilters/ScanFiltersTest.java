@@ -0,0 +1,255 @@
+package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.Vector;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.mean.MeanFilter;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.mean.MeanFilterParameters;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.savitzkygolay.SGFilter;
+import net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.savitzkygolay.SGFilterParameters;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Compares the mean and Savitzky-Golay scan filters with their original
+ * implementations on 50k-point profile scans
+ */
+public class ScanFiltersTest {
+
+	private static final int NUM_OF_SCANS = 3;
+	private static final int NUM_OF_DATA_POINTS = 50000;
+	private static final int NUM_OF_PEAKS = 500;
+	private static final double MZ_STEP = 0.005;
+
+	static final double WINDOW_LENGTH[] = { 0.02, 0.1, 0.5 };
+	static final Integer SG_DATA_POINTS[] = { 5, 9, 15 };
+
+	@Test
+	public void testMeanFilter() {
+
+		Scan scans[] = createScans(NUM_OF_SCANS);
+
+		for (double windowLength : WINDOW_LENGTH) {
+
+			double expected[][] = new double[NUM_OF_SCANS][];
+			for (int i = 0; i < NUM_OF_SCANS; i++)
+				expected[i] = originalMeanFilter(scans[i].getDataPoints(),
+						windowLength);
+
+			MeanFilterParameters parameters = new MeanFilterParameters();
+			parameters.getParameter(MeanFilterParameters.oneSidedWindowLength)
+					.setValue(windowLength);
+			MeanFilter filter = new MeanFilter();
+
+			Scan actual[] = new Scan[NUM_OF_SCANS];
+			for (int i = 0; i < NUM_OF_SCANS; i++)
+				actual[i] = filter.filterScan(scans[i], parameters);
+
+			for (int i = 0; i < NUM_OF_SCANS; i++) {
+				DataPoint dataPoints[] = actual[i].getDataPoints();
+				assertEquals(expected[i].length, dataPoints.length);
+				for (int j = 0; j < dataPoints.length; j++)
+					assertEquals(expected[i][j], dataPoints[j].getIntensity(),
+							Math.abs(expected[i][j]) * 1e-9);
+			}
+		}
+
+	}
+
+	@Test
+	public void testMeanFilterAfterLargePeak() {
+
+		// A peak far above the noise, which leaves the window before the
+		// noise around it is averaged
+		double mzValues[] = new double[2000];
+		double intensityValues[] = new double[2000];
+		for (int i = 0; i < mzValues.length; i++) {
+			mzValues[i] = 100 + i * MZ_STEP;
+			intensityValues[i] = 1 + 0.001 * (i % 7);
+		}
+		intensityValues[500] = 1e15;
+		Scan scan = TestDataFactory.createScan(1, mzValues, intensityValues);
+
+		double expected[] = originalMeanFilter(scan.getDataPoints(), 0.1);
+		MeanFilterParameters parameters = new MeanFilterParameters();
+		parameters.getParameter(MeanFilterParameters.oneSidedWindowLength)
+				.setValue(0.1);
+		DataPoint dataPoints[] = new MeanFilter().filterScan(scan, parameters)
+				.getDataPoints();
+		for (int j = 0; j < dataPoints.length; j++)
+			assertEquals(expected[j], dataPoints[j].getIntensity(),
+					Math.abs(expected[j]) * 1e-9);
+
+	}
+
+	@Test
+	public void testSGFilter() {
+
+		Scan scans[] = createScans(NUM_OF_SCANS);
+
+		for (Integer numOfDataPoints : SG_DATA_POINTS) {
+
+			double expected[][] = new double[NUM_OF_SCANS][];
+			for (int i = 0; i < NUM_OF_SCANS; i++)
+				expected[i] = originalSGFilter(scans[i].getDataPoints(),
+						numOfDataPoints);
+
+			SGFilterParameters parameters = new SGFilterParameters();
+			parameters.getParameter(SGFilterParameters.datapoints).setValue(
+					numOfDataPoints);
+			SGFilter filter = new SGFilter();
+
+			Scan actual[] = new Scan[NUM_OF_SCANS];
+			for (int i = 0; i < NUM_OF_SCANS; i++)
+				actual[i] = filter.filterScan(scans[i], parameters);
+
+			for (int i = 0; i < NUM_OF_SCANS; i++) {
+				DataPoint dataPoints[] = actual[i].getDataPoints();
+				assertEquals(expected[i].length, dataPoints.length);
+				for (int j = 0; j < dataPoints.length; j++)
+					assertEquals(expected[i][j], dataPoints[j].getIntensity(),
+							0);
+			}
+		}
+
+	}
+
+	/**
+	 * The original mean filter, which keeps the window in Vectors and sums the
+	 * whole window for every data point
+	 */
+	static double[] originalMeanFilter(DataPoint oldDataPoints[],
+			double windowLength) {
+
+		Vector<Double> massWindow = new Vector<Double>();
+		Vector<Double> intensityWindow = new Vector<Double>();
+		double result[] = new double[oldDataPoints.length];
+
+		int addi = 0;
+		for (int i = 0; i < oldDataPoints.length; i++) {
+
+			double currentMass = oldDataPoints[i].getMZ();
+			double lowLimit = currentMass - windowLength;
+			double hiLimit = currentMass + windowLength;
+
+			if (massWindow.size() > 0) {
+				double mzVal = massWindow.get(0).doubleValue();
+				while ((massWindow.size() > 0) && (mzVal < lowLimit)) {
+					massWindow.remove(0);
+					intensityWindow.remove(0);
+					if (massWindow.size() > 0) {
+						mzVal = massWindow.get(0).doubleValue();
+					}
+				}
+			}
+
+			while ((addi < oldDataPoints.length)
+					&& (oldDataPoints[addi].getMZ() <= hiLimit)) {
+				massWindow.add(oldDataPoints[addi].getMZ());
+				intensityWindow.add(oldDataPoints[addi].getIntensity());
+				addi++;
+			}
+
+			double elSum = 0;
+			for (int j = 0; j < intensityWindow.size(); j++) {
+				elSum += ((Double) (intensityWindow.get(j))).doubleValue();
+			}
+
+			result[i] = elSum / (double) intensityWindow.size();
+		}
+
+		return result;
+	}
+
+	/**
+	 * The original Savitzky-Golay filter, which works on DataPoint instances
+	 */
+	static double[] originalSGFilter(DataPoint oldDataPoints[],
+			int numOfDataPoints) {
+
+		int aVals[], h;
+		switch (numOfDataPoints) {
+			case 5 :
+				aVals = new int[] { 17, 12, -3 };
+				h = 35;
+				break;
+			case 9 :
+				aVals = new int[] { 59, 54, 39, 14, -21 };
+				h = 231;
+				break;
+			case 15 :
+				aVals = new int[] { 167, 162, 147, 122, 87, 42, -13, -78 };
+				h = 1105;
+				break;
+			default :
+				throw new IllegalArgumentException("No coefficients for "
+						+ numOfDataPoints + " data points");
+		}
+
+		int marginSize = (numOfDataPoints + 1) / 2 - 1;
+		double result[] = new double[oldDataPoints.length - (marginSize * 2)];
+
+		for (int spectrumInd = marginSize; spectrumInd < (oldDataPoints.length - marginSize); spectrumInd++) {
+
+			if (oldDataPoints[spectrumInd].getIntensity() == 0) {
+				result[spectrumInd - marginSize] = 0;
+				continue;
+			}
+
+			double sumOfInts = aVals[0]
+					* oldDataPoints[spectrumInd].getIntensity();
+
+			for (int windowInd = 1; windowInd <= marginSize; windowInd++) {
+				sumOfInts += aVals[windowInd]
+						* (oldDataPoints[spectrumInd + windowInd]
+								.getIntensity() + oldDataPoints[spectrumInd
+								- windowInd].getIntensity());
+			}
+
+			sumOfInts = sumOfInts / h;
+
+			if (sumOfInts < 0) {
+				sumOfInts = 0;
+			}
+			result[spectrumInd - marginSize] = sumOfInts;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Creates MS1 profile scans with Gaussian peaks on a noisy baseline, with
+	 * zero-intensity gaps between the signal regions
+	 */
+	static Scan[] createScans(int numOfScans) {
+		Random random = new Random(42);
+		Scan scans[] = new Scan[numOfScans];
+		for (int scan = 0; scan < numOfScans; scan++) {
+			double mzValues[] = new double[NUM_OF_DATA_POINTS];
+			double intensityValues[] = new double[NUM_OF_DATA_POINTS];
+			for (int i = 0; i < NUM_OF_DATA_POINTS; i++)
+				mzValues[i] = 100 + i * MZ_STEP;
+			for (int p = 0; p < NUM_OF_PEAKS; p++) {
+				int center = random.nextInt(NUM_OF_DATA_POINTS);
+				double width = 1 + random.nextDouble() * 4;
+				double height = 10 + random.nextDouble() * 1e6;
+				for (int i = Math.max(0, center - 30); i < Math.min(
+						NUM_OF_DATA_POINTS, center + 30); i++) {
+					double distance = (i - center) / width;
+					intensityValues[i] += height
+							* Math.exp(-distance * distance / 2)
+							+ random.nextDouble() * 20;
+				}
+			}
+			scans[scan] = TestDataFactory.createScan(scan + 1, mzValues,
+					intensityValues);
+		}
+		return scans;
+	}
+
+}
@@ -0,0 +1,237 @@
+package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Compares the WaveletMassDetector with the original implementation, which
+ * rebuilt the wavelet table for every scan, and checks that the kernels are
+ * reused
+ */
+public class WaveletMassDetectorTest {
+
+	private static final int NUM_OF_SCANS = 30;
+	private static final int NUM_OF_DATA_POINTS = 20000;
+	private static final int NUM_OF_PEAKS = 300;
+
+	static final double NOISE_LEVEL = 50;
+	static final int SCALE_LEVEL[] = { 2, 5, 10 };
+	static final double WAVELET_WINDOW = 0.3;
+
+	@Test
+	public void testSameMassValues() {
+
+		Scan scans[] = createScans(NUM_OF_SCANS);
+
+		for (int scaleLevel : SCALE_LEVEL) {
+
+			DataPoint expected[][] = new DataPoint[NUM_OF_SCANS][];
+			for (int i = 0; i < NUM_OF_SCANS; i++)
+				expected[i] = OriginalWaveletMassDetector.getMassValues(
+						scans[i], NOISE_LEVEL, scaleLevel, WAVELET_WINDOW);
+
+			DataPoint actual[][] = new DataPoint[NUM_OF_SCANS][];
+			for (int i = 0; i < NUM_OF_SCANS; i++)
+				actual[i] = WaveletMassDetector.getMassValues(scans[i],
+						NOISE_LEVEL, scaleLevel, WAVELET_WINDOW);
+
+			for (int i = 0; i < NUM_OF_SCANS; i++) {
+				assertEquals(expected[i].length, actual[i].length);
+				for (int j = 0; j < expected[i].length; j++) {
+					assertEquals(expected[i][j].getMZ(), actual[i][j].getMZ(),
+							0);
+					assertEquals(expected[i][j].getIntensity(),
+							actual[i][j].getIntensity(), 0);
+				}
+			}
+		}
+
+	}
+
+	@Test
+	public void testKernelReused() {
+
+		double kernel[] = WaveletMassDetector.getKernel(5, WAVELET_WINDOW);
+		assertEquals(5 * 10 + 1, kernel.length);
+		assertSame(kernel, WaveletMassDetector.getKernel(5, WAVELET_WINDOW));
+		assertNotSame(kernel, WaveletMassDetector.getKernel(2, WAVELET_WINDOW));
+		assertNotSame(kernel, WaveletMassDetector.getKernel(5, 0.5));
+
+	}
+
+	/**
+	 * Creates profile scans with Gaussian peaks on a low noise baseline, with
+	 * zero-intensity gaps between the signal regions
+	 */
+	static Scan[] createScans(int numOfScans) {
+		Random random = new Random(42);
+		Scan scans[] = new Scan[numOfScans];
+		for (int scan = 0; scan < numOfScans; scan++) {
+			double mzValues[] = new double[NUM_OF_DATA_POINTS];
+			double intensityValues[] = new double[NUM_OF_DATA_POINTS];
+			for (int i = 0; i < NUM_OF_DATA_POINTS; i++)
+				mzValues[i] = 100 + i * 0.05;
+			for (int p = 0; p < NUM_OF_PEAKS; p++) {
+				int center = random.nextInt(NUM_OF_DATA_POINTS);
+				double width = 1 + random.nextDouble() * 4;
+				double height = 10 + random.nextDouble() * 1e5;
+				for (int i = Math.max(0, center - 30); i < Math.min(
+						NUM_OF_DATA_POINTS, center + 30); i++) {
+					double distance = (i - center) / width;
+					intensityValues[i] += height
+							* Math.exp(-distance * distance / 2)
+							+ random.nextDouble() * 20;
+				}
+			}
+			scans[scan] = TestDataFactory.createScan(scan + 1, mzValues,
+					intensityValues);
+		}
+		return scans;
+	}
+
+	/**
+	 * The original implementation, which builds the wavelet table for every
+	 * scan and works on DataPoint instances
+	 */
+	static class OriginalWaveletMassDetector {
+
+		private static final double NPOINTS = 60000;
+		private static final int WAVELET_ESL = -5;
+		private static final int WAVELET_ESR = 5;
+
+		static DataPoint[] getMassValues(Scan scan, double noiseLevel,
+				int scaleLevel, double waveletWindow) {
+			DataPoint originalDataPoints[] = scan.getDataPoints();
+			DataPoint waveletDataPoints[] = performCWT(originalDataPoints,
+					waveletWindow, scaleLevel);
+			return getMzPeaks(noiseLevel, originalDataPoints,
+					waveletDataPoints);
+		}
+
+		private static SimpleDataPoint[] performCWT(DataPoint[] dataPoints,
+				double waveletWindow, int scaleLevel) {
+			int length = dataPoints.length;
+			SimpleDataPoint[] cwtDataPoints = new SimpleDataPoint[length];
+			double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
+			double[] W = new double[(int) NPOINTS];
+
+			double waveletIndex = WAVELET_ESL;
+			for (int j = 0; j < NPOINTS; j++) {
+				W[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
+				waveletIndex += wstep;
+			}
+
+			int d = (int) NPOINTS / (WAVELET_ESR - WAVELET_ESL);
+			int a_esl = scaleLevel * WAVELET_ESL;
+			int a_esr = scaleLevel * WAVELET_ESR;
+			double sqrtScaleLevel = Math.sqrt(scaleLevel);
+			for (int dx = 0; dx < length; dx++) {
+				int t1 = a_esl + dx;
+				if (t1 < 0)
+					t1 = 0;
+				int t2 = a_esr + dx;
+				if (t2 >= length)
+					t2 = (length - 1);
+
+				double intensity = 0.0;
+				for (int i = t1; i <= t2; i++) {
+					int ind = (int) (NPOINTS / 2)
+							- (((int) d * (i - dx) / scaleLevel) * (-1));
+					if (ind < 0)
+						ind = 0;
+					if (ind >= NPOINTS)
+						ind = (int) NPOINTS - 1;
+					intensity += dataPoints[i].getIntensity() * W[ind];
+				}
+				intensity /= sqrtScaleLevel;
+				if (intensity < 0)
+					intensity = 0;
+				cwtDataPoints[dx] = new SimpleDataPoint(
+						dataPoints[dx].getMZ(), intensity);
+			}
+
+			return cwtDataPoints;
+		}
+
+		private static double cwtMEXHATreal(double x, double a, double b) {
+			double c = 0.8673250705840776;
+			double TINY = 1E-200;
+			double x2;
+
+			if (a == 0.0)
+				a = TINY;
+			x = (x - b) / a;
+			x2 = x * x;
+			return c * (1.0 - x2) * Math.exp(-x2 / 2);
+		}
+
+		private static DataPoint[] getMzPeaks(double noiseLevel,
+				DataPoint[] originalDataPoints, DataPoint[] waveletDataPoints) {
+
+			TreeSet<DataPoint> mzPeaks = new TreeSet<DataPoint>(
+					new DataPointSorter(SortingProperty.MZ,
+							SortingDirection.Ascending));
+
+			Vector<DataPoint> rawDataPoints = new Vector<DataPoint>();
+			int peakMaxInd = 0;
+			int stopInd = waveletDataPoints.length - 1;
+
+			for (int ind = 0; ind <= stopInd; ind++) {
+
+				while ((ind <= stopInd)
+						&& (waveletDataPoints[ind].getIntensity() == 0)) {
+					ind++;
+				}
+				peakMaxInd = ind;
+				if (ind >= stopInd) {
+					break;
+				}
+
+				while ((ind <= stopInd)
+						&& (waveletDataPoints[ind].getIntensity() > 0)) {
+					if (waveletDataPoints[ind].getIntensity() > waveletDataPoints[peakMaxInd]
+							.getIntensity()) {
+						peakMaxInd = ind;
+					}
+					rawDataPoints.add(originalDataPoints[ind]);
+					ind++;
+				}
+
+				if (ind >= stopInd) {
+					break;
+				}
+
+				rawDataPoints.add(originalDataPoints[ind]);
+
+				if (originalDataPoints[peakMaxInd].getIntensity() > noiseLevel) {
+					double aproxIntensity = 0;
+					for (DataPoint d : rawDataPoints) {
+						if (d.getIntensity() > aproxIntensity)
+							aproxIntensity = d.getIntensity();
+					}
+					mzPeaks.add(new SimpleDataPoint(originalDataPoints[peakMaxInd]
+							.getMZ(), aproxIntensity));
+				}
+				rawDataPoints.clear();
+			}
+
+			return mzPeaks.toArray(new DataPoint[0]);
+		}
+	}
+
+}
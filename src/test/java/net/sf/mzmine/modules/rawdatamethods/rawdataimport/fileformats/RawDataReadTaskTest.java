@@ -0,0 +1,158 @@
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+
+import org.junit.Test;
+
+/**
+ * Reads the test files with the raw data readers and reports the parsing
+ * throughput. The indexed readers must produce the same scans as the
+ * sequential readers, including the jmzml based mzML reader.
+ */
+public class RawDataReadTaskTest {
+
+	@Test
+	public void testReadMzXML() throws Exception {
+		MZmineCore.initializeHeadless();
+
+		File file = new File("src/test/resources/rawdata/test.mzXML");
+		RawDataFile dataFile = readFile(new MzXMLReadTask(file,
+				MZmineCore.createNewFile(file.getName())));
+
+		assertEquals(8, dataFile.getNumOfScans());
+		assertEquals(16, dataFile.getScan(1).getNumberOfDataPoints());
+		assertEquals(496.341,
+				dataFile.getScan(1).getBasePeak().getMZ(), 0.001);
+		assertEquals(2583632.5, dataFile.getScan(1).getBasePeak()
+				.getIntensity(), 0);
+	}
+
+	@Test
+	public void testReadIndexedMzXML() throws Exception {
+		MZmineCore.initializeHeadless();
+
+		// File without index
+		File file = new File("src/test/resources/rawdata/test.mzXML");
+		assertSameScans(readFile(new MzXMLReadTask(file,
+				MZmineCore.createNewFile(file.getName()))),
+				readFile(new IndexedMzXMLReadTask(file, MZmineCore
+						.createNewFile(file.getName()))));
+
+		// Indexed file with nested fragment scans
+		file = new File("src/test/resources/rawdata/indexed.mzXML");
+		RawDataFile dataFile = readFile(new IndexedMzXMLReadTask(file,
+				MZmineCore.createNewFile(file.getName())));
+		assertSameScans(readFile(new MzXMLReadTask(file,
+				MZmineCore.createNewFile(file.getName()))), dataFile);
+		assertEquals(5, dataFile.getNumOfScans());
+		assertArrayEquals(new int[]{2, 3}, dataFile.getScan(1)
+				.getFragmentScanNumbers());
+		assertEquals(1, dataFile.getScan(3).getParentScanNumber());
+	}
+
+	@Test
+	public void testReadIndexedMzML() throws Exception {
+		MZmineCore.initializeHeadless();
+
+		File file = new File("src/test/resources/rawdata/indexed.mzML");
+		RawDataFile dataFile = readFile(new IndexedMzMLReadTask(file,
+				MZmineCore.createNewFile(file.getName())));
+		assertSameScans(readFile(new MzMLReadTask(file,
+				MZmineCore.createNewFile(file.getName()))), dataFile);
+		assertEquals(3, dataFile.getNumOfScans());
+		assertEquals(10, dataFile.getScan(11).getParentScanNumber());
+		assertEquals(200.0, dataFile.getScan(11).getPrecursorMZ(), 0);
+		assertEquals(3, dataFile.getScan(11).getPrecursorCharge());
+	}
+
+	@Test
+	public void testReadPlainMzML() throws Exception {
+		MZmineCore.initializeHeadless();
+
+		// File without index, with mzML 1.0 precursor m/z, retention times in
+		// seconds and minutes and spectrum IDs without scan numbers
+		File file = new File("src/test/resources/rawdata/plain.mzML");
+		RawDataFile dataFile = readFile(new IndexedMzMLReadTask(file,
+				MZmineCore.createNewFile(file.getName())));
+		assertSameScans(readFile(new MzMLReadTask(file,
+				MZmineCore.createNewFile(file.getName()))), dataFile);
+		assertArrayEquals(new int[]{1, 2, 3, 4, 5}, dataFile.getScanNumbers());
+		assertEquals(0.5, dataFile.getScan(1).getRetentionTime(), 1e-9);
+		assertEquals(0.51, dataFile.getScan(2).getRetentionTime(), 1e-9);
+		assertEquals(0.53, dataFile.getScan(4).getRetentionTime(), 1e-9);
+		assertArrayEquals(new int[]{2, 5}, dataFile.getScan(1)
+				.getFragmentScanNumbers());
+		assertEquals(300.75, dataFile.getScan(2).getPrecursorMZ(), 0);
+		assertEquals(2, dataFile.getScan(2).getPrecursorCharge());
+		assertEquals(-1, dataFile.getScan(4).getParentScanNumber());
+		assertEquals(2400.0, dataFile.getScan(1).getBasePeak()
+				.getIntensity(), 0);
+	}
+
+	@Test
+	public void testReadUnsupportedMzML() throws Exception {
+		MZmineCore.initializeHeadless();
+
+		// Integer intensity arrays are read by the jmzml reader
+		File file = new File("src/test/resources/rawdata/integer.mzML");
+		RawDataFile dataFile = readFile(new IndexedMzMLReadTask(file,
+				MZmineCore.createNewFile(file.getName())));
+		assertSameScans(readFile(new MzMLReadTask(file,
+				MZmineCore.createNewFile(file.getName()))), dataFile);
+		assertEquals(2, dataFile.getNumOfScans());
+		assertEquals(2500.0, dataFile.getScan(2).getBasePeak()
+				.getIntensity(), 0);
+	}
+
+	@Test
+	public void testReadMzData() throws Exception {
+		MZmineCore.initializeHeadless();
+
+		File file = new File("src/test/resources/rawdata/full/1.mzdata.xml");
+		RawDataFile dataFile = readFile(new MzDataReadTask(file,
+				MZmineCore.createNewFile(file.getName())));
+
+		assertTrue(dataFile.getNumOfScans() > 0);
+	}
+
+	private static void assertSameScans(RawDataFile expected,
+			RawDataFile actual) {
+		assertArrayEquals(expected.getScanNumbers(), actual.getScanNumbers());
+		for (int scanNumber : expected.getScanNumbers()) {
+			Scan expectedScan = expected.getScan(scanNumber);
+			Scan actualScan = actual.getScan(scanNumber);
+			assertEquals(expectedScan.getMSLevel(), actualScan.getMSLevel());
+			assertEquals(expectedScan.getRetentionTime(),
+					actualScan.getRetentionTime(), 0);
+			assertEquals(expectedScan.getParentScanNumber(),
+					actualScan.getParentScanNumber());
+			assertEquals(expectedScan.getPrecursorMZ(),
+					actualScan.getPrecursorMZ(), 0);
+			assertEquals(expectedScan.getPrecursorCharge(),
+					actualScan.getPrecursorCharge());
+			assertArrayEquals(expectedScan.getFragmentScanNumbers(),
+					actualScan.getFragmentScanNumbers());
+			assertEquals(expectedScan.isCentroided(), actualScan.isCentroided());
+			assertArrayEquals(expectedScan.getDataPoints(),
+					actualScan.getDataPoints());
+		}
+	}
+
+	private static RawDataFile readFile(Task readTask) {
+		readTask.run();
+		assertEquals(readTask.getErrorMessage(), TaskStatus.FINISHED,
+				readTask.getStatus());
+		return (RawDataFile) readTask.getCreatedObjects()[0];
+	}
+
+}
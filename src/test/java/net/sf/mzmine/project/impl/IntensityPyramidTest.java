@@ -0,0 +1,144 @@
+package net.sf.mzmine.project.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import net.sf.mzmine.data.impl.SimpleScan;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.TestDataFactory;
+
+import org.junit.Test;
+
+/**
+ * Compares the intensity pyramid used by the visualizers with the scan data
+ */
+public class IntensityPyramidTest {
+
+	private static final int NUM_OF_SCANS = 100;
+	private static final int MAX_DATA_POINTS = 200;
+	private static final int NUM_OF_QUERIES = 500;
+
+	private static final double MZ_MIN = 100, MZ_MAX = 1000;
+
+	@Test
+	public void testMaxIntensity() throws Exception {
+
+		Random random = new Random(7);
+		final double mzValues[][] = new double[NUM_OF_SCANS][];
+		final double intensityValues[][] = new double[NUM_OF_SCANS][];
+		for (int i = 0; i < NUM_OF_SCANS; i++) {
+			int numOfDataPoints = random.nextInt(MAX_DATA_POINTS);
+			mzValues[i] = new double[numOfDataPoints];
+			intensityValues[i] = new double[numOfDataPoints];
+			for (int j = 0; j < numOfDataPoints; j++) {
+				mzValues[i][j] = MZ_MIN + random.nextDouble()
+						* (MZ_MAX - MZ_MIN);
+				intensityValues[i][j] = (float) (random.nextDouble() * 1e6);
+			}
+		}
+		mzValues[0] = new double[] { MZ_MIN, MZ_MAX };
+		intensityValues[0] = new double[] { 1, 2 };
+
+		File file = File.createTempFile("mzmine", ".pyramid");
+		file.deleteOnExit();
+		IntensityPyramid pyramid = IntensityPyramid.build(
+				TestDataFactory.createDataFile("Synthetic data file", mzValues,
+						intensityValues), 1, file);
+
+		try {
+			assertEquals(NUM_OF_SCANS, pyramid.getScanNumbers().length);
+			assertEquals(
+					getMaxIntensity(mzValues, intensityValues, 0,
+							NUM_OF_SCANS - 1, new Range(MZ_MIN, MZ_MAX)),
+					pyramid.getMaxIntensity(0, NUM_OF_SCANS - 1, new Range(
+							MZ_MIN, MZ_MAX)), 0);
+
+			for (int i = 0; i < NUM_OF_QUERIES; i++) {
+				int firstScan = random.nextInt(NUM_OF_SCANS);
+				int lastScan = firstScan
+						+ random.nextInt(NUM_OF_SCANS - firstScan);
+				double mz = MZ_MIN + random.nextDouble() * (MZ_MAX - MZ_MIN);
+				double width = random.nextDouble() * (MZ_MAX - mz);
+				Range mzRange = new Range(mz, mz + width);
+				if (!pyramid.covers(mzRange))
+					continue;
+
+				double maxIntensity = pyramid.getMaxIntensity(firstScan,
+						lastScan, mzRange);
+
+				// The pyramid value includes every data point in the query,
+				// but no data point further than one query size away
+				int numOfScans = lastScan - firstScan + 1;
+				double margin = width + pyramid.getBinWidth();
+				assertTrue(maxIntensity >= getMaxIntensity(mzValues,
+						intensityValues, firstScan, lastScan, mzRange));
+				assertTrue(maxIntensity <= getMaxIntensity(mzValues,
+						intensityValues, firstScan - numOfScans, lastScan
+								+ numOfScans, new Range(mz - margin, mz
+								+ width + margin)));
+			}
+		} finally {
+			pyramid.close();
+		}
+
+		assertTrue(!file.exists());
+	}
+
+	@Test
+	public void testBuiltOnFirstUse() throws Exception {
+
+		File dataPointsFile = File.createTempFile("mzmine", ".scans");
+		RawDataFileImpl dataFile = new RawDataFileImpl("Synthetic data file");
+		dataFile.openDataPointsFile(dataPointsFile);
+		for (int i = 1; i <= 20; i++) {
+			dataFile.addScan(new SimpleScan(null, i, 1, i, -1, 0, 0,
+					new int[0], TestDataFactory.createDataPoints(new double[] {
+							MZ_MIN, MZ_MAX }, new double[] { i, 2 * i }), false));
+		}
+		dataFile.finishWriting();
+
+		File pyramidFile = new File(dataPointsFile.getPath() + ".ms1.pyramid");
+		assertFalse(pyramidFile.exists());
+
+		IntensityPyramid pyramid = dataFile.getIntensityPyramid(1);
+		assertNotNull(pyramid);
+		assertTrue(pyramidFile.exists());
+		assertSame(pyramid, dataFile.getIntensityPyramid(1));
+		assertEquals(40, pyramid.getMaxIntensity(0, 19, new Range(MZ_MIN,
+				MZ_MAX)), 0);
+
+		// No MS2 scans, so there is nothing to build
+		assertNull(dataFile.getIntensityPyramid(2));
+
+		// Closing the data file unmaps and removes the pyramid
+		dataFile.close();
+		assertFalse(pyramidFile.exists());
+		assertFalse(dataPointsFile.exists());
+		assertEquals(0, pyramid.getMaxIntensity(0, 19, new Range(MZ_MIN,
+				MZ_MAX)), 0);
+
+	}
+
+	private static double getMaxIntensity(double mzValues[][],
+			double intensityValues[][], int firstScan, int lastScan,
+			Range mzRange) {
+		double maxIntensity = 0;
+		for (int i = Math.max(firstScan, 0); i <= Math.min(lastScan,
+				NUM_OF_SCANS - 1); i++) {
+			for (int j = 0; j < mzValues[i].length; j++) {
+				if (mzRange.contains(mzValues[i][j]))
+					maxIntensity = Math.max(maxIntensity,
+							intensityValues[i][j]);
+			}
+		}
+		return maxIntensity;
+	}
+
+}
@@ -0,0 +1,68 @@
+package net.sf.mzmine.project.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+/**
+ * Interleaves appends and reads of the memory-mapped scan data storage
+ */
+public class MappedScanDataStorageTest {
+
+	private static final int NUM_OF_BLOCKS = 20;
+	private static final int BLOCK_SIZE = 100;
+
+	@Test
+	public void testAppendAndRead() throws Exception {
+
+		File file = File.createTempFile("mzmine", ".scans");
+		file.deleteOnExit();
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		MappedScanDataStorage storage = new MappedScanDataStorage(
+				randomAccessFile);
+
+		try {
+			for (int block = 0; block < NUM_OF_BLOCKS; block++) {
+				ByteBuffer data = ByteBuffer.allocate(BLOCK_SIZE * 4);
+				for (int i = 0; i < BLOCK_SIZE; i++)
+					data.asFloatBuffer().put(i, block * BLOCK_SIZE + i);
+				long offset = storage.append(data);
+				assertEquals(block * BLOCK_SIZE * 4L, offset);
+
+				// Each read reaches the block appended right before it
+				FloatBuffer floats = storage.readFloats(offset, BLOCK_SIZE);
+				for (int i = 0; i < BLOCK_SIZE; i++)
+					assertEquals(block * BLOCK_SIZE + i, floats.get(i), 0);
+
+				// Mapping must not extend the file beyond the written data
+				assertEquals(offset + BLOCK_SIZE * 4, file.length());
+			}
+
+			FloatBuffer floats = storage.readFloats(0, BLOCK_SIZE);
+			assertEquals(BLOCK_SIZE - 1, floats.get(BLOCK_SIZE - 1), 0);
+		} finally {
+			storage.close();
+			randomAccessFile.close();
+		}
+
+		try {
+			storage.readFloats(0, BLOCK_SIZE);
+			fail("Closed storage was read");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// All mappings were released, so the file can be removed
+		assertTrue(file.delete());
+
+	}
+
+}
@@ -0,0 +1,153 @@
+package net.sf.mzmine.taskcontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.mzmine.main.MZmineCore;
+
+import org.junit.Test;
+
+/**
+ * Checks that the results of scans processed in parallel are stored in order,
+ * and that canceling the task stops the processing
+ */
+public class ParallelScanProcessorTest {
+
+	private static final int NUM_OF_SCANS = 1000;
+	private static final int NUM_OF_THREADS = 4;
+	private static final int CANCELED_AFTER = 100;
+
+	@Test
+	public void testResultsStoredInOrder() throws Exception {
+
+		final int scanNumbers[] = createScanNumbers();
+		final Thread callingThread = Thread.currentThread();
+
+		ParallelScanProcessor<Integer> processor = new ParallelScanProcessor<Integer>() {
+			private int stored = 0;
+
+			protected Integer processScan(int scanNumber) throws Exception {
+				// Jobs finish in a different order than they were submitted
+				if (scanNumber % 7 == 0)
+					Thread.sleep(1);
+				return scanNumber * 2;
+			}
+
+			protected void storeResult(int scanNumber, Integer result) {
+				assertSame(callingThread, Thread.currentThread());
+				assertEquals(scanNumbers[stored], scanNumber);
+				assertEquals(scanNumber * 2, result.intValue());
+				stored++;
+			}
+		};
+
+		processor.process(scanNumbers, new TestTask(), NUM_OF_THREADS);
+		assertEquals(NUM_OF_SCANS, processor.getProcessedScans());
+
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+
+		final int scanNumbers[] = createScanNumbers();
+		final TestTask task = new TestTask();
+		final AtomicInteger processedCalls = new AtomicInteger();
+
+		ParallelScanProcessor<Integer> processor = new ParallelScanProcessor<Integer>() {
+			protected Integer processScan(int scanNumber) throws Exception {
+				processedCalls.incrementAndGet();
+				Thread.sleep(1);
+				return scanNumber;
+			}
+
+			protected void storeResult(int scanNumber, Integer result) {
+				if (getProcessedScans() + 1 == CANCELED_AFTER)
+					task.cancel();
+			}
+		};
+
+		processor.process(scanNumbers, task, NUM_OF_THREADS);
+
+		// The rest of the block being stored may still be stored, but no
+		// further blocks
+		int processedScans = processor.getProcessedScans();
+		assertTrue(processedScans >= CANCELED_AFTER);
+		assertTrue(processedScans < NUM_OF_SCANS / 2);
+
+		// The jobs queued ahead are not run after cancellation
+		int callsAfterCancel = processedCalls.get();
+		Thread.sleep(200);
+		assertTrue(processedCalls.get() < NUM_OF_SCANS / 2);
+		assertTrue(processedCalls.get() - callsAfterCancel < NUM_OF_SCANS / 4);
+
+		// The shared executor is still usable
+		assertEquals(Integer.valueOf(3),
+				MZmineCore.getParallelExecutor().submit(new Callable<Integer>() {
+					public Integer call() {
+						return 3;
+					}
+				}).get());
+
+	}
+
+	@Test
+	public void testError() throws Exception {
+
+		ParallelScanProcessor<Integer> processor = new ParallelScanProcessor<Integer>() {
+			protected Integer processScan(int scanNumber) throws Exception {
+				if (scanNumber == 301)
+					throw new IllegalStateException("Scan " + scanNumber);
+				return scanNumber;
+			}
+
+			protected void storeResult(int scanNumber, Integer result) {
+			}
+		};
+
+		try {
+			processor.process(createScanNumbers(), new TestTask(),
+					NUM_OF_THREADS);
+			assertTrue(false);
+		} catch (IllegalStateException e) {
+			assertEquals("Scan 301", e.getMessage());
+		}
+
+		// Scan 301 is the 101st scan, no later result is stored
+		assertTrue(processor.getProcessedScans() <= 100);
+
+	}
+
+	/**
+	 * Returns the scan numbers 1, 4, 7, ...
+	 */
+	private static int[] createScanNumbers() {
+		int scanNumbers[] = new int[NUM_OF_SCANS];
+		for (int i = 0; i < NUM_OF_SCANS; i++)
+			scanNumbers[i] = i * 3 + 1;
+		return scanNumbers;
+	}
+
+	private static class TestTask extends AbstractTask {
+
+		public void run() {
+		}
+
+		public String getTaskDescription() {
+			return "Test task";
+		}
+
+		public double getFinishedPercentage() {
+			return 0;
+		}
+
+		public Object[] getCreatedObjects() {
+			return null;
+		}
+
+	}
+
+}
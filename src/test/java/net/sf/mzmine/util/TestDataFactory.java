@@ -0,0 +1,252 @@
+package net.sf.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import net.sf.mzmine.data.DataPoint;
+import net.sf.mzmine.data.PeakStatus;
+import net.sf.mzmine.data.RawDataFile;
+import net.sf.mzmine.data.Scan;
+import net.sf.mzmine.data.impl.SimpleChromatographicPeak;
+import net.sf.mzmine.data.impl.SimpleDataPoint;
+import net.sf.mzmine.data.impl.SimpleScan;
+
+/**
+ * Synthetic raw data files, scans and peaks shared by the unit tests. The
+ * objects are plain in-memory implementations, so the tests do not need the
+ * MZmine core or temporary files.
+ */
+public class TestDataFactory {
+
+	/**
+	 * Creates a data file without scans, used by peaks and peak lists
+	 */
+	public static RawDataFile createDataFile(String name) {
+		return new TestRawDataFile(name);
+	}
+
+	/**
+	 * Creates data files named "Synthetic data file 1", "Synthetic data file
+	 * 2" etc.
+	 */
+	public static RawDataFile[] createDataFiles(int numOfFiles) {
+		RawDataFile dataFiles[] = new RawDataFile[numOfFiles];
+		for (int i = 0; i < numOfFiles; i++)
+			dataFiles[i] = createDataFile("Synthetic data file " + (i + 1));
+		return dataFiles;
+	}
+
+	/**
+	 * Creates a data file containing copies of the given scans
+	 */
+	public static RawDataFile createDataFile(String name, Scan scans[]) {
+		TestRawDataFile dataFile = new TestRawDataFile(name);
+		for (Scan scan : scans) {
+			dataFile.scans.put(scan.getScanNumber(), new SimpleScan(dataFile,
+					scan.getScanNumber(), scan.getMSLevel(), scan
+							.getRetentionTime(), scan.getParentScanNumber(),
+					scan.getPrecursorMZ(), scan.getPrecursorCharge(), scan
+							.getFragmentScanNumbers(), scan.getDataPoints(),
+					scan.isCentroided()));
+		}
+		return dataFile;
+	}
+
+	/**
+	 * Creates a data file with MS1 scans numbered from 1, containing the
+	 * given data points
+	 */
+	public static RawDataFile createDataFile(String name,
+			DataPoint dataPoints[][], double retentionTimes[]) {
+		Scan scans[] = new Scan[dataPoints.length];
+		for (int i = 0; i < scans.length; i++)
+			scans[i] = new SimpleScan(null, i + 1, 1, retentionTimes[i], -1,
+					0, 0, new int[0], dataPoints[i], false);
+		return createDataFile(name, scans);
+	}
+
+	/**
+	 * Creates a data file with MS1 scans numbered from 1, at one scan per
+	 * minute
+	 */
+	public static RawDataFile createDataFile(String name,
+			double mzValues[][], double intensityValues[][]) {
+		DataPoint dataPoints[][] = new DataPoint[mzValues.length][];
+		double retentionTimes[] = new double[mzValues.length];
+		for (int i = 0; i < mzValues.length; i++) {
+			dataPoints[i] = createDataPoints(mzValues[i], intensityValues[i]);
+			retentionTimes[i] = i;
+		}
+		return createDataFile(name, dataPoints, retentionTimes);
+	}
+
+	/**
+	 * Creates an MS1 scan which does not belong to any data file
+	 */
+	public static Scan createScan(int scanNumber, double mzValues[],
+			double intensityValues[]) {
+		return new SimpleScan(null, scanNumber, 1, 0, -1, 0, 0, new int[0],
+				createDataPoints(mzValues, intensityValues), false);
+	}
+
+	public static DataPoint[] createDataPoints(double mzValues[],
+			double intensityValues[]) {
+		DataPoint dataPoints[] = new DataPoint[mzValues.length];
+		for (int i = 0; i < mzValues.length; i++)
+			dataPoints[i] = new SimpleDataPoint(mzValues[i],
+					intensityValues[i]);
+		return dataPoints;
+	}
+
+	/**
+	 * Creates a detected peak with a single data point at its m/z and height
+	 */
+	public static SimpleChromatographicPeak createPeak(RawDataFile dataFile,
+			double mz, double rt, double height, double area) {
+		return new SimpleChromatographicPeak(dataFile, mz, rt, height, area,
+				new int[]{1},
+				new DataPoint[]{new SimpleDataPoint(mz, height)},
+				PeakStatus.DETECTED, 1, -1, new Range(rt), new Range(mz),
+				new Range(0, height));
+	}
+
+	/**
+	 * In-memory raw data file
+	 */
+	private static class TestRawDataFile implements RawDataFile {
+
+		private String name;
+		private final TreeMap<Integer, Scan> scans = new TreeMap<Integer, Scan>();
+
+		TestRawDataFile(String name) {
+			this.name = name;
+		}
+
+		public @Nonnull
+		String getName() {
+			return name;
+		}
+
+		public void setName(@Nonnull String name) {
+			this.name = name;
+		}
+
+		public String toString() {
+			return name;
+		}
+
+		public int getNumOfScans() {
+			return scans.size();
+		}
+
+		public int getNumOfScans(int msLevel) {
+			return getScanNumbers(msLevel).length;
+		}
+
+		public @Nonnull
+		int[] getMSLevels() {
+			Set<Integer> msLevels = new HashSet<Integer>();
+			for (Scan scan : scans.values())
+				msLevels.add(scan.getMSLevel());
+			int result[] = CollectionUtils.toIntArray(msLevels);
+			Arrays.sort(result);
+			return result;
+		}
+
+		public @Nonnull
+		int[] getScanNumbers() {
+			return CollectionUtils.toIntArray(scans.keySet());
+		}
+
+		public @Nonnull
+		int[] getScanNumbers(int msLevel) {
+			return getScanNumbers(msLevel, new Range(Double.NEGATIVE_INFINITY,
+					Double.POSITIVE_INFINITY));
+		}
+
+		public @Nonnull
+		int[] getScanNumbers(int msLevel, @Nonnull Range rtRange) {
+			List<Integer> scanNumbers = new ArrayList<Integer>();
+			for (Scan scan : scans.values()) {
+				if ((scan.getMSLevel() == msLevel)
+						&& rtRange.contains(scan.getRetentionTime()))
+					scanNumbers.add(scan.getScanNumber());
+			}
+			return CollectionUtils.toIntArray(scanNumbers);
+		}
+
+		public @Nonnull
+		Scan getScan(int scan) {
+			return scans.get(scan);
+		}
+
+		public @Nonnull
+		Range getDataMZRange() {
+			return getDataMZRange(0);
+		}
+
+		public @Nonnull
+		Range getDataRTRange() {
+			return getDataRTRange(0);
+		}
+
+		public @Nonnull
+		Range getDataMZRange(int msLevel) {
+			Range mzRange = null;
+			for (Scan scan : scans.values()) {
+				if (((msLevel != 0) && (scan.getMSLevel() != msLevel))
+						|| (scan.getNumberOfDataPoints() == 0))
+					continue;
+				if (mzRange == null)
+					mzRange = new Range(scan.getMZRange());
+				else
+					mzRange.extendRange(scan.getMZRange());
+			}
+			return mzRange != null ? mzRange : new Range(0);
+		}
+
+		public @Nonnull
+		Range getDataRTRange(int msLevel) {
+			Range rtRange = null;
+			for (Scan scan : scans.values()) {
+				if ((msLevel != 0) && (scan.getMSLevel() != msLevel))
+					continue;
+				if (rtRange == null)
+					rtRange = new Range(scan.getRetentionTime());
+				else
+					rtRange.extendRange(scan.getRetentionTime());
+			}
+			return rtRange != null ? rtRange : new Range(0);
+		}
+
+		public double getDataMaxBasePeakIntensity(int msLevel) {
+			double maxBasePeak = 0;
+			for (Scan scan : scans.values()) {
+				DataPoint basePeak = scan.getBasePeak();
+				if ((scan.getMSLevel() == msLevel) && (basePeak != null))
+					maxBasePeak = Math.max(maxBasePeak, basePeak.getIntensity());
+			}
+			return maxBasePeak;
+		}
+
+		public double getDataMaxTotalIonCurrent(int msLevel) {
+			double maxTIC = 0;
+			for (Scan scan : scans.values()) {
+				if (scan.getMSLevel() == msLevel)
+					maxTIC = Math.max(maxTIC, scan.getTIC());
+			}
+			return maxTIC;
+		}
+
+		public void close() {
+		}
+
+	}
+
+}